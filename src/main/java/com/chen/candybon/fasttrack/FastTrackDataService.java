@@ -22,7 +22,11 @@ package com.chen.candybon.fasttrack;
 import com.chen.candybon.fasttrack.exception.FastTrackException;
 
 import javax.ejb.Local;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Fast track service is used to manage fast track instances and to persist them.
@@ -32,7 +36,9 @@ import java.util.List;
  * the size of the data.  The fast track data is serialized as such, the users must select the proper type (Small or
  * Large) as the Small is limited to roughly 8Kb.
  *
- * Note: At this point the API does not do a pre-check of the data before trying to persist it.  And the API supposes
+ * Note: By default the API does not do a pre-check of the data before trying to persist it.  With the
+ * <code>fasttrack.placement.auto</code> system property set to true, the instances of SmallData classes that are too
+ * large for the small table are stored with the large instances instead of failing.  And the API supposes
  * that the data stored is always stored as either SmallData or LargeData type not a mix. In other words
  *  {@link com.chen.candybon.fasttrack.data.SmallData} and {@link com.chen.candybon.fasttrack.data.LargeData} are
  * mutually exclusive and should not be used on the same class.
@@ -40,11 +46,19 @@ import java.util.List;
  * This interface exposes the main methods for managing data (CRUD) in the form of:
  * <ul>
  * <li>{@link #put}: Used to insert one element into the data store.</li>
+ * <li>{@link #putAll}: Used to insert many elements into the data store at once.</li>
  * <li>{@link #get}: Used to retrieve one element from the data store.</li>
+ * <li>{@link #getAll}: Used to retrieve many elements by key from the data store at once.</li>
  * <li>{@link #delete}: Used to delete one element from the data store.</li>
+ * <li>{@link #deleteAll}: Used to delete many elements, by key or by {@link Predicate}, from the data store.</li>
  * <li>{@link #update}: Used to update one element in the data store.</li>
+ * <li>{@link #upsert}: Used to insert one element into the data store, or replace it if already there.</li>
  * <li>{@link #find}: Used to search for some data based on a {@link Predicate}, ie a combination of
  * indexes.</li>
+ * <li>{@link #putStream} and {@link #getStream}: Used to store and read the raw content of a
+ * {@link com.chen.candybon.fasttrack.data.LargeData} class without holding it in memory.</li>
+ * <li>{@link #trainCompression}: Used to tune the compression of the values of a
+ * {@link com.chen.candybon.fasttrack.data.LargeData} class.</li>
  * </ul>
  *
  * Data to be persisted through this API should typically be of a Key/Value kind.  In other words, the
@@ -116,6 +130,27 @@ public interface FastTrackDataService {
      */
     <T> boolean put(String key, T data, String... indexes) throws FastTrackException;
 
+    /**
+     * Used to insert a lot of data in the database at once. Think of this as a {@link java.util.Map#putAll}
+     *
+     * Each entry is handled as a {@link #put} without explicit indexes, ie the fields annotated as
+     * Searchable{@link com.chen.candybon.fasttrack.Searchable} are used as indexes.  The instances are serialized in
+     * parallel and the rows are sent to the database in batches within one transaction, which is much faster than
+     * calling {@link #put} for each of them.
+     *
+     * Unlike {@link #put}, an invalid entry does not fail the whole call: an entry with an invalid key, class or
+     * data, or that is already stored, is simply reported as not inserted.
+     *
+     * @param data The instances to store by key. Each instance implements either
+     * {@link com.chen.candybon.fasttrack.data.SmallData} or {@link com.chen.candybon.fasttrack.data.LargeData}.
+     *
+     * @return For each key of data, in the same iteration order, true if the insertion is successful, false if not.
+     *
+     * @throws FastTrackException In case the map itself is null
+     * {@link com.chen.candybon.fasttrack.exception.DataException}.
+     */
+    <T> Map<String, Boolean> putAll(Map<String, T> data) throws FastTrackException;
+
     /**
      * Used to find data from the database by using key. Think of this as a {@link java.util.Map#remove}
      *
@@ -137,6 +172,26 @@ public interface FastTrackDataService {
      */
     <T> T get(Class<T> tClass, String key) throws FastTrackException;
 
+    /**
+     * Used to find many instances at once from the database by using their keys.
+     *
+     * This is equivalent to calling {@link #get} for each key, but the lookup is done with one query per chunk of
+     * keys (ie an IN list) rather than one query per key.
+     *
+     * @param tClass An class that implements either {@link com.chen.candybon.fasttrack.data.SmallData}
+     * or {@link com.chen.candybon.fasttrack.data.LargeData} to be associated with the specified keys.
+     *
+     * @param keys keys with which the data instances are associated
+     *
+     * @return The persisted objects by key, in the iteration order of keys. Keys that are not found are not part of
+     * the result. An element that cannot be de-serialized is ignored.
+     *
+     * @throws FastTrackException In case of an invalid key
+     * {@link com.chen.candybon.fasttrack.exception.InvalidKeyException},
+     * in case of an invalid class {@link com.chen.candybon.fasttrack.exception.DataClassException}.
+     */
+    <T> Map<String, T> getAll(Class<T> tClass, Collection<String> keys) throws FastTrackException;
+
     /**
      * Removes the data for this key from this database if it is present. Think of this as a {@link java.util.Map#get}
      *
@@ -151,6 +206,40 @@ public interface FastTrackDataService {
      */
     <T> void delete(Class<T> tClass, String key) throws FastTrackException;
 
+    /**
+     * Removes the data for these keys from this database if present.  The rows are removed in as few statements as
+     * possible, without reading them first.
+     *
+     * @param tClass An class that implements either {@link com.chen.candybon.fasttrack.data.SmallData}
+     * or {@link com.chen.candybon.fasttrack.data.LargeData} to be associated with the specified keys.
+     *
+     * @param keys keys with which the data instances are associated
+     *
+     * @return The number of removed instances.
+     *
+     * @throws FastTrackException In case of an
+     * invalid key {@link com.chen.candybon.fasttrack.exception.InvalidKeyException},
+     * or in case of an invalid class {@link com.chen.candybon.fasttrack.exception.DataClassException}.
+     */
+    <T> int deleteAll(Class<T> tClass, Collection<String> keys) throws FastTrackException;
+
+    /**
+     * Removes, in one statement, all the data of the specified Class which satisfy the Criteria specified in the
+     * {@link Predicate}.  The paging information of a predicate does not apply to a removal, and is rejected.
+     *
+     * @param tClass An class that implements either {@link com.chen.candybon.fasttrack.data.SmallData}
+     * or {@link com.chen.candybon.fasttrack.data.LargeData}.
+     *
+     * @param predicate Define a set of conditions that the elements to remove have in common.
+     *
+     * @return The number of removed instances.
+     *
+     * @throws FastTrackException In case of an
+     * class {@link com.chen.candybon.fasttrack.exception.DataClassException},
+     * or bad queryStatement {@link com.chen.candybon.fasttrack.exception.InvalidPredicateException}.
+     */
+    <T> int deleteAll(Class<T> tClass, Predicate predicate) throws FastTrackException;
+
     /**
      * Update the data for this key from this database if it is present. If not present in db,
      * it throws NotFoundException {@link com.chen.candybon.fasttrack.exception.NotFoundException}.
@@ -182,6 +271,31 @@ public interface FastTrackDataService {
     <T> boolean update(String key, T data, String... indexes)
             throws FastTrackException;
 
+    /**
+     * Insert or replace the data for this key. Think of this as a {@link java.util.Map#put}, where {@link #put}
+     * rather behaves like {@link java.util.Map#putIfAbsent}.
+     *
+     * Unlike a {@link #get} followed by a {@link #put} or an {@link #update}, this is done in one statement where the
+     * database supports it, and does not fail when two callers store the same key at the same time.
+     *
+     * @param key key with which the specified data instance is to be associated
+     *
+     * @param data An class instance (object) that implements either
+     * {@link com.chen.candybon.fasttrack.data.SmallData} or {@link com.chen.candybon.fasttrack.data.LargeData} to
+     * be associated with the specified key.
+     *
+     * @param indexes String var arg (similar to a String[]) that can be used to specify one(1) to six(6) indexes to
+     * create for this object, see {@link #put}.
+     *
+     * @return True if the data is stored.
+     *
+     * @throws FastTrackException In case of an
+     * invalid key {@link com.chen.candybon.fasttrack.exception.InvalidKeyException},
+     * invalid class type {@link com.chen.candybon.fasttrack.exception.DataClassException}
+     * or anything wrong with data {@link com.chen.candybon.fasttrack.exception.DataException}
+     */
+    <T> boolean upsert(String key, T data, String... indexes) throws FastTrackException;
+
     /**
      * Search for the data of the specified Class, which satisfy the Criteria specified in QueryBuilder. The result is
      * a collection of a maximum number (default is 20) of records. The paging information can also be specified in
@@ -221,4 +335,99 @@ public interface FastTrackDataService {
      */
     <T> List<T> find(Class<T> tClass, int startingPosition, int max) throws FastTrackException;
 
+
+    /**
+     * Trains a compression dictionary out of the stored instances of a class, and uses it to compress the instances
+     * of this class stored from now on.
+     *
+     * The values of {@link com.chen.candybon.fasttrack.data.LargeData} classes are compressed when the
+     * <code>fasttrack.compression</code> system property is true.  Similar instances share most of their
+     * content, a dictionary made of these shared parts compresses them much better than each value on its own. The
+     * dictionaries are stored with the data, and the values compressed with a previous dictionary remain readable.
+     *
+     * @param tClass A class that implements {@link com.chen.candybon.fasttrack.data.LargeData}.
+     *
+     * @param sampleSize The number of stored instances to train the dictionary on.
+     *
+     * @return The id of the new dictionary.
+     *
+     * @throws FastTrackException In case of an
+     * invalid class type {@link com.chen.candybon.fasttrack.exception.DataClassException}
+     * or if there is no data to train on {@link com.chen.candybon.fasttrack.exception.DataException}
+     */
+    <T> int trainCompression(Class<T> tClass, int sampleSize) throws FastTrackException;
+
+    /**
+     * Insert raw content for this key, streamed to the database instead of being held in memory, eg for media
+     * files of several mega bytes. The content is not an instance: it can only be read with {@link #getStream}, while
+     * {@link #delete} and {@link #find} apply as for the instances of the class.
+     *
+     * @param tClass A class that implements {@link com.chen.candybon.fasttrack.data.LargeData}, under which the
+     * content is stored.
+     *
+     * @param key key with which the content is to be associated
+     *
+     * @param data The content.
+     *
+     * @param length The number of bytes of the content, or -1 if unknown (requires a JDBC 4 driver).
+     *
+     * @param indexes String var arg (similar to a String[]) that can be used to specify one(1) to six(6) indexes to
+     * create for this content, see {@link #put}.
+     *
+     * @return True if the insertion is successful.
+     *
+     * @throws FastTrackException In case of an
+     * invalid key {@link com.chen.candybon.fasttrack.exception.InvalidKeyException},
+     * invalid class type {@link com.chen.candybon.fasttrack.exception.DataClassException}
+     * or anything wrong with data {@link com.chen.candybon.fasttrack.exception.DataException}
+     */
+    <T> boolean putStream(Class<T> tClass, String key, InputStream data, int length, String... indexes)
+            throws FastTrackException;
+
+    /**
+     * Copies the content stored with {@link #putStream} for this key, without holding it in memory.
+     *
+     * @param tClass The class the content was stored under.
+     *
+     * @param key key with which the content is associated
+     *
+     * @param out Where to copy the content to.
+     *
+     * @return False if there is no content for this key.
+     *
+     * @throws FastTrackException In case of an
+     * invalid key {@link com.chen.candybon.fasttrack.exception.InvalidKeyException},
+     * invalid class type {@link com.chen.candybon.fasttrack.exception.DataClassException}
+     * or if the content cannot be copied or was not stored as a stream
+     * {@link com.chen.candybon.fasttrack.exception.DataException}
+     */
+    <T> boolean getStream(Class<T> tClass, String key, OutputStream out) throws FastTrackException;
+
+    /**
+     * Copies a range of the content stored with {@link #putStream} for this key, eg to serve a resumed download or
+     * to seek in a media file. With the <code>fasttrack.chunking</code> system property set to true, the content is
+     * stored in chunks and only the chunks holding the range are read.
+     *
+     * @param tClass The class the content was stored under.
+     *
+     * @param key key with which the content is associated
+     *
+     * @param out Where to copy the range to.
+     *
+     * @param offset The position of the first byte to copy.
+     *
+     * @param length The number of bytes to copy, or -1 for all the bytes up to the end of the content. Fewer bytes
+     * are copied if the content ends before.
+     *
+     * @return False if there is no content for this key.
+     *
+     * @throws FastTrackException In case of an
+     * invalid key {@link com.chen.candybon.fasttrack.exception.InvalidKeyException},
+     * invalid class type {@link com.chen.candybon.fasttrack.exception.DataClassException}
+     * or if the content cannot be copied or was not stored as a stream
+     * {@link com.chen.candybon.fasttrack.exception.DataException}
+     */
+    <T> boolean getStream(Class<T> tClass, String key, OutputStream out, long offset, long length)
+            throws FastTrackException;
+
 }
@@ -20,8 +20,10 @@ package com.chen.candybon.fasttrack;
  */
 
 import com.chen.candybon.fasttrack.exception.InvalidPredicateException;
+import com.chen.candybon.fasttrack.type.Comparison;
 import com.chen.candybon.fasttrack.type.Index;
 import com.chen.candybon.fasttrack.type.Operand;
+import com.chen.candybon.fasttrack.type.SortOrder;
 
 /**
  * Sometimes it is inconvenient or impossible to describe a set by listing all of its elements. Another useful way
@@ -47,9 +49,50 @@ public interface Predicate {
      */
     void add(Operand op, Index index, String value);
 
+    /**
+     * Append a condition comparing the stored values of an index in their order, see
+     * {@link com.chen.candybon.fasttrack.type.IndexValues}.
+     * @param op Operand indicating what kind of association about the condition
+     * @param index Index specifying which index is the targeting index.
+     * @param comparison How the stored value compares to the given value.
+     * @param value The value to compare with, the lower bound of {@link Comparison#BETWEEN}.
+     * @param upper The upper bound of {@link Comparison#BETWEEN}, ignored by the other comparisons.
+     */
+    void add(Operand op, Index index, Comparison comparison, String value, String upper);
+
+    /**
+     * Append a condition on a named index, declared with {@link Searchable#name()}.
+     * @param op Operand indicating what kind of association about the condition
+     * @param index The name of the index.
+     * @param comparison How the stored value compares to the given value.
+     * @param value The value to compare with, the lower bound of {@link Comparison#BETWEEN}.
+     * @param upper The upper bound of {@link Comparison#BETWEEN}, ignored by the other comparisons.
+     */
+    void add(Operand op, String index, Comparison comparison, String value, String upper);
+
+    /**
+     * Order the results on the stored values of an index, see {@link com.chen.candybon.fasttrack.type.IndexValues}.
+     * Combined with {@link #setMaxResults(int)} the database stops after the first results in that order.
+     * @param index The index to order by, null to leave the results unordered.
+     * @param order The direction of the order.
+     */
+    void setOrderBy(Index index, SortOrder order);
+
+    /**
+     * Get the index the results are ordered by.
+     * @return The index, null if the results are not ordered.
+     */
+    Index getOrderBy();
+
+    /**
+     * Get the direction of the order of the results.
+     * @return The direction, null if the results are not ordered.
+     */
+    SortOrder getOrder();
+
     /**
      * Produce predicate content in string format
-     * @return String indicating the predicate
+     * @return String indicating the predicate, empty if no condition has been added
      * @throws com.chen.candybon.fasttrack.exception.InvalidPredicateException in case of wrong combination of the conditions.
      */
     String toQuery() throws InvalidPredicateException;
@@ -84,7 +127,8 @@ public interface Predicate {
     /**
      * Indicates if the Predicate contains any conditions to apply to the search.
      *
-     * @return True if at least one index has been set, or first result is set or max result is set.
+     * @return True if at least one index has been set, or first result is set or max result is set or the
+     * results are ordered.
      */
     boolean isEmpty();
 }
@@ -20,8 +20,14 @@ package com.chen.candybon.fasttrack;
 
 import com.chen.candybon.fasttrack.dao.JPQLPredicate;
 import com.chen.candybon.fasttrack.exception.InvalidPredicateException;
+import com.chen.candybon.fasttrack.type.Comparison;
 import com.chen.candybon.fasttrack.type.Index;
+import com.chen.candybon.fasttrack.type.IndexValues;
 import com.chen.candybon.fasttrack.type.Operand;
+import com.chen.candybon.fasttrack.type.SortOrder;
+
+import java.time.Instant;
+import java.util.Date;
 
 /**
  * The predicateBuilder is to use to produce a Predicate.
@@ -80,6 +86,505 @@ public class PredicateBuilder {
         return this;
     }
 
+    /**
+     * Append AND condition selecting the values of the index greater than the given one.
+     *
+     * The values compare in the order of their encoding, see {@link IndexValues}: the values of a typed field are to
+     * be given encoded, or through the typed variants of this method.  If either index or value is null then nothing
+     * gets added.
+     *
+     * @param index search index
+     * @param value value that the index should be greater than
+     * @return A reference to this object.
+     */
+    public PredicateBuilder addGreaterThan(Index index, String value) {
+        if (index == null || value == null) {
+            return this;
+        }
+        predicate.add(Operand.AND, index, Comparison.GREATER, value, null);
+        return this;
+    }
+
+    /**
+     * Append AND condition selecting the values of the index of a long, int, short or byte field greater than the given
+     * one, encoded with {@link IndexValues#of(long)}.
+     *
+     * @param index search index
+     * @param value value that the index should be greater than
+     * @return A reference to this object.
+     */
+    public PredicateBuilder addGreaterThan(Index index, long value) {
+        return addGreaterThan(index, IndexValues.of(value));
+    }
+
+    /**
+     * Append AND condition selecting the values of the index of a double or float field greater than the given one,
+     * encoded with {@link IndexValues#of(double)}.
+     *
+     * @param index search index
+     * @param value value that the index should be greater than
+     * @return A reference to this object.
+     */
+    public PredicateBuilder addGreaterThan(Index index, double value) {
+        return addGreaterThan(index, IndexValues.of(value));
+    }
+
+    /**
+     * Append AND condition selecting the values of the index of a Date field greater than the given one, encoded with
+     * {@link IndexValues#of(Date)}.
+     *
+     * If either index or value is null then nothing gets added.
+     *
+     * @param index search index
+     * @param value value that the index should be greater than
+     * @return A reference to this object.
+     */
+    public PredicateBuilder addGreaterThan(Index index, Date value) {
+        return addGreaterThan(index, IndexValues.of(value));
+    }
+
+    /**
+     * Append AND condition selecting the values of the index of an Instant field greater than the given one, encoded
+     * with {@link IndexValues#of(Instant)}.
+     *
+     * If either index or value is null then nothing gets added.
+     *
+     * @param index search index
+     * @param value value that the index should be greater than
+     * @return A reference to this object.
+     */
+    public PredicateBuilder addGreaterThan(Index index, Instant value) {
+        return addGreaterThan(index, IndexValues.of(value));
+    }
+
+    /**
+     * Append AND condition selecting the values of the index less than the given one.
+     *
+     * The values compare in the order of their encoding, see {@link IndexValues}: the values of a typed field are to
+     * be given encoded, or through the typed variants of this method.  If either index or value is null then nothing
+     * gets added.
+     *
+     * @param index search index
+     * @param value value that the index should be less than
+     * @return A reference to this object.
+     */
+    public PredicateBuilder addLessThan(Index index, String value) {
+        if (index == null || value == null) {
+            return this;
+        }
+        predicate.add(Operand.AND, index, Comparison.LESS, value, null);
+        return this;
+    }
+
+    /**
+     * Append AND condition selecting the values of the index of a long, int, short or byte field less than the given
+     * one, encoded with {@link IndexValues#of(long)}.
+     *
+     * @param index search index
+     * @param value value that the index should be less than
+     * @return A reference to this object.
+     */
+    public PredicateBuilder addLessThan(Index index, long value) {
+        return addLessThan(index, IndexValues.of(value));
+    }
+
+    /**
+     * Append AND condition selecting the values of the index of a double or float field less than the given one,
+     * encoded with {@link IndexValues#of(double)}.
+     *
+     * @param index search index
+     * @param value value that the index should be less than
+     * @return A reference to this object.
+     */
+    public PredicateBuilder addLessThan(Index index, double value) {
+        return addLessThan(index, IndexValues.of(value));
+    }
+
+    /**
+     * Append AND condition selecting the values of the index of a Date field less than the given one, encoded with
+     * {@link IndexValues#of(Date)}.
+     *
+     * If either index or value is null then nothing gets added.
+     *
+     * @param index search index
+     * @param value value that the index should be less than
+     * @return A reference to this object.
+     */
+    public PredicateBuilder addLessThan(Index index, Date value) {
+        return addLessThan(index, IndexValues.of(value));
+    }
+
+    /**
+     * Append AND condition selecting the values of the index of an Instant field less than the given one, encoded with
+     * {@link IndexValues#of(Instant)}.
+     *
+     * If either index or value is null then nothing gets added.
+     *
+     * @param index search index
+     * @param value value that the index should be less than
+     * @return A reference to this object.
+     */
+    public PredicateBuilder addLessThan(Index index, Instant value) {
+        return addLessThan(index, IndexValues.of(value));
+    }
+
+    /**
+     * Append AND condition selecting the values of the index between the given ones, both included.
+     *
+     * The values compare in the order of their encoding, see {@link IndexValues}: the values of a typed field are to
+     * be given encoded, or through the typed variants of this method.  If either index or bound is null then nothing
+     * gets added.
+     *
+     * @param index search index
+     * @param from lowest value of the index
+     * @param to highest value of the index
+     * @return A reference to this object.
+     */
+    public PredicateBuilder addBetween(Index index, String from, String to) {
+        if (index == null || from == null || to == null) {
+            return this;
+        }
+        predicate.add(Operand.AND, index, Comparison.BETWEEN, from, to);
+        return this;
+    }
+
+    /**
+     * Append AND condition selecting the values of the index of a long, int, short or byte field between the given
+     * ones, both included, encoded with {@link IndexValues#of(long)}.
+     *
+     * @param index search index
+     * @param from lowest value of the index
+     * @param to highest value of the index
+     * @return A reference to this object.
+     */
+    public PredicateBuilder addBetween(Index index, long from, long to) {
+        return addBetween(index, IndexValues.of(from), IndexValues.of(to));
+    }
+
+    /**
+     * Append AND condition selecting the values of the index of a double or float field between the given ones, both
+     * included, encoded with {@link IndexValues#of(double)}.
+     *
+     * @param index search index
+     * @param from lowest value of the index
+     * @param to highest value of the index
+     * @return A reference to this object.
+     */
+    public PredicateBuilder addBetween(Index index, double from, double to) {
+        return addBetween(index, IndexValues.of(from), IndexValues.of(to));
+    }
+
+    /**
+     * Append AND condition selecting the values of the index of a Date field between the given ones, both included,
+     * encoded with {@link IndexValues#of(Date)}.
+     *
+     * If either index or bound is null then nothing gets added.
+     *
+     * @param index search index
+     * @param from lowest value of the index
+     * @param to highest value of the index
+     * @return A reference to this object.
+     */
+    public PredicateBuilder addBetween(Index index, Date from, Date to) {
+        return addBetween(index, IndexValues.of(from), IndexValues.of(to));
+    }
+
+    /**
+     * Append AND condition selecting the values of the index of an Instant field between the given ones, both included,
+     * encoded with {@link IndexValues#of(Instant)}.
+     *
+     * If either index or bound is null then nothing gets added.
+     *
+     * @param index search index
+     * @param from lowest value of the index
+     * @param to highest value of the index
+     * @return A reference to this object.
+     */
+    public PredicateBuilder addBetween(Index index, Instant from, Instant to) {
+        return addBetween(index, IndexValues.of(from), IndexValues.of(to));
+    }
+
+    /**
+     * Append AND condition selecting the values of the index starting with the given text.
+     *
+     * Texts are compared on their first {@link com.chen.candybon.fasttrack.object.KeyedObject#MAX_INDEX_VALUE_LENGTH}
+     * characters, in the collation of the database.  If either index or prefix is null then nothing gets added.
+     *
+     * @param index search index
+     * @param prefix text the value of the index should start with
+     * @return A reference to this object.
+     */
+    public PredicateBuilder addStartsWith(Index index, String prefix) {
+        if (index == null || prefix == null) {
+            return this;
+        }
+        predicate.add(Operand.AND, index, Comparison.STARTS_WITH, prefix, null);
+        return this;
+    }
+
+    /**
+     * Append AND condition on a named index, declared with {@link Searchable#name()}.
+     *
+     * If either index or value is null then nothing gets added.
+     *
+     * @param index name of the search index
+     * @param value value that the index should satisfy
+     * @return A reference to this object.
+     */
+    public PredicateBuilder addNamedAND(String index, String value) {
+        if (index == null || value == null) {
+            return this;
+        }
+        predicate.add(Operand.AND, index, Comparison.EQUAL, value, null);
+        return this;
+    }
+
+    /**
+     * Append OR condition on a named index, declared with {@link Searchable#name()}.
+     *
+     * If either index or value is null then nothing gets added.
+     *
+     * @param index name of the search index
+     * @param value value that the index should satisfy
+     * @return A reference to this object.
+     */
+    public PredicateBuilder addNamedOR(String index, String value) {
+        if (index == null || value == null) {
+            return this;
+        }
+        predicate.add(Operand.OR, index, Comparison.EQUAL, value, null);
+        return this;
+    }
+
+    /**
+     * Append AND condition selecting the values of a named index greater than the given one.
+     *
+     * If either index or value is null then nothing gets added.
+     *
+     * @param index name of the search index
+     * @param value value that the index should be greater than
+     * @return A reference to this object.
+     */
+    public PredicateBuilder addNamedGreaterThan(String index, String value) {
+        if (index == null || value == null) {
+            return this;
+        }
+        predicate.add(Operand.AND, index, Comparison.GREATER, value, null);
+        return this;
+    }
+
+    /**
+     * Append AND condition selecting the values of the index of a long, int, short or byte field greater than the given
+     * one, encoded with {@link IndexValues#of(long)}.
+     *
+     * @param index name of the search index
+     * @param value value that the index should be greater than
+     * @return A reference to this object.
+     */
+    public PredicateBuilder addNamedGreaterThan(String index, long value) {
+        return addNamedGreaterThan(index, IndexValues.of(value));
+    }
+
+    /**
+     * Append AND condition selecting the values of the index of a double or float field greater than the given one,
+     * encoded with {@link IndexValues#of(double)}.
+     *
+     * @param index name of the search index
+     * @param value value that the index should be greater than
+     * @return A reference to this object.
+     */
+    public PredicateBuilder addNamedGreaterThan(String index, double value) {
+        return addNamedGreaterThan(index, IndexValues.of(value));
+    }
+
+    /**
+     * Append AND condition selecting the values of the index of a Date field greater than the given one, encoded with
+     * {@link IndexValues#of(Date)}.
+     *
+     * If either index or value is null then nothing gets added.
+     *
+     * @param index name of the search index
+     * @param value value that the index should be greater than
+     * @return A reference to this object.
+     */
+    public PredicateBuilder addNamedGreaterThan(String index, Date value) {
+        return addNamedGreaterThan(index, IndexValues.of(value));
+    }
+
+    /**
+     * Append AND condition selecting the values of the index of an Instant field greater than the given one, encoded
+     * with {@link IndexValues#of(Instant)}.
+     *
+     * If either index or value is null then nothing gets added.
+     *
+     * @param index name of the search index
+     * @param value value that the index should be greater than
+     * @return A reference to this object.
+     */
+    public PredicateBuilder addNamedGreaterThan(String index, Instant value) {
+        return addNamedGreaterThan(index, IndexValues.of(value));
+    }
+
+    /**
+     * Append AND condition selecting the values of a named index less than the given one.
+     *
+     * If either index or value is null then nothing gets added.
+     *
+     * @param index name of the search index
+     * @param value value that the index should be less than
+     * @return A reference to this object.
+     */
+    public PredicateBuilder addNamedLessThan(String index, String value) {
+        if (index == null || value == null) {
+            return this;
+        }
+        predicate.add(Operand.AND, index, Comparison.LESS, value, null);
+        return this;
+    }
+
+    /**
+     * Append AND condition selecting the values of the index of a long, int, short or byte field less than the given
+     * one, encoded with {@link IndexValues#of(long)}.
+     *
+     * @param index name of the search index
+     * @param value value that the index should be less than
+     * @return A reference to this object.
+     */
+    public PredicateBuilder addNamedLessThan(String index, long value) {
+        return addNamedLessThan(index, IndexValues.of(value));
+    }
+
+    /**
+     * Append AND condition selecting the values of the index of a double or float field less than the given one,
+     * encoded with {@link IndexValues#of(double)}.
+     *
+     * @param index name of the search index
+     * @param value value that the index should be less than
+     * @return A reference to this object.
+     */
+    public PredicateBuilder addNamedLessThan(String index, double value) {
+        return addNamedLessThan(index, IndexValues.of(value));
+    }
+
+    /**
+     * Append AND condition selecting the values of the index of a Date field less than the given one, encoded with
+     * {@link IndexValues#of(Date)}.
+     *
+     * If either index or value is null then nothing gets added.
+     *
+     * @param index name of the search index
+     * @param value value that the index should be less than
+     * @return A reference to this object.
+     */
+    public PredicateBuilder addNamedLessThan(String index, Date value) {
+        return addNamedLessThan(index, IndexValues.of(value));
+    }
+
+    /**
+     * Append AND condition selecting the values of the index of an Instant field less than the given one, encoded with
+     * {@link IndexValues#of(Instant)}.
+     *
+     * If either index or value is null then nothing gets added.
+     *
+     * @param index name of the search index
+     * @param value value that the index should be less than
+     * @return A reference to this object.
+     */
+    public PredicateBuilder addNamedLessThan(String index, Instant value) {
+        return addNamedLessThan(index, IndexValues.of(value));
+    }
+
+    /**
+     * Append AND condition selecting the values of a named index between the given ones, both included.
+     *
+     * If either index or bound is null then nothing gets added.
+     *
+     * @param index name of the search index
+     * @param from lowest value of the index
+     * @param to highest value of the index
+     * @return A reference to this object.
+     */
+    public PredicateBuilder addNamedBetween(String index, String from, String to) {
+        if (index == null || from == null || to == null) {
+            return this;
+        }
+        predicate.add(Operand.AND, index, Comparison.BETWEEN, from, to);
+        return this;
+    }
+
+    /**
+     * Append AND condition selecting the values of the index of a long, int, short or byte field between the given
+     * ones, both included, encoded with {@link IndexValues#of(long)}.
+     *
+     * @param index name of the search index
+     * @param from lowest value of the index
+     * @param to highest value of the index
+     * @return A reference to this object.
+     */
+    public PredicateBuilder addNamedBetween(String index, long from, long to) {
+        return addNamedBetween(index, IndexValues.of(from), IndexValues.of(to));
+    }
+
+    /**
+     * Append AND condition selecting the values of the index of a double or float field between the given ones, both
+     * included, encoded with {@link IndexValues#of(double)}.
+     *
+     * @param index name of the search index
+     * @param from lowest value of the index
+     * @param to highest value of the index
+     * @return A reference to this object.
+     */
+    public PredicateBuilder addNamedBetween(String index, double from, double to) {
+        return addNamedBetween(index, IndexValues.of(from), IndexValues.of(to));
+    }
+
+    /**
+     * Append AND condition selecting the values of the index of a Date field between the given ones, both included,
+     * encoded with {@link IndexValues#of(Date)}.
+     *
+     * If either index or bound is null then nothing gets added.
+     *
+     * @param index name of the search index
+     * @param from lowest value of the index
+     * @param to highest value of the index
+     * @return A reference to this object.
+     */
+    public PredicateBuilder addNamedBetween(String index, Date from, Date to) {
+        return addNamedBetween(index, IndexValues.of(from), IndexValues.of(to));
+    }
+
+    /**
+     * Append AND condition selecting the values of the index of an Instant field between the given ones, both included,
+     * encoded with {@link IndexValues#of(Instant)}.
+     *
+     * If either index or bound is null then nothing gets added.
+     *
+     * @param index name of the search index
+     * @param from lowest value of the index
+     * @param to highest value of the index
+     * @return A reference to this object.
+     */
+    public PredicateBuilder addNamedBetween(String index, Instant from, Instant to) {
+        return addNamedBetween(index, IndexValues.of(from), IndexValues.of(to));
+    }
+
+    /**
+     * Append AND condition selecting the values of a named index starting with the given text.
+     *
+     * If either index or prefix is null then nothing gets added.
+     *
+     * @param index name of the search index
+     * @param prefix text the value of the index should start with
+     * @return A reference to this object.
+     */
+    public PredicateBuilder addNamedStartsWith(String index, String prefix) {
+        if (index == null || prefix == null) {
+            return this;
+        }
+        predicate.add(Operand.AND, index, Comparison.STARTS_WITH, prefix, null);
+        return this;
+    }
+
     /**
      * Produce the Predicate
      * @return the predicate that satisfy all the conditions.
@@ -104,6 +609,22 @@ public class PredicateBuilder {
         return this;
     }
 
+    /**
+     * Order the results on the values of an index, in the order of their encoding, see
+     * {@link com.chen.candybon.fasttrack.type.IndexValues}.  Combined with {@link #setMaxResults(int)} it selects
+     * the first results in that order, eg the latest 20 or the top 10.
+     *
+     * If index is null then the results are not ordered.
+     *
+     * @param index index to order by
+     * @param order ascending or descending, ascending if null
+     * @return A reference to this object.
+     */
+    public PredicateBuilder setOrderBy(Index index, SortOrder order) {
+        predicate.setOrderBy(index, order);
+        return this;
+    }
+
     /**
      * Set the position of the first result to retrieve.
      * @param position Starting position for the set.
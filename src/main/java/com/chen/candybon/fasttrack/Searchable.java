@@ -25,6 +25,8 @@ import java.lang.annotation.Target;
 /**
  * Searchable Annotation is use to indicate specific field is suggested to be used for index for search purpose.
  * The value will be stored in Index column depending on the Index value specified.
+ * Fields other than String are stored encoded by {@link com.chen.candybon.fasttrack.type.IndexValues}, in the order
+ * of their values.
  * 
  * @author Xiaowei Chen
  *
@@ -33,5 +35,15 @@ import java.lang.annotation.Target;
 @Retention(RetentionPolicy.RUNTIME)
 @Target(ElementType.FIELD)
 public @interface Searchable {
-    Index value();
+    /**
+     * @return The index column the value is stored in, unless the index is named.
+     */
+    Index value() default Index.index1;
+
+    /**
+     * @return The name of the index, which stores the value in the index table rather than in an index column, so
+     *         a class can have any number of them.  Searched with the named conditions of
+     *         {@link com.chen.candybon.fasttrack.PredicateBuilder}.
+     */
+    String name() default "";
 }
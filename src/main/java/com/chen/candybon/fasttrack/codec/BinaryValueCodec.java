@@ -0,0 +1,572 @@
+/*
+ * Copyright (c) XIAOWEI CHEN, 2009.
+ * All Rights Reserved. Reproduction in whole or in part is prohibited
+ * without the written consent of the copyright owner.
+ * 
+ * XIAOWEI CHEN MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY OF
+ * THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED
+ * TO THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE, OR NON-INFRINGEMENT. XIAOWEI CHEN SHALL NOT BE LIABLE FOR
+ * ANY DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR
+ * DISTRIBUTING THIS SOFTWARE OR ITS DERIVATIVES.
+ * 
+ * All rights reserved.
+ */
+package com.chen.candybon.fasttrack.codec;
+
+import com.chen.candybon.fasttrack.data.LargeData;
+import com.chen.candybon.fasttrack.data.SmallData;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Codec writing the fields of an instance one after the other, without any class description.
+ * <p/>
+ * Primitives, their wrappers, Strings, byte arrays and enums are written directly, integers and lengths as variable
+ * length integers.  Fields of any other type are written with Java serialization.  The non static, non transient
+ * fields of the class and of its super classes are written.  When reading, the instance is created with the
+ * constructor without parameters of the class, which can be private, then the fields are set.
+ * <p/>
+ * The layout of a class, ie its fields and the method handles to access them, is computed once and cached.
+ * <p/>
+ * As no class description is stored, a value can only be read by the same version of the class: a hash of the fields
+ * is stored with the value and checked when reading.  Classes expected to evolve should keep the
+ * {@link JavaValueCodec}.
+ *
+ * @author Xiaowei Chen
+ */
+public class BinaryValueCodec implements ValueCodec {
+
+    public static final byte FORMAT = 2;
+
+    public static final String NAME = "binary";
+
+    private static final int NULL = 0;
+    private static final int NOT_NULL = 1;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final ConcurrentMap<Class<?>, Layout> LAYOUTS = new ConcurrentHashMap<Class<?>, Layout>();
+
+    @Override
+    public byte getFormat() {
+        return FORMAT;
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public void encode(Object data, OutputStream out) throws IOException {
+        Layout layout = layout(data.getClass());
+        writeInt(out, layout.hash);
+        try {
+            for (FieldCodec field : layout.fields) {
+                field.write(out, data);
+            }
+        } catch (IOException e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new IOException("Cannot read fields of " + data.getClass().getName() + ": " + t.getMessage(), t);
+        }
+    }
+
+    @Override
+    public Object decode(Class<?> tClass, InputStream in) throws IOException, ClassNotFoundException {
+        Layout layout = layout(tClass);
+        if (readInt(in) != layout.hash) {
+            throw new IOException("The fields of " + tClass.getName() + " changed since the value was stored.");
+        }
+        Object instance = layout.newInstance();
+        try {
+            for (FieldCodec field : layout.fields) {
+                field.read(in, instance);
+            }
+        } catch (IOException e) {
+            throw e;
+        } catch (ClassNotFoundException e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new IOException("Cannot set fields of " + tClass.getName() + ": " + t.getMessage(), t);
+        }
+        return instance;
+    }
+
+    static Layout layout(Class<?> tClass) throws IOException {
+        Layout layout = LAYOUTS.get(tClass);
+        if (layout == null) {
+            layout = new Layout(tClass);
+            Layout existing = LAYOUTS.putIfAbsent(tClass, layout);
+            if (existing != null) {
+                layout = existing;
+            }
+        }
+        return layout;
+    }
+
+    /**
+     * @return The persistent fields, from the top most super class down to tClass, ordered by name within a class.
+     */
+    static List<Field> fields(Class<?> tClass) {
+        List<Class<?>> hierarchy = new ArrayList<Class<?>>();
+        for (Class<?> c = tClass; c != null && c != Object.class && c != SmallData.class && c != LargeData.class;
+             c = c.getSuperclass()) {
+            hierarchy.add(0, c);
+        }
+        List<Field> fields = new ArrayList<Field>();
+        for (Class<?> c : hierarchy) {
+            Field[] declared = c.getDeclaredFields();
+            Arrays.sort(declared, new Comparator<Field>() {
+                @Override
+                public int compare(Field f1, Field f2) {
+                    return f1.getName().compareTo(f2.getName());
+                }
+            });
+            for (Field field : declared) {
+                int modifiers = field.getModifiers();
+                if (Modifier.isStatic(modifiers) || Modifier.isTransient(modifiers)) {
+                    continue;
+                }
+                field.setAccessible(true);
+                fields.add(field);
+            }
+        }
+        return fields;
+    }
+
+    /**
+     * The fields of a class and how to create its instances, computed once per class.
+     */
+    static final class Layout {
+        final int hash;
+        final FieldCodec[] fields;
+        private final Class<?> tClass;
+        private final Constructor<?> constructor;
+
+        Layout(Class<?> tClass) throws IOException {
+            this.tClass = tClass;
+            List<Field> list = fields(tClass);
+            int h = 1;
+            fields = new FieldCodec[list.size()];
+            for (int i = 0; i < fields.length; i++) {
+                Field field = list.get(i);
+                h = 31 * h + field.getName().hashCode();
+                h = 31 * h + field.getType().getName().hashCode();
+                fields[i] = new FieldCodec(field);
+            }
+            hash = h;
+            try {
+                constructor = tClass.getDeclaredConstructor();
+                constructor.setAccessible(true);
+            } catch (NoSuchMethodException e) {
+                throw new IOException(tClass.getName() + " has no constructor without parameters", e);
+            }
+        }
+
+        Object newInstance() throws IOException {
+            try {
+                return constructor.newInstance();
+            } catch (Exception e) {
+                throw new IOException("Cannot create an instance of " + tClass.getName() + ": " + e.getMessage(), e);
+            }
+        }
+    }
+
+    private enum Kind {
+        INT, LONG, BOOLEAN, DOUBLE, FLOAT, SHORT, BYTE, CHAR, STRING, BYTES, ENUM, BOXED, OBJECT
+    }
+
+    /**
+     * Reads and writes one field.  The getter and setter handles of primitive fields are typed, so that the values
+     * are not boxed.
+     */
+    static final class FieldCodec {
+        private static final MethodHandle FIELD_SET;
+
+        static {
+            try {
+                FIELD_SET = MethodHandles.lookup().findVirtual(Field.class, "set",
+                        MethodType.methodType(void.class, Object.class, Object.class));
+            } catch (Exception e) {
+                throw new ExceptionInInitializerError(e);
+            }
+        }
+
+        private final Kind kind;
+        private final Class<?> type;
+        private final FieldCodec boxed;
+        private final MethodHandle getter;
+        private final MethodHandle setter;
+
+        FieldCodec(Field field) throws IOException {
+            this.type = field.getType();
+            this.kind = kind(type);
+            this.boxed = kind == Kind.BOXED ? new FieldCodec(unbox(type)) : null;
+            Class<?> handleType = type.isPrimitive() ? type : Object.class;
+            try {
+                MethodHandles.Lookup lookup = MethodHandles.lookup();
+                getter = lookup.unreflectGetter(field).asType(MethodType.methodType(handleType, Object.class));
+                MethodHandle set = Modifier.isFinal(field.getModifiers())
+                        ? FIELD_SET.bindTo(field) : lookup.unreflectSetter(field);
+                setter = set.asType(MethodType.methodType(void.class, Object.class, handleType));
+            } catch (IllegalAccessException e) {
+                throw new IOException("Cannot access field " + field + ": " + e.getMessage(), e);
+            }
+        }
+
+        /**
+         * Codec of the primitive value of a wrapper, without handles.
+         */
+        private FieldCodec(Class<?> primitive) {
+            this.type = primitive;
+            this.kind = kind(primitive);
+            this.boxed = null;
+            this.getter = null;
+            this.setter = null;
+        }
+
+        void write(OutputStream out, Object instance) throws Throwable {
+            switch (kind) {
+                case INT:
+                    writeInt(out, (int) getter.invokeExact(instance));
+                    break;
+                case LONG:
+                    writeLong(out, (long) getter.invokeExact(instance));
+                    break;
+                case BOOLEAN:
+                    out.write((boolean) getter.invokeExact(instance) ? 1 : 0);
+                    break;
+                case DOUBLE:
+                    writeFixedLong(out, Double.doubleToLongBits((double) getter.invokeExact(instance)));
+                    break;
+                case FLOAT:
+                    writeFixedInt(out, Float.floatToIntBits((float) getter.invokeExact(instance)));
+                    break;
+                case SHORT:
+                    writeInt(out, (short) getter.invokeExact(instance));
+                    break;
+                case BYTE:
+                    out.write((byte) getter.invokeExact(instance));
+                    break;
+                case CHAR:
+                    writeUnsigned(out, (char) getter.invokeExact(instance));
+                    break;
+                default:
+                    writeObject(out, (Object) getter.invokeExact(instance));
+            }
+        }
+
+        void read(InputStream in, Object instance) throws Throwable {
+            switch (kind) {
+                case INT:
+                    setter.invokeExact(instance, readInt(in));
+                    break;
+                case LONG:
+                    setter.invokeExact(instance, readLong(in));
+                    break;
+                case BOOLEAN:
+                    setter.invokeExact(instance, readByte(in) != 0);
+                    break;
+                case DOUBLE:
+                    setter.invokeExact(instance, Double.longBitsToDouble(readFixedLong(in)));
+                    break;
+                case FLOAT:
+                    setter.invokeExact(instance, Float.intBitsToFloat(readFixedInt(in)));
+                    break;
+                case SHORT:
+                    setter.invokeExact(instance, (short) readInt(in));
+                    break;
+                case BYTE:
+                    setter.invokeExact(instance, (byte) readByte(in));
+                    break;
+                case CHAR:
+                    setter.invokeExact(instance, (char) readUnsigned(in));
+                    break;
+                default:
+                    setter.invokeExact(instance, readObject(in));
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        private void writeObject(OutputStream out, Object value) throws IOException {
+            if (value == null) {
+                out.write(NULL);
+                return;
+            }
+            out.write(NOT_NULL);
+            switch (kind) {
+                case STRING:
+                    writeBytes(out, ((String) value).getBytes(UTF8));
+                    break;
+                case BYTES:
+                    writeBytes(out, (byte[]) value);
+                    break;
+                case ENUM:
+                    writeUnsigned(out, ((Enum) value).ordinal());
+                    break;
+                case BOXED:
+                    boxed.writeValue(out, value);
+                    break;
+                default:
+                    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                    ObjectOutputStream oos = new ObjectOutputStream(bytes);
+                    oos.writeObject(value);
+                    oos.flush();
+                    writeBytes(out, bytes.toByteArray());
+            }
+        }
+
+        private Object readObject(InputStream in) throws IOException, ClassNotFoundException {
+            if (readByte(in) == NULL) {
+                return null;
+            }
+            switch (kind) {
+                case STRING:
+                    return new String(readBytes(in), UTF8);
+                case BYTES:
+                    return readBytes(in);
+                case ENUM:
+                    int ordinal = readUnsigned(in);
+                    Object[] constants = type.getEnumConstants();
+                    if (ordinal >= constants.length) {
+                        throw new IOException("Unknown constant " + ordinal + " of " + type.getName());
+                    }
+                    return constants[ordinal];
+                case BOXED:
+                    return boxed.readValue(in);
+                default:
+                    ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(readBytes(in)));
+                    return ois.readObject();
+            }
+        }
+
+        /**
+         * Writes the value of a wrapper, the kind being the one of the wrapped primitive.
+         */
+        private void writeValue(OutputStream out, Object value) throws IOException {
+            switch (kind) {
+                case INT:
+                    writeInt(out, (Integer) value);
+                    break;
+                case LONG:
+                    writeLong(out, (Long) value);
+                    break;
+                case BOOLEAN:
+                    out.write((Boolean) value ? 1 : 0);
+                    break;
+                case DOUBLE:
+                    writeFixedLong(out, Double.doubleToLongBits((Double) value));
+                    break;
+                case FLOAT:
+                    writeFixedInt(out, Float.floatToIntBits((Float) value));
+                    break;
+                case SHORT:
+                    writeInt(out, (Short) value);
+                    break;
+                case BYTE:
+                    out.write((Byte) value);
+                    break;
+                default:
+                    writeUnsigned(out, (Character) value);
+            }
+        }
+
+        private Object readValue(InputStream in) throws IOException {
+            switch (kind) {
+                case INT:
+                    return readInt(in);
+                case LONG:
+                    return readLong(in);
+                case BOOLEAN:
+                    return readByte(in) != 0;
+                case DOUBLE:
+                    return Double.longBitsToDouble(readFixedLong(in));
+                case FLOAT:
+                    return Float.intBitsToFloat(readFixedInt(in));
+                case SHORT:
+                    return (short) readInt(in);
+                case BYTE:
+                    return (byte) readByte(in);
+                default:
+                    return (char) readUnsigned(in);
+            }
+        }
+
+        private static Kind kind(Class<?> type) {
+            if (type == int.class) {
+                return Kind.INT;
+            } else if (type == long.class) {
+                return Kind.LONG;
+            } else if (type == boolean.class) {
+                return Kind.BOOLEAN;
+            } else if (type == double.class) {
+                return Kind.DOUBLE;
+            } else if (type == float.class) {
+                return Kind.FLOAT;
+            } else if (type == short.class) {
+                return Kind.SHORT;
+            } else if (type == byte.class) {
+                return Kind.BYTE;
+            } else if (type == char.class) {
+                return Kind.CHAR;
+            } else if (type == String.class) {
+                return Kind.STRING;
+            } else if (type == byte[].class) {
+                return Kind.BYTES;
+            } else if (type.isEnum()) {
+                return Kind.ENUM;
+            } else if (unbox(type) != null) {
+                return Kind.BOXED;
+            }
+            return Kind.OBJECT;
+        }
+
+        /**
+         * @return The primitive type wrapped by type, or null if type is not a primitive wrapper.
+         */
+        private static Class<?> unbox(Class<?> type) {
+            if (type == Integer.class) {
+                return int.class;
+            } else if (type == Long.class) {
+                return long.class;
+            } else if (type == Boolean.class) {
+                return boolean.class;
+            } else if (type == Double.class) {
+                return double.class;
+            } else if (type == Float.class) {
+                return float.class;
+            } else if (type == Short.class) {
+                return short.class;
+            } else if (type == Byte.class) {
+                return byte.class;
+            } else if (type == Character.class) {
+                return char.class;
+            }
+            return null;
+        }
+    }
+
+    static void writeInt(OutputStream out, int value) throws IOException {
+        writeUnsigned(out, (value << 1) ^ (value >> 31));
+    }
+
+    static int readInt(InputStream in) throws IOException {
+        int value = readUnsigned(in);
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    static void writeLong(OutputStream out, long value) throws IOException {
+        long v = (value << 1) ^ (value >> 63);
+        while ((v & ~0x7FL) != 0) {
+            out.write((int) ((v & 0x7F) | 0x80));
+            v >>>= 7;
+        }
+        out.write((int) v);
+    }
+
+    static long readLong(InputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = readByte(in);
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return (value >>> 1) ^ -(value & 1);
+            }
+        }
+        throw new IOException("Malformed variable length long.");
+    }
+
+    /**
+     * Writes a non negative int (lengths, ordinals) on one to five bytes, seven bits per byte.
+     */
+    static void writeUnsigned(OutputStream out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    static int readUnsigned(InputStream in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            int b = readByte(in);
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed variable length int.");
+    }
+
+    private static void writeFixedInt(OutputStream out, int value) throws IOException {
+        out.write(value >>> 24);
+        out.write(value >>> 16);
+        out.write(value >>> 8);
+        out.write(value);
+    }
+
+    private static int readFixedInt(InputStream in) throws IOException {
+        return (readByte(in) << 24) | (readByte(in) << 16) | (readByte(in) << 8) | readByte(in);
+    }
+
+    private static void writeFixedLong(OutputStream out, long value) throws IOException {
+        writeFixedInt(out, (int) (value >>> 32));
+        writeFixedInt(out, (int) value);
+    }
+
+    private static long readFixedLong(InputStream in) throws IOException {
+        return ((long) readFixedInt(in) << 32) | (readFixedInt(in) & 0xFFFFFFFFL);
+    }
+
+    private static void writeBytes(OutputStream out, byte[] bytes) throws IOException {
+        writeUnsigned(out, bytes.length);
+        out.write(bytes);
+    }
+
+    private static byte[] readBytes(InputStream in) throws IOException {
+        int length = readUnsigned(in);
+        if (length < 0) {
+            throw new IOException("Invalid length " + length);
+        }
+        byte[] bytes = new byte[length];
+        int read = 0;
+        while (read < length) {
+            int count = in.read(bytes, read, length - read);
+            if (count < 0) {
+                throw new EOFException();
+            }
+            read += count;
+        }
+        return bytes;
+    }
+
+    private static int readByte(InputStream in) throws IOException {
+        int b = in.read();
+        if (b < 0) {
+            throw new EOFException();
+        }
+        return b;
+    }
+}
@@ -0,0 +1,38 @@
+/*
+ * Copyright (c) XIAOWEI CHEN, 2009.
+ * All Rights Reserved. Reproduction in whole or in part is prohibited
+ * without the written consent of the copyright owner.
+ * 
+ * XIAOWEI CHEN MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY OF
+ * THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED
+ * TO THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE, OR NON-INFRINGEMENT. XIAOWEI CHEN SHALL NOT BE LIABLE FOR
+ * ANY DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR
+ * DISTRIBUTING THIS SOFTWARE OR ITS DERIVATIVES.
+ * 
+ * All rights reserved.
+ */
+package com.chen.candybon.fasttrack.codec;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Inherited;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Codec Annotation is used to select the {@link ValueCodec} writing the instances of a fast track class. Classes
+ * without it use the codec named by the <code>fasttrack.codec</code> system property, or Java serialization.
+ * <p/>
+ * Values already stored keep being readable when the codec of a class is changed.
+ *
+ * @author Xiaowei Chen
+ */
+@Documented
+@Inherited
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface Codec {
+    Class<? extends ValueCodec> value();
+}
@@ -0,0 +1,288 @@
+/*
+ * Copyright (c) XIAOWEI CHEN, 2009.
+ * All Rights Reserved. Reproduction in whole or in part is prohibited
+ * without the written consent of the copyright owner.
+ * 
+ * XIAOWEI CHEN MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY OF
+ * THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED
+ * TO THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE, OR NON-INFRINGEMENT. XIAOWEI CHEN SHALL NOT BE LIABLE FOR
+ * ANY DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR
+ * DISTRIBUTING THIS SOFTWARE OR ITS DERIVATIVES.
+ * 
+ * All rights reserved.
+ */
+package com.chen.candybon.fasttrack.codec;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Deflate compression of stored values, optionally with a preset dictionary per class.
+ * <p/>
+ * A compressed value starts with the {@link #FORMAT} tag, followed by the id of the dictionary of the class it was
+ * compressed with ({@link #NO_DICTIONARY} if none) and the deflated value, which is itself a tagged value.  As the id
+ * is stored in the value, the dictionary of a class can be replaced at any time: the values compressed with older
+ * dictionaries stay readable as long as these dictionaries are kept.
+ * <p/>
+ * The dictionaries known to this JVM are cached here; when a value refers to one that is not,
+ * {@link ValueCodecs#decode} throws a {@link MissingDictionaryException} so that the caller can load it and retry.
+ *
+ * @author Xiaowei Chen
+ */
+public final class Compression {
+
+    /**
+     * Format tag of the compressed values.
+     */
+    public static final byte FORMAT = 3;
+
+    /**
+     * Id of the values compressed without dictionary.
+     */
+    public static final int NO_DICTIONARY = 0;
+
+    /**
+     * Deflate only looks back 32K bytes, a larger dictionary would not be used.
+     */
+    public static final int MAX_DICTIONARY_SIZE = 32 * 1024;
+
+    private static final int SEGMENT = 16;
+    private static final int MAX_SCANNED = 16 * 1024;
+    private static final Charset LATIN1 = Charset.forName("ISO-8859-1");
+
+    private static final ConcurrentMap<String, byte[]> DICTIONARIES = new ConcurrentHashMap<String, byte[]>();
+
+    private static final ConcurrentMap<String, Dictionary> CURRENT = new ConcurrentHashMap<String, Dictionary>();
+
+    /**
+     * Protect access to constructor.
+     */
+    private Compression() {
+    }
+
+    /**
+     * Makes a dictionary available for compressing and decompressing the values of a class.
+     *
+     * @param className The class the dictionary was trained for.
+     * @param dictionary The dictionary.
+     * @param current True if the new values of the class are to be compressed with this dictionary.
+     */
+    public static void addDictionary(String className, Dictionary dictionary, boolean current) {
+        if (dictionary.getId() != NO_DICTIONARY) {
+            DICTIONARIES.put(CompressionDictionary.key(className, dictionary.getId()), dictionary.getBytes());
+        }
+        if (current) {
+            CURRENT.put(className, dictionary);
+        }
+    }
+
+    /**
+     * @param className A class name.
+     * @return The dictionary to compress the new values of the class with, {@link Dictionary#NONE} if the class has
+     *         none, or null if it is not known yet.
+     */
+    public static Dictionary getCurrentDictionary(String className) {
+        return CURRENT.get(className);
+    }
+
+    /**
+     * Compresses a value.
+     *
+     * @param value A tagged value.
+     * @param dictionary The dictionary to use, {@link Dictionary#NONE} for none.
+     * @return The compressed value, or value itself if compression does not make it smaller.
+     */
+    public static byte[] compress(byte[] value, Dictionary dictionary) {
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+        try {
+            if (dictionary.getId() != NO_DICTIONARY) {
+                deflater.setDictionary(dictionary.getBytes());
+            }
+            deflater.setInput(value);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(value.length / 2 + 16);
+            out.write(FORMAT);
+            BinaryValueCodec.writeUnsigned(out, dictionary.getId());
+            byte[] buffer = new byte[Math.min(value.length + 64, 8192)];
+            while (!deflater.finished()) {
+                out.write(buffer, 0, deflater.deflate(buffer));
+                if (out.size() >= value.length) {
+                    return value;
+                }
+            }
+            return out.toByteArray();
+        } catch (IOException e) {
+            // not thrown by ByteArrayOutputStream
+            return value;
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * @param className The class of the value.
+     * @param value A stored value.
+     * @return The value without compression.
+     * @throws IOException If the value is not valid.
+     * @throws MissingDictionaryException If the dictionary of the value is not known to this JVM.
+     */
+    public static byte[] uncompress(String className, byte[] value) throws IOException {
+        if (value == null || value.length == 0 || value[0] != FORMAT) {
+            return value;
+        }
+        return inflate(className, new ByteArrayInputStream(value, 1, value.length - 1));
+    }
+
+    /**
+     * Reads what follows the format tag of a compressed value.
+     */
+    static byte[] inflate(String className, InputStream in) throws IOException {
+        int id = BinaryValueCodec.readUnsigned(in);
+        byte[] dictionary = null;
+        if (id != NO_DICTIONARY) {
+            dictionary = DICTIONARIES.get(CompressionDictionary.key(className, id));
+            if (dictionary == null) {
+                throw new MissingDictionaryException(className, id);
+            }
+        }
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int count;
+        while ((count = in.read(buffer)) > 0) {
+            compressed.write(buffer, 0, count);
+        }
+
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(compressed.toByteArray());
+            ByteArrayOutputStream out = new ByteArrayOutputStream(compressed.size() * 4);
+            while (!inflater.finished()) {
+                count = inflater.inflate(buffer);
+                if (count == 0) {
+                    if (inflater.needsDictionary() && dictionary != null) {
+                        inflater.setDictionary(dictionary);
+                    } else if (inflater.needsInput() || inflater.needsDictionary()) {
+                        throw new IOException("Truncated or invalid compressed value of " + className);
+                    }
+                }
+                out.write(buffer, 0, count);
+            }
+            return out.toByteArray();
+        } catch (DataFormatException e) {
+            throw new IOException("Invalid compressed value of " + className + ": " + e.getMessage(), e);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Dictionary " + id + " does not match value of " + className, e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * Builds a preset dictionary out of sample values: the segments shared by most samples, the most common ones
+     * last since Deflate encodes closer matches with fewer bits.
+     *
+     * @param samples Uncompressed values of one class.
+     * @param maxSize The maximum size of the dictionary.
+     * @return The dictionary, empty if the samples have nothing in common.
+     */
+    public static byte[] train(Collection<byte[]> samples, int maxSize) {
+        final Map<String, int[]> counts = new HashMap<String, int[]>();
+        for (byte[] sample : samples) {
+            Set<String> seen = new HashSet<String>();
+            int length = Math.min(sample.length, MAX_SCANNED);
+            for (int i = 0; i + SEGMENT <= length; i++) {
+                String segment = new String(sample, i, SEGMENT, LATIN1);
+                if (seen.add(segment)) {
+                    int[] count = counts.get(segment);
+                    if (count == null) {
+                        counts.put(segment, new int[]{1});
+                    } else {
+                        count[0]++;
+                    }
+                }
+            }
+        }
+
+        List<String> common = new ArrayList<String>();
+        for (Map.Entry<String, int[]> entry : counts.entrySet()) {
+            if (entry.getValue()[0] > 1) {
+                common.add(entry.getKey());
+            }
+        }
+        Collections.sort(common, new Comparator<String>() {
+            @Override
+            public int compare(String s1, String s2) {
+                int diff = counts.get(s2)[0] - counts.get(s1)[0];
+                return diff != 0 ? diff : s1.compareTo(s2);
+            }
+        });
+
+        List<String> selected = new ArrayList<String>();
+        StringBuilder all = new StringBuilder();
+        int size = 0;
+        for (String segment : common) {
+            if (size + SEGMENT > maxSize) {
+                break;
+            }
+            if (all.indexOf(segment) < 0) {
+                selected.add(segment);
+                all.append(segment).append('\u0000');
+                size += SEGMENT;
+            }
+        }
+
+        byte[] dictionary = new byte[size];
+        int pos = 0;
+        for (int i = selected.size() - 1; i >= 0; i--) {
+            byte[] bytes = selected.get(i).getBytes(LATIN1);
+            System.arraycopy(bytes, 0, dictionary, pos, bytes.length);
+            pos += bytes.length;
+        }
+        return dictionary;
+    }
+
+    /**
+     * A preset dictionary and its id, unique per class.
+     */
+    public static final class Dictionary {
+
+        /**
+         * Compression without dictionary.
+         */
+        public static final Dictionary NONE = new Dictionary(NO_DICTIONARY, new byte[0]);
+
+        private final int id;
+        private final byte[] bytes;
+
+        public Dictionary(int id, byte[] bytes) {
+            this.id = id;
+            this.bytes = bytes;
+        }
+
+        public int getId() {
+            return id;
+        }
+
+        public byte[] getBytes() {
+            return bytes;
+        }
+    }
+}
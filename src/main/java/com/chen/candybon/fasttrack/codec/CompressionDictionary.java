@@ -0,0 +1,63 @@
+/*
+ * Copyright (c) XIAOWEI CHEN, 2009.
+ * All Rights Reserved. Reproduction in whole or in part is prohibited
+ * without the written consent of the copyright owner.
+ * 
+ * XIAOWEI CHEN MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY OF
+ * THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED
+ * TO THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE, OR NON-INFRINGEMENT. XIAOWEI CHEN SHALL NOT BE LIABLE FOR
+ * ANY DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR
+ * DISTRIBUTING THIS SOFTWARE OR ITS DERIVATIVES.
+ * 
+ * All rights reserved.
+ */
+package com.chen.candybon.fasttrack.codec;
+
+import com.chen.candybon.fasttrack.data.LargeData;
+
+/**
+ * A trained compression dictionary, stored as any other large instance.
+ * <p/>
+ * The dictionaries of a class are stored with the key <code>className#id</code>, and the one used for its new values
+ * with the key <code>className</code>.
+ *
+ * @author Xiaowei Chen
+ */
+@Codec(BinaryValueCodec.class)
+public class CompressionDictionary extends LargeData {
+
+    private String className;
+
+    private int id;
+
+    private byte[] bytes;
+
+    private CompressionDictionary() {
+    }
+
+    public CompressionDictionary(String className, int id, byte[] bytes) {
+        this.className = className;
+        this.id = id;
+        this.bytes = bytes;
+    }
+
+    public String getClassName() {
+        return className;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public byte[] getBytes() {
+        return bytes;
+    }
+
+    /**
+     * @return The key of the dictionary of a class with the given id.
+     */
+    public static String key(String className, int id) {
+        return className + '#' + id;
+    }
+}
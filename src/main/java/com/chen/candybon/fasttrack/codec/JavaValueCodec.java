@@ -0,0 +1,58 @@
+/*
+ * Copyright (c) XIAOWEI CHEN, 2009.
+ * All Rights Reserved. Reproduction in whole or in part is prohibited
+ * without the written consent of the copyright owner.
+ * 
+ * XIAOWEI CHEN MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY OF
+ * THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED
+ * TO THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE, OR NON-INFRINGEMENT. XIAOWEI CHEN SHALL NOT BE LIABLE FOR
+ * ANY DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR
+ * DISTRIBUTING THIS SOFTWARE OR ITS DERIVATIVES.
+ * 
+ * All rights reserved.
+ */
+package com.chen.candybon.fasttrack.codec;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+
+/**
+ * Codec relying on the standard Java serialization. It supports any {@link java.io.Serializable} graph and the
+ * class evolution rules described in {@link com.chen.candybon.fasttrack.data.SmallData}, at the cost of size and
+ * speed.
+ *
+ * @author Xiaowei Chen
+ */
+public class JavaValueCodec implements ValueCodec {
+
+    public static final byte FORMAT = 1;
+
+    public static final String NAME = "java";
+
+    @Override
+    public byte getFormat() {
+        return FORMAT;
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public void encode(Object data, OutputStream out) throws IOException {
+        ObjectOutputStream oos = new ObjectOutputStream(out);
+        oos.writeObject(data);
+        oos.flush();
+    }
+
+    @Override
+    public Object decode(Class<?> tClass, InputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream ois = new ObjectInputStream(in);
+        return ois.readObject();
+    }
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright (c) XIAOWEI CHEN, 2009.
+ * All Rights Reserved. Reproduction in whole or in part is prohibited
+ * without the written consent of the copyright owner.
+ * 
+ * XIAOWEI CHEN MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY OF
+ * THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED
+ * TO THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE, OR NON-INFRINGEMENT. XIAOWEI CHEN SHALL NOT BE LIABLE FOR
+ * ANY DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR
+ * DISTRIBUTING THIS SOFTWARE OR ITS DERIVATIVES.
+ * 
+ * All rights reserved.
+ */
+package com.chen.candybon.fasttrack.codec;
+
+import java.io.IOException;
+
+/**
+ * Thrown when a value was compressed with a dictionary that is not known to this JVM yet.
+ *
+ * @author Xiaowei Chen
+ */
+public class MissingDictionaryException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String className;
+    private final int dictionaryId;
+
+    public MissingDictionaryException(String className, int dictionaryId) {
+        super("Dictionary " + dictionaryId + " of " + className + " is not loaded.");
+        this.className = className;
+        this.dictionaryId = dictionaryId;
+    }
+
+    public String getClassName() {
+        return className;
+    }
+
+    public int getDictionaryId() {
+        return dictionaryId;
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright (c) XIAOWEI CHEN, 2009.
+ * All Rights Reserved. Reproduction in whole or in part is prohibited
+ * without the written consent of the copyright owner.
+ * 
+ * XIAOWEI CHEN MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY OF
+ * THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED
+ * TO THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE, OR NON-INFRINGEMENT. XIAOWEI CHEN SHALL NOT BE LIABLE FOR
+ * ANY DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR
+ * DISTRIBUTING THIS SOFTWARE OR ITS DERIVATIVES.
+ * 
+ * All rights reserved.
+ */
+package com.chen.candybon.fasttrack.codec;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * A ValueCodec turns a fast track instance into the bytes stored in the database, and back.
+ * <p/>
+ * Every stored value starts with the one byte {@link #getFormat()} tag of the codec that wrote it, so that values
+ * written by different codecs can be read from the same table, ie while migrating a class from one codec to another.
+ * The tag is written and read by {@link ValueCodecs}, a codec only deals with what follows it.
+ * <p/>
+ * Implementations must be thread safe. Custom codecs are made available either by calling
+ * {@link ValueCodecs#register(ValueCodec)} or by listing them in
+ * <code>META-INF/services/com.chen.candybon.fasttrack.codec.ValueCodec</code>.
+ *
+ * @author Xiaowei Chen
+ * @see Codec
+ */
+public interface ValueCodec {
+
+    /**
+     * @return The unique tag of the format written by this codec. Tags 0 to 15 are reserved for the built-in
+     * codecs, and the tag must not be (byte) 0xAC which starts the values stored before tags were introduced.
+     */
+    byte getFormat();
+
+    /**
+     * @return A unique name for this codec, as used by the <code>fasttrack.codec</code> system property.
+     */
+    String getName();
+
+    /**
+     * Writes the instance.
+     *
+     * @param data A non null instance of either {@link com.chen.candybon.fasttrack.data.SmallData} or
+     * {@link com.chen.candybon.fasttrack.data.LargeData}.
+     * @param out Where to write the instance to.
+     * @throws IOException If the instance cannot be written.
+     */
+    void encode(Object data, OutputStream out) throws IOException;
+
+    /**
+     * Reads an instance written by {@link #encode}.
+     *
+     * @param tClass The class the instance was requested as.
+     * @param in The bytes written by encode.
+     * @return The instance.
+     * @throws IOException If the value cannot be read.
+     * @throws ClassNotFoundException If the value refers to a class that is not available.
+     */
+    Object decode(Class<?> tClass, InputStream in) throws IOException, ClassNotFoundException;
+}
@@ -0,0 +1,260 @@
+/*
+ * Copyright (c) XIAOWEI CHEN, 2009.
+ * All Rights Reserved. Reproduction in whole or in part is prohibited
+ * without the written consent of the copyright owner.
+ * 
+ * XIAOWEI CHEN MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY OF
+ * THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED
+ * TO THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE, OR NON-INFRINGEMENT. XIAOWEI CHEN SHALL NOT BE LIABLE FOR
+ * ANY DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR
+ * DISTRIBUTING THIS SOFTWARE OR ITS DERIVATIVES.
+ * 
+ * All rights reserved.
+ */
+package com.chen.candybon.fasttrack.codec;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Registry of the available {@link ValueCodec}s, and entry point to encode and decode stored values.
+ * <p/>
+ * The built-in codecs, {@link JavaValueCodec} and {@link BinaryValueCodec}, are always registered.
+ *
+ * @author Xiaowei Chen
+ */
+public final class ValueCodecs {
+
+    /**
+     * First byte of a Java serialization stream, ie of the values stored without format tag.
+     */
+    static final byte LEGACY_MAGIC = (byte) 0xAC;
+
+    /**
+     * Format tag of the values written as a raw stream of bytes rather than as an instance, see
+     * {@link com.chen.candybon.fasttrack.FastTrackDataService#putStream}.
+     */
+    public static final byte STREAM = 4;
+
+    /**
+     * Format tag of the values stored in chunks, the stored value only describes the chunks.
+     */
+    public static final byte CHUNKED = 5;
+
+    /**
+     * Format tag of the values stored once for all the objects having the same value, the stored value only holds
+     * the hash of the content.
+     */
+    public static final byte SHARED = 6;
+
+    /**
+     * Lowest format tag available to the codecs other than the built-in ones.
+     */
+    static final int MIN_CUSTOM_FORMAT = 16;
+
+    private static final Logger LOG = LoggerFactory.getLogger(ValueCodecs.class);
+
+    private static final ValueCodec[] BY_FORMAT = new ValueCodec[256];
+
+    private static final ConcurrentMap<String, ValueCodec> BY_NAME = new ConcurrentHashMap<String, ValueCodec>();
+
+    private static final ConcurrentMap<Class<?>, ValueCodec> BY_TYPE = new ConcurrentHashMap<Class<?>, ValueCodec>();
+
+    private static final JavaValueCodec JAVA = new JavaValueCodec();
+
+    /**
+     * Marks the classes without {@link Codec} annotation in the per class cache.
+     */
+    private static final ValueCodec UNSPECIFIED = new JavaValueCodec();
+
+    static {
+        register(JAVA);
+        register(new BinaryValueCodec());
+        Iterator<ValueCodec> it = ServiceLoader.load(ValueCodec.class).iterator();
+        while (true) {
+            try {
+                if (!it.hasNext()) {
+                    break;
+                }
+                register(it.next());
+            } catch (ServiceConfigurationError e) {
+                LOG.warn("Failed to load value codec: {}", e.getMessage());
+            } catch (IllegalArgumentException e) {
+                LOG.warn("Failed to register value codec: {}", e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Protect access to constructor.
+     */
+    private ValueCodecs() {
+    }
+
+    /**
+     * Makes a codec available for writing and reading values.
+     *
+     * @param codec The codec to register.
+     * @throws IllegalArgumentException If the format is reserved to the built-in codecs, or if another codec is
+     * already registered with the same format or name.
+     */
+    public static synchronized void register(ValueCodec codec) {
+        int format = codec.getFormat() & 0xFF;
+        if (codec.getFormat() == LEGACY_MAGIC || codec.getFormat() == Compression.FORMAT
+                || codec.getFormat() == STREAM || codec.getFormat() == CHUNKED
+                || codec.getFormat() == SHARED || format < MIN_CUSTOM_FORMAT && !isBuiltIn(codec)) {
+            throw new IllegalArgumentException("Format " + format + " of codec " + codec.getName() + " is reserved.");
+        }
+        ValueCodec existing = BY_FORMAT[format];
+        if (existing != null && !existing.getClass().equals(codec.getClass())) {
+            throw new IllegalArgumentException("Format " + format + " of codec " + codec.getName()
+                    + " is already used by " + existing.getName());
+        }
+        if (BY_NAME.containsKey(codec.getName()) && !BY_NAME.get(codec.getName()).getClass().equals(codec.getClass())) {
+            throw new IllegalArgumentException("Codec name " + codec.getName() + " is already used.");
+        }
+        BY_FORMAT[format] = codec;
+        BY_NAME.put(codec.getName(), codec);
+    }
+
+    private static boolean isBuiltIn(ValueCodec codec) {
+        return codec.getClass().equals(JavaValueCodec.class) || codec.getClass().equals(BinaryValueCodec.class);
+    }
+
+    /**
+     * @param name The name of a registered codec.
+     * @return The codec, or null if there is none with that name.
+     */
+    public static ValueCodec forName(String name) {
+        return name == null ? null : BY_NAME.get(name);
+    }
+
+    /**
+     * @param format A format tag.
+     * @return The codec reading this format, or null if none is registered.
+     */
+    public static ValueCodec forFormat(byte format) {
+        return BY_FORMAT[format & 0xFF];
+    }
+
+    /**
+     * Returns the codec to write the instances of a class: the one of its {@link Codec} annotation if any,
+     * otherwise the default codec.
+     *
+     * @param tClass A fast track class.
+     * @param defaultCodec The codec to use for classes that are not annotated, Java serialization if null.
+     * @return The codec to use.
+     */
+    public static ValueCodec forClass(Class<?> tClass, ValueCodec defaultCodec) {
+        ValueCodec codec = BY_TYPE.get(tClass);
+        if (codec == null) {
+            Codec annotation = tClass.getAnnotation(Codec.class);
+            codec = annotation == null ? UNSPECIFIED : forType(annotation.value());
+            BY_TYPE.putIfAbsent(tClass, codec);
+        }
+        if (codec == UNSPECIFIED) {
+            return defaultCodec == null ? JAVA : defaultCodec;
+        }
+        return codec;
+    }
+
+    /**
+     * Writes the format tag of the codec followed by the encoded instance.
+     *
+     * @param codec The codec to use.
+     * @param data The instance to encode.
+     * @return The value to store.
+     * @throws IOException If the codec fails to encode the instance.
+     */
+    public static byte[] encode(ValueCodec codec, Object data) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(256);
+        out.write(codec.getFormat());
+        codec.encode(data, out);
+        return out.toByteArray();
+    }
+
+    /**
+     * Reads a stored value with the codec that wrote it.
+     *
+     * @param tClass The class the instance is requested as.
+     * @param bytes A stored value.
+     * @return The instance.
+     * @throws IOException If the format is unknown or the codec fails to decode the value.
+     * @throws ClassNotFoundException If the value refers to a class that is not available.
+     */
+    public static Object decode(Class<?> tClass, byte[] bytes) throws IOException, ClassNotFoundException {
+        if (bytes == null || bytes.length == 0) {
+            throw new IOException("No value to decode.");
+        }
+        return decode(tClass, new ByteArrayInputStream(bytes));
+    }
+
+    /**
+     * Reads a stored value with the codec that wrote it.
+     *
+     * @param tClass The class the instance is requested as.
+     * @param in A stored value.
+     * @return The instance.
+     * @throws IOException If the format is unknown or the codec fails to decode the value.
+     * @throws MissingDictionaryException If the value is compressed with a dictionary that is not loaded.
+     * @throws ClassNotFoundException If the value refers to a class that is not available.
+     */
+    public static Object decode(Class<?> tClass, InputStream in) throws IOException, ClassNotFoundException {
+        if (!in.markSupported()) {
+            throw new IOException("The value stream must support mark.");
+        }
+        in.mark(1);
+        int format = in.read();
+        if (format < 0) {
+            throw new IOException("No value to decode.");
+        }
+        if ((byte) format == LEGACY_MAGIC) {
+            // stored before format tags, the tag is actually the first byte of the stream
+            in.reset();
+            return JAVA.decode(tClass, in);
+        }
+        if ((byte) format == Compression.FORMAT) {
+            return decode(tClass, Compression.inflate(tClass.getName(), in));
+        }
+        if ((byte) format == STREAM) {
+            throw new IOException("The value was stored as a stream, it can only be read as a stream.");
+        }
+        if ((byte) format == CHUNKED) {
+            throw new IOException("The value is stored in chunks, which must be read first.");
+        }
+        if ((byte) format == SHARED) {
+            throw new IOException("The value is a shared content, which must be read first.");
+        }
+        ValueCodec codec = BY_FORMAT[format];
+        if (codec == null) {
+            throw new IOException("Unknown value format: " + format);
+        }
+        return codec.decode(tClass, in);
+    }
+
+    private static ValueCodec forType(Class<? extends ValueCodec> type) {
+        for (ValueCodec codec : BY_NAME.values()) {
+            if (type.equals(codec.getClass())) {
+                return codec;
+            }
+        }
+        try {
+            ValueCodec codec = type.getDeclaredConstructor().newInstance();
+            register(codec);
+            return codec;
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalArgumentException("Cannot create codec " + type.getName(), e);
+        }
+    }
+}
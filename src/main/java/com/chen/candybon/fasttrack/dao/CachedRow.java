@@ -0,0 +1,63 @@
+/*
+ * Copyright (c) XIAOWEI CHEN, 2009.
+ * All Rights Reserved. Reproduction in whole or in part is prohibited
+ * without the written consent of the copyright owner.
+ * 
+ * XIAOWEI CHEN MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY OF
+ * THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED
+ * TO THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE, OR NON-INFRINGEMENT. XIAOWEI CHEN SHALL NOT BE LIABLE FOR
+ * ANY DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR
+ * DISTRIBUTING THIS SOFTWARE OR ITS DERIVATIVES.
+ * 
+ * All rights reserved.
+ */
+package com.chen.candybon.fasttrack.dao;
+
+import com.chen.candybon.fasttrack.object.KeyedObject;
+
+/**
+ * What a cache keeps about the row a value was read from: a cached value is returned as is for
+ * {@link FastTrackConfig#getCacheTtl()}, then the version of its row is read again and the value is kept as long as the
+ * version does not change.  A row removed and created again on another node starts over with the same version, so a
+ * value is read again anyway after {@link #MAX_AGE_MILLIS}.
+ *
+ * @author Xiaowei Chen
+ */
+class CachedRow {
+
+    static final long MAX_AGE_MILLIS = 10 * 60 * 1000L;
+
+    final Class<? extends KeyedObject> table;
+    final long version;
+    private final long loaded;
+    private volatile long checked;
+
+    CachedRow(Class<? extends KeyedObject> table, long version) {
+        this.table = table;
+        this.version = version;
+        this.loaded = System.currentTimeMillis();
+        this.checked = loaded;
+    }
+
+    /**
+     * @return True if the value can be returned without checking the version of its row.
+     */
+    boolean isFresh() {
+        return System.currentTimeMillis() - checked < FastTrackConfig.getCacheTtl();
+    }
+
+    /**
+     * @return True if the value must be read again, whatever the version of its row.
+     */
+    boolean isExpired() {
+        return System.currentTimeMillis() - loaded > MAX_AGE_MILLIS;
+    }
+
+    /**
+     * Called once the version of the row is checked.
+     */
+    void validated() {
+        checked = System.currentTimeMillis();
+    }
+}
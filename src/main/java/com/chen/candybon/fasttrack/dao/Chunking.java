@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) XIAOWEI CHEN, 2009.
+ * All Rights Reserved. Reproduction in whole or in part is prohibited
+ * without the written consent of the copyright owner.
+ * 
+ * XIAOWEI CHEN MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY OF
+ * THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED
+ * TO THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE, OR NON-INFRINGEMENT. XIAOWEI CHEN SHALL NOT BE LIABLE FOR
+ * ANY DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR
+ * DISTRIBUTING THIS SOFTWARE OR ITS DERIVATIVES.
+ * 
+ * All rights reserved.
+ */
+package com.chen.candybon.fasttrack.dao;
+
+import com.chen.candybon.fasttrack.codec.ValueCodecs;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * The value stored in the row of a large object whose actual value is split in chunks (see
+ * {@link FastTrackConfig#isChunking()}): the {@link ValueCodecs#CHUNKED} tag, the tag of the actual value, its length
+ * and the size of its chunks.
+ *
+ * @author Xiaowei Chen
+ */
+final class Chunking {
+
+    final byte format;
+    final long length;
+    final int chunkSize;
+
+    Chunking(byte format, long length, int chunkSize) {
+        this.format = format;
+        this.length = length;
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * @param value A stored value.
+     * @return True if the value only describes chunks.
+     */
+    static boolean isChunked(byte[] value) {
+        return value != null && value.length > 0 && value[0] == ValueCodecs.CHUNKED;
+    }
+
+    /**
+     * @param value A value for which {@link #isChunked(byte[])} is true.
+     * @return The description of the chunks.
+     * @throws IOException If the value is not a valid description.
+     */
+    static Chunking parse(byte[] value) throws IOException {
+        ByteArrayInputStream in = new ByteArrayInputStream(value);
+        if (in.read() != ValueCodecs.CHUNKED) {
+            throw new IOException("Not a chunked value.");
+        }
+        int format = in.read();
+        long length = readLong(in);
+        int chunkSize = (int) readLong(in);
+        if (format < 0 || length < 0 || chunkSize <= 0) {
+            throw new IOException("Invalid chunked value.");
+        }
+        return new Chunking((byte) format, length, chunkSize);
+    }
+
+    /**
+     * @return The value to store in the row of the object.
+     */
+    byte[] toValue() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(16);
+        out.write(ValueCodecs.CHUNKED);
+        out.write(format);
+        writeLong(out, length);
+        writeLong(out, chunkSize);
+        return out.toByteArray();
+    }
+
+    /**
+     * @return The number of chunks.
+     */
+    int count() {
+        return (int) ((length + chunkSize - 1) / chunkSize);
+    }
+
+    /**
+     * @return The chunk holding the byte at this position of the value.
+     */
+    int chunkOf(long position) {
+        return (int) (position / chunkSize);
+    }
+
+    private static void writeLong(OutputStream out, long value) {
+        try {
+            while ((value & ~0x7FL) != 0) {
+                out.write((int) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            out.write((int) value);
+        } catch (IOException e) {
+            // not thrown by ByteArrayOutputStream
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static long readLong(ByteArrayInputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.read();
+            if (b < 0) {
+                throw new IOException("Invalid chunked value.");
+            }
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Invalid chunked value.");
+    }
+}
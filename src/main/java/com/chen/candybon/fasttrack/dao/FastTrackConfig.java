@@ -0,0 +1,470 @@
+/*
+ * Copyright (c) XIAOWEI CHEN, 2009.
+ * All Rights Reserved. Reproduction in whole or in part is prohibited
+ * without the written consent of the copyright owner.
+ * 
+ * XIAOWEI CHEN MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY OF
+ * THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED
+ * TO THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE, OR NON-INFRINGEMENT. XIAOWEI CHEN SHALL NOT BE LIABLE FOR
+ * ANY DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR
+ * DISTRIBUTING THIS SOFTWARE OR ITS DERIVATIVES.
+ * 
+ * All rights reserved.
+ */
+package com.chen.candybon.fasttrack.dao;
+
+import com.chen.candybon.fasttrack.codec.ValueCodec;
+import com.chen.candybon.fasttrack.codec.ValueCodecs;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Tuning knobs of the fast track implementation.
+ * <p/>
+ * The service and dao beans are stateless, so the settings are read from system properties (ie -D options of the
+ * application server) and fall back to sensible defaults when a property is missing or invalid.  The properties are
+ * read once, when the class is loaded, and again on each {@link #reload()}: an invalid value is logged at each read.
+ *
+ * @author Xiaowei Chen
+ */
+public final class FastTrackConfig {
+
+    /**
+     * Number of rows sent to the database in one JDBC batch.
+     */
+    public static final String JDBC_BATCH_SIZE = "fasttrack.jdbc.batchSize";
+
+    /**
+     * Number of threads used to serialize the objects of a bulk operation.
+     */
+    public static final String SERIALIZER_THREADS = "fasttrack.serializer.threads";
+
+    /**
+     * Maximum number of keys in the IN list of a multi-key query.
+     */
+    public static final String IN_LIST_SIZE = "fasttrack.query.inListSize";
+
+    /**
+     * Name of the codec writing the values of the classes without {@link com.chen.candybon.fasttrack.codec.Codec}
+     * annotation.
+     */
+    public static final String CODEC = "fasttrack.codec";
+
+    /**
+     * Whether to compress the values of the large instances.
+     */
+    public static final String COMPRESSION = "fasttrack.compression";
+
+    /**
+     * Minimum size in bytes of a large value for it to be compressed.
+     */
+    public static final String COMPRESSION_MIN_SIZE = "fasttrack.compression.minSize";
+
+    /**
+     * Whether to keep storing the small values Base64 encoded, for as long as some nodes of the cluster run a version
+     * that cannot read the binary column.
+     */
+    public static final String SMALL_VALUE_BASE64 = "fasttrack.smallValue.base64";
+
+    /**
+     * Whether to store the small instances that do not fit in the small table in the large one.
+     */
+    public static final String AUTO_PLACEMENT = "fasttrack.placement.auto";
+
+    /**
+     * Whether to split the large values bigger than {@link #CHUNK_SIZE} in chunks.
+     */
+    public static final String CHUNKING = "fasttrack.chunking";
+
+    /**
+     * Size in bytes of the chunks of the large values.
+     */
+    public static final String CHUNK_SIZE = "fasttrack.chunk.size";
+
+    /**
+     * Whether to store the identical large values only once.
+     */
+    public static final String DEDUP = "fasttrack.dedup";
+
+    /**
+     * Minimum size in bytes of a large value for it to be shared.
+     */
+    public static final String DEDUP_MIN_SIZE = "fasttrack.dedup.minSize";
+
+    /**
+     * Maximum number of instances kept in the in process cache of the instances read by key, no cache if not set.
+     */
+    public static final String CACHE_SIZE = "fasttrack.cache.size";
+
+    /**
+     * Time in milliseconds a cached instance is used before checking that it did not change.
+     */
+    public static final String CACHE_TTL = "fasttrack.cache.ttl";
+
+    /**
+     * Megabytes of serialized values kept out of the heap by the cache of the values read by key, no cache if not set.
+     */
+    public static final String OFF_HEAP_SIZE = "fasttrack.offHeap.size";
+
+    /**
+     * Megabytes of memory allocated at once by the off heap cache, at most {@link #MAX_OFF_HEAP_SLAB_SIZE} as a slab
+     * is one direct buffer.
+     */
+    public static final String OFF_HEAP_SLAB_SIZE = "fasttrack.offHeap.slabSize";
+
+    /**
+     * Maximum number of search results kept in the in process cache of the searches by predicate, no cache if not
+     * set.
+     */
+    public static final String QUERY_CACHE_SIZE = "fasttrack.queryCache.size";
+
+    /**
+     * Time in milliseconds a cached search result is used.
+     */
+    public static final String QUERY_CACHE_TTL = "fasttrack.queryCache.ttl";
+
+    /**
+     * Whether to keep per class filters of the stored keys, to answer most lookups of absent keys without a query.
+     * Only for the deployments where this node is the only one storing instances: a filter knows the keys stored
+     * through this node, but not the keys stored by the other nodes until it is built again.
+     */
+    public static final String KEY_FILTER = "fasttrack.keyFilter";
+
+    /**
+     * Whether the keys are identified by a 64 bit fingerprint rather than by their 32 bit hash, the key itself being
+     * stored and checked.
+     */
+    public static final String KEY_FINGERPRINT = "fasttrack.keyFingerprint";
+
+    /**
+     * Time in milliseconds after which the filter of the stored keys of a class is built again.
+     */
+    public static final String KEY_FILTER_REFRESH = "fasttrack.keyFilter.refresh";
+
+    /**
+     * Whether the concurrent reads of the same key share one load.
+     */
+    public static final String COALESCING = "fasttrack.coalescing";
+
+    /**
+     * Time in milliseconds a read waits at most for the same read by another caller.
+     */
+    public static final String COALESCING_TIMEOUT = "fasttrack.coalescing.timeout";
+
+    static final int DEFAULT_JDBC_BATCH_SIZE = 100;
+
+    static final int DEFAULT_IN_LIST_SIZE = 500;
+
+    static final int DEFAULT_COMPRESSION_MIN_SIZE = 256;
+
+    static final int DEFAULT_CHUNK_SIZE = 512 * 1024;
+
+    static final int DEFAULT_DEDUP_MIN_SIZE = 1024;
+
+    static final int DEFAULT_CACHE_TTL = 1000;
+
+    static final int DEFAULT_OFF_HEAP_SLAB_SIZE = 64;
+
+    static final int MAX_OFF_HEAP_SLAB_SIZE = 2047;
+
+    static final int DEFAULT_QUERY_CACHE_TTL = 1000;
+
+    static final int DEFAULT_KEY_FILTER_REFRESH = 60 * 1000;
+
+    static final int DEFAULT_COALESCING_TIMEOUT = 5000;
+
+    private static final Logger LOG = LoggerFactory.getLogger(FastTrackConfig.class);
+
+    private static volatile Settings settings = new Settings();
+
+    /**
+     * Protect access to constructor.
+     */
+    private FastTrackConfig() {
+    }
+
+    /**
+     * Reads the properties again, the new values being used from the next calls on.
+     */
+    public static void reload() {
+        settings = new Settings();
+    }
+
+    /**
+     * @return The maximum number of rows per JDBC batch.
+     */
+    public static int getJdbcBatchSize() {
+        return settings.jdbcBatchSize;
+    }
+
+    /**
+     * @return The number of threads to use for serializing bulk operations, defaults to the number of processors.
+     */
+    public static int getSerializerThreads() {
+        return settings.serializerThreads;
+    }
+
+    /**
+     * @return The maximum number of keys per query when looking up many keys at once.
+     */
+    public static int getInListSize() {
+        return settings.inListSize;
+    }
+
+    /**
+     * @return The codec for the classes without codec annotation, Java serialization if not set or unknown.
+     */
+    public static ValueCodec getCodec() {
+        return settings.codec;
+    }
+
+    private static ValueCodec codec() {
+        String name = System.getProperty(CODEC);
+        if (name == null) {
+            return null;
+        }
+        ValueCodec codec = ValueCodecs.forName(name.trim());
+        if (codec == null) {
+            LOG.warn("Unknown codec '{}' for property {}, using Java serialization.", name, CODEC);
+        }
+        return codec;
+    }
+
+    /**
+     * @return True if the values of the large instances are to be compressed, false by default.
+     */
+    public static boolean isCompression() {
+        return settings.compression;
+    }
+
+    /**
+     * @return The size under which large values are not compressed.
+     */
+    public static int getCompressionMinSize() {
+        return settings.compressionMinSize;
+    }
+
+    /**
+     * @return True if the small values are to be stored in the legacy Base64 column, false by default.
+     */
+    public static boolean isSmallValueBase64() {
+        return settings.smallValueBase64;
+    }
+
+    /**
+     * @return True if the table of the small instances is chosen by size, false by default.
+     */
+    public static boolean isAutoPlacement() {
+        return settings.autoPlacement;
+    }
+
+    /**
+     * @return True if the large values are to be split in chunks, false by default.
+     */
+    public static boolean isChunking() {
+        return settings.chunking;
+    }
+
+    /**
+     * @return The size of the chunks of the large values, 512KB by default.
+     */
+    public static int getChunkSize() {
+        return settings.chunkSize;
+    }
+
+    /**
+     * @return True if the identical large values are to be stored only once, false by default.
+     */
+    public static boolean isDedup() {
+        return settings.dedup;
+    }
+
+    /**
+     * @return The size under which large values are not shared.
+     */
+    public static int getDedupMinSize() {
+        return settings.dedupMinSize;
+    }
+
+    /**
+     * @return The maximum number of cached instances, 0 (no cache) by default.
+     */
+    public static int getCacheSize() {
+        return settings.cacheSize;
+    }
+
+    /**
+     * @return The time a cached instance is used before checking its version, one second by default.
+     */
+    public static int getCacheTtl() {
+        return settings.cacheTtl;
+    }
+
+    /**
+     * @return The megabytes of serialized values cached off the heap, 0 (no cache) by default.
+     */
+    public static int getOffHeapSize() {
+        return settings.offHeapSize;
+    }
+
+    /**
+     * @return The megabytes allocated at once by the off heap cache, 64 by default and 2047 at most.
+     */
+    public static int getOffHeapSlabSize() {
+        return settings.offHeapSlabSize;
+    }
+
+    /**
+     * @return The maximum number of cached search results, 0 (no cache) by default.
+     */
+    public static int getQueryCacheSize() {
+        return settings.queryCacheSize;
+    }
+
+    /**
+     * @return The time a cached search result is used, one second by default.
+     */
+    public static int getQueryCacheTtl() {
+        return settings.queryCacheTtl;
+    }
+
+    /**
+     * @return True if the keys are identified by a 64 bit fingerprint, false (32 bit hash) by default.
+     */
+    public static boolean isKeyFingerprint() {
+        return settings.keyFingerprint;
+    }
+
+    /**
+     * @return True if lookups are to be filtered by the stored keys, false by default: see {@link #KEY_FILTER}.
+     */
+    public static boolean isKeyFilter() {
+        return settings.keyFilter;
+    }
+
+    /**
+     * @return The time after which a filter of the stored keys is built again, one minute by default.
+     */
+    public static int getKeyFilterRefresh() {
+        return settings.keyFilterRefresh;
+    }
+
+    /**
+     * @return True if the concurrent reads of a key are to share one load, false by default.
+     */
+    public static boolean isCoalescing() {
+        return settings.coalescing;
+    }
+
+    /**
+     * @return The time a read waits for the same read by another caller, five seconds by default.
+     */
+    public static int getCoalescingTimeout() {
+        return settings.coalescingTimeout;
+    }
+
+    static int getPositiveInt(String property, int defaultValue) {
+        return getPositiveInt(property, defaultValue, Integer.MAX_VALUE);
+    }
+
+    static int getPositiveInt(String property, int defaultValue, int max) {
+        String value = System.getProperty(property);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            int result = Integer.parseInt(value.trim());
+            if (result > max) {
+                LOG.warn("Value '{}' for property {} above the maximum, using {}.", new Object[]{value, property, max});
+                return max;
+            }
+            if (result > 0) {
+                return result;
+            }
+        } catch (NumberFormatException e) {
+            // fall through
+        }
+        LOG.warn("Invalid value '{}' for property {}, using default {}.",
+                new Object[]{value, property, defaultValue});
+        return defaultValue;
+    }
+
+    /**
+     * The values of the properties, read at once.
+     */
+    private static final class Settings {
+
+        private final int jdbcBatchSize;
+
+        private final int serializerThreads;
+
+        private final int inListSize;
+
+        private final ValueCodec codec;
+
+        private final boolean compression;
+
+        private final int compressionMinSize;
+
+        private final boolean smallValueBase64;
+
+        private final boolean autoPlacement;
+
+        private final boolean chunking;
+
+        private final int chunkSize;
+
+        private final boolean dedup;
+
+        private final int dedupMinSize;
+
+        private final int cacheSize;
+
+        private final int cacheTtl;
+
+        private final int offHeapSize;
+
+        private final int offHeapSlabSize;
+
+        private final int queryCacheSize;
+
+        private final int queryCacheTtl;
+
+        private final boolean keyFingerprint;
+
+        private final boolean keyFilter;
+
+        private final int keyFilterRefresh;
+
+        private final boolean coalescing;
+
+        private final int coalescingTimeout;
+
+        Settings() {
+            jdbcBatchSize = getPositiveInt(JDBC_BATCH_SIZE, DEFAULT_JDBC_BATCH_SIZE);
+            serializerThreads = getPositiveInt(SERIALIZER_THREADS, Runtime.getRuntime().availableProcessors());
+            inListSize = getPositiveInt(IN_LIST_SIZE, DEFAULT_IN_LIST_SIZE);
+            codec = codec();
+            compression = Boolean.getBoolean(COMPRESSION);
+            compressionMinSize = getPositiveInt(COMPRESSION_MIN_SIZE, DEFAULT_COMPRESSION_MIN_SIZE);
+            smallValueBase64 = Boolean.getBoolean(SMALL_VALUE_BASE64);
+            autoPlacement = Boolean.getBoolean(AUTO_PLACEMENT);
+            chunking = Boolean.getBoolean(CHUNKING);
+            chunkSize = getPositiveInt(CHUNK_SIZE, DEFAULT_CHUNK_SIZE);
+            dedup = Boolean.getBoolean(DEDUP);
+            dedupMinSize = getPositiveInt(DEDUP_MIN_SIZE, DEFAULT_DEDUP_MIN_SIZE);
+            cacheSize = getPositiveInt(CACHE_SIZE, 0);
+            cacheTtl = getPositiveInt(CACHE_TTL, DEFAULT_CACHE_TTL);
+            offHeapSize = getPositiveInt(OFF_HEAP_SIZE, 0);
+            offHeapSlabSize = getPositiveInt(OFF_HEAP_SLAB_SIZE, DEFAULT_OFF_HEAP_SLAB_SIZE, MAX_OFF_HEAP_SLAB_SIZE);
+            queryCacheSize = getPositiveInt(QUERY_CACHE_SIZE, 0);
+            queryCacheTtl = getPositiveInt(QUERY_CACHE_TTL, DEFAULT_QUERY_CACHE_TTL);
+            keyFingerprint = Boolean.getBoolean(KEY_FINGERPRINT);
+            keyFilter = Boolean.getBoolean(KEY_FILTER);
+            keyFilterRefresh = getPositiveInt(KEY_FILTER_REFRESH, DEFAULT_KEY_FILTER_REFRESH);
+            coalescing = Boolean.getBoolean(COALESCING);
+            coalescingTimeout = getPositiveInt(COALESCING_TIMEOUT, DEFAULT_COALESCING_TIMEOUT);
+        }
+    }
+}
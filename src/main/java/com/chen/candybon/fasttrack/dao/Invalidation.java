@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) XIAOWEI CHEN, 2009.
+ * All Rights Reserved. Reproduction in whole or in part is prohibited
+ * without the written consent of the copyright owner.
+ * 
+ * XIAOWEI CHEN MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY OF
+ * THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED
+ * TO THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE, OR NON-INFRINGEMENT. XIAOWEI CHEN SHALL NOT BE LIABLE FOR
+ * ANY DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR
+ * DISTRIBUTING THIS SOFTWARE OR ITS DERIVATIVES.
+ * 
+ * All rights reserved.
+ */
+package com.chen.candybon.fasttrack.dao;
+
+import com.chen.candybon.fasttrack.data.DataClass;
+import com.chen.candybon.fasttrack.object.KeyedId;
+import com.chen.candybon.fasttrack.object.KeyedObject;
+
+import javax.transaction.Synchronization;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Removes from the caches the instances changed by a write, and the cached search results it may change.
+ * <p/>
+ * The writes remove the instances before changing them, but until the transaction ends the other callers still read
+ * the previous rows, and may cache them again: the removal is repeated after the completion of the transaction.
+ *
+ * @author Xiaowei Chen
+ */
+final class Invalidation implements Synchronization {
+
+    private final Collection<KeyedId> keyedIds;
+
+    private final Class<?> tClass;
+
+    private final Integer name;
+
+    private final List<Integer[]> rows;
+
+    /**
+     * @param keyedIds The instances changed, all of the same class.
+     * @param before The index hashes of the instances before the write, or null if they were not read: all the
+     * results of the class are then removed.
+     * @param written The instances written.
+     */
+    Invalidation(Collection<KeyedId> keyedIds, List<Integer[]> before, KeyedObject... written) {
+        this.keyedIds = keyedIds;
+        this.tClass = null;
+        this.name = keyedIds.isEmpty() ? null : keyedIds.iterator().next().getName();
+        if (before == null) {
+            this.rows = null;
+        } else {
+            this.rows = new ArrayList<Integer[]>(before);
+            for (KeyedObject ko : written) {
+                rows.add(ko.getIndexes());
+            }
+        }
+    }
+
+    /**
+     * @param tClass The class of which any instance may have changed.
+     */
+    Invalidation(Class<?> tClass) {
+        this.keyedIds = null;
+        this.tClass = tClass;
+        this.name = DataClass.of(tClass).getName();
+        this.rows = null;
+    }
+
+    /**
+     * Removes the instances and the search results from the caches.
+     */
+    void run() {
+        if (keyedIds == null) {
+            ObjectCache.invalidate(tClass);
+            OffHeapCache.invalidate(tClass);
+        } else {
+            ObjectCache.invalidate(keyedIds);
+            OffHeapCache.invalidate(keyedIds);
+        }
+        if (name == null) {
+            return;
+        }
+        if (rows == null) {
+            QueryCache.invalidate(name);
+        } else {
+            QueryCache.invalidate(name, rows);
+        }
+    }
+
+    @Override
+    public void beforeCompletion() {
+    }
+
+    @Override
+    public void afterCompletion(int status) {
+        run();
+    }
+}
@@ -17,8 +17,11 @@ package com.chen.candybon.fasttrack.dao;
 
 import com.chen.candybon.fasttrack.Predicate;
 import com.chen.candybon.fasttrack.exception.InvalidPredicateException;
+import com.chen.candybon.fasttrack.object.KeyedObject;
+import com.chen.candybon.fasttrack.type.Comparison;
 import com.chen.candybon.fasttrack.type.Index;
 import com.chen.candybon.fasttrack.type.Operand;
+import com.chen.candybon.fasttrack.type.SortOrder;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -30,55 +33,241 @@ import java.util.List;
 public class JPQLPredicate implements Predicate {
     static final int UNSET = -1;
 
+    /**
+     * The parameter of the queries holding named conditions, bound to the {@link com.chen.candybon.fasttrack.object.KeyedId}
+     * name part of the searched objects.
+     */
+    static final String KEY_NAME = "keyName";
+
     private int maxResultNumber = UNSET;
     private int firstResult = UNSET;
+    private Index orderBy = null;
+    private SortOrder order = null;
+    private boolean orderByUid = false;
 
     private List<Operand> ops = null;
     private List<Index> indexes = null;
     private List<String> values = null;
+    private List<Comparison> comparisons = null;
+    private List<String> uppers = null;
+    private List<String> names = null;
 
     public JPQLPredicate() {
         ops = new ArrayList<Operand>();
         indexes = new ArrayList<Index>();
         values = new ArrayList<String>();
+        comparisons = new ArrayList<Comparison>();
+        uppers = new ArrayList<String>();
+        names = new ArrayList<String>();
     }
 
     @Override
     public void add(Operand op, Index index, String value) {
+        add(op, index, Comparison.EQUAL, value, null);
+    }
+
+    @Override
+    public void add(Operand op, Index index, Comparison comparison, String value, String upper) {
+        add(op, index, null, comparison, value, upper);
+    }
+
+    @Override
+    public void add(Operand op, String index, Comparison comparison, String value, String upper) {
+        add(op, null, index, comparison, value, upper);
+    }
+
+    private void add(Operand op, Index index, String name, Comparison comparison, String value, String upper) {
         ops.add(op);
         indexes.add(index);
+        names.add(name);
         values.add(value);
+        comparisons.add(comparison);
+        uppers.add(comparison == Comparison.BETWEEN ? upper : null);
     }
 
     @Override
     public String toQuery() throws InvalidPredicateException {
-        if (!ops.isEmpty() && ops.get(0) == Operand.OR) {
+        if (ops.isEmpty()) {
+            return "";
+        }
+        if (ops.get(0) == Operand.OR) {
             throw new InvalidPredicateException("The first operand should not be OR.");
         }
 
         StringBuilder query = new StringBuilder(100);
         Operand op;
-        Index index;
-        String value;
         // First must be an AND
-        query.append("ko.").append(indexes.get(0).name()).append('=').append(values.get(0).hashCode());
+        appendCondition(query, 0);
 
 
         for (int i = 1; i < ops.size(); i++) {
             op = ops.get(i);
-            index = indexes.get(i);
-            value = values.get(i);
 
             if (op == Operand.AND) {
                 query.append(" AND ");
             } else {
                 query.append(" OR ");
             }
-            query.append("ko.").append(index.name()).append("=").append(value.hashCode());
+            appendCondition(query, i);
         }
         return query.toString();
     }
 
+    /**
+     * The hash column selects the rows of an equality through its database index, the value column then removes
+     * the rows of another value of the same hash.  The rows stored without the values only have the hash to go by.
+     * The other comparisons scan the value column, which the rows stored without the values never satisfy.
+     */
+    private void appendCondition(StringBuilder query, int i) {
+        if (names.get(i) != null) {
+            appendNamedCondition(query, i);
+            return;
+        }
+        Index index = indexes.get(i);
+        String value = values.get(i);
+        String column = "ko.indexValue" + (index.ordinal() + 1);
+        switch (comparisons.get(i)) {
+            case GREATER:
+                query.append('(').append(column).append(" > ").append(literal(value)).append(')');
+                break;
+            case LESS:
+                query.append('(').append(column).append(" < ").append(literal(value)).append(')');
+                break;
+            case BETWEEN:
+                query.append('(').append(column).append(" BETWEEN ").append(literal(value))
+                        .append(" AND ").append(literal(uppers.get(i))).append(')');
+                break;
+            case STARTS_WITH:
+                query.append('(').append(column).append(" LIKE ").append(prefix(value)).append(')');
+                break;
+            default:
+                query.append("(ko.").append(index.name()).append('=').append(value.hashCode())
+                        .append(" AND (").append(column).append(" IS NULL OR ").append(column).append('=')
+                        .append(literal(value)).append("))");
+        }
+    }
+
+    /**
+     * A named condition selects the objects having a matching row in the index table, looked up by the class, the
+     * index and the hash of the value or the range of values.
+     */
+    private void appendNamedCondition(StringBuilder query, int i) {
+        String alias = "i" + i;
+        String value = values.get(i);
+        String column = alias + ".indexValue";
+        query.append("(ko.id.uid IN (SELECT ").append(alias).append(".id.uid FROM KeyedIndex ").append(alias)
+                .append(" WHERE ").append(alias).append(".id.name = :").append(KEY_NAME)
+                .append(" AND ").append(alias).append(".id.indexId = ").append(names.get(i).hashCode())
+                .append(" AND ");
+        switch (comparisons.get(i)) {
+            case GREATER:
+                query.append(column).append(" > ").append(literal(value));
+                break;
+            case LESS:
+                query.append(column).append(" < ").append(literal(value));
+                break;
+            case BETWEEN:
+                query.append(column).append(" BETWEEN ").append(literal(value)).append(" AND ")
+                        .append(literal(uppers.get(i)));
+                break;
+            case STARTS_WITH:
+                query.append(column).append(" LIKE ").append(prefix(value));
+                break;
+            default:
+                query.append(alias).append(".valueHash = ").append(value.hashCode()).append(" AND ").append(column)
+                        .append(" = ").append(literal(value));
+        }
+        query.append("))");
+    }
+
+    private static String literal(String value) {
+        return "'" + KeyedObject.indexValue(value).replace("'", "''") + "'";
+    }
+
+    /**
+     * The escape character is not a backslash, which MySQL reads as an escape in the literal itself.
+     */
+    private static String prefix(String value) {
+        String pattern = KeyedObject.indexValue(value).replace("!", "!!").replace("%", "!%").replace("_", "!_");
+        return "'" + pattern.replace("'", "''") + "%' ESCAPE '!'";
+    }
+
+    /**
+     * Evaluates the conditions on the indexes of a row the way the database does, AND taking precedence over OR.
+     * The hashes do not keep the order of the values, so a comparison other than an equality is taken as satisfied,
+     * and so is a condition on a named index, which is not in the hashes of the row.
+     *
+     * @param indexes The index hashes of the row, see {@link com.chen.candybon.fasttrack.object.KeyedObject#getIndexes()}.
+     * @return True if the row satisfies the conditions.
+     */
+    boolean matches(Integer[] indexes) {
+        boolean group = true;
+        for (int i = 0; i < ops.size(); i++) {
+            if (i > 0 && ops.get(i) == Operand.OR) {
+                if (group) {
+                    return true;
+                }
+                group = true;
+            }
+            if (names.get(i) != null) {
+                continue;
+            }
+            Integer index = indexes[this.indexes.get(i).ordinal()];
+            group = group && (comparisons.get(i) != Comparison.EQUAL
+                    || index != null && index == values.get(i).hashCode());
+        }
+        return group;
+    }
+
+    /**
+     * @return A copy of this predicate, which does not change if this one does.
+     */
+    JPQLPredicate copy() {
+        JPQLPredicate copy = new JPQLPredicate();
+        copy.ops.addAll(ops);
+        copy.indexes.addAll(indexes);
+        copy.values.addAll(values);
+        copy.comparisons.addAll(comparisons);
+        copy.uppers.addAll(uppers);
+        copy.names.addAll(names);
+        copy.maxResultNumber = maxResultNumber;
+        copy.firstResult = firstResult;
+        copy.orderBy = orderBy;
+        copy.order = order;
+        copy.orderByUid = orderByUid;
+        return copy;
+    }
+
+    /**
+     * @return A copy of this predicate selecting its rows from the first one to the end of its page, ordered by uid
+     *         when not ordered by an index: the rows of several tables searched with it can be merged in the same
+     *         order, and the page taken once from the merged rows.
+     */
+    JPQLPredicate toPageEnd() {
+        JPQLPredicate copy = copy();
+        copy.firstResult = UNSET;
+        if (maxResultNumber != UNSET) {
+            copy.maxResultNumber = pageEnd(firstResult, maxResultNumber);
+        }
+        copy.orderByUid = orderBy == null;
+        return copy;
+    }
+
+    /**
+     * @return The number of rows up to the end of a page, or {@link Integer#MAX_VALUE} if it does not fit.
+     */
+    static int pageEnd(int first, int max) {
+        int start = Math.max(first, 0);
+        return max > Integer.MAX_VALUE - start ? Integer.MAX_VALUE : start + max;
+    }
+
+    /**
+     * @return A text identifying the rows selected by this predicate, the same for predicates selecting the same rows.
+     */
+    String toKey() throws InvalidPredicateException {
+        return toQuery() + " ORDER " + orderBy + " " + order + " FIRST " + firstResult + " MAX " + maxResultNumber;
+    }
+
     @Override
     public void setMaxResults(int max) throws InvalidPredicateException {
         if (max < 0) {
@@ -105,8 +294,42 @@ public class JPQLPredicate implements Predicate {
         return this.firstResult;
     }
 
+    @Override
+    public void setOrderBy(Index index, SortOrder order) {
+        this.orderBy = index;
+        this.order = index == null ? null : order == null ? SortOrder.ASCENDING : order;
+    }
+
+    @Override
+    public Index getOrderBy() {
+        return orderBy;
+    }
+
+    @Override
+    public SortOrder getOrder() {
+        return order;
+    }
+
+    /**
+     * @return The ORDER BY clause of the predicate, on the value column of the index and then the uid so that the
+     *         pages of the same values do not overlap, on the uid alone for {@link #toPageEnd()}, or an empty string
+     *         if the results are not ordered.
+     */
+    static String toOrderBy(Predicate predicate) {
+        if (predicate == null) {
+            return "";
+        }
+        if (predicate.getOrderBy() == null) {
+            boolean byUid = predicate instanceof JPQLPredicate && ((JPQLPredicate) predicate).orderByUid;
+            return byUid ? " ORDER BY ko.id.uid ASC" : "";
+        }
+        String direction = predicate.getOrder() == SortOrder.DESCENDING ? " DESC" : " ASC";
+        return " ORDER BY ko.indexValue" + (predicate.getOrderBy().ordinal() + 1) + direction + ", ko.id.uid"
+                + direction;
+    }
+
     @Override
     public boolean isEmpty() {
-        return ops.isEmpty() && maxResultNumber == UNSET && firstResult == UNSET;
+        return ops.isEmpty() && maxResultNumber == UNSET && firstResult == UNSET && orderBy == null;
     }
 }
@@ -0,0 +1,225 @@
+/*
+ * Copyright (c) XIAOWEI CHEN, 2009.
+ * All Rights Reserved. Reproduction in whole or in part is prohibited
+ * without the written consent of the copyright owner.
+ * 
+ * XIAOWEI CHEN MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY OF
+ * THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED
+ * TO THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE, OR NON-INFRINGEMENT. XIAOWEI CHEN SHALL NOT BE LIABLE FOR
+ * ANY DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR
+ * DISTRIBUTING THIS SOFTWARE OR ITS DERIVATIVES.
+ * 
+ * All rights reserved.
+ */
+package com.chen.candybon.fasttrack.dao;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Per class Bloom filters of the stored keys (see {@link FastTrackConfig#isKeyFilter()}), so that looking up a key
+ * that does not exist mostly costs no query.
+ * <p/>
+ * A filter is built in the background from a scan of the keys, and from the keys stored through this node since the
+ * previous scan, which the scan may not see if their transaction was not committed yet.  Until it is built, and once
+ * it is older than {@link FastTrackConfig#getKeyFilterRefresh()}, there is no filter for the class: every key is
+ * looked up until the next one is built.  This is also when the removed keys are forgotten.
+ *
+ * @author Xiaowei Chen
+ */
+final class KeyFilter {
+
+    private static final int BITS_PER_KEY = 10;
+
+    private static final int HASHES = 7;
+
+    private static final int MIN_BITS = 1024;
+
+    /**
+     * Number of keys stored through this node since the previous scan beyond which the filter is built again, so
+     * that the keys kept for the next filter stay few.
+     */
+    static final int MAX_PENDING = 64 * 1024;
+
+    private static final ConcurrentMap<Integer, Holder> HOLDERS = new ConcurrentHashMap<Integer, Holder>();
+
+    /**
+     * Runs the scans of the keys off the threads of the callers.  The thread is a daemon so that it never holds the
+     * server back when shutting down.
+     */
+    static volatile Executor scans = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "fasttrack-key-filter");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private final AtomicLongArray bits;
+    private final int size;
+
+    /**
+     * @param expected The number of keys the filter is sized for, about 1% of the absent keys then pass.
+     */
+    KeyFilter(int expected) {
+        long wanted = Math.max(MIN_BITS, (long) expected * BITS_PER_KEY);
+        int words = (int) Math.min((wanted + 63) / 64, Integer.MAX_VALUE / 64);
+        this.bits = new AtomicLongArray(words);
+        this.size = words * 64;
+    }
+
+    /**
+     * @param uid The uid part of a key.
+     * @return False if the key is certainly not stored.
+     */
+    boolean mightContain(long uid) {
+        long h = mix(uid);
+        int h1 = (int) h;
+        int h2 = (int) (h >>> 32) | 1;
+        for (int i = 0; i < HASHES; i++) {
+            int bit = ((h1 + i * h2) & Integer.MAX_VALUE) % size;
+            if ((bits.get(bit >>> 6) & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    void add(long uid) {
+        long h = mix(uid);
+        int h1 = (int) h;
+        int h2 = (int) (h >>> 32) | 1;
+        for (int i = 0; i < HASHES; i++) {
+            int bit = ((h1 + i * h2) & Integer.MAX_VALUE) % size;
+            long mask = 1L << bit;
+            long word;
+            do {
+                word = bits.get(bit >>> 6);
+            } while ((word & mask) == 0 && !bits.compareAndSet(bit >>> 6, word, word | mask));
+        }
+    }
+
+    /**
+     * @return The filter of a class, or null if it is not built yet or too old to answer that a key is not stored.
+     */
+    static KeyFilter get(int name) {
+        Holder holder = HOLDERS.get(name);
+        if (holder == null) {
+            return null;
+        }
+        KeyFilter current = holder.current;
+        if (current == null || System.currentTimeMillis() - holder.built > FastTrackConfig.getKeyFilterRefresh()) {
+            return null;
+        }
+        return current;
+    }
+
+    /**
+     * Starts building the filter of a class: only one caller is told to scan the keys at a time.
+     *
+     * @return True if the caller is to scan the keys, then to call {@link #built} or {@link #failed}.
+     */
+    static boolean startBuilding(int name) {
+        return holder(name).building.compareAndSet(false, true);
+    }
+
+    /**
+     * Replaces the filter of a class by one built from the scanned keys and the keys stored since the previous scan.
+     * The keys stored before the previous scan are added too, in case their transaction was not committed at either
+     * scan.
+     *
+     * @param uids The uids of the scanned keys, by table.
+     */
+    static void built(int name, long[]... uids) {
+        Holder holder = holder(name);
+        int count = 0;
+        for (long[] part : uids) {
+            count += part.length;
+        }
+        // room for as many new keys before the next refresh
+        KeyFilter filter = new KeyFilter(count * 2);
+        for (long[] part : uids) {
+            for (long uid : part) {
+                filter.add(uid);
+            }
+        }
+        synchronized (holder) {
+            for (int i = 0; i < holder.previousCount; i++) {
+                filter.add(holder.previous[i]);
+            }
+            for (int i = 0; i < holder.pendingCount; i++) {
+                filter.add(holder.pending[i]);
+            }
+            holder.previous = holder.pending;
+            holder.previousCount = holder.pendingCount;
+            holder.pending = new long[16];
+            holder.pendingCount = 0;
+            holder.current = filter;
+            holder.built = System.currentTimeMillis();
+        }
+        holder.building.set(false);
+    }
+
+    static void failed(int name) {
+        holder(name).building.set(false);
+    }
+
+    /**
+     * Records a stored key, in the filter in use and for the next one.
+     *
+     * @return True if the filter is to be built again, many keys being stored since the previous scan.
+     */
+    static boolean added(int name, long uid) {
+        Holder holder = holder(name);
+        synchronized (holder) {
+            if (holder.pendingCount == holder.pending.length) {
+                holder.pending = Arrays.copyOf(holder.pending, holder.pendingCount * 2);
+            }
+            holder.pending[holder.pendingCount++] = uid;
+            if (holder.current != null) {
+                holder.current.add(uid);
+            }
+            return holder.pendingCount >= MAX_PENDING && !holder.building.get();
+        }
+    }
+
+    static void clear(int name) {
+        HOLDERS.remove(name);
+    }
+
+    private static Holder holder(int name) {
+        Holder holder = HOLDERS.get(name);
+        if (holder == null) {
+            HOLDERS.putIfAbsent(name, new Holder());
+            holder = HOLDERS.get(name);
+        }
+        return holder;
+    }
+
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    private static final class Holder {
+        final AtomicBoolean building = new AtomicBoolean();
+        volatile KeyFilter current;
+        volatile long built;
+        long[] pending = new long[16];
+        int pendingCount;
+        long[] previous = new long[0];
+        int previousCount;
+    }
+}
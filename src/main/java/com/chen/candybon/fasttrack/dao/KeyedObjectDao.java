@@ -19,11 +19,19 @@ import com.chen.candybon.fasttrack.Predicate;
 import com.chen.candybon.fasttrack.exception.DataException;
 import com.chen.candybon.fasttrack.exception.InvalidPredicateException;
 import com.chen.candybon.fasttrack.exception.NotFoundException;
+import com.chen.candybon.fasttrack.object.IndexId;
 import com.chen.candybon.fasttrack.object.KeyedId;
+import com.chen.candybon.fasttrack.object.KeyedIndex;
 import com.chen.candybon.fasttrack.object.KeyedObject;
+import com.chen.candybon.fasttrack.object.LargeChunk;
+import com.chen.candybon.fasttrack.object.LargeContent;
 import com.chen.candybon.fasttrack.object.LargeKeyedObject;
 import com.chen.candybon.fasttrack.object.SmallKeyedObject;
-import com.sun.org.apache.xerces.internal.impl.dv.util.Base64;
+import org.hibernate.EntityMode;
+import org.hibernate.Session;
+import org.hibernate.engine.EntityKey;
+import org.hibernate.engine.SessionImplementor;
+import org.hibernate.jdbc.Work;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -31,11 +39,29 @@ import javax.ejb.Stateless;
 import javax.ejb.TransactionAttribute;
 import javax.ejb.TransactionAttributeType;
 import javax.persistence.EntityManager;
-import javax.persistence.NoResultException;
 import javax.persistence.PersistenceContext;
 import javax.persistence.Query;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.sql.BatchUpdateException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * Dao implementation class
@@ -64,11 +90,515 @@ public class KeyedObjectDao implements LocalKeyedObjectDao {
             LOG.debug("Attempting to create a null object -> Rejecting.");
             throw new DataException("Nothing to create. Provide a non-null KeyedObject instance.");
         }
+        if (ko instanceof LargeKeyedObject) {
+            ((LargeKeyedObject) ko).setContentHash(SharedContent.hashOf(ko.getValue()));
+        }
         em.persist(ko);
         em.flush();
         return ko;
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * @param kos The objects to persist.
+     * @return The insertion result of each object.
+     * @throws DataException In case the list is null or contains null.
+     */
+    @Override
+    public boolean[] createAll(final List<? extends KeyedObject> kos) throws DataException {
+        if (kos == null || kos.contains(null)) {
+            LOG.debug("Attempting to create null objects -> Rejecting.");
+            throw new DataException("Nothing to create. Provide non-null KeyedObject instances.");
+        }
+        final boolean[] result = new boolean[kos.size()];
+        if (kos.isEmpty()) {
+            return result;
+        }
+        // make sure pending changes hit the database before going around the entity manager
+        em.flush();
+        getSession().doWork(new Work() {
+            @Override
+            public void execute(Connection connection) throws SQLException {
+                insertBatch(connection, SmallKeyedObject.class, kos, result);
+                insertBatch(connection, LargeKeyedObject.class, kos, result);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @param ko The object to store.
+     * @throws DataException In case the instance to store is null.
+     */
+    @Override
+    public void upsert(final KeyedObject ko) throws DataException {
+        if (ko == null) {
+            LOG.debug("Attempting to upsert a null object -> Rejecting.");
+            throw new DataException("Nothing to store. Provide a non-null KeyedObject instance.");
+        }
+        em.flush();
+        getSession().doWork(new Work() {
+            @Override
+            public void execute(Connection connection) throws SQLException {
+                SqlDialect.of(connection).upsert(connection, ko);
+            }
+        });
+        evict(ko.getClass(), ko.getId());
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @param id The unique id of the object.
+     * @param value The value, streamed to the database.
+     * @param length The number of bytes of the value, or -1 if unknown.
+     * @param indexes The indexes of the object.
+     * @throws DataException In case the id or the stream is null.
+     */
+    @Override
+    public void createStream(final KeyedId id, final InputStream value, final int length, String... indexes)
+            throws DataException {
+        if (id == null || value == null) {
+            LOG.debug("Attempting to create a null object -> Rejecting.");
+            throw new DataException("Nothing to create. Provide a non-null id and stream.");
+        }
+        final LargeKeyedObject ko = new LargeKeyedObject(id, null, indexes);
+        em.flush();
+        getSession().doWork(new Work() {
+            @Override
+            public void execute(Connection connection) throws SQLException {
+                PreparedStatement ps = connection.prepareStatement(KeyedObjectSql.insert(LargeKeyedObject.class));
+                File spool = null;
+                try {
+                    int pos = KeyedObjectSql.bindInsertKey(ps, ko);
+                    if (length >= 0) {
+                        ps.setBinaryStream(pos, value, length);
+                    } else {
+                        try {
+                            ps.setBinaryStream(pos, value);
+                        } catch (AbstractMethodError e) {
+                            // JDBC 3 driver, the length must be known: spool to disk rather than to memory
+                            spool = spool(value);
+                            ps.setBinaryStream(pos, new FileInputStream(spool), (int) spool.length());
+                        }
+                    }
+                    ps.executeUpdate();
+                } catch (IOException e) {
+                    SQLException sqlException = new SQLException("Failed to read the stream: " + e.getMessage());
+                    sqlException.initCause(e);
+                    throw sqlException;
+                } finally {
+                    ps.close();
+                    if (spool != null && !spool.delete()) {
+                        spool.deleteOnExit();
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @param id The unique id of the object.
+     * @param out Where to copy the value.
+     * @return False if there is no such object.
+     * @throws IOException In case the value cannot be copied.
+     */
+    @TransactionAttribute(TransactionAttributeType.SUPPORTS)
+    @Override
+    public boolean copyValue(final KeyedId id, final OutputStream out) throws IOException {
+        if (id == null) {
+            return false;
+        }
+        final boolean[] found = new boolean[1];
+        final IOException[] failure = new IOException[1];
+        getSession().doWork(new Work() {
+            @Override
+            public void execute(Connection connection) throws SQLException {
+                PreparedStatement ps = connection.prepareStatement("SELECT BIN_OBJECT FROM "
+                        + KeyedObjectSql.tableName(LargeKeyedObject.class) + " WHERE name = ? AND uid = ?");
+                try {
+                    if (SqlDialect.of(connection) == SqlDialect.MYSQL) {
+                        // otherwise MySQL reads the whole row in memory
+                        ps.setFetchSize(Integer.MIN_VALUE);
+                    }
+                    ps.setInt(1, id.getName());
+                    ps.setLong(2, id.getUid());
+                    ResultSet rs = ps.executeQuery();
+                    try {
+                        if (rs.next()) {
+                            found[0] = true;
+                            InputStream in = rs.getBinaryStream(1);
+                            if (in != null) {
+                                copy(in, out);
+                            }
+                        }
+                    } catch (IOException e) {
+                        failure[0] = e;
+                    } finally {
+                        rs.close();
+                    }
+                } finally {
+                    ps.close();
+                }
+            }
+        });
+        if (failure[0] != null) {
+            throw failure[0];
+        }
+        return found[0];
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @param id The unique id of the object.
+     * @param value The value, read chunk by chunk.
+     * @param chunkSize The size of the chunks.
+     * @return The number of bytes stored.
+     * @throws IOException In case the stream cannot be read.
+     */
+    @Override
+    public long createChunks(final KeyedId id, final InputStream value, final int chunkSize) throws IOException {
+        if (id == null || value == null || chunkSize <= 0) {
+            throw new IOException("Nothing to store. Provide a non-null id and stream, and a positive chunk size.");
+        }
+        // a batch holds its chunks in memory until sent, keep it to a few megabytes
+        final int batchSize = Math.max(1, Math.min(FastTrackConfig.getJdbcBatchSize(), (8 << 20) / chunkSize));
+        final long[] length = new long[1];
+        final IOException[] failure = new IOException[1];
+        deleteChunks(id);
+        getSession().doWork(new Work() {
+            @Override
+            public void execute(Connection connection) throws SQLException {
+                PreparedStatement ps = connection.prepareStatement("INSERT INTO "
+                        + KeyedObjectSql.tableName(LargeChunk.class) + " (name, uid, chunk, BIN_DATA) VALUES (?,?,?,?)");
+                try {
+                    int chunk = 0;
+                    byte[] data;
+                    while ((data = readChunk(value, chunkSize)) != null) {
+                        ps.setInt(1, id.getName());
+                        ps.setLong(2, id.getUid());
+                        ps.setInt(3, chunk++);
+                        ps.setBytes(4, data);
+                        ps.addBatch();
+                        length[0] += data.length;
+                        if (chunk % batchSize == 0) {
+                            ps.executeBatch();
+                        }
+                    }
+                    if (chunk % batchSize != 0) {
+                        ps.executeBatch();
+                    }
+                } catch (IOException e) {
+                    failure[0] = e;
+                } finally {
+                    ps.close();
+                }
+            }
+        });
+        if (failure[0] != null) {
+            throw failure[0];
+        }
+        LOG.debug("Stored {} bytes in chunks for {}", length[0], id);
+        return length[0];
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @param id The unique id of the object.
+     * @param first The position of the first chunk to copy.
+     * @param last The position of the last chunk to copy.
+     * @param out Where to copy the chunks.
+     * @return The number of chunks copied.
+     * @throws IOException In case the chunks cannot be copied.
+     */
+    @TransactionAttribute(TransactionAttributeType.SUPPORTS)
+    @Override
+    public int copyChunks(final KeyedId id, final int first, final int last, final OutputStream out)
+            throws IOException {
+        if (id == null || first > last) {
+            return 0;
+        }
+        final int[] count = new int[1];
+        final IOException[] failure = new IOException[1];
+        getSession().doWork(new Work() {
+            @Override
+            public void execute(Connection connection) throws SQLException {
+                PreparedStatement ps = connection.prepareStatement("SELECT BIN_DATA FROM "
+                        + KeyedObjectSql.tableName(LargeChunk.class)
+                        + " WHERE name = ? AND uid = ? AND chunk BETWEEN ? AND ? ORDER BY chunk");
+                try {
+                    if (SqlDialect.of(connection) == SqlDialect.MYSQL) {
+                        // otherwise MySQL reads all the chunks in memory
+                        ps.setFetchSize(Integer.MIN_VALUE);
+                    }
+                    ps.setInt(1, id.getName());
+                    ps.setLong(2, id.getUid());
+                    ps.setInt(3, first);
+                    ps.setInt(4, last);
+                    ResultSet rs = ps.executeQuery();
+                    try {
+                        while (rs.next()) {
+                            InputStream in = rs.getBinaryStream(1);
+                            if (in != null) {
+                                copy(in, out);
+                            }
+                            count[0]++;
+                        }
+                    } catch (IOException e) {
+                        failure[0] = e;
+                    } finally {
+                        rs.close();
+                    }
+                } finally {
+                    ps.close();
+                }
+            }
+        });
+        if (failure[0] != null) {
+            throw failure[0];
+        }
+        return count[0];
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @param id The unique id of the object.
+     * @return The number of deleted chunks.
+     */
+    @Override
+    public int deleteChunks(KeyedId id) {
+        if (id == null) {
+            return 0;
+        }
+        Query q = em.createNamedQuery("LargeChunk.deleteById");
+        q.setParameter("keyName", id.getName());
+        q.setParameter("uid", id.getUid());
+        return q.executeUpdate();
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @param id The unique id of the object.
+     * @param indexes The values of the named indexes of the object, by index name.
+     */
+    @Override
+    public void createIndexes(final KeyedId id, final Map<String, String> indexes) {
+        if (id == null || indexes == null) {
+            return;
+        }
+        List<KeyedId> ids = new ArrayList<KeyedId>(1);
+        ids.add(id);
+        deleteIndexes(ids);
+        if (indexes.isEmpty()) {
+            return;
+        }
+        getSession().doWork(new Work() {
+            @Override
+            public void execute(Connection connection) throws SQLException {
+                PreparedStatement ps = connection.prepareStatement("INSERT INTO "
+                        + KeyedObjectSql.tableName(KeyedIndex.class)
+                        + " (name, uid, INDEX_ID, VALUE_HASH, INDEX_VALUE) VALUES (?,?,?,?,?)");
+                try {
+                    for (Map.Entry<String, String> entry : indexes.entrySet()) {
+                        KeyedIndex index = new KeyedIndex(new IndexId(id, entry.getKey()), entry.getValue());
+                        ps.setInt(1, id.getName());
+                        ps.setLong(2, id.getUid());
+                        ps.setInt(3, index.getId().getIndexId());
+                        ps.setInt(4, index.getValueHash());
+                        ps.setString(5, index.getIndexValue());
+                        ps.addBatch();
+                    }
+                    ps.executeBatch();
+                } finally {
+                    ps.close();
+                }
+            }
+        });
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @param ids The unique ids of the objects.
+     * @return The number of deleted index rows.
+     */
+    @Override
+    public int deleteIndexes(Collection<KeyedId> ids) {
+        if (ids == null) {
+            return 0;
+        }
+        int count = 0;
+        int chunkSize = FastTrackConfig.getInListSize();
+        for (Map.Entry<Integer, Set<Long>> entry : groupUidsByName(ids).entrySet()) {
+            List<Long> uids = new ArrayList<Long>(entry.getValue());
+            for (int from = 0; from < uids.size(); from += chunkSize) {
+                Query q = em.createNamedQuery("KeyedIndex.deleteByIds");
+                q.setParameter("keyName", entry.getKey());
+                q.setParameter("uids", uids.subList(from, Math.min(from + chunkSize, uids.size())));
+                count += q.executeUpdate();
+            }
+        }
+        return count;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @param keyIdName The {@link KeyedId} name part of the unique key of the objects.
+     * @return The number of deleted index rows.
+     */
+    @Override
+    public int deleteOrphanIndexes(String keyIdName) {
+        if (StringUtils.isEmptyOrNull(keyIdName)) {
+            return 0;
+        }
+        Query q = em.createNamedQuery("KeyedIndex.deleteOrphans");
+        q.setParameter("keyName", keyIdName.hashCode());
+        return q.executeUpdate();
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @param hash The hash identifying the content.
+     * @param content The content, only written if no content with this hash is stored yet.
+     * @return True if the content was already stored.
+     */
+    @Override
+    public boolean acquireContent(final String hash, final byte[] content) {
+        final boolean[] known = new boolean[1];
+        getSession().doWork(new Work() {
+            @Override
+            public void execute(Connection connection) throws SQLException {
+                String table = KeyedObjectSql.tableName(LargeContent.class);
+                PreparedStatement update = connection.prepareStatement("UPDATE " + table
+                        + " SET REF_COUNT = REF_COUNT + 1 WHERE HASH = ?");
+                try {
+                    update.setString(1, hash);
+                    if (update.executeUpdate() > 0) {
+                        known[0] = true;
+                        return;
+                    }
+                    PreparedStatement insert = connection.prepareStatement("INSERT INTO " + table
+                            + " (HASH, REF_COUNT, BIN_DATA) VALUES (?, 1, ?)");
+                    try {
+                        insert.setString(1, hash);
+                        insert.setBytes(2, content);
+                        insert.executeUpdate();
+                    } catch (SQLException e) {
+                        // inserted meanwhile by another transaction
+                        if (update.executeUpdate() == 0) {
+                            throw e;
+                        }
+                        known[0] = true;
+                    } finally {
+                        insert.close();
+                    }
+                } finally {
+                    update.close();
+                }
+            }
+        });
+        LOG.debug("Acquired {} content {}", known[0] ? "known" : "new", hash);
+        return known[0];
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @param hash The hash identifying the content.
+     * @return The content or null.
+     */
+    @TransactionAttribute(TransactionAttributeType.SUPPORTS)
+    @Override
+    public byte[] getContent(String hash) {
+        Query q = em.createNamedQuery("LargeContent.getData");
+        q.setParameter("hash", hash);
+        List result = q.getResultList();
+        return result.isEmpty() ? null : (byte[]) result.get(0);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @param hash The hash identifying the content.
+     * @return True if the content was removed.
+     */
+    @Override
+    public boolean releaseContent(String hash) {
+        Query q = em.createNamedQuery("LargeContent.release");
+        q.setParameter("hash", hash);
+        q.executeUpdate();
+        q = em.createNamedQuery("LargeContent.deleteUnused");
+        q.setParameter("hash", hash);
+        return q.executeUpdate() > 0;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @param keyedIds The unique keys of the objects to look up.
+     * @return The hashes of the contents referred to.
+     */
+    @TransactionAttribute(TransactionAttributeType.SUPPORTS)
+    @Override
+    @SuppressWarnings("unchecked")
+    public List<String> getContentHashes(Collection<KeyedId> keyedIds) {
+        List<String> result = new ArrayList<String>();
+        if (keyedIds == null) {
+            return result;
+        }
+        int chunkSize = FastTrackConfig.getInListSize();
+        for (Map.Entry<Integer, Set<Long>> entry : groupUidsByName(keyedIds).entrySet()) {
+            List<Long> uids = new ArrayList<Long>(entry.getValue());
+            for (int from = 0; from < uids.size(); from += chunkSize) {
+                Query q = em.createNamedQuery("LargeKeyedObject.getContentHashes");
+                q.setParameter("keyName", entry.getKey());
+                q.setParameter("uids", uids.subList(from, Math.min(from + chunkSize, uids.size())));
+                result.addAll(q.getResultList());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @param keyIdName The {@link KeyedId} name part of the unique key of the objects.
+     * @param predicate a valid {@link Predicate}.
+     * @return The hashes of the contents referred to.
+     * @throws InvalidPredicateException
+     */
+    @TransactionAttribute(TransactionAttributeType.SUPPORTS)
+    @Override
+    @SuppressWarnings("unchecked")
+    public List<String> getContentHashes(String keyIdName, Predicate predicate) throws InvalidPredicateException {
+        if (StringUtils.isEmptyOrNull(keyIdName)) {
+            return new ArrayList<String>(0);
+        }
+        StringBuilder query = new StringBuilder(100);
+        query.append("SELECT ko.contentHash FROM LargeKeyedObject ko WHERE ko.id.name =").append(keyIdName.hashCode())
+                .append(" AND ko.contentHash IS NOT NULL");
+        String conditions = predicate == null ? "" : predicate.toQuery();
+        if (conditions.length() > 0) {
+            query.append(" AND (").append(conditions).append(')');
+        }
+        Query q = em.createQuery(query.toString());
+        if (conditions.contains(":" + JPQLPredicate.KEY_NAME)) {
+            q.setParameter(JPQLPredicate.KEY_NAME, keyIdName.hashCode());
+        }
+        return q.getResultList();
+    }
+
     /**
      * {@inheritDoc}
      *
@@ -107,29 +637,170 @@ public class KeyedObjectDao implements LocalKeyedObjectDao {
         }
         if (ko instanceof LargeKeyedObject) {
             ((LargeKeyedObject) ko).setValue(value);
+            ((LargeKeyedObject) ko).setContentHash(SharedContent.hashOf(value));
         } else {
-            ((SmallKeyedObject) ko).setValue(Base64.encode(value));
+            ((SmallKeyedObject) ko).setValue(value);
+            if (FastTrackConfig.isSmallValueBase64()) {
+                ((SmallKeyedObject) ko).useEncodedValue();
+            }
         }
         ko.fillIndexes(indexes);
         em.merge(ko);
         return ko;
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * @param tClass The Class that is affected either {@link com.chen.candybon.fasttrack.object.SmallKeyedObject} or
+     * {@link com.chen.candybon.fasttrack.object.LargeKeyedObject}.
+     * @param id The unique id.
+     * @param value What to store as a byte array.
+     * @param indexes The indexes of this instance.
+     * @throws NotFoundException If there is no such row.
+     */
+    @Override
+    public void updateValue(final Class<? extends KeyedObject> tClass, final KeyedId id,
+                            final byte[] value, String... indexes) throws NotFoundException {
+        if (tClass == null || id == null || id.getName() == null || id.getUid() == null) {
+            throw new NotFoundException("No such object with id: " + id);
+        }
+        final KeyedObject ko;
+        if (LargeKeyedObject.class.equals(tClass)) {
+            ko = new LargeKeyedObject(id, value, indexes);
+        } else {
+            ko = new SmallKeyedObject(id, value, indexes);
+            if (FastTrackConfig.isSmallValueBase64()) {
+                ((SmallKeyedObject) ko).useEncodedValue();
+            }
+        }
+        final int[] count = new int[1];
+        em.flush();
+        getSession().doWork(new Work() {
+            @Override
+            public void execute(Connection connection) throws SQLException {
+                PreparedStatement ps = connection.prepareStatement(KeyedObjectSql.update(tClass));
+                try {
+                    KeyedObjectSql.bindUpdate(ps, ko);
+                    count[0] = ps.executeUpdate();
+                } finally {
+                    ps.close();
+                }
+            }
+        });
+        evict(tClass, id);
+        if (count[0] == 0) {
+            throw new NotFoundException("No such object with id: " + id);
+        }
+    }
+
     /**
      * {@inheritDoc}
      *
      * @param tClass One of SmallKeyedObject or LargeKeyedObject.
      * @param id A unique id.
+     * @return The number of deleted rows.
      */
     @Override
-    public void delete(final Class<? extends KeyedObject> tClass, KeyedId id) {
-        KeyedObject ko = get(tClass, id);
-        if (ko != null) {
-            LOG.debug("Removing Keyed object: {}", id);
-            em.remove(ko);
+    public int delete(final Class<? extends KeyedObject> tClass, KeyedId id) {
+        if (tClass == null || id == null) {
+            // nothing to do
+            return 0;
+        }
+        Query q = em.createNamedQuery(queryName(tClass, "deleteById"));
+        q.setParameter("keyName", id.getName());
+        q.setParameter("uid", id.getUid());
+        int count = q.executeUpdate();
+        if (LargeKeyedObject.class.equals(tClass)) {
+            deleteChunks(id);
         }
+        evict(tClass, id);
+        LOG.debug("Removed {} Keyed object: {}", count, id);
+        return count;
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * @param tClass One of SmallKeyedObject or LargeKeyedObject.
+     * @param ids The unique ids.
+     * @return The number of deleted rows.
+     */
+    @Override
+    public int deleteAll(final Class<? extends KeyedObject> tClass, Collection<KeyedId> ids) {
+        if (tClass == null || ids == null) {
+            // nothing to do
+            return 0;
+        }
+        int count = 0;
+        int chunkSize = FastTrackConfig.getInListSize();
+        for (Map.Entry<Integer, Set<Long>> entry : groupUidsByName(ids).entrySet()) {
+            List<Long> uids = new ArrayList<Long>(entry.getValue());
+            for (int from = 0; from < uids.size(); from += chunkSize) {
+                Query q = em.createNamedQuery(queryName(tClass, "deleteByIds"));
+                q.setParameter("keyName", entry.getKey());
+                q.setParameter("uids", uids.subList(from, Math.min(from + chunkSize, uids.size())));
+                count += q.executeUpdate();
+                if (LargeKeyedObject.class.equals(tClass)) {
+                    Query chunks = em.createNamedQuery("LargeChunk.deleteByIds");
+                    chunks.setParameter("keyName", entry.getKey());
+                    chunks.setParameter("uids", uids.subList(from, Math.min(from + chunkSize, uids.size())));
+                    chunks.executeUpdate();
+                }
+            }
+        }
+        for (KeyedId id : ids) {
+            if (id != null) {
+                evict(tClass, id);
+            }
+        }
+        LOG.debug("Removed {} Keyed objects.", count);
+        return count;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @param tClass One of SmallKeyedObject or LargeKeyedObject.
+     * @param keyIdName The {@link KeyedId} name part of the unique key for objects to remove.
+     * @param predicate a valid {@link Predicate}.
+     * @return The number of deleted rows.
+     * @throws InvalidPredicateException
+     */
+    @Override
+    public int delete(final Class<? extends KeyedObject> tClass, final String keyIdName,
+                      final Predicate predicate) throws InvalidPredicateException {
+        if (predicate == null || predicate.isEmpty()) {
+            throw new InvalidPredicateException("Predicate is empty. No condition defined.");
+        }
+        if (predicate.getMaxResults() != JPQLPredicate.UNSET || predicate.getFirstResult() != JPQLPredicate.UNSET) {
+            throw new InvalidPredicateException("Paging is not supported when deleting.");
+        }
+        if (tClass == null || StringUtils.isEmptyOrNull(keyIdName)) {
+            return 0;
+        }
+        String conditions = predicate.toQuery();
+        if (conditions.length() == 0) {
+            throw new InvalidPredicateException("Predicate is empty. No condition defined.");
+        }
+        StringBuilder query = new StringBuilder(100);
+        query.append("DELETE FROM ").append(tClass.getSimpleName()).append(" ko WHERE ko.id.name =")
+                .append(keyIdName.hashCode())
+                .append(" AND (").append(conditions).append(')');
+        Query delete = em.createQuery(query.toString());
+        if (conditions.contains(":" + JPQLPredicate.KEY_NAME)) {
+            delete.setParameter(JPQLPredicate.KEY_NAME, keyIdName.hashCode());
+        }
+        int count = delete.executeUpdate();
+        if (count > 0 && LargeKeyedObject.class.equals(tClass)) {
+            // the predicate is on the objects, their chunks are found by elimination
+            Query chunks = em.createNamedQuery("LargeChunk.deleteOrphans");
+            chunks.setParameter("keyName", keyIdName.hashCode());
+            chunks.executeUpdate();
+        }
+        LOG.debug("Removed {} Keyed objects.", count);
+        return count;
+    }
 
     /**
      * {@inheritDoc}
@@ -156,12 +827,17 @@ public class KeyedObjectDao implements LocalKeyedObjectDao {
         }
         query.append(keyIdName.hashCode());
 
-        if (predicate != null) {
-            query.append(" AND (").append(predicate.toQuery()).append(')');
+        String conditions = predicate == null ? "" : predicate.toQuery();
+        if (conditions.length() > 0) {
+            query.append(" AND (").append(conditions).append(')');
         }
+        query.append(JPQLPredicate.toOrderBy(predicate));
 
         // LOG.info("Query to run:" + query);
         Query q = em.createQuery(query.toString());
+        if (conditions.contains(":" + JPQLPredicate.KEY_NAME)) {
+            q.setParameter(JPQLPredicate.KEY_NAME, keyIdName.hashCode());
+        }
         if (predicate != null) {
             if (predicate.getMaxResults() >= 0) {
                 q.setMaxResults(predicate.getMaxResults());
@@ -188,22 +864,211 @@ public class KeyedObjectDao implements LocalKeyedObjectDao {
             LOG.debug("No class ({}) or no key({}) specified -> returning null.", toUse, keyedId);
             return null;
         }
-        try {
-            Query q;
-            if (LargeKeyedObject.class.equals(toUse)) {
-                q = em.createNamedQuery("LargeKeyedObject.findByKeyId");
-                q.setParameter("id", keyedId);
-                return ((LargeKeyedObject)q.getSingleResult()).getValue();
-            } else {
-                q = em.createNamedQuery("SmallKeyedObject.getValue");
-                q.setParameter("id", keyedId);
-                String value = (String) q.getSingleResult();
-                return Base64.decode(value);
+        // a list rather than a single result: a miss is no exception
+        Query q = em.createNamedQuery(queryName(toUse, "getValue"));
+        q.setParameter("id", keyedId);
+        // a stored key must be the requested one, a fingerprint collision reads as a miss
+        q.setParameter("key", keyedId.getKey());
+        List result = q.getResultList();
+        if (result.isEmpty()) {
+            return null;
+        }
+        if (LargeKeyedObject.class.equals(toUse)) {
+            return (byte[]) result.get(0);
+        }
+        return toValue((Object[]) result.get(0), 0);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @param toUse The class name to use
+     * @param keyedId A unique key for this object.
+     * @param version Where to return the version of the row.
+     * @return The serialized byte array stored.
+     */
+    @TransactionAttribute(TransactionAttributeType.SUPPORTS)
+    @Override
+    public byte[] getValue(Class toUse, KeyedId keyedId, long[] version) {
+        if (toUse == null || keyedId == null) {
+            LOG.debug("No class ({}) or no key({}) specified -> returning null.", toUse, keyedId);
+            return null;
+        }
+        Query q = em.createNamedQuery(queryName(toUse, "getVersionedValue"));
+        q.setParameter("id", keyedId);
+        q.setParameter("key", keyedId.getKey());
+        List result = q.getResultList();
+        if (result.isEmpty()) {
+            return null;
+        }
+        Object[] row = (Object[]) result.get(0);
+        version[0] = row[0] == null ? 0L : (Long) row[0];
+        return toValue(row, 1);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @param toUse The class name to use
+     * @param keyName The key name part of the objects to look up.
+     * @return The uids of the objects.
+     */
+    @TransactionAttribute(TransactionAttributeType.SUPPORTS)
+    @Override
+    public long[] getUids(final Class toUse, final String keyName) {
+        if (toUse == null || StringUtils.isEmptyOrNull(keyName)) {
+            return new long[0];
+        }
+        final long[][] uids = {new long[1024]};
+        final int[] count = new int[1];
+        getSession().doWork(new Work() {
+            @Override
+            public void execute(Connection connection) throws SQLException {
+                PreparedStatement ps = connection.prepareStatement("SELECT uid FROM "
+                        + KeyedObjectSql.tableName(toUse) + " WHERE name = ?");
+                try {
+                    ps.setFetchSize(1000);
+                    ps.setInt(1, keyName.hashCode());
+                    ResultSet rs = ps.executeQuery();
+                    try {
+                        while (rs.next()) {
+                            if (count[0] == uids[0].length) {
+                                uids[0] = Arrays.copyOf(uids[0], count[0] * 2);
+                            }
+                            uids[0][count[0]++] = rs.getLong(1);
+                        }
+                    } finally {
+                        rs.close();
+                    }
+                } finally {
+                    ps.close();
+                }
             }
+        });
+        return Arrays.copyOf(uids[0], count[0]);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @param toUse The class name to use
+     * @param keyName The key name part of the objects to look up.
+     * @return True if at least one object has this key name.
+     */
+    @TransactionAttribute(TransactionAttributeType.SUPPORTS)
+    @Override
+    public boolean hasAny(Class toUse, String keyName) {
+        if (toUse == null || StringUtils.isEmptyOrNull(keyName)) {
+            return false;
+        }
+        Query q = em.createNamedQuery(queryName(toUse, "getUid"));
+        q.setParameter("keyName", keyName.hashCode());
+        q.setMaxResults(1);
+        return !q.getResultList().isEmpty();
+    }
 
-        } catch (NoResultException e) {
+    /**
+     * {@inheritDoc}
+     *
+     * @param toUse The class name to use
+     * @param keyedId A unique key for this object.
+     * @return The version or null.
+     */
+    @TransactionAttribute(TransactionAttributeType.SUPPORTS)
+    @Override
+    public Long getVersion(Class toUse, KeyedId keyedId) {
+        if (toUse == null || keyedId == null) {
             return null;
         }
+        Query q = em.createNamedQuery(queryName(toUse, "getVersion"));
+        q.setParameter("keyName", keyedId.getName());
+        q.setParameter("uid", keyedId.getUid());
+        List result = q.getResultList();
+        if (result.isEmpty()) {
+            return null;
+        }
+        return result.get(0) == null ? 0L : (Long) result.get(0);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @param toUse The class name to use
+     * @param keyedIds The unique keys of the objects to look up.
+     * @return The serialized byte arrays stored, by key.
+     */
+    @TransactionAttribute(TransactionAttributeType.SUPPORTS)
+    @Override
+    @SuppressWarnings("unchecked")
+    public Map<KeyedId, byte[]> getValues(Class toUse, Collection<KeyedId> keyedIds) {
+        Map<KeyedId, byte[]> result = new HashMap<KeyedId, byte[]>();
+        if (toUse == null || keyedIds == null) {
+            LOG.debug("No class ({}) or no keys({}) specified -> returning empty map.", toUse, keyedIds);
+            return result;
+        }
+        Map<KeyedId, KeyedId> requested = new HashMap<KeyedId, KeyedId>();
+        for (KeyedId keyedId : keyedIds) {
+            requested.put(keyedId, keyedId);
+        }
+        String queryName = queryName(toUse, "getValues");
+        int chunkSize = FastTrackConfig.getInListSize();
+        for (Map.Entry<Integer, Set<Long>> entry : groupUidsByName(keyedIds).entrySet()) {
+            List<Long> uids = new ArrayList<Long>(entry.getValue());
+            for (int from = 0; from < uids.size(); from += chunkSize) {
+                Query q = em.createNamedQuery(queryName);
+                q.setParameter("keyName", entry.getKey());
+                q.setParameter("uids", uids.subList(from, Math.min(from + chunkSize, uids.size())));
+                for (Object[] row : (List<Object[]>) q.getResultList()) {
+                    KeyedId keyedId = new KeyedId();
+                    keyedId.setName(entry.getKey());
+                    keyedId.setUid((Long) row[0]);
+                    keyedId = requested.get(keyedId);
+                    // a stored key must be the requested one, a fingerprint collision reads as a miss
+                    if (row[1] == null || row[1].equals(keyedId.getKey())) {
+                        result.put(keyedId, toValue(row, 2));
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @param toUse The class name to use
+     * @param keyedIds The unique keys of the objects to look up.
+     * @return The index hashes stored, by key.
+     */
+    @TransactionAttribute(TransactionAttributeType.SUPPORTS)
+    @Override
+    @SuppressWarnings("unchecked")
+    public Map<KeyedId, Integer[]> getIndexes(Class toUse, Collection<KeyedId> keyedIds) {
+        Map<KeyedId, Integer[]> result = new HashMap<KeyedId, Integer[]>();
+        if (toUse == null || keyedIds == null) {
+            return result;
+        }
+        String queryName = queryName(toUse, "getIndexes");
+        int chunkSize = FastTrackConfig.getInListSize();
+        for (Map.Entry<Integer, Set<Long>> entry : groupUidsByName(keyedIds).entrySet()) {
+            List<Long> uids = new ArrayList<Long>(entry.getValue());
+            for (int from = 0; from < uids.size(); from += chunkSize) {
+                Query q = em.createNamedQuery(queryName);
+                q.setParameter("keyName", entry.getKey());
+                q.setParameter("uids", uids.subList(from, Math.min(from + chunkSize, uids.size())));
+                for (Object[] row : (List<Object[]>) q.getResultList()) {
+                    KeyedId keyedId = new KeyedId();
+                    keyedId.setName(entry.getKey());
+                    keyedId.setUid((Long) row[0]);
+                    Integer[] indexes = new Integer[row.length - 1];
+                    for (int i = 0; i < indexes.length; i++) {
+                        indexes[i] = (Integer) row[i + 1];
+                    }
+                    result.put(keyedId, indexes);
+                }
+            }
+        }
+        return result;
     }
 
     /**
@@ -238,4 +1103,209 @@ public class KeyedObjectDao implements LocalKeyedObjectDao {
         q.setMaxResults(max);
         return q.getResultList();
     }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @param max The maximum number of rows to migrate.
+     * @return The number of rows migrated.
+     */
+    @Override
+    public int migrateSmallValues(final int max) {
+        final String table = KeyedObjectSql.tableName(SmallKeyedObject.class);
+        final int[] count = new int[1];
+        em.flush();
+        getSession().doWork(new Work() {
+            @Override
+            public void execute(Connection connection) throws SQLException {
+                PreparedStatement select = connection.prepareStatement("SELECT name, uid, BIN_OBJECT FROM " + table
+                        + " WHERE BIN_VALUE IS NULL AND BIN_OBJECT IS NOT NULL");
+                // the Base64 value is part of the condition, so that a row updated meanwhile is left alone
+                PreparedStatement update = connection.prepareStatement("UPDATE " + table
+                        + " SET BIN_VALUE = ?, BIN_OBJECT = NULL WHERE name = ? AND uid = ? AND BIN_OBJECT = ?");
+                try {
+                    select.setMaxRows(max);
+                    ResultSet rs = select.executeQuery();
+                    try {
+                        while (rs.next()) {
+                            String encoded = rs.getString(3);
+                            update.setBytes(1, Base64.getDecoder().decode(encoded));
+                            update.setInt(2, rs.getInt(1));
+                            update.setLong(3, rs.getLong(2));
+                            update.setString(4, encoded);
+                            count[0] += update.executeUpdate();
+                        }
+                    } finally {
+                        rs.close();
+                    }
+                } finally {
+                    update.close();
+                    select.close();
+                }
+            }
+        });
+        LOG.debug("Migrated {} small values to binary.", count[0]);
+        return count[0];
+    }
+
+    private static File spool(InputStream in) throws IOException {
+        File file = File.createTempFile("fasttrack", ".stream");
+        OutputStream out = new FileOutputStream(file);
+        try {
+            copy(in, out);
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+
+    /**
+     * @return The next chunkSize bytes of the stream, fewer for the last chunk, null at the end of the stream.
+     */
+    private static byte[] readChunk(InputStream in, int chunkSize) throws IOException {
+        byte[] buffer = new byte[chunkSize];
+        int length = 0;
+        int count;
+        while (length < chunkSize && (count = in.read(buffer, length, chunkSize - length)) > 0) {
+            length += count;
+        }
+        if (length == 0) {
+            return null;
+        }
+        if (length < chunkSize) {
+            byte[] last = new byte[length];
+            System.arraycopy(buffer, 0, last, 0, length);
+            return last;
+        }
+        return buffer;
+    }
+
+    private static void copy(InputStream in, OutputStream out) throws IOException {
+        byte[] buffer = new byte[8192];
+        try {
+            int count;
+            while ((count = in.read(buffer)) > 0) {
+                out.write(buffer, 0, count);
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Reads a value out of a query result row.
+     *
+     * @param row The row.
+     * @param pos The position of the binary value, followed in the rows of small objects by the legacy Base64 value.
+     * @return The value.
+     */
+    private static byte[] toValue(Object[] row, int pos) {
+        if (row[pos] != null || row.length <= pos + 1 || row[pos + 1] == null) {
+            return (byte[]) row[pos];
+        }
+        return Base64.getDecoder().decode((String) row[pos + 1]);
+    }
+
+    /**
+     * Groups the uids by key name. The key name is the leading column of the primary key, so an IN list on the uid
+     * per name stays an indexed lookup.
+     */
+    private static Map<Integer, Set<Long>> groupUidsByName(Collection<KeyedId> keyedIds) {
+        Map<Integer, Set<Long>> uidsByName = new HashMap<Integer, Set<Long>>();
+        for (KeyedId keyedId : keyedIds) {
+            if (keyedId == null || keyedId.getName() == null || keyedId.getUid() == null) {
+                continue;
+            }
+            Set<Long> uids = uidsByName.get(keyedId.getName());
+            if (uids == null) {
+                uids = new LinkedHashSet<Long>();
+                uidsByName.put(keyedId.getName(), uids);
+            }
+            uids.add(keyedId.getUid());
+        }
+        return uidsByName;
+    }
+
+    private static String queryName(Class toUse, String query) {
+        return (LargeKeyedObject.class.equals(toUse) ? "LargeKeyedObject." : "SmallKeyedObject.") + query;
+    }
+
+    /**
+     * Bulk statements go around the persistence context, so an instance of a removed row that was already loaded
+     * must be discarded. The lookup is done in the persistence context only, never in the database.
+     */
+    private void evict(Class<? extends KeyedObject> tClass, KeyedId id) {
+        SessionImplementor session = (SessionImplementor) getSession();
+        EntityKey key = new EntityKey(id, session.getFactory().getEntityPersister(tClass.getName()), EntityMode.POJO);
+        Object loaded = session.getPersistenceContext().getEntity(key);
+        if (loaded != null) {
+            getSession().evict(loaded);
+        }
+    }
+
+    private Session getSession() {
+        return (Session) em.getDelegate();
+    }
+
+    /**
+     * Inserts the elements of kos that are of type tClass, sending at most
+     * {@link FastTrackConfig#getJdbcBatchSize()} rows per round trip.
+     */
+    private static void insertBatch(Connection connection, Class<? extends KeyedObject> tClass,
+                                    List<? extends KeyedObject> kos, boolean[] result) throws SQLException {
+        List<Integer> positions = new ArrayList<Integer>();
+        for (int i = 0; i < kos.size(); i++) {
+            if (tClass.isInstance(kos.get(i))) {
+                positions.add(i);
+            }
+        }
+        if (positions.isEmpty()) {
+            return;
+        }
+        int batchSize = FastTrackConfig.getJdbcBatchSize();
+        PreparedStatement ps = connection.prepareStatement(KeyedObjectSql.insert(tClass));
+        try {
+            for (int from = 0; from < positions.size(); from += batchSize) {
+                executeBatch(ps, kos, positions.subList(from, Math.min(from + batchSize, positions.size())),
+                        result);
+            }
+        } finally {
+            ps.close();
+        }
+    }
+
+    /**
+     * Executes one batch. Some drivers stop at the first failing row, in which case the rows following it are sent
+     * again in a new batch.
+     */
+    private static void executeBatch(PreparedStatement ps, List<? extends KeyedObject> kos,
+                                     List<Integer> positions, boolean[] result) throws SQLException {
+        int from = 0;
+        while (from < positions.size()) {
+            for (int i = from; i < positions.size(); i++) {
+                KeyedObjectSql.bindInsert(ps, kos.get(positions.get(i)));
+                ps.addBatch();
+            }
+            int[] counts;
+            try {
+                counts = ps.executeBatch();
+            } catch (BatchUpdateException e) {
+                ps.clearBatch();
+                counts = e.getUpdateCounts();
+                if (counts == null) {
+                    counts = new int[0];
+                }
+                LOG.debug("Batch insert partially failed: {}", e.getMessage());
+            }
+            for (int i = 0; i < counts.length && from + i < positions.size(); i++) {
+                result[positions.get(from + i)] = counts[i] > 0 || counts[i] == Statement.SUCCESS_NO_INFO;
+            }
+            if (counts.length < positions.size() - from) {
+                // the driver stopped at the failing row, it stays false
+                from += counts.length + 1;
+            } else {
+                from = positions.size();
+            }
+        }
+    }
 }
@@ -0,0 +1,284 @@
+/*
+ * Copyright (c) XIAOWEI CHEN, 2009.
+ * All Rights Reserved. Reproduction in whole or in part is prohibited
+ * without the written consent of the copyright owner.
+ * 
+ * XIAOWEI CHEN MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY OF
+ * THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED
+ * TO THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE, OR NON-INFRINGEMENT. XIAOWEI CHEN SHALL NOT BE LIABLE FOR
+ * ANY DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR
+ * DISTRIBUTING THIS SOFTWARE OR ITS DERIVATIVES.
+ * 
+ * All rights reserved.
+ */
+package com.chen.candybon.fasttrack.dao;
+
+import com.chen.candybon.fasttrack.object.KeyedObject;
+import com.chen.candybon.fasttrack.object.LargeKeyedObject;
+import com.chen.candybon.fasttrack.object.SmallKeyedObject;
+
+import javax.persistence.Table;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Types;
+
+/**
+ * Plain SQL statements on the keyed object tables, used where going through the {@link javax.persistence.EntityManager}
+ * would cost one round trip per row.
+ * <p/>
+ * The table and column names must be kept in line with the mapping of {@link KeyedObject} and its sub classes.
+ *
+ * @author Xiaowei Chen
+ */
+final class KeyedObjectSql {
+
+    /**
+     * The columns common to both tables with their SQL types, followed in each table by its
+     * {@link #valueColumns(Class)}.  The column lists of the statements are all derived from it.
+     */
+    private static final String[][] KEY_COLUMN_TYPES = {
+            {"name", "INTEGER"}, {"uid", "BIGINT"},
+            {"index1", "INTEGER"}, {"index2", "INTEGER"}, {"index3", "INTEGER"},
+            {"index4", "INTEGER"}, {"index5", "INTEGER"}, {"index6", "INTEGER"},
+            {"INDEX1_VALUE", indexValueType()}, {"INDEX2_VALUE", indexValueType()}, {"INDEX3_VALUE", indexValueType()},
+            {"INDEX4_VALUE", indexValueType()}, {"INDEX5_VALUE", indexValueType()}, {"INDEX6_VALUE", indexValueType()},
+            {"optLock", "BIGINT"}, {"version", "BIGINT"},
+            {"KEY_VALUE", "VARCHAR(" + KeyedObject.MAX_KEY_LENGTH + ")"}};
+
+    static final String KEY_COLUMNS = join(KEY_COLUMN_TYPES);
+
+    static final int KEY_COLUMN_COUNT = KEY_COLUMN_TYPES.length;
+
+    /**
+     * The key columns overwritten when a row is stored again: the six indexes, then their six value columns, in the
+     * order of {@link #bindIndexes(PreparedStatement, int, KeyedObject)}.
+     */
+    static final String[] INDEX_COLUMNS = {"index1", "index2", "index3", "index4", "index5", "index6",
+            "INDEX1_VALUE", "INDEX2_VALUE", "INDEX3_VALUE", "INDEX4_VALUE", "INDEX5_VALUE", "INDEX6_VALUE"};
+
+    private static final String[][] SMALL_VALUE_COLUMN_TYPES = {
+            {"BIN_OBJECT", "VARCHAR(" + SmallKeyedObject.MAX_SIZE + ")"},
+            {"BIN_VALUE", "VARBINARY(" + SmallKeyedObject.MAX_SIZE + ")"}};
+
+    private static final String[][] LARGE_VALUE_COLUMN_TYPES = {{"BIN_OBJECT", "LONGVARBINARY"},
+            {"CONTENT_HASH", "VARCHAR(64)"}};
+
+    private static final String[] SMALL_VALUE_COLUMNS = names(SMALL_VALUE_COLUMN_TYPES);
+
+    private static final String[] LARGE_VALUE_COLUMNS = names(LARGE_VALUE_COLUMN_TYPES);
+
+    /**
+     * Protect access to constructor.
+     */
+    private KeyedObjectSql() {
+    }
+
+    /**
+     * @param tClass One of SmallKeyedObject or LargeKeyedObject.
+     * @return The name of the table the class is mapped to.
+     */
+    static String tableName(Class<?> tClass) {
+        return tClass.getAnnotation(Table.class).name();
+    }
+
+    /**
+     * @param tClass One of SmallKeyedObject or LargeKeyedObject.
+     * @return The columns holding the value: the legacy Base64 column and the binary column for the small objects,
+     *         the binary column and the hash of the content it refers to for the large ones.
+     */
+    static String[] valueColumns(Class<? extends KeyedObject> tClass) {
+        return SmallKeyedObject.class.equals(tClass) ? SMALL_VALUE_COLUMNS : LARGE_VALUE_COLUMNS;
+    }
+
+    /**
+     * @param tClass One of SmallKeyedObject or LargeKeyedObject.
+     * @return The SQL types of all the columns of the table, in the order of {@link #columns(Class)}.
+     */
+    static String[] columnTypes(Class<? extends KeyedObject> tClass) {
+        String[][] values = SmallKeyedObject.class.equals(tClass) ? SMALL_VALUE_COLUMN_TYPES : LARGE_VALUE_COLUMN_TYPES;
+        String[] types = new String[KEY_COLUMN_COUNT + values.length];
+        for (int i = 0; i < types.length; i++) {
+            types[i] = i < KEY_COLUMN_COUNT ? KEY_COLUMN_TYPES[i][1] : values[i - KEY_COLUMN_COUNT][1];
+        }
+        return types;
+    }
+
+    /**
+     * @param tClass One of SmallKeyedObject or LargeKeyedObject.
+     * @return All the columns of the table, comma separated.
+     */
+    static String columns(Class<? extends KeyedObject> tClass) {
+        StringBuilder columns = new StringBuilder(KEY_COLUMNS);
+        for (String column : valueColumns(tClass)) {
+            columns.append(", ").append(column);
+        }
+        return columns.toString();
+    }
+
+    /**
+     * @param tClass One of SmallKeyedObject or LargeKeyedObject.
+     * @return An insert statement with one parameter per column, in the order of {@link #columns(Class)}.
+     */
+    static String insert(Class<? extends KeyedObject> tClass) {
+        StringBuilder sql = new StringBuilder(150);
+        sql.append("INSERT INTO ").append(tableName(tClass)).append(" (").append(columns(tClass)).append(") VALUES (?");
+        for (int i = 1; i < KEY_COLUMN_COUNT + valueColumns(tClass).length; i++) {
+            sql.append(", ?");
+        }
+        return sql.append(')').toString();
+    }
+
+    /**
+     * The row version is bumped the same way the entity manager does it for {@link javax.persistence.Version}
+     * columns, so that a concurrent update through the entity manager still detects the change.
+     *
+     * @param tClass One of SmallKeyedObject or LargeKeyedObject.
+     * @return An update statement of the value and the six indexes with their values, followed by the name and uid of
+     *         the row.
+     */
+    static String update(Class<? extends KeyedObject> tClass) {
+        StringBuilder sql = new StringBuilder(200);
+        sql.append("UPDATE ").append(tableName(tClass)).append(" SET ");
+        for (String column : valueColumns(tClass)) {
+            sql.append(column).append(" = ?, ");
+        }
+        for (String column : INDEX_COLUMNS) {
+            sql.append(column).append(" = ?, ");
+        }
+        return sql.append("version = COALESCE(version, 0) + 1 WHERE name = ? AND uid = ?").toString();
+    }
+
+    /**
+     * Binds the parameters of {@link #update(Class)}.
+     *
+     * @param ps The statement to bind.
+     * @param ko The new state of the row.
+     * @throws SQLException If the driver rejects a parameter.
+     */
+    static void bindUpdate(PreparedStatement ps, KeyedObject ko) throws SQLException {
+        int pos = bindValue(ps, 1, ko);
+        pos = bindIndexes(ps, pos, ko);
+        ps.setInt(pos++, ko.getId().getName());
+        ps.setLong(pos, ko.getId().getUid());
+    }
+
+    /**
+     * Binds all the columns of a new row, in the order of {@link #columns(Class)}.
+     *
+     * @param ps The statement to bind.
+     * @param ko The object to insert.
+     * @throws SQLException If the driver rejects a parameter.
+     */
+    static void bindInsert(PreparedStatement ps, KeyedObject ko) throws SQLException {
+        bindValue(ps, bindInsertKey(ps, ko), ko);
+    }
+
+    /**
+     * Binds the {@link #KEY_COLUMNS} of a new row.
+     *
+     * @param ps The statement to bind.
+     * @param ko The object to insert.
+     * @return The position of the first value column.
+     * @throws SQLException If the driver rejects a parameter.
+     */
+    static int bindInsertKey(PreparedStatement ps, KeyedObject ko) throws SQLException {
+        ps.setInt(1, ko.getId().getName());
+        ps.setLong(2, ko.getId().getUid());
+        int pos = bindIndexes(ps, 3, ko);
+        // the version column of the entities is 'version', 'optLock' is left null as with the entity manager
+        ps.setNull(pos++, Types.BIGINT);
+        ps.setLong(pos++, 0L);
+        ps.setString(pos++, ko.getKeyValue());
+        return pos;
+    }
+
+    /**
+     * Binds the six index columns, then their six value columns, starting at position pos.
+     *
+     * @param ps The statement to bind.
+     * @param pos Position of the index1 parameter.
+     * @param ko The object holding the index values.
+     * @return The position following the last index.
+     * @throws SQLException If the driver rejects a parameter.
+     */
+    static int bindIndexes(PreparedStatement ps, int pos, KeyedObject ko) throws SQLException {
+        setInteger(ps, pos++, ko.getIndex1());
+        setInteger(ps, pos++, ko.getIndex2());
+        setInteger(ps, pos++, ko.getIndex3());
+        setInteger(ps, pos++, ko.getIndex4());
+        setInteger(ps, pos++, ko.getIndex5());
+        setInteger(ps, pos++, ko.getIndex6());
+        for (String value : ko.getIndexValues()) {
+            if (value == null) {
+                ps.setNull(pos++, Types.VARCHAR);
+            } else {
+                ps.setString(pos++, value);
+            }
+        }
+        return pos;
+    }
+
+    /**
+     * Binds the {@link #valueColumns(Class)} the way the value is stored for this type of object.
+     *
+     * @param ps The statement to bind.
+     * @param pos Position of the first value parameter.
+     * @param ko Either a {@link SmallKeyedObject} or a {@link LargeKeyedObject}.
+     * @return The position following the value columns.
+     * @throws SQLException If the driver rejects a parameter.
+     */
+    static int bindValue(PreparedStatement ps, int pos, KeyedObject ko) throws SQLException {
+        if (ko instanceof SmallKeyedObject) {
+            SmallKeyedObject sko = (SmallKeyedObject) ko;
+            if (sko.getEncodedValue() == null) {
+                ps.setNull(pos++, Types.VARCHAR);
+            } else {
+                ps.setString(pos++, sko.getEncodedValue());
+            }
+            if (sko.getBinaryValue() == null) {
+                ps.setNull(pos++, Types.VARBINARY);
+            } else {
+                ps.setBytes(pos++, sko.getBinaryValue());
+            }
+            return pos;
+        }
+        byte[] value = ((LargeKeyedObject) ko).getValue();
+        ps.setBytes(pos++, value);
+        String hash = SharedContent.hashOf(value);
+        if (hash == null) {
+            ps.setNull(pos++, Types.VARCHAR);
+        } else {
+            ps.setString(pos++, hash);
+        }
+        return pos;
+    }
+
+    private static String indexValueType() {
+        return "VARCHAR(" + KeyedObject.MAX_INDEX_VALUE_LENGTH + ")";
+    }
+
+    private static String[] names(String[][] columnTypes) {
+        String[] names = new String[columnTypes.length];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = columnTypes[i][0];
+        }
+        return names;
+    }
+
+    private static String join(String[][] columnTypes) {
+        StringBuilder columns = new StringBuilder();
+        for (String name : names(columnTypes)) {
+            columns.append(columns.length() == 0 ? "" : ", ").append(name);
+        }
+        return columns.toString();
+    }
+
+    private static void setInteger(PreparedStatement ps, int pos, Integer value) throws SQLException {
+        if (value == null) {
+            ps.setNull(pos, Types.INTEGER);
+        } else {
+            ps.setInt(pos, value);
+        }
+    }
+}
@@ -16,9 +16,15 @@ package com.chen.candybon.fasttrack.dao;
 
 import com.chen.candybon.fasttrack.FastTrackDataService;
 import com.chen.candybon.fasttrack.Predicate;
-import com.chen.candybon.fasttrack.Searchable;
+import com.chen.candybon.fasttrack.codec.Compression;
+import com.chen.candybon.fasttrack.codec.CompressionDictionary;
+import com.chen.candybon.fasttrack.codec.MissingDictionaryException;
+import com.chen.candybon.fasttrack.codec.ValueCodec;
+import com.chen.candybon.fasttrack.codec.ValueCodecs;
 import com.chen.candybon.fasttrack.data.ClassUtils;
+import com.chen.candybon.fasttrack.data.DataClass;
 import com.chen.candybon.fasttrack.data.LargeData;
+import com.chen.candybon.fasttrack.data.SmallData;
 import com.chen.candybon.fasttrack.exception.DataClassException;
 import com.chen.candybon.fasttrack.exception.DataException;
 import com.chen.candybon.fasttrack.exception.InvalidKeyException;
@@ -29,24 +35,40 @@ import com.chen.candybon.fasttrack.object.KeyedObject;
 import com.chen.candybon.fasttrack.object.LargeKeyedObject;
 import com.chen.candybon.fasttrack.object.SmallKeyedObject;
 import com.chen.candybon.fasttrack.type.Index;
+import com.chen.candybon.fasttrack.type.SortOrder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.annotation.Resource;
 import javax.ejb.EJB;
 import javax.ejb.Stateless;
 import javax.ejb.TransactionAttribute;
 import javax.ejb.TransactionAttributeType;
+import javax.transaction.TransactionSynchronizationRegistry;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
-import java.lang.reflect.Field;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.EnumMap;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Implementation of Fast Track Api
@@ -61,6 +83,9 @@ public class KoFastTrackDataService<T> implements FastTrackDataService {
     @EJB()
     private LocalKeyedObjectDao dao = null;
 
+    @Resource
+    private TransactionSynchronizationRegistry transactions = null;
+
     public KoFastTrackDataService() {
     }
 
@@ -68,60 +93,317 @@ public class KoFastTrackDataService<T> implements FastTrackDataService {
     @Override
     public boolean put(final String key, final Object data, final String... indexes)
             throws DataException, InvalidKeyException, DataClassException {
-        if (key == null) {
-            throw new InvalidKeyException("Null is not a valid key.");
+        KeyedObject ko = toKeyedObject(key, data, indexes);
+        ObjectCache.invalidate(ko.getId());
+        OffHeapCache.invalidate(ko.getId());
+        if (isPlaced(data.getClass()) && (ko instanceof LargeKeyedObject || hasSpilled(data.getClass()))
+                && dao.getVersion(Placement.other(ko.getClass()), ko.getId()) != null) {
+            throw new DataException("An instance is already stored with key " + key);
         }
-        if (data == null) {
-            throw new DataException("Null is not a valid object to store.");
+        byte[] value = ko.getValue();
+        String shared = toShared(ko);
+        Chunking chunking = toChunks(ko);
+        stored(data.getClass(), ko.getId());
+        boolean created = dao.create(ko) != null;
+        writeIndexes(ko);
+        writeShared(shared, value);
+        if (chunking != null) {
+            writeChunks(ko, value, chunking);
         }
-        ClassUtils.typeValidation(data);
-        KeyedId keyedId = new KeyedId(data.getClass(), key);
+        invalidate(new Invalidation(Collections.singleton(ko.getId()), Collections.<Integer[]>emptyList(), ko));
+        return created;
+    }
 
-        String[] idxes = indexes;
+    @SuppressWarnings("unchecked")
+    @Override
+    public boolean upsert(final String key, final Object data, final String... indexes)
+            throws DataException, InvalidKeyException, DataClassException {
+        KeyedObject ko = toKeyedObject(key, data, indexes);
+        ObjectCache.invalidate(ko.getId());
+        OffHeapCache.invalidate(ko.getId());
+        List<Integer[]> before = indexesBefore(data.getClass(), Collections.singleton(ko.getId()));
+        List<String> previous = sharedContents(data.getClass(), Collections.singleton(ko.getId()));
+        if (isPlaced(data.getClass()) && (ko instanceof LargeKeyedObject || hasSpilled(data.getClass()))) {
+            dao.delete(Placement.other(ko.getClass()), ko.getId());
+        }
+        byte[] value = ko.getValue();
+        String shared = toShared(ko);
+        Chunking chunking = toChunks(ko);
+        stored(data.getClass(), ko.getId());
+        dao.upsert(ko);
+        writeIndexes(ko);
+        writeShared(shared, value);
+        writeChunks(ko, value, chunking);
+        release(previous);
+        invalidate(new Invalidation(Collections.singleton(ko.getId()), before, ko));
+        return true;
+    }
 
-        if (indexes.length == 0) {
-            idxes = getIndexes(data);
+    @SuppressWarnings("unchecked")
+    @Override
+    public Map<String, Boolean> putAll(final Map data) throws DataException {
+        if (data == null) {
+            throw new DataException("Null is not a valid map of objects to store.");
+        }
+        List<String> keys = new ArrayList<String>(data.size());
+        List<Future<KeyedObject>> futures = new ArrayList<Future<KeyedObject>>(data.size());
+        for (Object o : data.entrySet()) {
+            final Map.Entry entry = (Map.Entry) o;
+            keys.add((String) entry.getKey());
+            if (isCompressed(entry.getValue())) {
+                // read here, as the serializer threads must not use the entity manager
+                try {
+                    currentDictionary(entry.getValue().getClass());
+                } catch (IOException e) {
+                    throw new DataException("Failed to read dictionary with error: " + e.getMessage(), e);
+                }
+            }
+            futures.add(submit(new Callable<KeyedObject>() {
+                @Override
+                public KeyedObject call() throws Exception {
+                    return toKeyedObject((String) entry.getKey(), entry.getValue());
+                }
+            }, data.size()));
         }
 
-        validateIndexes(idxes);
-        KeyedObject ko;
-        try {
-            byte[] value = serialize(data);
-            if (value == null || value.length == 0) {
-                LOG.debug("No data -> failing");
-                throw new DataException("No data to store");
+        List<Integer> positions = new ArrayList<Integer>(keys.size());
+        List<KeyedObject> kos = new ArrayList<KeyedObject>(keys.size());
+        for (int i = 0; i < keys.size(); i++) {
+            try {
+                kos.add(futures.get(i).get());
+                positions.add(i);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new DataException("Interrupted while preparing data to store.", e);
+            } catch (ExecutionException e) {
+                LOG.debug("Rejecting data for key {}: {}", keys.get(i), e.getCause().getMessage());
             }
+        }
 
-            if (data instanceof LargeData) {
-                ko = new LargeKeyedObject(keyedId, value, idxes);
-            } else {
-                ko = new SmallKeyedObject(keyedId, value, idxes);
+        byte[][] values = new byte[kos.size()][];
+        String[] shared = new String[kos.size()];
+        Chunking[] chunkings = new Chunking[kos.size()];
+        for (int i = 0; i < kos.size(); i++) {
+            values[i] = kos.get(i).getValue();
+            shared[i] = toShared(kos.get(i));
+            chunkings[i] = toChunks(kos.get(i));
+        }
+        boolean[] created = new boolean[keys.size()];
+        for (int i = 0; i < kos.size(); i++) {
+            KeyedObject ko = kos.get(i);
+            ObjectCache.invalidate(ko.getId());
+            OffHeapCache.invalidate(ko.getId());
+            stored(data.get(keys.get(positions.get(i))).getClass(), ko.getId());
+        }
+        boolean[] inserted = dao.createAll(kos);
+        List<KeyedId> writtenIds = new ArrayList<KeyedId>(inserted.length);
+        List<KeyedObject> written = new ArrayList<KeyedObject>(inserted.length);
+        for (int i = 0; i < inserted.length; i++) {
+            created[positions.get(i)] = inserted[i];
+            if (inserted[i]) {
+                // only now, a rejected duplicate must neither reference a content nor replace the chunks of the
+                // stored instance
+                writeIndexes(kos.get(i));
+                writeShared(shared[i], values[i]);
+                if (chunkings[i] != null) {
+                    writeChunks(kos.get(i), values[i], chunkings[i]);
+                }
+                writtenIds.add(kos.get(i).getId());
+                written.add(kos.get(i));
             }
-            ko = dao.create(ko);
-        } catch (IOException e) {
-            throw new DataException("Failed to serialize data with error: " + e.getMessage(), e);
         }
-        return ko != null;
+        invalidate(new Invalidation(writtenIds, Collections.<Integer[]>emptyList(),
+                written.toArray(new KeyedObject[written.size()])));
+        Map<String, Boolean> result = new LinkedHashMap<String, Boolean>(keys.size() * 2);
+        for (int i = 0; i < keys.size(); i++) {
+            result.put(keys.get(i), created[i]);
+        }
+        return result;
     }
 
     @TransactionAttribute(TransactionAttributeType.SUPPORTS)
     @SuppressWarnings("unchecked")
     @Override
-    public T get(Class tClass, String key) throws DataException, InvalidKeyException, DataClassException {
+    public T get(final Class tClass, String key) throws DataException, InvalidKeyException, DataClassException {
         KeyedId keyedId = new KeyedId(tClass, key);
+        byte[] bytes = load(tClass, keyedId);
+        return bytes == null ? null : deserialized(tClass, bytes);
+    }
+
+    /**
+     * Reads the serialized value of a key, shared with the concurrent reads of the same key when coalescing: only the
+     * bytes are shared, each caller deserializes its own instance.
+     */
+    private byte[] load(final Class tClass, final KeyedId keyedId) throws DataException, DataClassException {
+        if (!FastTrackConfig.isCoalescing() || isInTransaction()) {
+            return loadValue(tClass, keyedId);
+        }
+        try {
+            return SingleFlight.call(keyedId, new Callable<byte[]>() {
+                @Override
+                public byte[] call() throws Exception {
+                    return loadValue(tClass, keyedId);
+                }
+            }, FastTrackConfig.getCoalescingTimeout());
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof DataException) {
+                throw (DataException) e.getCause();
+            }
+            if (e.getCause() instanceof DataClassException) {
+                throw (DataClassException) e.getCause();
+            }
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new DataException("Failed to read data with error: " + e.getCause().getMessage(), e.getCause());
+        } catch (TimeoutException e) {
+            throw new DataException("Timed out waiting for the concurrent read of " + keyedId, e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DataException("Interrupted while waiting for the concurrent read of " + keyedId, e);
+        }
+    }
+
+    /**
+     * Removes the changed instances and search results from the caches right after the write, and again once the
+     * transaction ends: see {@link Invalidation}.
+     */
+    private void invalidate(Invalidation invalidation) {
+        invalidation.run();
+        if (isInTransaction()) {
+            try {
+                transactions.registerInterposedSynchronization(invalidation);
+            } catch (IllegalStateException e) {
+                // the transaction is already completing
+            }
+        }
+    }
+
+    /**
+     * A transaction may read the uncommitted changes it made, which must not be shared with other callers.
+     */
+    private boolean isInTransaction() {
+        return transactions != null && transactions.getTransactionKey() != null;
+    }
+
+    private byte[] loadValue(Class tClass, KeyedId keyedId) throws DataException, DataClassException {
+        long[] version = null;
+        boolean caching = FastTrackConfig.getCacheSize() > 0;
+        boolean offHeap = FastTrackConfig.getOffHeapSize() > 0;
+        boolean filling = !isInTransaction();
+        if (caching) {
+            byte[] cached = cached(keyedId);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        if (offHeap) {
+            OffHeapCache.Slot slot = OffHeapCache.get(keyedId);
+            byte[] cached = slot == null ? null : cachedOffHeap(keyedId, slot);
+            if (cached != null) {
+                if (caching && filling) {
+                    ObjectCache.put(keyedId, slot.table, slot.version, cached);
+                }
+                return cached;
+            }
+        }
+        if ((caching || offHeap) && filling) {
+            version = new long[1];
+        }
+        if (!mayBeStored(tClass, keyedId)) {
+            return null;
+        }
         Class toUse = ClassUtils.classSelector(tClass);
-        byte[] bytes = dao.getValue(toUse, keyedId);
+        byte[] bytes;
+        if (isPlaced(tClass)) {
+            toUse = Placement.firstTable(tClass);
+            bytes = getValue(toUse, keyedId, version);
+            if (bytes == null && (LargeKeyedObject.class.equals(toUse) || hasSpilled(tClass))) {
+                toUse = Placement.other(toUse);
+                bytes = getValue(toUse, keyedId, version);
+                if (bytes != null) {
+                    Placement.found(tClass, toUse);
+                }
+            }
+        } else {
+            bytes = getValue(toUse, keyedId, version);
+        }
         if (bytes == null) {
             return null;
         }
         try {
-            return deserialize(bytes);
+            bytes = resolve(keyedId, bytes);
+        } catch (IOException e) {
+            LOG.warn("Failed to de-serialize data with error: " + e.getMessage());
+            throw new DataException("Failed to de-serialize data with error: " + e.getMessage(), e);
+        }
+        if (version != null) {
+            if (offHeap) {
+                OffHeapCache.put(keyedId, toUse, version[0], bytes);
+            }
+            if (caching) {
+                ObjectCache.put(keyedId, toUse, version[0], bytes);
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Deserializes a value read by key, a new instance at each call since the caches keep the serialized values.
+     */
+    @SuppressWarnings("unchecked")
+    private T deserialized(Class tClass, byte[] bytes) throws DataException {
+        try {
+            return deserialize(tClass, bytes);
         } catch (Exception e) {
             LOG.warn("Failed to de-serialize data with error: " + e.getMessage());
             throw new DataException("Failed to de-serialize data with error: " + e.getMessage(), e);
         }
     }
 
+    @TransactionAttribute(TransactionAttributeType.SUPPORTS)
+    @SuppressWarnings("unchecked")
+    @Override
+    public Map<String, T> getAll(Class tClass, Collection keys)
+            throws DataException, InvalidKeyException, DataClassException {
+        if (keys == null) {
+            throw new InvalidKeyException("Null is not a valid collection of keys.");
+        }
+        Class toUse = ClassUtils.classSelector(tClass);
+        Map<String, KeyedId> keyedIds = new LinkedHashMap<String, KeyedId>(keys.size() * 2);
+        for (Object key : keys) {
+            KeyedId keyedId = new KeyedId(tClass, (String) key);
+            if (mayBeStored(tClass, keyedId)) {
+                keyedIds.put((String) key, keyedId);
+            }
+        }
+        Map<KeyedId, byte[]> values = dao.getValues(toUse, keyedIds.values());
+        if (isPlaced(tClass) && values.size() < keyedIds.size() && hasSpilled(tClass)) {
+            List<KeyedId> missing = new ArrayList<KeyedId>(keyedIds.size() - values.size());
+            for (KeyedId keyedId : keyedIds.values()) {
+                if (!values.containsKey(keyedId)) {
+                    missing.add(keyedId);
+                }
+            }
+            values.putAll(dao.getValues(LargeKeyedObject.class, missing));
+        }
+
+        Map<String, T> result = new LinkedHashMap<String, T>(values.size() * 2);
+        for (Map.Entry<String, KeyedId> entry : keyedIds.entrySet()) {
+            byte[] bytes = values.get(entry.getValue());
+            if (bytes == null) {
+                continue;
+            }
+            try {
+                result.put(entry.getKey(), deserialize(tClass, resolve(entry.getValue(), bytes)));
+            } catch (Exception e) {
+                LOG.warn("Failed to de-serialize data for KeyedId { {} } with error: {}. Corrupted set."
+                        + " Ignoring this element.", entry.getValue(), e.getMessage());
+            }
+        }
+        return result;
+    }
+
     @SuppressWarnings("unchecked")
     @Override
     public boolean update(final String key, final Object data, String... indexes)
@@ -140,12 +422,35 @@ public class KoFastTrackDataService<T> implements FastTrackDataService {
         }
         validateIndexes(idxes);
         KeyedId keyedId = new KeyedId(data.getClass(), key);
+        byte[] value;
         try {
-            Class toUse = ClassUtils.classSelector(data);
-            dao.update(toUse, keyedId, serialize(data), idxes);
+            value = serialize(data);
         } catch (IOException e) {
             throw new DataException("Failed to serialize data with error: " + e.getMessage(), e);
         }
+        Class toUse = tableFor(data, value);
+        KeyedObject ko = newKeyedObject(toUse, keyedId, value, idxes);
+        ko.setNamedIndexes(DataClass.of(data.getClass()).getNamedIndexes(data));
+        ObjectCache.invalidate(keyedId);
+        OffHeapCache.invalidate(keyedId);
+        List<Integer[]> before = indexesBefore(data.getClass(), Collections.singleton(keyedId));
+        List<String> previous = sharedContents(data.getClass(), Collections.singleton(keyedId));
+        String shared = toShared(ko);
+        Chunking chunking = toChunks(ko);
+        try {
+            dao.updateValue(toUse, keyedId, shared == null && chunking == null ? value : ko.getValue(), idxes);
+        } catch (NotFoundException e) {
+            // the instance changed size, move it to the other table
+            if (!isPlaced(data.getClass()) || dao.delete(Placement.other(toUse), keyedId) == 0) {
+                throw e;
+            }
+            dao.create(ko);
+        }
+        writeIndexes(ko);
+        writeShared(shared, value);
+        writeChunks(ko, value, chunking);
+        release(previous);
+        invalidate(new Invalidation(Collections.singleton(keyedId), before, ko));
         return true;
     }
 
@@ -154,7 +459,69 @@ public class KoFastTrackDataService<T> implements FastTrackDataService {
     public void delete(final Class tClass, final String key) throws InvalidKeyException, DataClassException {
         KeyedId keyedId = new KeyedId(tClass, key);
         Class toUse = ClassUtils.classSelector(tClass);
-        dao.delete(toUse, keyedId);
+        ObjectCache.invalidate(keyedId);
+        OffHeapCache.invalidate(keyedId);
+        List<Integer[]> before = indexesBefore(tClass, Collections.singleton(keyedId));
+        List<String> previous = sharedContents(tClass, Collections.singleton(keyedId));
+        if (dao.delete(toUse, keyedId) == 0 && isPlaced(tClass) && hasSpilled(tClass)) {
+            dao.delete(LargeKeyedObject.class, keyedId);
+        }
+        if (DataClass.of(tClass).hasNamedIndexes()) {
+            dao.deleteIndexes(Collections.singleton(keyedId));
+        }
+        release(previous);
+        invalidate(new Invalidation(Collections.singleton(keyedId), before));
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public int deleteAll(final Class tClass, final Collection keys) throws InvalidKeyException, DataClassException {
+        if (keys == null) {
+            throw new InvalidKeyException("Null is not a valid collection of keys.");
+        }
+        Class toUse = ClassUtils.classSelector(tClass);
+        List<KeyedId> keyedIds = new ArrayList<KeyedId>(keys.size());
+        for (Object key : keys) {
+            keyedIds.add(new KeyedId(tClass, (String) key));
+        }
+        ObjectCache.invalidate(keyedIds);
+        OffHeapCache.invalidate(keyedIds);
+        List<Integer[]> before = indexesBefore(tClass, keyedIds);
+        List<String> previous = sharedContents(tClass, keyedIds);
+        int count = dao.deleteAll(toUse, keyedIds);
+        if (count < keyedIds.size() && isPlaced(tClass) && hasSpilled(tClass)) {
+            count += dao.deleteAll(LargeKeyedObject.class, keyedIds);
+        }
+        if (DataClass.of(tClass).hasNamedIndexes()) {
+            dao.deleteIndexes(keyedIds);
+        }
+        release(previous);
+        invalidate(new Invalidation(keyedIds, before));
+        return count;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public int deleteAll(final Class tClass, final Predicate predicate)
+            throws DataClassException, InvalidPredicateException {
+        Class toUse = ClassUtils.classSelector(tClass);
+        List<String> previous = new ArrayList<String>();
+        if (isShared(tClass) && predicate != null && !predicate.isEmpty()) {
+            previous.addAll(dao.getContentHashes(tClass.getName(), predicate));
+        }
+        int count = dao.delete(toUse, tClass.getName(), predicate);
+        if (isPlaced(tClass) && hasSpilled(tClass)) {
+            count += dao.delete(LargeKeyedObject.class, tClass.getName(), predicate);
+        }
+        if (count > 0) {
+            // the removed rows are not known
+            if (DataClass.of(tClass).hasNamedIndexes()) {
+                dao.deleteOrphanIndexes(tClass.getName());
+            }
+            invalidate(new Invalidation(tClass));
+        }
+        release(previous);
+        return count;
     }
 
     @TransactionAttribute(TransactionAttributeType.SUPPORTS)
@@ -162,9 +529,71 @@ public class KoFastTrackDataService<T> implements FastTrackDataService {
     @Override
     public List<T> find(final Class tClass, final Predicate predicate)
             throws DataException, DataClassException, InvalidPredicateException {
+        boolean caching = FastTrackConfig.getQueryCacheSize() > 0 && predicate instanceof JPQLPredicate;
+        if (caching) {
+            List<byte[]> cached = QueryCache.get(DataClass.of(tClass).getName(), (JPQLPredicate) predicate);
+            if (cached != null) {
+                return deserialized(tClass, cached);
+            }
+        }
         Class toUse = ClassUtils.classSelector(tClass);
-        Collection<KeyedObject> kos = dao.search(toUse, tClass.getName(), predicate);
-        return convert(kos);
+        Collection<KeyedObject> kos;
+        if (isPlaced(tClass) && hasSpilled(tClass) && predicate instanceof JPQLPredicate) {
+            // each table gives its rows up to the end of the page, the page is taken from both
+            JPQLPredicate pageEnd = ((JPQLPredicate) predicate).toPageEnd();
+            List<KeyedObject> both = new ArrayList<KeyedObject>(dao.search(toUse, tClass.getName(), pageEnd));
+            both.addAll(dao.search(LargeKeyedObject.class, tClass.getName(), pageEnd));
+            kos = page(both, predicate.getOrderBy(), predicate.getOrder(), predicate.getFirstResult(),
+                    predicate.getMaxResults());
+        } else {
+            kos = dao.search(toUse, tClass.getName(), predicate);
+            if (isPlaced(tClass) && hasSpilled(tClass)) {
+                kos = new ArrayList<KeyedObject>(kos);
+                kos.addAll(dao.search(LargeKeyedObject.class, tClass.getName(), predicate));
+            }
+        }
+        if (!caching || isInTransaction()) {
+            return convert(tClass, kos);
+        }
+        List<byte[]> values = new ArrayList<byte[]>(kos.size());
+        List<T> result = convert(tClass, kos, values);
+        QueryCache.put(DataClass.of(tClass).getName(), (JPQLPredicate) predicate, values);
+        return result;
+    }
+
+    /**
+     * Orders the rows of both tables together, as each table ordered its own, and keeps the page asked.
+     * <p/>
+     * The texts are compared ignoring case, as the default collation of MySQL does, so the page is exact for the
+     * encoded values of the typed indexes and for the texts of case insensitive collations: with a case sensitive
+     * collation, texts differing only by case may be ordered differently than in one table.
+     *
+     * @param orderBy The index the rows are ordered by, or null if they are ordered by uid.
+     * @param first The position of the first row of the page, or {@link JPQLPredicate#UNSET}.
+     * @param max The number of rows of the page, or {@link JPQLPredicate#UNSET}.
+     */
+    private static List<KeyedObject> page(List<KeyedObject> kos, Index orderBy, SortOrder order, int first, int max) {
+        final int index = orderBy == null ? -1 : orderBy.ordinal();
+        final int direction = orderBy != null && order == SortOrder.DESCENDING ? -1 : 1;
+        Collections.sort(kos, new Comparator<KeyedObject>() {
+            @Override
+            public int compare(KeyedObject ko1, KeyedObject ko2) {
+                int order = 0;
+                if (index >= 0) {
+                    String value1 = ko1.getIndexValues()[index];
+                    String value2 = ko2.getIndexValues()[index];
+                    order = value1 == null ? (value2 == null ? 0 : -1) : value2 == null ? 1
+                            : value1.compareToIgnoreCase(value2);
+                }
+                if (order == 0) {
+                    order = ko1.getId().getUid().compareTo(ko2.getId().getUid());
+                }
+                return direction * order;
+            }
+        });
+        int from = Math.min(Math.max(first, 0), kos.size());
+        int to = max == JPQLPredicate.UNSET ? kos.size() : Math.min(JPQLPredicate.pageEnd(first, max), kos.size());
+        return kos.subList(from, to);
     }
 
     @TransactionAttribute(TransactionAttributeType.SUPPORTS)
@@ -173,22 +602,629 @@ public class KoFastTrackDataService<T> implements FastTrackDataService {
     public List<T> find(Class tClass, final int position, final int max)
             throws DataException, DataClassException {
         Class toUse = ClassUtils.classSelector(tClass);
-        Collection<KeyedObject> kos = dao.search(toUse, tClass.getName(), position, max);
-        return convert(kos);
+        if (isPlaced(tClass) && hasSpilled(tClass)) {
+            // both tables are ordered by uid: each gives its rows up to the end of the page, the page is taken from both
+            int pageEnd = JPQLPredicate.pageEnd(position, max);
+            List<KeyedObject> both = new ArrayList<KeyedObject>(dao.search(toUse, tClass.getName(), 0, pageEnd));
+            both.addAll(dao.search(LargeKeyedObject.class, tClass.getName(), 0, pageEnd));
+            return convert(tClass, page(both, null, null, position, max));
+        }
+        return convert(tClass, dao.search(toUse, tClass.getName(), position, max));
+    }
+
+    /**
+     * Validates, indexes and serializes one instance into the keyed object to persist.
+     */
+    private KeyedObject toKeyedObject(final String key, final Object data, final String... indexes)
+            throws DataException, InvalidKeyException, DataClassException {
+        if (key == null) {
+            throw new InvalidKeyException("Null is not a valid key.");
+        }
+        if (data == null) {
+            throw new DataException("Null is not a valid object to store.");
+        }
+        ClassUtils.typeValidation(data);
+        KeyedId keyedId = new KeyedId(data.getClass(), key);
+
+        String[] idxes = indexes;
+
+        if (indexes.length == 0) {
+            idxes = getIndexes(data);
+        }
+
+        validateIndexes(idxes);
+        try {
+            byte[] value = serialize(data);
+            if (value == null || value.length == 0) {
+                LOG.debug("No data -> failing");
+                throw new DataException("No data to store");
+            }
+
+            KeyedObject ko = newKeyedObject(tableFor(data, value), keyedId, value, idxes);
+            ko.setNamedIndexes(DataClass.of(data.getClass()).getNamedIndexes(data));
+            return ko;
+        } catch (IOException e) {
+            throw new DataException("Failed to serialize data with error: " + e.getMessage(), e);
+        }
+    }
+
+    private static KeyedObject newKeyedObject(Class toUse, KeyedId keyedId, byte[] value, String... idxes) {
+        if (LargeKeyedObject.class.equals(toUse)) {
+            return new LargeKeyedObject(keyedId, value, idxes);
+        }
+        SmallKeyedObject sko = new SmallKeyedObject(keyedId, value, idxes);
+        if (FastTrackConfig.isSmallValueBase64()) {
+            sko.useEncodedValue();
+        }
+        return sko;
+    }
+
+    /**
+     * @return The table to store the instance in: the one of its type, unless it is a small instance too large for
+     *         the small table and the placement is automatic.
+     */
+    private static Class tableFor(Object data, byte[] value) {
+        if (data instanceof LargeData) {
+            return LargeKeyedObject.class;
+        }
+        if (value.length > Placement.maxSmallSize() && FastTrackConfig.isAutoPlacement()) {
+            LOG.debug("{} bytes instance of {} stored as a large object.", value.length, data.getClass().getName());
+            Placement.setSpilled(data.getClass(), true);
+            return LargeKeyedObject.class;
+        }
+        return SmallKeyedObject.class;
+    }
+
+    private static boolean isPlaced(Class tClass) {
+        return FastTrackConfig.isAutoPlacement() && SmallData.class.isAssignableFrom(tClass);
+    }
+
+    /**
+     * @return True if some instances of this small class may be in the large table.
+     */
+    private boolean hasSpilled(Class tClass) {
+        Boolean spilled = Placement.isSpilled(tClass);
+        if (spilled == null) {
+            spilled = dao.hasAny(LargeKeyedObject.class, tClass.getName());
+            Placement.setSpilled(tClass, spilled);
+        }
+        return spilled;
+    }
+
+    /**
+     * Runs the task in the serializer pool, or directly when there is nothing to gain from it.
+     */
+    private static <V> Future<V> submit(Callable<V> task, int bulkSize) {
+        if (bulkSize > 1 && FastTrackConfig.getSerializerThreads() > 1) {
+            return SerializerPool.EXECUTOR.submit(task);
+        }
+        FutureTask<V> future = new FutureTask<V>(task);
+        future.run();
+        return future;
     }
 
     protected byte[] serialize(Object data) throws IOException, DataException {
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        ObjectOutputStream oos = new ObjectOutputStream(baos);
-        oos.writeObject(data);
-        return baos.toByteArray();
+        ValueCodec codec = ValueCodecs.forClass(data.getClass(), FastTrackConfig.getCodec());
+        byte[] value = ValueCodecs.encode(codec, data);
+        if (isCompressed(data) && value.length >= FastTrackConfig.getCompressionMinSize()) {
+            value = Compression.compress(value, currentDictionary(data.getClass()));
+        }
+        return value;
+    }
+
+    @SuppressWarnings("unchecked")
+    protected T deserialize(Class tClass, byte[] bytes) throws IOException, ClassNotFoundException, DataException {
+        try {
+            return (T) ValueCodecs.decode(tClass, bytes);
+        } catch (MissingDictionaryException e) {
+            loadDictionary(e.getClassName(), e.getDictionaryId());
+            return (T) ValueCodecs.decode(tClass, bytes);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public int trainCompression(Class tClass, int sampleSize) throws DataException, DataClassException {
+        if (tClass == null || !LargeData.class.isAssignableFrom(tClass)) {
+            throw new DataClassException("Only the values of LargeData classes are compressed.");
+        }
+        List<byte[]> samples = new ArrayList<byte[]>(sampleSize);
+        for (KeyedObject ko : dao.search(LargeKeyedObject.class, tClass.getName(), 0, sampleSize)) {
+            try {
+                samples.add(uncompress(tClass.getName(), resolve(ko.getId(), ko.getValue())));
+            } catch (IOException e) {
+                LOG.warn("Failed to read data for KeyedId { {} } with error: {}. Not used for training.",
+                        ko.getId(), e.getMessage());
+            }
+        }
+        byte[] bytes = Compression.train(samples, Compression.MAX_DICTIONARY_SIZE);
+        if (bytes.length == 0) {
+            throw new DataException("Not enough similar instances of " + tClass.getName() + " to train on.");
+        }
+
+        String className = tClass.getName();
+        Compression.Dictionary dictionary;
+        try {
+            dictionary = new Compression.Dictionary(currentDictionary(tClass).getId() + 1, bytes);
+            CompressionDictionary stored = new CompressionDictionary(className, dictionary.getId(), bytes);
+            dao.create(toKeyedObject(CompressionDictionary.key(className, dictionary.getId()), stored));
+            dao.upsert(toKeyedObject(className, stored));
+        } catch (IOException e) {
+            throw new DataException("Failed to read dictionary with error: " + e.getMessage(), e);
+        } catch (InvalidKeyException e) {
+            throw new DataException("Failed to store dictionary with error: " + e.getMessage(), e);
+        }
+        Compression.addDictionary(className, dictionary, true);
+        LOG.info("Trained dictionary {} of {} bytes for {}.", new Object[]{dictionary.getId(), bytes.length, className});
+        return dictionary.getId();
     }
 
     @SuppressWarnings("unchecked")
-    protected T deserialize(byte[] bytes) throws IOException, ClassNotFoundException, DataException {
-        ByteArrayInputStream bais = new ByteArrayInputStream(bytes);
-        ObjectInputStream ois = new ObjectInputStream(bais);
-        return (T) ois.readObject();
+    @Override
+    public boolean putStream(Class tClass, String key, InputStream data, int length, String... indexes)
+            throws DataException, InvalidKeyException, DataClassException {
+        if (data == null) {
+            throw new DataException("Null is not a valid stream to store.");
+        }
+        KeyedId keyedId = streamId(tClass, key);
+        validateIndexes(indexes);
+        ObjectCache.invalidate(keyedId);
+        OffHeapCache.invalidate(keyedId);
+        stored(tClass, keyedId);
+        InputStream value = new SequenceInputStream(new ByteArrayInputStream(new byte[]{ValueCodecs.STREAM}), data);
+        if (FastTrackConfig.isChunking()) {
+            // the row is created first, so that a duplicate key fails before the chunks of the stored stream are
+            // replaced, and its length is only known once the chunks are stored
+            int chunkSize = FastTrackConfig.getChunkSize();
+            dao.create(new LargeKeyedObject(keyedId, new Chunking(ValueCodecs.STREAM, 0, chunkSize).toValue(), indexes));
+            try {
+                long stored = dao.createChunks(keyedId, value, chunkSize);
+                dao.updateValue(LargeKeyedObject.class, keyedId,
+                        new Chunking(ValueCodecs.STREAM, stored, chunkSize).toValue(), indexes);
+            } catch (IOException e) {
+                throw new DataException("Failed to store stream with error: " + e.getMessage(), e);
+            } catch (NotFoundException e) {
+                throw new DataException("Stream removed while stored with key " + key, e);
+            }
+        } else {
+            dao.createStream(keyedId, value, length < 0 ? -1 : length + 1, indexes);
+        }
+        invalidate(new Invalidation(Collections.singleton(keyedId), Collections.<Integer[]>emptyList(),
+                new LargeKeyedObject(keyedId, null, indexes)));
+        return true;
+    }
+
+    @TransactionAttribute(TransactionAttributeType.SUPPORTS)
+    @Override
+    public boolean getStream(Class tClass, String key, OutputStream out)
+            throws DataException, InvalidKeyException, DataClassException {
+        return getStream(tClass, key, out, 0, -1);
+    }
+
+    @TransactionAttribute(TransactionAttributeType.SUPPORTS)
+    @SuppressWarnings("unchecked")
+    @Override
+    public boolean getStream(Class tClass, String key, OutputStream out, long offset, long length)
+            throws DataException, InvalidKeyException, DataClassException {
+        KeyedId keyedId = streamId(tClass, key);
+        if (out == null) {
+            throw new DataException("Null is not a valid stream to copy to.");
+        }
+        if (offset < 0) {
+            throw new DataException("Negative offset " + offset + " is not valid.");
+        }
+        try {
+            StreamValueOutputStream value = new StreamValueOutputStream(out, offset, length);
+            if (!dao.copyValue(keyedId, value)) {
+                return false;
+            }
+            Chunking chunking = value.getChunking();
+            if (chunking != null) {
+                // the chunks hold the tag too
+                long start = offset + 1;
+                long end = length < 0 ? chunking.length : Math.min(chunking.length, start + length);
+                if (start < end) {
+                    int first = chunking.chunkOf(start);
+                    dao.copyChunks(keyedId, first, chunking.chunkOf(end - 1), new RangeOutputStream(out,
+                            start - (long) first * chunking.chunkSize, end - start));
+                }
+            }
+            return true;
+        } catch (IOException e) {
+            throw new DataException("Failed to read stream with error: " + e.getMessage(), e);
+        }
+    }
+
+    private static KeyedId streamId(Class tClass, String key) throws InvalidKeyException, DataClassException {
+        if (key == null) {
+            throw new InvalidKeyException("Null is not a valid key.");
+        }
+        if (tClass == null || !LargeData.class.isAssignableFrom(tClass)) {
+            throw new DataClassException("Only LargeData classes can be stored as streams.");
+        }
+        return new KeyedId(tClass, key);
+    }
+
+    /**
+     * Checks and skips the format tag of a value stored as a stream, then copies the requested range of the value,
+     * or keeps the description of the chunks if the value is stored in chunks.
+     */
+    private static final class StreamValueOutputStream extends FilterOutputStream {
+        private final OutputStream target;
+        private final long offset;
+        private final long length;
+        private ByteArrayOutputStream chunked;
+
+        StreamValueOutputStream(OutputStream target, long offset, long length) {
+            // the stream to write to depends on the tag
+            super(null);
+            this.target = target;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (len > 0 && out == null) {
+                checkTag(b[off]);
+            }
+            out.write(b, off, len);
+        }
+
+        Chunking getChunking() throws IOException {
+            if (chunked == null) {
+                return null;
+            }
+            Chunking chunking = Chunking.parse(chunked.toByteArray());
+            if (chunking.format != ValueCodecs.STREAM) {
+                throw new IOException("The value was not stored as a stream.");
+            }
+            return chunking;
+        }
+
+        private void checkTag(byte tag) throws IOException {
+            if (tag == ValueCodecs.CHUNKED) {
+                chunked = new ByteArrayOutputStream(16);
+                out = chunked;
+            } else if (tag == ValueCodecs.STREAM) {
+                // skip the tag itself
+                out = new RangeOutputStream(target, offset + 1, length < 0 ? Long.MAX_VALUE : length);
+            } else {
+                throw new IOException("The value was not stored as a stream.");
+            }
+        }
+    }
+
+    /**
+     * Copies only a range of the bytes written.
+     */
+    private static final class RangeOutputStream extends FilterOutputStream {
+        private long skip;
+        private long remaining;
+
+        RangeOutputStream(OutputStream out, long skip, long length) {
+            super(out);
+            this.skip = skip;
+            this.remaining = length;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (skip >= len) {
+                skip -= len;
+                return;
+            }
+            off += skip;
+            len -= skip;
+            skip = 0;
+            if (len > remaining) {
+                len = (int) remaining;
+            }
+            if (len > 0) {
+                out.write(b, off, len);
+                remaining -= len;
+            }
+        }
+    }
+
+    /**
+     * Replaces the value of a large object bigger than a chunk by the description of its chunks.
+     *
+     * @return The description of the chunks, or null if the value is not to be stored in chunks.
+     */
+    private static Chunking toChunks(KeyedObject ko) {
+        if (!(ko instanceof LargeKeyedObject) || !FastTrackConfig.isChunking()) {
+            return null;
+        }
+        byte[] value = ko.getValue();
+        int chunkSize = FastTrackConfig.getChunkSize();
+        if (value.length <= chunkSize) {
+            return null;
+        }
+        Chunking chunking = new Chunking(value[0], value.length, chunkSize);
+        ((LargeKeyedObject) ko).setValue(chunking.toValue());
+        return chunking;
+    }
+
+    /**
+     * Stores the chunks of the value of a large object, or removes the chunks of its previous value when the new one
+     * is not stored in chunks.
+     */
+    private void writeChunks(KeyedObject ko, byte[] value, Chunking chunking) throws DataException {
+        if (chunking == null) {
+            if (ko instanceof LargeKeyedObject && FastTrackConfig.isChunking()) {
+                dao.deleteChunks(ko.getId());
+            }
+            return;
+        }
+        try {
+            dao.createChunks(ko.getId(), new ByteArrayInputStream(value), chunking.chunkSize);
+        } catch (IOException e) {
+            throw new DataException("Failed to store chunks with error: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * @return False if there is certainly no instance stored with this key, according to the filter of the stored
+     *         keys of the class.  True while the filter is not built or too old, which starts building it.
+     */
+    private boolean mayBeStored(Class tClass, KeyedId keyedId) throws DataClassException {
+        if (!FastTrackConfig.isKeyFilter()) {
+            return true;
+        }
+        KeyFilter filter = KeyFilter.get(keyedId.getName());
+        if (filter == null) {
+            buildKeyFilter(tClass, keyedId.getName());
+            return true;
+        }
+        return filter.mightContain(keyedId.getUid());
+    }
+
+    /**
+     * Builds the filter of the stored keys of a class in the background, unless it is already being built.
+     */
+    private void buildKeyFilter(final Class tClass, final int name) {
+        final boolean placed = isPlaced(tClass);
+        if (!KeyFilter.startBuilding(name)) {
+            return;
+        }
+        try {
+            KeyFilter.scans.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        long[] uids = dao.getUids(ClassUtils.classSelector(tClass), tClass.getName());
+                        long[] large = placed ? dao.getUids(LargeKeyedObject.class, tClass.getName()) : new long[0];
+                        KeyFilter.built(name, uids, large);
+                        LOG.debug("Built key filter of {} with {} keys.", tClass.getName(), uids.length + large.length);
+                    } catch (Exception e) {
+                        LOG.warn("Failed to build key filter of {} with error: {}", tClass.getName(), e.getMessage());
+                        KeyFilter.failed(name);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            KeyFilter.failed(name);
+        }
+    }
+
+    /**
+     * Records a key in the filter of the stored keys, before the instance is stored so that no lookup misses it.
+     */
+    private void stored(Class tClass, KeyedId keyedId) {
+        if (FastTrackConfig.isKeyFilter() && KeyFilter.added(keyedId.getName(), keyedId.getUid())) {
+            buildKeyFilter(tClass, keyedId.getName());
+        }
+    }
+
+    /**
+     * Reads the indexes of the stored instances before they are overwritten or removed, when some search results of
+     * the class are cached: the results the instances were part of are then known.
+     *
+     * @return The index hashes of the stored instances, or null if no result of the class is cached.
+     */
+    private List<Integer[]> indexesBefore(Class tClass, Collection<KeyedId> keyedIds) throws DataClassException {
+        if (!QueryCache.isCached(DataClass.of(tClass).getName())) {
+            return null;
+        }
+        List<Integer[]> rows = new ArrayList<Integer[]>(
+                dao.getIndexes(ClassUtils.classSelector(tClass), keyedIds).values());
+        if (isPlaced(tClass) && hasSpilled(tClass)) {
+            rows.addAll(dao.getIndexes(LargeKeyedObject.class, keyedIds).values());
+        }
+        return rows;
+    }
+
+    /**
+     * @return The cached serialized value, or null if it is not cached or changed since it was cached.
+     */
+    private byte[] cached(KeyedId keyedId) {
+        ObjectCache.Entry entry = ObjectCache.get(keyedId);
+        if (entry == null) {
+            return null;
+        }
+        if (isValid(keyedId, entry)) {
+            return entry.value;
+        }
+        ObjectCache.invalidate(keyedId);
+        return null;
+    }
+
+    /**
+     * @return The serialized value cached off the heap, when it is still valid, or null.
+     */
+    private byte[] cachedOffHeap(KeyedId keyedId, OffHeapCache.Slot slot) {
+        if (isValid(keyedId, slot)) {
+            byte[] bytes = OffHeapCache.read(keyedId, slot);
+            if (bytes != null) {
+                return bytes;
+            }
+        }
+        OffHeapCache.invalidate(keyedId);
+        return null;
+    }
+
+    private boolean isValid(KeyedId keyedId, CachedRow row) {
+        if (row.isFresh()) {
+            return true;
+        }
+        if (!row.isExpired()) {
+            Long version = dao.getVersion(row.table, keyedId);
+            if (version != null && version == row.version) {
+                row.validated();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param version Where to return the version of the row when the instance is to be cached, null otherwise.
+     * @return The stored value, or null if there is no such object.
+     */
+    private byte[] getValue(Class toUse, KeyedId keyedId, long[] version) {
+        if (version != null) {
+            return dao.getValue(toUse, keyedId, version);
+        }
+        return dao.getValue(toUse, keyedId);
+    }
+
+    /**
+     * Replaces the value of a large object by a reference to the content shared by the objects with the same value.
+     *
+     * @return The hash of the content, or null if the value is not to be shared.
+     */
+    private static String toShared(KeyedObject ko) {
+        if (!(ko instanceof LargeKeyedObject) || !FastTrackConfig.isDedup()
+                || ko.getValue().length < FastTrackConfig.getDedupMinSize()) {
+            return null;
+        }
+        byte[] reference = SharedContent.toReference(ko.getValue());
+        ((LargeKeyedObject) ko).setValue(reference);
+        return SharedContent.key(reference);
+    }
+
+    private void writeShared(String hash, byte[] value) {
+        if (hash != null) {
+            dao.acquireContent(hash, value);
+        }
+    }
+
+    private static boolean isShared(Class tClass) {
+        return FastTrackConfig.isDedup() && (LargeData.class.isAssignableFrom(tClass) || isPlaced(tClass));
+    }
+
+    /**
+     * Reads the contents the stored instances refer to before they are overwritten or removed, as the reference is
+     * then lost. Nothing is read unless the values are shared.
+     *
+     * @return The hashes of the contents referenced by the stored large instances with these ids.
+     */
+    private List<String> sharedContents(Class tClass, Collection<KeyedId> keyedIds) {
+        if (!isShared(tClass)) {
+            return Collections.emptyList();
+        }
+        return dao.getContentHashes(keyedIds);
+    }
+
+    /**
+     * Called once the new values are stored, so that a content still in use is not removed and stored again.
+     */
+    private void release(List<String> hashes) {
+        for (String hash : hashes) {
+            dao.releaseContent(hash);
+        }
+    }
+
+    /**
+     * @return The value itself, read from the shared content or from the chunks if the stored value only refers to
+     *         them.
+     */
+    private byte[] resolve(KeyedId keyedId, byte[] bytes) throws IOException {
+        if (SharedContent.isReference(bytes)) {
+            byte[] content = dao.getContent(SharedContent.key(bytes));
+            if (content == null) {
+                throw new IOException("Missing shared content for " + keyedId);
+            }
+            return content;
+        }
+        if (!Chunking.isChunked(bytes)) {
+            return bytes;
+        }
+        Chunking chunking = Chunking.parse(bytes);
+        if (chunking.length > Integer.MAX_VALUE) {
+            throw new IOException("The value of " + keyedId + " is too large to be read in memory.");
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream((int) chunking.length);
+        dao.copyChunks(keyedId, 0, chunking.count() - 1, out);
+        if (out.size() != chunking.length) {
+            throw new IOException("Missing chunks for " + keyedId + ", read " + out.size() + " bytes out of "
+                    + chunking.length);
+        }
+        return out.toByteArray();
+    }
+
+    private static boolean isCompressed(Object data) {
+        return data instanceof LargeData && !(data instanceof CompressionDictionary) && FastTrackConfig.isCompression();
+    }
+
+    /**
+     * @return The dictionary to compress the new instances of a class with, loaded the first time it is needed.
+     */
+    private Compression.Dictionary currentDictionary(Class<?> tClass) throws IOException {
+        Compression.Dictionary dictionary = Compression.getCurrentDictionary(tClass.getName());
+        if (dictionary == null) {
+            CompressionDictionary stored = readDictionary(tClass.getName());
+            dictionary = stored == null
+                    ? Compression.Dictionary.NONE : new Compression.Dictionary(stored.getId(), stored.getBytes());
+            Compression.addDictionary(tClass.getName(), dictionary, true);
+        }
+        return dictionary;
+    }
+
+    private void loadDictionary(String className, int id) throws IOException {
+        CompressionDictionary stored = readDictionary(CompressionDictionary.key(className, id));
+        if (stored == null) {
+            throw new IOException("Dictionary " + id + " of " + className + " does not exist.");
+        }
+        Compression.addDictionary(className, new Compression.Dictionary(id, stored.getBytes()), false);
+    }
+
+    private CompressionDictionary readDictionary(String key) throws IOException {
+        try {
+            KeyedId keyedId = new KeyedId(CompressionDictionary.class, key);
+            byte[] bytes = dao.getValue(LargeKeyedObject.class, keyedId);
+            if (bytes == null) {
+                return null;
+            }
+            bytes = resolve(keyedId, bytes);
+            return (CompressionDictionary) ValueCodecs.decode(CompressionDictionary.class, bytes);
+        } catch (InvalidKeyException e) {
+            throw new IOException("Failed to read dictionary " + key + ": " + e.getMessage(), e);
+        } catch (DataClassException e) {
+            throw new IOException("Failed to read dictionary " + key + ": " + e.getMessage(), e);
+        } catch (ClassNotFoundException e) {
+            throw new IOException("Failed to read dictionary " + key + ": " + e.getMessage(), e);
+        }
+    }
+
+    private byte[] uncompress(String className, byte[] bytes) throws IOException {
+        try {
+            return Compression.uncompress(className, bytes);
+        } catch (MissingDictionaryException e) {
+            loadDictionary(e.getClassName(), e.getDictionaryId());
+            return Compression.uncompress(className, bytes);
+        }
     }
 
     private void validateIndexes(String... indexes) throws DataException {
@@ -197,13 +1233,41 @@ public class KoFastTrackDataService<T> implements FastTrackDataService {
         }
     }
 
-    private List<T> convert(Collection<KeyedObject> kos) {
+    /**
+     * Lazy holder of the threads used by bulk operations to serialize in parallel. The threads are daemons so that
+     * they never hold the server back when shutting down.
+     */
+    private static final class SerializerPool {
+        static final ExecutorService EXECUTOR = Executors.newFixedThreadPool(FastTrackConfig.getSerializerThreads(),
+                new ThreadFactory() {
+                    private final AtomicInteger count = new AtomicInteger();
+
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r, "fasttrack-serializer-" + count.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+    }
+
+    private List<T> convert(Class tClass, Collection<KeyedObject> kos) {
+        return convert(tClass, kos, null);
+    }
+
+    /**
+     * @param values If not null, receives the serialized values of the instances returned.
+     */
+    private List<T> convert(Class tClass, Collection<KeyedObject> kos, List<byte[]> values) {
         List<T> result = new ArrayList<T>(kos.size());
         byte[] bytes;
         for (KeyedObject ko : kos) {
-            bytes = ko.getValue();
             try {
-                result.add(deserialize(bytes));
+                bytes = resolve(ko.getId(), ko.getValue());
+                result.add(deserialize(tClass, bytes));
+                if (values != null) {
+                    values.add(bytes);
+                }
             } catch (Exception e) {
                 LOG.warn("Failed to de-serialize data for KeyedId { {} } with error: {}. Corrupted set."
                         + " Ignoring this element.", ko.getId(), e.getMessage());
@@ -212,38 +1276,28 @@ public class KoFastTrackDataService<T> implements FastTrackDataService {
         return result;
     }
 
-    private String[] getIndexes(final Object data) throws DataClassException {
-        Map<Index, String> indexValuePair = new EnumMap<Index, String>(Index.class);
-        Field[] fields = data.getClass().getDeclaredFields();
-        for (Field field : fields) {
-            System.out.println(field);
-            if (field.isAnnotationPresent(Searchable.class)) {
-                field.setAccessible(true);
-                Searchable searchable = field.getAnnotation(Searchable.class);
-                try {
-                    Object previous = indexValuePair.put(searchable.value(), (String) field.get(data));
-                    if (previous != null) {
-                        throw new DataClassException("Duplicated Declaration of Index " + searchable.value()
-                                + " on field " + field.getName());
-                    }
-                } catch (IllegalArgumentException ex) {
-                    throw new DataClassException("Field " + field.getName() + " is not String!");
-                } catch (IllegalAccessException ex) {
-                    throw new DataClassException("Set field " + field.getName() + " accessible failed!");
-                }
-            }
+    /**
+     * Deserializes the values of a cached search result, new instances at each call.
+     */
+    private List<T> deserialized(Class tClass, List<byte[]> values) throws DataException {
+        List<T> result = new ArrayList<T>(values.size());
+        for (byte[] bytes : values) {
+            result.add(deserialized(tClass, bytes));
         }
+        return result;
+    }
 
-        String[] indexes = new String[indexValuePair.size()];
-
-        for (int i = 0; i < indexValuePair.size(); i++) {
-            String value = indexValuePair.get(Index.values()[i]);
-            if (value == null) {
-                throw new DataClassException("Index " + Index.values()[i] + " declaration is missing.");
-            }
-            indexes[i] = value;
+    /**
+     * Replaces the rows of the named indexes of a stored object, if its class declares any.
+     */
+    private void writeIndexes(KeyedObject ko) {
+        if (ko.getNamedIndexes() != null) {
+            dao.createIndexes(ko.getId(), ko.getNamedIndexes());
         }
-        return indexes;
+    }
+
+    private String[] getIndexes(final Object data) throws DataClassException {
+        return DataClass.of(data.getClass()).getIndexes(data);
     }
 
 }
@@ -23,7 +23,12 @@ import com.chen.candybon.fasttrack.exception.NotFoundException;
 import com.chen.candybon.fasttrack.object.KeyedId;
 import com.chen.candybon.fasttrack.object.KeyedObject;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 
 /**
  * DAO interface for manipulating the {@link KeyedObject} entity object.
@@ -39,6 +44,150 @@ public interface LocalKeyedObjectDao {
      */
     KeyedObject create(KeyedObject t) throws DataException;
 
+    /**
+     * Persist a collection of objects to data store using JDBC batches, all within the current transaction.
+     *
+     * A failing row (like for example a duplicate key) does not prevent the other rows from being inserted.
+     *
+     * @param kos A non null {@link List} of {@link KeyedObject}, small and large objects can be mixed.
+     * @return For each element of kos, at the same position, true if the row was inserted.
+     * @throws DataException In case the parameter is null or contains null.
+     */
+    boolean[] createAll(List<? extends KeyedObject> kos) throws DataException;
+
+    /**
+     * Persist the object to data store, or overwrite the value and indexes of the persisted object with the same
+     * {@link KeyedId}, in a single statement where the database supports it.
+     *
+     * @param ko A non null {@link KeyedObject}.
+     * @throws DataException In case the parameter is null.
+     */
+    void upsert(KeyedObject ko) throws DataException;
+
+    /**
+     * Persist a large object whose value is read from a stream, without holding the value in memory.
+     *
+     * @param id The unique id of the object.
+     * @param value The value, streamed to the database.
+     * @param length The number of bytes of the value, or -1 if unknown (requires a JDBC 4 driver).
+     * @param indexes The indexes of the object.
+     * @throws DataException In case the id or the stream is null.
+     */
+    void createStream(KeyedId id, InputStream value, int length, String... indexes) throws DataException;
+
+    /**
+     * Copies the value of a large object to a stream, without holding the value in memory.
+     *
+     * @param id The unique id of the object.
+     * @param out Where to copy the value.
+     * @return False if there is no such object.
+     * @throws IOException In case the value cannot be copied.
+     */
+    boolean copyValue(KeyedId id, OutputStream out) throws IOException;
+
+    /**
+     * Stores a large value in the chunk table, in chunks of chunkSize bytes sent in JDBC batches, replacing the
+     * chunks previously stored for this id. The row of the object itself is not touched.
+     *
+     * @param id The unique id of the object.
+     * @param value The value, read chunk by chunk.
+     * @param chunkSize The size of the chunks, all the chunks but the last one are full.
+     * @return The number of bytes stored.
+     * @throws IOException In case the stream cannot be read.
+     */
+    long createChunks(KeyedId id, InputStream value, int chunkSize) throws IOException;
+
+    /**
+     * Copies a range of chunks of a large value to a stream, in a single query.
+     *
+     * @param id The unique id of the object.
+     * @param first The position of the first chunk to copy.
+     * @param last The position of the last chunk to copy.
+     * @param out Where to copy the chunks.
+     * @return The number of chunks copied.
+     * @throws IOException In case the chunks cannot be copied.
+     */
+    int copyChunks(KeyedId id, int first, int last, OutputStream out) throws IOException;
+
+    /**
+     * Delete the chunks of a large value.
+     *
+     * @param id The unique id of the object.
+     * @return The number of deleted chunks.
+     */
+    int deleteChunks(KeyedId id);
+
+    /**
+     * Replaces the rows of the named indexes of an object in the index table.
+     *
+     * @param id The unique id of the object.
+     * @param indexes The values of the named indexes of the object, by index name.
+     */
+    void createIndexes(KeyedId id, Map<String, String> indexes);
+
+    /**
+     * Delete the rows of the named indexes of objects.
+     *
+     * @param ids The unique ids of the objects.
+     * @return The number of deleted index rows.
+     */
+    int deleteIndexes(Collection<KeyedId> ids);
+
+    /**
+     * Delete the rows of the named indexes of the objects of a class that are no longer stored, after a deletion
+     * that did not know the objects it removed.
+     *
+     * @param keyIdName The {@link KeyedId} name part of the unique key of the objects.
+     * @return The number of deleted index rows.
+     */
+    int deleteOrphanIndexes(String keyIdName);
+
+    /**
+     * Adds a reference to a content shared by several large objects, storing the content if it is not known yet.
+     *
+     * @param hash The hash identifying the content.
+     * @param content The content, only written if no content with this hash is stored yet.
+     * @return True if the content was already stored.
+     */
+    boolean acquireContent(String hash, byte[] content);
+
+    /**
+     * Returns a content shared by several large objects.
+     *
+     * @param hash The hash identifying the content.
+     * @return The content, or null if there is no content with this hash.
+     */
+    byte[] getContent(String hash);
+
+    /**
+     * Removes a reference to a content shared by several large objects, and the content itself when it was the last
+     * reference.
+     *
+     * @param hash The hash identifying the content.
+     * @return True if the content was removed.
+     */
+    boolean releaseContent(String hash);
+
+    /**
+     * Returns the hashes of the shared contents the large objects with these keys refer to, without reading their
+     * values.
+     *
+     * @param keyedIds The unique keys of the objects to look up.
+     * @return One hash per object referring to a content, in no particular order.
+     */
+    List<String> getContentHashes(Collection<KeyedId> keyedIds);
+
+    /**
+     * Returns the hashes of the shared contents the large objects matching a predicate refer to, without reading
+     * their values.
+     *
+     * @param keyIdName The {@link KeyedId} name part of the unique key of the objects.
+     * @param predicate a valid {@link Predicate}.
+     * @return One hash per object referring to a content, in no particular order.
+     * @throws InvalidPredicateException
+     */
+    List<String> getContentHashes(String keyIdName, Predicate predicate) throws InvalidPredicateException;
+
     /**
      * Returns the keyed object associated with this id and class.
      *
@@ -64,22 +213,119 @@ public interface LocalKeyedObjectDao {
             throws NotFoundException;
 
     /**
-     * Delete the keyed object specified by this class and {@link KeyedId}.
+     * Overwrites the value and the indexes of a persisted object in a single statement, without reading the
+     * object first.  The indexes not specified are cleared, and the version of the row is incremented.
+     *
+     * @param tClass The Class that is affected either {@link com.chen.candybon.fasttrack.object.SmallKeyedObject} or
+     * {@link com.chen.candybon.fasttrack.object.LargeKeyedObject}.
+     * @param id The unique id.
+     * @param value What to store as a byte array.
+     * @param indexes The indexes of this instance.
+     * @throws NotFoundException In case no such object is found.
+     */
+    void updateValue(Class<? extends KeyedObject> tClass, KeyedId id, byte[] value, String... indexes)
+            throws NotFoundException;
+
+    /**
+     * Delete the keyed object specified by this class and {@link KeyedId}.  The row is removed with a single
+     * statement, without loading the object first.
      *
      * @param tClass One of SmallKeyedObject or LargeKeyedObject.
      * @param id A unique id.
+     * @return The number of deleted rows, ie 0 or 1.
      */
-    void delete(Class<? extends KeyedObject> tClass, KeyedId id);
+    int delete(Class<? extends KeyedObject> tClass, KeyedId id);
+
+    /**
+     * Delete all the keyed objects specified by this class and {@link KeyedId}s, using one statement per
+     * {@link FastTrackConfig#getInListSize()} keys.
+     *
+     * @param tClass One of SmallKeyedObject or LargeKeyedObject.
+     * @param ids The unique ids of the objects to remove.
+     * @return The number of deleted rows.
+     */
+    int deleteAll(Class<? extends KeyedObject> tClass, Collection<KeyedId> ids);
+
+    /**
+     * Delete, in one statement, all the instances of tClass using {@link KeyedId} name part (keyIdName) as the object
+     * name marker that respect the {@link Predicate} specified as argument.
+     *
+     * @param tClass One of SmallKeyedObject or LargeKeyedObject.
+     * @param keyIdName The {@link KeyedId} name part of the unique key for objects to remove.
+     * @param predicate a valid {@link Predicate}, with at least one condition and no paging information.
+     * @return The number of deleted rows.
+     * @throws InvalidPredicateException If the predicate is not valid (like for example if it is empty).
+     */
+    int delete(Class<? extends KeyedObject> tClass, String keyIdName, Predicate predicate)
+            throws InvalidPredicateException;
 
     /**
      * Returns only the value part of the {@link KeyedObject} ie the serialized  instance.
      *
      * @param toUse The class name to use
      * @param keyedId A unique key for this object.
-     * @return The serialized content of the KeyedObject.
+     * @return The serialized content of the KeyedObject, null if not found or if the object was stored with another
+     *         key of the same fingerprint (see {@link KeyedId#getKey()}).
      */
     byte[] getValue(Class toUse, KeyedId keyedId);
 
+    /**
+     * Returns the value part of the {@link KeyedObject} and the version of its row, read together.
+     *
+     * @param toUse The class name to use
+     * @param keyedId A unique key for this object.
+     * @param version Where to return the version, 0 for a row never versioned (see {@link #getVersion}).
+     * @return The serialized content of the KeyedObject, null as for {@link #getValue(Class, KeyedId)}.
+     */
+    byte[] getValue(Class toUse, KeyedId keyedId, long[] version);
+
+    /**
+     * Returns the index hashes of many {@link KeyedObject} at once, using one query per
+     * {@link FastTrackConfig#getInListSize()} keys.
+     *
+     * @param toUse The class name to use
+     * @param keyedIds The unique keys of the objects to look up.
+     * @return The hashes of the six indexes of the objects found, see {@link KeyedObject#getIndexes()}, by key.
+     */
+    Map<KeyedId, Integer[]> getIndexes(Class toUse, Collection<KeyedId> keyedIds);
+
+    /**
+     * Returns the uid part of the keys of all the objects with this key name, eg to know which keys exist.
+     *
+     * @param toUse The class name to use
+     * @param keyName The associated serialized data key name
+     * @return The uids, in no particular order.
+     */
+    long[] getUids(Class toUse, String keyName);
+
+    /**
+     * Tells whether any object has this key name, without reading the objects.
+     *
+     * @param toUse The class name to use
+     * @param keyName The key name part of the objects to look up.
+     * @return True if at least one object has this key name.
+     */
+    boolean hasAny(Class toUse, String keyName);
+
+    /**
+     * Returns the version of the row of a {@link KeyedObject}, which changes each time the object is written.
+     *
+     * @param toUse The class name to use
+     * @param keyedId A unique key for this object.
+     * @return The version, 0 for a row never versioned, or null if there is no such object.
+     */
+    Long getVersion(Class toUse, KeyedId keyedId);
+
+    /**
+     * Returns the value part of many {@link KeyedObject} at once, using one query per
+     * {@link FastTrackConfig#getInListSize()} keys instead of one query per key.
+     *
+     * @param toUse The class name to use
+     * @param keyedIds The unique keys of the objects to look up.
+     * @return The serialized content of the objects found, by key. Keys that are not found are not in the map.
+     */
+    Map<KeyedId, byte[]> getValues(Class toUse, Collection<KeyedId> keyedIds);
+
     /**
      * Used to search instance of tClass using {@link KeyedId} name part (keyIdName) as the object name marker
      * that respect the {@link Predicate} specified as argument.
@@ -104,4 +350,14 @@ public interface LocalKeyedObjectDao {
      * @return A {@link List} of instances.
      */
     List<KeyedObject> search(Class toUse, String keyName, int position, int max);
+
+    /**
+     * Moves up to max small values stored Base64 encoded by previous versions to the binary column. The rows are
+     * readable before, during and after the migration, which can thus run while the application is in use: call it
+     * repeatedly, each call in its own transaction, until it returns 0.
+     *
+     * @param max The maximum number of rows to migrate.
+     * @return The number of rows migrated.
+     */
+    int migrateSmallValues(int max);
 }
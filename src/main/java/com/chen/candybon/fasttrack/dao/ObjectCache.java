@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) XIAOWEI CHEN, 2009.
+ * All Rights Reserved. Reproduction in whole or in part is prohibited
+ * without the written consent of the copyright owner.
+ * 
+ * XIAOWEI CHEN MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY OF
+ * THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED
+ * TO THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE, OR NON-INFRINGEMENT. XIAOWEI CHEN SHALL NOT BE LIABLE FOR
+ * ANY DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR
+ * DISTRIBUTING THIS SOFTWARE OR ITS DERIVATIVES.
+ * 
+ * All rights reserved.
+ */
+package com.chen.candybon.fasttrack.dao;
+
+import com.chen.candybon.fasttrack.data.DataClass;
+import com.chen.candybon.fasttrack.object.KeyedId;
+import com.chen.candybon.fasttrack.object.KeyedObject;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * In process cache of the values read by key (see {@link FastTrackConfig#getCacheSize()}), the least recently used
+ * values are evicted first.  The values are kept serialized and deserialized again at each hit: the instances returned
+ * are mutable, and must not be shared between callers.
+ * <p/>
+ * The writes through this node remove the values they change, the writes of the other nodes are detected with the
+ * version column of the rows (see {@link CachedRow}).
+ *
+ * @author Xiaowei Chen
+ */
+final class ObjectCache {
+
+    private static final Map<KeyedId, Entry> ENTRIES = new LinkedHashMap<KeyedId, Entry>(16, 0.75f, true);
+
+    /**
+     * Protect access to constructor.
+     */
+    private ObjectCache() {
+    }
+
+    /**
+     * @return The cached entry for this id, or null.
+     */
+    static Entry get(KeyedId id) {
+        synchronized (ENTRIES) {
+            return ENTRIES.get(id);
+        }
+    }
+
+    /**
+     * Caches a value, evicting the least recently used ones beyond {@link FastTrackConfig#getCacheSize()}.
+     *
+     * @param id The unique id of the value.
+     * @param table The table the value was read from.
+     * @param version The version of the row, read before the value.
+     * @param value The serialized value, not to be changed once cached.
+     */
+    static void put(KeyedId id, Class<? extends KeyedObject> table, long version, byte[] value) {
+        int size = FastTrackConfig.getCacheSize();
+        Entry entry = new Entry(table, version, value);
+        synchronized (ENTRIES) {
+            ENTRIES.put(id, entry);
+            Iterator<Entry> eldest = ENTRIES.values().iterator();
+            while (ENTRIES.size() > size && eldest.hasNext()) {
+                eldest.next();
+                eldest.remove();
+            }
+        }
+    }
+
+    static void invalidate(KeyedId id) {
+        synchronized (ENTRIES) {
+            ENTRIES.remove(id);
+        }
+    }
+
+    static void invalidate(Collection<KeyedId> ids) {
+        synchronized (ENTRIES) {
+            for (KeyedId id : ids) {
+                ENTRIES.remove(id);
+            }
+        }
+    }
+
+    /**
+     * Removes all the cached values of a class.
+     */
+    static void invalidate(Class<?> tClass) {
+        Integer name = DataClass.of(tClass).getName();
+        synchronized (ENTRIES) {
+            Iterator<KeyedId> ids = ENTRIES.keySet().iterator();
+            while (ids.hasNext()) {
+                if (name.equals(ids.next().getName())) {
+                    ids.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * A cached value and the row it was read from.
+     */
+    static final class Entry extends CachedRow {
+        final byte[] value;
+
+        Entry(Class<? extends KeyedObject> table, long version, byte[] value) {
+            super(table, version);
+            this.value = value;
+        }
+    }
+}
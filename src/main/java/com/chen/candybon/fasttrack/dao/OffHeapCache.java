@@ -0,0 +1,257 @@
+/*
+ * Copyright (c) XIAOWEI CHEN, 2009.
+ * All Rights Reserved. Reproduction in whole or in part is prohibited
+ * without the written consent of the copyright owner.
+ * 
+ * XIAOWEI CHEN MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY OF
+ * THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED
+ * TO THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE, OR NON-INFRINGEMENT. XIAOWEI CHEN SHALL NOT BE LIABLE FOR
+ * ANY DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR
+ * DISTRIBUTING THIS SOFTWARE OR ITS DERIVATIVES.
+ * 
+ * All rights reserved.
+ */
+package com.chen.candybon.fasttrack.dao;
+
+import com.chen.candybon.fasttrack.data.DataClass;
+import com.chen.candybon.fasttrack.object.KeyedId;
+import com.chen.candybon.fasttrack.object.KeyedObject;
+
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * In process cache of the serialized values read by key, kept out of the heap (see
+ * {@link FastTrackConfig#getOffHeapSize()}): the values are deserialized again at each hit, but do not weigh on the
+ * garbage collector.
+ * <p/>
+ * The values are appended to direct buffers of {@link FastTrackConfig#getOffHeapSlabSize()}, allocated as needed.  Once
+ * all of them are used, the oldest slab is emptied and written again: the values are evicted by slab, in the order they
+ * were cached.  A value changed or removed stays in its slab until then, unused.  The versions of the rows are checked
+ * as for {@link ObjectCache}.
+ * <p/>
+ * Only the slots of the values stay on the heap, split in {@link #SEGMENT_COUNT} segments locked separately so that
+ * the readers of different keys do not wait for each other.  The values are written one at a time, and each slab counts
+ * the times it was emptied: a value read while its slab is written again is detected and dropped.
+ *
+ * @author Xiaowei Chen
+ */
+final class OffHeapCache {
+
+    private static final int MEGABYTE = 1024 * 1024;
+
+    private static final int SEGMENT_COUNT = 16;
+
+    private static final Segment[] SEGMENTS = new Segment[SEGMENT_COUNT];
+
+    private static final Object WRITE_LOCK = new Object();
+
+    private static Slab[] slabs = new Slab[0];
+
+    private static int slabSize;
+
+    private static int current;
+
+    static {
+        for (int i = 0; i < SEGMENT_COUNT; i++) {
+            SEGMENTS[i] = new Segment();
+        }
+    }
+
+    /**
+     * Protect access to constructor.
+     */
+    private OffHeapCache() {
+    }
+
+    /**
+     * @return The cached slot for this id, or null.
+     */
+    static Slot get(KeyedId id) {
+        Segment segment = segment(id);
+        synchronized (segment) {
+            return segment.slots.get(id);
+        }
+    }
+
+    /**
+     * @param id The unique id of the value.
+     * @param slot The slot returned by {@link #get(KeyedId)}.
+     * @return A copy of the cached value, or null if it was evicted in the meantime.
+     */
+    static byte[] read(KeyedId id, Slot slot) {
+        byte[] result = new byte[slot.length];
+        ByteBuffer buffer = slot.slab.buffer.duplicate();
+        buffer.position(slot.offset);
+        buffer.get(result);
+        if (slot.generation != slot.slab.generation) {
+            return null;
+        }
+        Segment segment = segment(id);
+        synchronized (segment) {
+            return segment.slots.get(id) == slot ? result : null;
+        }
+    }
+
+    /**
+     * Caches a serialized value, the values larger than a slab are not cached.
+     *
+     * @param id The unique id of the value.
+     * @param table The table the value was read from.
+     * @param version The version of the row, read before the value.
+     * @param value The serialized value.
+     */
+    static void put(KeyedId id, Class<? extends KeyedObject> table, long version, byte[] value) {
+        int size = FastTrackConfig.getOffHeapSize();
+        int slabMegabytes = Math.min(FastTrackConfig.getOffHeapSlabSize(), size);
+        if (value.length > slabMegabytes * MEGABYTE) {
+            return;
+        }
+        Slot slot;
+        synchronized (WRITE_LOCK) {
+            if (slabSize != slabMegabytes * MEGABYTE || slabs.length != size / slabMegabytes) {
+                allocate(size / slabMegabytes, slabMegabytes * MEGABYTE);
+            }
+            Slab slab = slabs[current];
+            if (slab == null) {
+                slab = new Slab(slabSize);
+                slabs[current] = slab;
+            } else if (slab.buffer.remaining() < value.length) {
+                current = (current + 1) % slabs.length;
+                slab = recycle(current);
+            }
+            slot = new Slot(table, version, slab, slab.buffer.position(), value.length);
+            slab.buffer.put(value);
+        }
+        Segment segment = segment(id);
+        synchronized (segment) {
+            segment.slots.put(id, slot);
+        }
+    }
+
+    static void invalidate(KeyedId id) {
+        Segment segment = segment(id);
+        synchronized (segment) {
+            segment.slots.remove(id);
+        }
+    }
+
+    static void invalidate(Collection<KeyedId> ids) {
+        for (KeyedId id : ids) {
+            invalidate(id);
+        }
+    }
+
+    /**
+     * Removes all the cached values of a class.
+     */
+    static void invalidate(Class<?> tClass) {
+        Integer name = DataClass.of(tClass).getName();
+        for (Segment segment : SEGMENTS) {
+            synchronized (segment) {
+                Iterator<KeyedId> ids = segment.slots.keySet().iterator();
+                while (ids.hasNext()) {
+                    if (name.equals(ids.next().getName())) {
+                        ids.remove();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes all the cached values and releases the slabs.
+     */
+    static void clear() {
+        synchronized (WRITE_LOCK) {
+            allocate(0, 0);
+        }
+    }
+
+    private static Segment segment(KeyedId id) {
+        int hash = id.hashCode();
+        return SEGMENTS[(hash ^ (hash >>> 16)) & (SEGMENT_COUNT - 1)];
+    }
+
+    private static void allocate(int count, int size) {
+        for (Slab slab : slabs) {
+            if (slab != null) {
+                slab.generation++;
+            }
+        }
+        for (Segment segment : SEGMENTS) {
+            synchronized (segment) {
+                segment.slots.clear();
+            }
+        }
+        slabs = new Slab[count];
+        slabSize = size;
+        current = 0;
+    }
+
+    /**
+     * Evicts the values of a slab to write it again.
+     */
+    private static Slab recycle(int index) {
+        Slab slab = slabs[index];
+        if (slab == null) {
+            slab = new Slab(slabSize);
+            slabs[index] = slab;
+            return slab;
+        }
+        slab.generation++;
+        for (Segment segment : SEGMENTS) {
+            synchronized (segment) {
+                Iterator<Slot> slots = segment.slots.values().iterator();
+                while (slots.hasNext()) {
+                    if (slots.next().slab == slab) {
+                        slots.remove();
+                    }
+                }
+            }
+        }
+        slab.buffer.clear();
+        return slab;
+    }
+
+    /**
+     * A part of the slots, with its own lock.
+     */
+    private static final class Segment {
+        final Map<KeyedId, Slot> slots = new HashMap<KeyedId, Slot>();
+    }
+
+    /**
+     * A direct buffer, and the times it was emptied to be written again.
+     */
+    private static final class Slab {
+        final ByteBuffer buffer;
+        volatile int generation;
+
+        Slab(int size) {
+            buffer = ByteBuffer.allocateDirect(size);
+        }
+    }
+
+    /**
+     * Where a serialized value is kept, and the row it was read from.
+     */
+    static final class Slot extends CachedRow {
+        private final Slab slab;
+        private final int generation;
+        final int offset;
+        final int length;
+
+        Slot(Class<? extends KeyedObject> table, long version, Slab slab, int offset, int length) {
+            super(table, version);
+            this.slab = slab;
+            this.generation = slab.generation;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+}
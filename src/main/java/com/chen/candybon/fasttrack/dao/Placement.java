@@ -0,0 +1,117 @@
+/*
+ * Copyright (c) XIAOWEI CHEN, 2009.
+ * All Rights Reserved. Reproduction in whole or in part is prohibited
+ * without the written consent of the copyright owner.
+ * 
+ * XIAOWEI CHEN MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY OF
+ * THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED
+ * TO THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE, OR NON-INFRINGEMENT. XIAOWEI CHEN SHALL NOT BE LIABLE FOR
+ * ANY DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR
+ * DISTRIBUTING THIS SOFTWARE OR ITS DERIVATIVES.
+ * 
+ * All rights reserved.
+ */
+package com.chen.candybon.fasttrack.dao;
+
+import com.chen.candybon.fasttrack.object.KeyedObject;
+import com.chen.candybon.fasttrack.object.LargeKeyedObject;
+import com.chen.candybon.fasttrack.object.SmallKeyedObject;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Per class hints on the table holding the instances of {@link com.chen.candybon.fasttrack.data.SmallData} classes,
+ * when these are placed by size (see {@link FastTrackConfig#isAutoPlacement()}).
+ * <p/>
+ * An instance is in exactly one of the two tables.  The hints only decide which table is looked at first, and whether
+ * the large table needs to be looked at all: a class is "spilled" once one of its instances went to the large table.
+ * As another node may spill a class, a class that is not known to be spilled is checked again after
+ * {@link #RECHECK_MILLIS}.
+ *
+ * @author Xiaowei Chen
+ */
+final class Placement {
+
+    static final long RECHECK_MILLIS = 60 * 1000L;
+
+    private static final ConcurrentMap<Class<?>, Hint> HINTS = new ConcurrentHashMap<Class<?>, Hint>();
+
+    /**
+     * Protect access to constructor.
+     */
+    private Placement() {
+    }
+
+    /**
+     * @return The largest value that fits in the small table, as it is stored with the current configuration.
+     */
+    static int maxSmallSize() {
+        return FastTrackConfig.isSmallValueBase64() ? SmallKeyedObject.MAX_SIZE / 4 * 3 : SmallKeyedObject.MAX_SIZE;
+    }
+
+    /**
+     * @param tClass A SmallData class.
+     * @return The table where the instances of the class were last found.
+     */
+    static Class<? extends KeyedObject> firstTable(Class<?> tClass) {
+        return hint(tClass).first;
+    }
+
+    /**
+     * @param table One of SmallKeyedObject or LargeKeyedObject.
+     * @return The other one.
+     */
+    static Class<? extends KeyedObject> other(Class<? extends KeyedObject> table) {
+        return SmallKeyedObject.class.equals(table) ? LargeKeyedObject.class : SmallKeyedObject.class;
+    }
+
+    /**
+     * Records where an instance of the class was found.
+     */
+    static void found(Class<?> tClass, Class<? extends KeyedObject> table) {
+        Hint hint = hint(tClass);
+        hint.first = table;
+        if (LargeKeyedObject.class.equals(table)) {
+            hint.spilled = true;
+        }
+    }
+
+    /**
+     * @param tClass A SmallData class.
+     * @return True if some instances of the class are in the large table, false if none is, or null if this is not
+     *         known and must be checked with {@link #setSpilled(Class, boolean)}.
+     */
+    static Boolean isSpilled(Class<?> tClass) {
+        Hint hint = hint(tClass);
+        if (hint.spilled) {
+            return Boolean.TRUE;
+        }
+        return System.currentTimeMillis() - hint.checked < RECHECK_MILLIS ? Boolean.FALSE : null;
+    }
+
+    static void setSpilled(Class<?> tClass, boolean spilled) {
+        Hint hint = hint(tClass);
+        hint.spilled = hint.spilled || spilled;
+        hint.checked = System.currentTimeMillis();
+    }
+
+    private static Hint hint(Class<?> tClass) {
+        Hint hint = HINTS.get(tClass);
+        if (hint == null) {
+            hint = new Hint();
+            Hint existing = HINTS.putIfAbsent(tClass, hint);
+            if (existing != null) {
+                hint = existing;
+            }
+        }
+        return hint;
+    }
+
+    private static final class Hint {
+        volatile Class<? extends KeyedObject> first = SmallKeyedObject.class;
+        volatile boolean spilled;
+        volatile long checked;
+    }
+}
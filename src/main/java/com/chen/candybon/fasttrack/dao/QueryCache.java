@@ -0,0 +1,177 @@
+/*
+ * Copyright (c) XIAOWEI CHEN, 2009.
+ * All Rights Reserved. Reproduction in whole or in part is prohibited
+ * without the written consent of the copyright owner.
+ * 
+ * XIAOWEI CHEN MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY OF
+ * THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED
+ * TO THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE, OR NON-INFRINGEMENT. XIAOWEI CHEN SHALL NOT BE LIABLE FOR
+ * ANY DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR
+ * DISTRIBUTING THIS SOFTWARE OR ITS DERIVATIVES.
+ * 
+ * All rights reserved.
+ */
+package com.chen.candybon.fasttrack.dao;
+
+import com.chen.candybon.fasttrack.exception.InvalidPredicateException;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * In process cache of the search results by predicate (see {@link FastTrackConfig#getQueryCacheSize()}), the least
+ * recently used results are evicted first.  The values found are kept serialized and deserialized again at each hit,
+ * as for {@link ObjectCache}.
+ * <p/>
+ * A write through this node removes only the results of the predicates matched by the indexes of the written rows,
+ * before or after the write: the other results cannot change.  The writes of the other nodes are seen once a result
+ * is older than {@link FastTrackConfig#getQueryCacheTtl()}.
+ *
+ * @author Xiaowei Chen
+ */
+final class QueryCache {
+
+    private static final Map<String, Entry> ENTRIES = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+
+    /**
+     * Number of cached results by class, so that writes to the classes without cached results do not read indexes.
+     */
+    private static final Map<Integer, Integer> COUNTS = new HashMap<Integer, Integer>();
+
+    /**
+     * Protect access to constructor.
+     */
+    private QueryCache() {
+    }
+
+    /**
+     * @param name The name part of the {@link com.chen.candybon.fasttrack.object.KeyedId} of the class.
+     * @param predicate The search predicate.
+     * @return The serialized values of the cached result, or null.
+     */
+    static List<byte[]> get(int name, JPQLPredicate predicate) throws InvalidPredicateException {
+        String key = name + " " + predicate.toKey();
+        synchronized (ENTRIES) {
+            Entry entry = ENTRIES.get(key);
+            if (entry == null) {
+                return null;
+            }
+            if (System.currentTimeMillis() - entry.loaded >= FastTrackConfig.getQueryCacheTtl()) {
+                ENTRIES.remove(key);
+                count(name, -1);
+                return null;
+            }
+            return new ArrayList<byte[]>(entry.result);
+        }
+    }
+
+    /**
+     * Caches a result, evicting the least recently used ones beyond {@link FastTrackConfig#getQueryCacheSize()}.
+     *
+     * @param result The serialized values found, not to be changed once cached.
+     */
+    static void put(int name, JPQLPredicate predicate, List<byte[]> result) throws InvalidPredicateException {
+        int size = FastTrackConfig.getQueryCacheSize();
+        String key = name + " " + predicate.toKey();
+        Entry entry = new Entry(name, predicate.copy(), new ArrayList<byte[]>(result));
+        synchronized (ENTRIES) {
+            Entry previous = ENTRIES.put(key, entry);
+            if (previous == null) {
+                count(name, 1);
+            }
+            Iterator<Map.Entry<String, Entry>> eldest = ENTRIES.entrySet().iterator();
+            while (ENTRIES.size() > size && eldest.hasNext()) {
+                count(eldest.next().getValue().name, -1);
+                eldest.remove();
+            }
+        }
+    }
+
+    /**
+     * @return True if some results of this class are cached.
+     */
+    static boolean isCached(int name) {
+        synchronized (ENTRIES) {
+            return COUNTS.containsKey(name);
+        }
+    }
+
+    /**
+     * Removes the results of a class that may change with a write.
+     *
+     * @param name The name part of the {@link com.chen.candybon.fasttrack.object.KeyedId} of the class.
+     * @param rows The index hashes of the written rows before and after the write.
+     */
+    static void invalidate(int name, Collection<Integer[]> rows) {
+        if (rows.isEmpty()) {
+            return;
+        }
+        synchronized (ENTRIES) {
+            Iterator<Map.Entry<String, Entry>> entries = ENTRIES.entrySet().iterator();
+            while (entries.hasNext()) {
+                Entry entry = entries.next().getValue();
+                if (entry.name == name && entry.matchesAny(rows)) {
+                    count(name, -1);
+                    entries.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes all the results of a class.
+     */
+    static void invalidate(int name) {
+        synchronized (ENTRIES) {
+            Iterator<Entry> entries = ENTRIES.values().iterator();
+            while (entries.hasNext()) {
+                if (entries.next().name == name) {
+                    entries.remove();
+                }
+            }
+            COUNTS.remove(name);
+        }
+    }
+
+    private static void count(int name, int delta) {
+        Integer count = COUNTS.get(name);
+        int updated = (count == null ? 0 : count) + delta;
+        if (updated > 0) {
+            COUNTS.put(name, updated);
+        } else {
+            COUNTS.remove(name);
+        }
+    }
+
+    /**
+     * A cached result and the predicate it was searched with.
+     */
+    private static final class Entry {
+        final int name;
+        final JPQLPredicate predicate;
+        final List<byte[]> result;
+        final long loaded;
+
+        Entry(int name, JPQLPredicate predicate, List<byte[]> result) {
+            this.name = name;
+            this.predicate = predicate;
+            this.result = result;
+            this.loaded = System.currentTimeMillis();
+        }
+
+        boolean matchesAny(Collection<Integer[]> rows) {
+            for (Integer[] row : rows) {
+                if (predicate.matches(row)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) XIAOWEI CHEN, 2009.
+ * All Rights Reserved. Reproduction in whole or in part is prohibited
+ * without the written consent of the copyright owner.
+ * 
+ * XIAOWEI CHEN MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY OF
+ * THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED
+ * TO THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE, OR NON-INFRINGEMENT. XIAOWEI CHEN SHALL NOT BE LIABLE FOR
+ * ANY DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR
+ * DISTRIBUTING THIS SOFTWARE OR ITS DERIVATIVES.
+ * 
+ * All rights reserved.
+ */
+package com.chen.candybon.fasttrack.dao;
+
+import com.chen.candybon.fasttrack.codec.ValueCodecs;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * The value stored in the row of a large object whose actual value is shared with other objects (see
+ * {@link FastTrackConfig#isDedup()}): the {@link ValueCodecs#SHARED} tag followed by the SHA-256 hash of the actual
+ * value, which is the key of the value in the content table.
+ *
+ * @author Xiaowei Chen
+ */
+final class SharedContent {
+
+    private static final int HASH_SIZE = 32;
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    /**
+     * Protect access to constructor.
+     */
+    private SharedContent() {
+    }
+
+    /**
+     * @param value A value to share.
+     * @return The value to store in the row of the object.
+     */
+    static byte[] toReference(byte[] value) {
+        byte[] hash = sha256().digest(value);
+        byte[] reference = new byte[HASH_SIZE + 1];
+        reference[0] = ValueCodecs.SHARED;
+        System.arraycopy(hash, 0, reference, 1, HASH_SIZE);
+        return reference;
+    }
+
+    /**
+     * @param value A stored value.
+     * @return True if the value is a reference to a shared content.
+     */
+    static boolean isReference(byte[] value) {
+        return value != null && value.length == HASH_SIZE + 1 && value[0] == ValueCodecs.SHARED;
+    }
+
+    /**
+     * @param reference A value for which {@link #isReference(byte[])} is true.
+     * @return The key of the content in the content table, the hash in hexadecimal.
+     */
+    static String key(byte[] reference) {
+        char[] key = new char[HASH_SIZE * 2];
+        for (int i = 0; i < HASH_SIZE; i++) {
+            key[2 * i] = HEX[(reference[i + 1] >> 4) & 0xF];
+            key[2 * i + 1] = HEX[reference[i + 1] & 0xF];
+        }
+        return new String(key);
+    }
+
+    /**
+     * @param value A stored value.
+     * @return The key of the content the value refers to, or null if it is not a reference.  Kept in the
+     *         CONTENT_HASH column of the row, so that the rows referring to contents are found without reading
+     *         their values.
+     */
+    static String hashOf(byte[] value) {
+        return isReference(value) ? key(value) : null;
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // every JRE has SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright (c) XIAOWEI CHEN, 2009.
+ * All Rights Reserved. Reproduction in whole or in part is prohibited
+ * without the written consent of the copyright owner.
+ * 
+ * XIAOWEI CHEN MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY OF
+ * THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED
+ * TO THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE, OR NON-INFRINGEMENT. XIAOWEI CHEN SHALL NOT BE LIABLE FOR
+ * ANY DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR
+ * DISTRIBUTING THIS SOFTWARE OR ITS DERIVATIVES.
+ * 
+ * All rights reserved.
+ */
+package com.chen.candybon.fasttrack.dao;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Shares one load between the concurrent callers asking for the same key (see
+ * {@link FastTrackConfig#isCoalescing()}): the first caller loads in its own thread, the others wait for its result.
+ *
+ * @author Xiaowei Chen
+ */
+final class SingleFlight {
+
+    private static final ConcurrentMap<Object, FutureTask<?>> CALLS = new ConcurrentHashMap<Object, FutureTask<?>>();
+
+    /**
+     * Protect access to constructor.
+     */
+    private SingleFlight() {
+    }
+
+    /**
+     * @param key What is loaded.
+     * @param loader Run by the first caller only.
+     * @param timeout The time in milliseconds the other callers wait at most.
+     * @return The result of the loader.
+     * @throws ExecutionException With the failure of the loader as cause.
+     * @throws TimeoutException If the load by another caller takes longer than the timeout.
+     * @throws InterruptedException If interrupted while waiting for another caller.
+     */
+    @SuppressWarnings("unchecked")
+    static <V> V call(Object key, Callable<V> loader, long timeout)
+            throws ExecutionException, TimeoutException, InterruptedException {
+        FutureTask<V> task = new FutureTask<V>(loader);
+        FutureTask<V> running = (FutureTask<V>) CALLS.putIfAbsent(key, task);
+        if (running != null) {
+            return running.get(timeout, TimeUnit.MILLISECONDS);
+        }
+        try {
+            task.run();
+        } finally {
+            CALLS.remove(key, task);
+        }
+        return task.get();
+    }
+}
@@ -0,0 +1,187 @@
+/*
+ * Copyright (c) XIAOWEI CHEN, 2009.
+ * All Rights Reserved. Reproduction in whole or in part is prohibited
+ * without the written consent of the copyright owner.
+ * 
+ * XIAOWEI CHEN MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY OF
+ * THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED
+ * TO THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE, OR NON-INFRINGEMENT. XIAOWEI CHEN SHALL NOT BE LIABLE FOR
+ * ANY DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR
+ * DISTRIBUTING THIS SOFTWARE OR ITS DERIVATIVES.
+ * 
+ * All rights reserved.
+ */
+package com.chen.candybon.fasttrack.dao;
+
+import com.chen.candybon.fasttrack.object.KeyedObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Database specific statements that cannot be expressed in JPQL.
+ * <p/>
+ * The dialect is detected from the JDBC connection meta data, databases that are not known fall back to
+ * {@link #GENERIC} which only relies on standard SQL.
+ *
+ * @author Xiaowei Chen
+ */
+enum SqlDialect {
+
+    /**
+     * MySQL: <code>INSERT ... ON DUPLICATE KEY UPDATE</code>.
+     */
+    MYSQL {
+        @Override
+        void upsert(Connection connection, KeyedObject ko) throws SQLException {
+            PreparedStatement ps = connection.prepareStatement(upsert(ko.getClass()));
+            try {
+                KeyedObjectSql.bindInsert(ps, ko);
+                ps.executeUpdate();
+            } finally {
+                ps.close();
+            }
+        }
+
+        @Override
+        String upsert(Class<? extends KeyedObject> tClass) {
+            StringBuilder sql = new StringBuilder(KeyedObjectSql.insert(tClass)).append(" ON DUPLICATE KEY UPDATE ");
+            for (String column : overwritten(tClass)) {
+                sql.append(column).append(" = VALUES(").append(column).append("), ");
+            }
+            return sql.append("version = COALESCE(version, 0) + 1").toString();
+        }
+    },
+
+    /**
+     * HSQLDB 2.x and later: <code>MERGE INTO ... USING (VALUES ...)</code>.
+     */
+    HSQLDB {
+        @Override
+        void upsert(Connection connection, KeyedObject ko) throws SQLException {
+            PreparedStatement ps = connection.prepareStatement(upsert(ko.getClass()));
+            try {
+                KeyedObjectSql.bindInsert(ps, ko);
+                ps.executeUpdate();
+            } finally {
+                ps.close();
+            }
+        }
+
+        @Override
+        String upsert(Class<? extends KeyedObject> tClass) {
+            String columns = KeyedObjectSql.columns(tClass);
+            StringBuilder casts = new StringBuilder();
+            for (String type : KeyedObjectSql.columnTypes(tClass)) {
+                casts.append(casts.length() == 0 ? "" : ", ").append("CAST(? AS ").append(type).append(')');
+            }
+            StringBuilder set = new StringBuilder();
+            for (String column : overwritten(tClass)) {
+                set.append("t.").append(column).append(" = v.").append(column).append(", ");
+            }
+            StringBuilder insert = new StringBuilder();
+            for (String column : columns.split(", ")) {
+                insert.append(insert.length() == 0 ? "v." : ", v.").append(column);
+            }
+            return "MERGE INTO " + KeyedObjectSql.tableName(tClass) + " t USING (VALUES(" + casts + ")) AS v("
+                    + columns + ") ON t.name = v.name AND t.uid = v.uid "
+                    + "WHEN MATCHED THEN UPDATE SET " + set + "t.version = COALESCE(t.version, 0) + 1 "
+                    + "WHEN NOT MATCHED THEN INSERT (" + columns + ") VALUES (" + insert + ")";
+        }
+    },
+
+    /**
+     * Any other database: update the row, and insert it when there is none. Should a concurrent transaction insert
+     * the same row in between, the insertion fails and the update is tried again.
+     */
+    GENERIC {
+        @Override
+        void upsert(Connection connection, KeyedObject ko) throws SQLException {
+            Class<? extends KeyedObject> tClass = ko.getClass();
+            if (update(connection, tClass, ko) > 0) {
+                return;
+            }
+            PreparedStatement ps = connection.prepareStatement(KeyedObjectSql.insert(tClass));
+            try {
+                KeyedObjectSql.bindInsert(ps, ko);
+                ps.executeUpdate();
+            } catch (SQLException e) {
+                LOG.debug("Insertion of {} failed, trying to update again: {}", ko.getId(), e.getMessage());
+                if (update(connection, tClass, ko) == 0) {
+                    throw e;
+                }
+            } finally {
+                ps.close();
+            }
+        }
+
+        private int update(Connection connection, Class<? extends KeyedObject> tClass, KeyedObject ko)
+                throws SQLException {
+            PreparedStatement ps = connection.prepareStatement(KeyedObjectSql.update(tClass));
+            try {
+                KeyedObjectSql.bindUpdate(ps, ko);
+                return ps.executeUpdate();
+            } finally {
+                ps.close();
+            }
+        }
+    };
+
+    private static final Logger LOG = LoggerFactory.getLogger(SqlDialect.class);
+
+    /**
+     * Inserts the row of this object, or overwrites its value and indexes if the row already exists.
+     *
+     * @param connection The connection of the current transaction.
+     * @param ko The object to store.
+     * @throws SQLException In case of a database error.
+     */
+    abstract void upsert(Connection connection, KeyedObject ko) throws SQLException;
+
+    /**
+     * @param tClass One of SmallKeyedObject or LargeKeyedObject.
+     * @return The single statement inserting or overwriting a row, binding the parameters of
+     *         {@link KeyedObjectSql#insert(Class)}, null if the dialect has none.
+     */
+    String upsert(Class<? extends KeyedObject> tClass) {
+        return null;
+    }
+
+    /**
+     * @return The columns an upsert overwrites, the value columns then {@link KeyedObjectSql#INDEX_COLUMNS}.
+     */
+    private static List<String> overwritten(Class<? extends KeyedObject> tClass) {
+        List<String> columns = new ArrayList<String>(Arrays.asList(KeyedObjectSql.valueColumns(tClass)));
+        columns.addAll(Arrays.asList(KeyedObjectSql.INDEX_COLUMNS));
+        return columns;
+    }
+
+    /**
+     * @param connection Any connection to the database.
+     * @return The dialect of the database behind the connection.
+     * @throws SQLException In case the meta data cannot be read.
+     */
+    static SqlDialect of(Connection connection) throws SQLException {
+        DatabaseMetaData metaData = connection.getMetaData();
+        String product = metaData.getDatabaseProductName();
+        if (product == null) {
+            return GENERIC;
+        }
+        if (product.toLowerCase().contains("mysql")) {
+            return MYSQL;
+        }
+        // MERGE is only supported as of HSQLDB 2.0
+        if (product.toLowerCase().contains("hsql") && metaData.getDatabaseMajorVersion() >= 2) {
+            return HSQLDB;
+        }
+        return GENERIC;
+    }
+}
@@ -41,13 +41,10 @@ public final class ClassUtils {
             throw new DataClassException("Null is not a valid Fast Track Data Class.");
         }
 
-        if (SmallData.class.isAssignableFrom(tClass)) {
-            return SmallKeyedObject.class;
-        }
-        if (LargeData.class.isAssignableFrom(tClass)) {
-            return LargeKeyedObject.class;
+        Class table = DataClass.of(tClass).getTable();
+        if (table != null) {
+            return table;
         }
-        
         throw new DataClassException("Invalid class inheritance. A fast track class must implement either SmallData "
                 + "or LargeData interface.");
     }
@@ -0,0 +1,246 @@
+/*
+ * Copyright (c) XIAOWEI CHEN, 2009.
+ * All Rights Reserved. Reproduction in whole or in part is prohibited
+ * without the written consent of the copyright owner.
+ * 
+ * XIAOWEI CHEN MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY OF
+ * THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED
+ * TO THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE, OR NON-INFRINGEMENT. XIAOWEI CHEN SHALL NOT BE LIABLE FOR
+ * ANY DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR
+ * DISTRIBUTING THIS SOFTWARE OR ITS DERIVATIVES.
+ * 
+ * All rights reserved.
+ */
+package com.chen.candybon.fasttrack.data;
+
+import com.chen.candybon.fasttrack.Searchable;
+import com.chen.candybon.fasttrack.exception.DataClassException;
+import com.chen.candybon.fasttrack.object.LargeKeyedObject;
+import com.chen.candybon.fasttrack.object.SmallKeyedObject;
+import com.chen.candybon.fasttrack.processor.SearchableProcessor;
+import com.chen.candybon.fasttrack.type.Index;
+import com.chen.candybon.fasttrack.type.IndexValues;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * What fast track needs to know about a class, computed once per class: the hash of its name, the table its
+ * instances are stored in, and the accessors of its {@link Searchable} fields.  The values of the fields other than
+ * String are encoded by {@link IndexValues}.  The named indexes are always read with method handles, the generated
+ * extractor only reads the index columns.
+ * <p/>
+ * The {@link IndexExtractor} generated by {@link com.chen.candybon.fasttrack.processor.SearchableProcessor} is used
+ * when the class was compiled with it, method handles on the fields otherwise.
+ *
+ * @author Xiaowei Chen
+ */
+public final class DataClass {
+
+    private static final String[] NO_INDEXES = new String[0];
+
+    private static final MethodType GETTER = MethodType.methodType(Object.class, Object.class);
+
+    private static final ClassValue<DataClass> CLASSES = new ClassValue<DataClass>() {
+        @Override
+        protected DataClass computeValue(Class<?> type) {
+            return new DataClass(type);
+        }
+    };
+
+    private final Integer name;
+    private final Class table;
+    private final IndexExtractor extractor;
+    private final MethodHandle[] indexes;
+    private final Map<String, MethodHandle> named;
+    private final String invalid;
+
+    private DataClass(Class<?> type) {
+        this.name = type.getName().hashCode();
+        if (SmallData.class.isAssignableFrom(type)) {
+            this.table = SmallKeyedObject.class;
+        } else if (LargeData.class.isAssignableFrom(type)) {
+            this.table = LargeKeyedObject.class;
+        } else {
+            this.table = null;
+        }
+        this.extractor = generated(type);
+        Map<Index, MethodHandle> getters = new EnumMap<Index, MethodHandle>(Index.class);
+        Map<String, MethodHandle> namedGetters = new LinkedHashMap<String, MethodHandle>();
+        String error = null;
+        for (Field field : type.getDeclaredFields()) {
+            Searchable searchable = field.getAnnotation(Searchable.class);
+            // the fields read by the generated extractor were checked at compile time
+            if (searchable == null || error != null || (extractor != null && searchable.name().length() == 0)) {
+                continue;
+            }
+            if (!IndexValues.isIndexable(field.getType())) {
+                error = "Field " + field.getName() + " is not of an indexable type!";
+                continue;
+            }
+            try {
+                field.setAccessible(true);
+                MethodHandle getter = MethodHandles.lookup().unreflectGetter(field);
+                if (Modifier.isStatic(field.getModifiers())) {
+                    getter = MethodHandles.dropArguments(getter, 0, Object.class);
+                }
+                getter = getter.asType(GETTER);
+                if (searchable.name().length() > 0) {
+                    if (namedGetters.put(searchable.name(), getter) != null) {
+                        error = "Duplicated Declaration of Index " + searchable.name() + " on field " + field.getName();
+                    }
+                } else if (getters.put(searchable.value(), getter) != null) {
+                    error = "Duplicated Declaration of Index " + searchable.value() + " on field " + field.getName();
+                }
+            } catch (IllegalAccessException e) {
+                error = "Set field " + field.getName() + " accessible failed!";
+            } catch (SecurityException e) {
+                error = "Set field " + field.getName() + " accessible failed!";
+            }
+        }
+        this.indexes = new MethodHandle[getters.size()];
+        for (int i = 0; i < indexes.length && error == null; i++) {
+            indexes[i] = getters.get(Index.values()[i]);
+            if (indexes[i] == null) {
+                error = "Index " + Index.values()[i] + " declaration is missing.";
+            }
+        }
+        this.named = namedGetters.isEmpty() ? Collections.<String, MethodHandle>emptyMap() : namedGetters;
+        this.invalid = error;
+    }
+
+    /**
+     * @return The extractor generated for the class, or null if it was not compiled with the annotation processor.
+     */
+    private static IndexExtractor generated(Class<?> type) {
+        ClassLoader loader = type.getClassLoader();
+        if (loader == null) {
+            return null;
+        }
+        try {
+            Class<?> generated = Class.forName(type.getName().replace('$', '_') + SearchableProcessor.SUFFIX, true,
+                    loader);
+            if (IndexExtractor.class.isAssignableFrom(generated)) {
+                return (IndexExtractor) generated.getDeclaredConstructor().newInstance();
+            }
+        } catch (ClassNotFoundException e) {
+            // not generated
+        } catch (ReflectiveOperationException e) {
+            // not usable, falls back to reflection
+        }
+        return null;
+    }
+
+    /**
+     * @param type Any class.
+     * @return The description of the class, computed at the first call.
+     */
+    public static DataClass of(Class<?> type) {
+        return CLASSES.get(type);
+    }
+
+    /**
+     * @return The hash of the class name, the name part of the {@link com.chen.candybon.fasttrack.object.KeyedId}.
+     */
+    public Integer getName() {
+        return name;
+    }
+
+    /**
+     * @return SmallKeyedObject or LargeKeyedObject class, null if the class implements neither SmallData nor
+     *         LargeData.
+     */
+    public Class getTable() {
+        return table;
+    }
+
+    /**
+     * Reads the values of the {@link Searchable} fields of an instance.
+     *
+     * @param data An instance of the class.
+     * @return The values, in the order of the indexes.
+     * @throws DataClassException If the fields are not declared properly.
+     */
+    @SuppressWarnings("unchecked")
+    public String[] getIndexes(Object data) throws DataClassException {
+        if (invalid != null) {
+            throw new DataClassException(invalid);
+        }
+        if (extractor != null) {
+            return checked(extractor.getIndexes(data));
+        }
+        if (indexes.length == 0) {
+            return NO_INDEXES;
+        }
+        String[] result = new String[indexes.length];
+        for (int i = 0; i < indexes.length; i++) {
+            try {
+                result[i] = IndexValues.of((Object) indexes[i].invokeExact(data));
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Error e) {
+                throw e;
+            } catch (Throwable e) {
+                throw new DataClassException("Failed to read index " + Index.values()[i] + ": " + e.getMessage());
+            }
+        }
+        return checked(result);
+    }
+
+    /**
+     * @return True if the class declares named indexes, stored in the index table.
+     */
+    public boolean hasNamedIndexes() {
+        return !named.isEmpty();
+    }
+
+    /**
+     * Reads the values of the named {@link Searchable} fields of an instance.  A null value is not indexed, so the
+     * instance is not found by the conditions on that index.
+     *
+     * @param data An instance of the class.
+     * @return The values by index name, null if the class declares no named index.
+     * @throws DataClassException If the fields are not declared properly.
+     */
+    public Map<String, String> getNamedIndexes(Object data) throws DataClassException {
+        if (invalid != null) {
+            throw new DataClassException(invalid);
+        }
+        if (named.isEmpty()) {
+            return null;
+        }
+        Map<String, String> result = new LinkedHashMap<String, String>(named.size() * 2);
+        for (Map.Entry<String, MethodHandle> entry : named.entrySet()) {
+            try {
+                String value = IndexValues.of((Object) entry.getValue().invokeExact(data));
+                if (value != null) {
+                    result.put(entry.getKey(), value);
+                }
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Error e) {
+                throw e;
+            } catch (Throwable e) {
+                throw new DataClassException("Failed to read index " + entry.getKey() + ": " + e.getMessage());
+            }
+        }
+        return result;
+    }
+
+    private static String[] checked(String[] values) throws DataClassException {
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] == null) {
+                throw new DataClassException("Index " + Index.values()[i] + " declaration is missing.");
+            }
+        }
+        return values;
+    }
+}
@@ -0,0 +1,33 @@
+/*
+ * Copyright (c) XIAOWEI CHEN, 2009.
+ * All Rights Reserved. Reproduction in whole or in part is prohibited
+ * without the written consent of the copyright owner.
+ * 
+ * XIAOWEI CHEN MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY OF
+ * THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED
+ * TO THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE, OR NON-INFRINGEMENT. XIAOWEI CHEN SHALL NOT BE LIABLE FOR
+ * ANY DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR
+ * DISTRIBUTING THIS SOFTWARE OR ITS DERIVATIVES.
+ * 
+ * All rights reserved.
+ */
+package com.chen.candybon.fasttrack.data;
+
+/**
+ * Reads the values of the {@link com.chen.candybon.fasttrack.Searchable} fields of an instance.
+ * <p/>
+ * Implementations are generated at compile time by {@link com.chen.candybon.fasttrack.processor.SearchableProcessor},
+ * as the class <code>&lt;data class&gt;_Indexes</code> in the package of the data class, and are used by
+ * {@link DataClass} when available.
+ *
+ * @author Xiaowei Chen
+ */
+public interface IndexExtractor<T> {
+
+    /**
+     * @param data An instance of the data class.
+     * @return The values of its searchable fields, in the order of the indexes.
+     */
+    String[] getIndexes(T data);
+}
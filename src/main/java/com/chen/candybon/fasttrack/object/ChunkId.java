@@ -0,0 +1,93 @@
+/*
+ * Copyright (c) XIAOWEI CHEN, 2009.
+ * All Rights Reserved. Reproduction in whole or in part is prohibited
+ * without the written consent of the copyright owner.
+ * 
+ * XIAOWEI CHEN MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY OF
+ * THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED
+ * TO THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE, OR NON-INFRINGEMENT. XIAOWEI CHEN SHALL NOT BE LIABLE FOR
+ * ANY DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR
+ * DISTRIBUTING THIS SOFTWARE OR ITS DERIVATIVES.
+ * 
+ * All rights reserved.
+ */
+package com.chen.candybon.fasttrack.object;
+
+import javax.persistence.Embeddable;
+import java.io.Serializable;
+
+/**
+ * The primary key of a {@link LargeChunk}: the {@link KeyedId} of the object it is part of, and its position.
+ */
+@Embeddable
+public class ChunkId implements Serializable {
+
+    private Integer name;
+    private Long uid;
+    private Integer chunk;
+
+    /**
+     * Default constructor.
+     */
+    public ChunkId() {
+    }
+
+    public ChunkId(KeyedId id, int chunk) {
+        this.name = id.getName();
+        this.uid = id.getUid();
+        this.chunk = chunk;
+    }
+
+    public Integer getName() {
+        return name;
+    }
+
+    public void setName(Integer name) {
+        this.name = name;
+    }
+
+    public Long getUid() {
+        return uid;
+    }
+
+    public void setUid(Long uid) {
+        this.uid = uid;
+    }
+
+    public Integer getChunk() {
+        return chunk;
+    }
+
+    public void setChunk(Integer chunk) {
+        this.chunk = chunk;
+    }
+
+    @Override
+    public boolean equals(Object object) {
+        if (!(object instanceof ChunkId)) {
+            return false;
+        }
+        ChunkId other = (ChunkId) object;
+        return (name == null ? other.name == null : name.equals(other.name))
+                && (uid == null ? other.uid == null : uid.equals(other.uid))
+                && (chunk == null ? other.chunk == null : chunk.equals(other.chunk));
+    }
+
+    @Override
+    public int hashCode() {
+        int result = name != null ? name.hashCode() : 0;
+        result = 31 * result + (uid != null ? uid.hashCode() : 0);
+        result = 31 * result + (chunk != null ? chunk.hashCode() : 0);
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "ChunkId{" +
+                "name=" + name +
+                ", key=" + uid +
+                ", chunk=" + chunk +
+                '}';
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright (c) XIAOWEI CHEN, 2009.
+ * All Rights Reserved. Reproduction in whole or in part is prohibited
+ * without the written consent of the copyright owner.
+ * 
+ * XIAOWEI CHEN MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY OF
+ * THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED
+ * TO THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE, OR NON-INFRINGEMENT. XIAOWEI CHEN SHALL NOT BE LIABLE FOR
+ * ANY DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR
+ * DISTRIBUTING THIS SOFTWARE OR ITS DERIVATIVES.
+ * 
+ * All rights reserved.
+ */
+package com.chen.candybon.fasttrack.object;
+
+import javax.persistence.Column;
+import javax.persistence.Embeddable;
+import java.io.Serializable;
+
+/**
+ * Identifies the value of a named index of an object: the {@link KeyedId} of the object and the hash of the name of
+ * the index.
+ */
+@Embeddable
+public class IndexId implements Serializable {
+
+    private Integer name;
+    private Long uid;
+    @Column(name = "INDEX_ID")
+    private Integer indexId;
+
+    /**
+     * Default constructor.
+     */
+    public IndexId() {
+    }
+
+    public IndexId(KeyedId id, String index) {
+        this.name = id.getName();
+        this.uid = id.getUid();
+        this.indexId = index.hashCode();
+    }
+
+    public Integer getName() {
+        return name;
+    }
+
+    public void setName(Integer name) {
+        this.name = name;
+    }
+
+    public Long getUid() {
+        return uid;
+    }
+
+    public void setUid(Long uid) {
+        this.uid = uid;
+    }
+
+    public Integer getIndexId() {
+        return indexId;
+    }
+
+    public void setIndexId(Integer indexId) {
+        this.indexId = indexId;
+    }
+
+    @Override
+    public boolean equals(Object object) {
+        if (!(object instanceof IndexId)) {
+            return false;
+        }
+        IndexId other = (IndexId) object;
+        return (name == null ? other.name == null : name.equals(other.name))
+                && (uid == null ? other.uid == null : uid.equals(other.uid))
+                && (indexId == null ? other.indexId == null : indexId.equals(other.indexId));
+    }
+
+    @Override
+    public int hashCode() {
+        int result = name != null ? name.hashCode() : 0;
+        result = 31 * result + (uid != null ? uid.hashCode() : 0);
+        result = 31 * result + (indexId != null ? indexId.hashCode() : 0);
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "IndexId{" +
+                "name=" + name +
+                ", key=" + uid +
+                ", index=" + indexId +
+                '}';
+    }
+}
@@ -15,10 +15,13 @@
 package com.chen.candybon.fasttrack.object;
 
 import com.chen.candybon.common.utils.StringUtils;
+import com.chen.candybon.fasttrack.dao.FastTrackConfig;
+import com.chen.candybon.fasttrack.data.DataClass;
 import com.chen.candybon.fasttrack.exception.DataClassException;
 import com.chen.candybon.fasttrack.exception.InvalidKeyException;
 
 import javax.persistence.Embeddable;
+import javax.persistence.Transient;
 import java.io.Serializable;
 
 /**
@@ -28,14 +31,19 @@ import java.io.Serializable;
  * It is composed of two parts: A String name uniquely identifying the type of object that is stored (that is hashed),
  * and a unique id part (uid) part (or unique attribute) that also gets hashed.
  *
- * The uid needs only to be unique in the context of the name.
+ * The uid needs only to be unique in the context of the name.  It is the 32 bit hash of the key by default, and a 64
+ * bit fingerprint of the key when running with {@link FastTrackConfig#isKeyFingerprint()}: the key itself is then
+ * kept along, stored with the object and checked when reading it.
  */
 @Embeddable
 public class KeyedId implements Serializable {
 
-    private Integer uid;
+    private Long uid;
     private Integer name;
 
+    @Transient
+    private String key;
+
     /**
      * Default constructor.
      */
@@ -49,18 +57,52 @@ public class KeyedId implements Serializable {
         if (StringUtils.isEmptyOrNull(key)) {
             throw new InvalidKeyException("Null is not a valid Key.");
         }
-        this.name = clazz.getName().hashCode();
-        this.uid = key.hashCode();
+        this.name = DataClass.of(clazz).getName();
+        if (FastTrackConfig.isKeyFingerprint()) {
+            if (key.length() > KeyedObject.MAX_KEY_LENGTH) {
+                throw new InvalidKeyException("Keys are limited to " + KeyedObject.MAX_KEY_LENGTH + " chars.");
+            }
+            this.uid = fingerprint(key);
+            this.key = key;
+        } else {
+            this.uid = (long) key.hashCode();
+        }
     }
 
-    public Integer getUid() {
+    /**
+     * @param key A key.
+     * @return A 64 bit hash of the UTF-16 chars of the key, FNV-1a followed by the finalizer of MurmurHash3.
+     */
+    public static long fingerprint(String key) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            char c = key.charAt(i);
+            h = (h ^ (c & 0xff)) * 0x100000001b3L;
+            h = (h ^ (c >>> 8)) * 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    public Long getUid() {
         return uid;
     }
 
-    public void setUid(Integer key) {
+    public void setUid(Long key) {
         this.uid = key;
     }
 
+    /**
+     * @return The key this id was computed from, only kept with key fingerprints, null otherwise.
+     */
+    public String getKey() {
+        return key;
+    }
+
     public Integer getName() {
         return name;
     }
@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) XIAOWEI CHEN, 2009.
+ * All Rights Reserved. Reproduction in whole or in part is prohibited
+ * without the written consent of the copyright owner.
+ * 
+ * XIAOWEI CHEN MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY OF
+ * THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED
+ * TO THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE, OR NON-INFRINGEMENT. XIAOWEI CHEN SHALL NOT BE LIABLE FOR
+ * ANY DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR
+ * DISTRIBUTING THIS SOFTWARE OR ITS DERIVATIVES.
+ * 
+ * All rights reserved.
+ */
+package com.chen.candybon.fasttrack.object;
+
+import javax.persistence.Column;
+import javax.persistence.EmbeddedId;
+import javax.persistence.Entity;
+import javax.persistence.NamedQueries;
+import javax.persistence.NamedQuery;
+import javax.persistence.Table;
+
+/**
+ * The value of a named index of an object, declared with {@link com.chen.candybon.fasttrack.Searchable#name()}.
+ * An object has a row per named index rather than a column, so a class can have any number of them, and the searches
+ * select the objects of the matching rows, see {@link com.chen.candybon.fasttrack.dao.JPQLPredicate}.
+ * <p/>
+ * The rows are written with plain JDBC, the entity mostly defines the table and the bulk deletions.
+ */
+@NamedQueries(
+        {
+                @NamedQuery(
+                        name = "KeyedIndex.deleteByIds",
+                        query = "DELETE FROM KeyedIndex i WHERE i.id.name = :keyName AND i.id.uid IN (:uids)"
+                ),
+                @NamedQuery(
+                        name = "KeyedIndex.deleteOrphans",
+                        query = "DELETE FROM KeyedIndex i WHERE i.id.name = :keyName AND i.id.uid NOT IN " +
+                                "(SELECT ko.id.uid FROM SmallKeyedObject ko WHERE ko.id.name = :keyName) AND " +
+                                "i.id.uid NOT IN " +
+                                "(SELECT ko.id.uid FROM LargeKeyedObject ko WHERE ko.id.name = :keyName)"
+                )
+        }
+)
+@Entity
+@Table(name = "KEYED_OBJECT_INDEX")
+public class KeyedIndex {
+
+    @EmbeddedId
+    private IndexId id;
+
+    /**
+     * The hash of the value, which the equalities look up first.
+     */
+    @Column(name = "VALUE_HASH")
+    private Integer valueHash = null;
+
+    /**
+     * The value, cut to {@link KeyedObject#MAX_INDEX_VALUE_LENGTH} chars.
+     */
+    @Column(name = "INDEX_VALUE", length = KeyedObject.MAX_INDEX_VALUE_LENGTH)
+    private String indexValue = null;
+
+    public KeyedIndex() {
+    }
+
+    public KeyedIndex(IndexId id, String value) {
+        this.id = id;
+        this.valueHash = value.hashCode();
+        this.indexValue = KeyedObject.indexValue(value);
+    }
+
+    public IndexId getId() {
+        return id;
+    }
+
+    public void setId(IndexId id) {
+        this.id = id;
+    }
+
+    public Integer getValueHash() {
+        return valueHash;
+    }
+
+    public void setValueHash(Integer valueHash) {
+        this.valueHash = valueHash;
+    }
+
+    public String getIndexValue() {
+        return indexValue;
+    }
+
+    public void setIndexValue(String indexValue) {
+        this.indexValue = indexValue;
+    }
+}
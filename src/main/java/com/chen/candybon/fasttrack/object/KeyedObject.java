@@ -20,6 +20,8 @@ import javax.persistence.Column;
 import javax.persistence.EmbeddedId;
 import javax.persistence.Version;
 
+import java.util.Map;
+
 /**
  * Super class for both types of KeyedObject:
  * <ul>
@@ -35,6 +37,15 @@ public abstract class KeyedObject {
     @EmbeddedId
     private KeyedId id = null;
 
+    /**
+     * The key of the object, only stored with key fingerprints (see {@link KeyedId#getKey()}).
+     */
+    @Column(name = "KEY_VALUE", length = MAX_KEY_LENGTH)
+    private String keyValue = null;
+
+    @Transient
+    public static final int MAX_KEY_LENGTH = 512;
+
     @Transient
     static final int MAX_IDX = 6;
 
@@ -57,6 +68,33 @@ public abstract class KeyedObject {
     //@Index
     protected Integer index6 = null;
 
+    /**
+     * The values of the indexes, cut to {@link #MAX_INDEX_VALUE_LENGTH} chars, to tell apart the values of the same
+     * hash.  Null in the rows stored by earlier versions.
+     */
+    @Column(name = "INDEX1_VALUE", length = MAX_INDEX_VALUE_LENGTH)
+    protected String indexValue1 = null;
+    @Column(name = "INDEX2_VALUE", length = MAX_INDEX_VALUE_LENGTH)
+    protected String indexValue2 = null;
+    @Column(name = "INDEX3_VALUE", length = MAX_INDEX_VALUE_LENGTH)
+    protected String indexValue3 = null;
+    @Column(name = "INDEX4_VALUE", length = MAX_INDEX_VALUE_LENGTH)
+    protected String indexValue4 = null;
+    @Column(name = "INDEX5_VALUE", length = MAX_INDEX_VALUE_LENGTH)
+    protected String indexValue5 = null;
+    @Column(name = "INDEX6_VALUE", length = MAX_INDEX_VALUE_LENGTH)
+    protected String indexValue6 = null;
+
+    @Transient
+    public static final int MAX_INDEX_VALUE_LENGTH = 255;
+
+    /**
+     * The values of the named indexes, stored in the index table, see {@link KeyedIndex}.  Only set on the objects
+     * about to be stored.
+     */
+    @Transient
+    private Map<String, String> namedIndexes = null;
+
     // optimistic locking
     @Version
     private Long optLock = null;
@@ -73,12 +111,53 @@ public abstract class KeyedObject {
 
     public void setId(KeyedId id) {
         this.id = id;
+        this.keyValue = id == null ? null : id.getKey();
+    }
+
+    /**
+     * @return The stored key, null unless stored with key fingerprints.
+     */
+    public String getKeyValue() {
+        return keyValue;
     }
 
     public Long getOptLock() {
         return optLock;
     }
 
+    /**
+     * @return The hashes of the six indexes, in the order of {@link com.chen.candybon.fasttrack.type.Index}.
+     */
+    public Integer[] getIndexes() {
+        return new Integer[]{index1, index2, index3, index4, index5, index6};
+    }
+
+    /**
+     * @return The stored values of the six indexes, in the order of {@link com.chen.candybon.fasttrack.type.Index}.
+     */
+    public String[] getIndexValues() {
+        return new String[]{indexValue1, indexValue2, indexValue3, indexValue4, indexValue5, indexValue6};
+    }
+
+    /**
+     * @return The values of the named indexes to store, null if the class declares none.
+     */
+    public Map<String, String> getNamedIndexes() {
+        return namedIndexes;
+    }
+
+    public void setNamedIndexes(Map<String, String> namedIndexes) {
+        this.namedIndexes = namedIndexes;
+    }
+
+    /**
+     * @param value The value of an index.
+     * @return The value as stored, ie cut to {@link #MAX_INDEX_VALUE_LENGTH} chars.
+     */
+    public static String indexValue(String value) {
+        return value.length() > MAX_INDEX_VALUE_LENGTH ? value.substring(0, MAX_INDEX_VALUE_LENGTH) : value;
+    }
+
     public Integer getIndex1() {
         return index1;
     }
@@ -184,21 +263,27 @@ public abstract class KeyedObject {
             switch (i) {
                 case IDX_1:
                     index1 = indexes[i].hashCode();
+                    indexValue1 = indexValue(indexes[i]);
                     break;
                 case IDX_2:
                     index2 = indexes[i].hashCode();
+                    indexValue2 = indexValue(indexes[i]);
                     break;
                 case IDX_3:
                     index3 = indexes[i].hashCode();
+                    indexValue3 = indexValue(indexes[i]);
                     break;
                 case IDX_4:
                     index4 = indexes[i].hashCode();
+                    indexValue4 = indexValue(indexes[i]);
                     break;
                 case IDX_5:
                     index5 = indexes[i].hashCode();
+                    indexValue5 = indexValue(indexes[i]);
                     break;
                 default:
                     index6 = indexes[i].hashCode();
+                    indexValue6 = indexValue(indexes[i]);
                     break;
             }
         }
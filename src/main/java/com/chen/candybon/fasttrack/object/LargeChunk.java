@@ -0,0 +1,82 @@
+/*
+ * Copyright (c) XIAOWEI CHEN, 2009.
+ * All Rights Reserved. Reproduction in whole or in part is prohibited
+ * without the written consent of the copyright owner.
+ * 
+ * XIAOWEI CHEN MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY OF
+ * THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED
+ * TO THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE, OR NON-INFRINGEMENT. XIAOWEI CHEN SHALL NOT BE LIABLE FOR
+ * ANY DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR
+ * DISTRIBUTING THIS SOFTWARE OR ITS DERIVATIVES.
+ * 
+ * All rights reserved.
+ */
+package com.chen.candybon.fasttrack.object;
+
+import javax.persistence.Column;
+import javax.persistence.EmbeddedId;
+import javax.persistence.Entity;
+import javax.persistence.Lob;
+import javax.persistence.NamedQueries;
+import javax.persistence.NamedQuery;
+import javax.persistence.Table;
+
+/**
+ * A fixed size part of the value of a {@link LargeKeyedObject} stored in chunked mode. The row of the object only
+ * holds a short description of its chunks, see {@link com.chen.candybon.fasttrack.dao.LocalKeyedObjectDao#createChunks}.
+ * <p/>
+ * The chunks are written and read with plain JDBC, the entity mostly defines the table and the bulk deletions.
+ */
+@NamedQueries(
+        {
+                @NamedQuery(
+                        name = "LargeChunk.deleteById",
+                        query = "DELETE FROM LargeChunk c WHERE c.id.name = :keyName AND c.id.uid = :uid"
+                ),
+                @NamedQuery(
+                        name = "LargeChunk.deleteByIds",
+                        query = "DELETE FROM LargeChunk c WHERE c.id.name = :keyName AND c.id.uid IN (:uids)"
+                ),
+                @NamedQuery(
+                        name = "LargeChunk.deleteOrphans",
+                        query = "DELETE FROM LargeChunk c WHERE c.id.name = :keyName AND c.id.uid NOT IN " +
+                                "(SELECT ko.id.uid FROM LargeKeyedObject ko WHERE ko.id.name = :keyName)"
+                )
+        }
+)
+@Entity
+@Table(name = "LARGE_KEYED_CHUNK")
+public class LargeChunk {
+
+    @EmbeddedId
+    private ChunkId id;
+
+    @Lob
+    @Column(name = "BIN_DATA")
+    private byte[] data = null;
+
+    public LargeChunk() {
+    }
+
+    public LargeChunk(ChunkId id, byte[] data) {
+        this.id = id;
+        this.data = data;
+    }
+
+    public ChunkId getId() {
+        return id;
+    }
+
+    public void setId(ChunkId id) {
+        this.id = id;
+    }
+
+    public byte[] getData() {
+        return data;
+    }
+
+    public void setData(byte[] data) {
+        this.data = data;
+    }
+}
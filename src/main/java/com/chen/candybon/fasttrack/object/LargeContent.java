@@ -0,0 +1,94 @@
+/*
+ * Copyright (c) XIAOWEI CHEN, 2009.
+ * All Rights Reserved. Reproduction in whole or in part is prohibited
+ * without the written consent of the copyright owner.
+ * 
+ * XIAOWEI CHEN MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY OF
+ * THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED
+ * TO THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE, OR NON-INFRINGEMENT. XIAOWEI CHEN SHALL NOT BE LIABLE FOR
+ * ANY DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR
+ * DISTRIBUTING THIS SOFTWARE OR ITS DERIVATIVES.
+ * 
+ * All rights reserved.
+ */
+package com.chen.candybon.fasttrack.object;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Lob;
+import javax.persistence.NamedQueries;
+import javax.persistence.NamedQuery;
+import javax.persistence.Table;
+
+/**
+ * A large value stored once for all the {@link LargeKeyedObject} having this exact value, which then only hold the
+ * hash of the content, see {@link com.chen.candybon.fasttrack.dao.LocalKeyedObjectDao#acquireContent}.
+ * <p/>
+ * The content is removed when the last object referencing it is removed or changes value.
+ */
+@NamedQueries(
+        {
+                @NamedQuery(
+                        name = "LargeContent.getData",
+                        query = "SELECT c.data FROM LargeContent c WHERE c.hash = :hash"
+                ),
+                @NamedQuery(
+                        name = "LargeContent.release",
+                        query = "UPDATE LargeContent c SET c.refCount = c.refCount - 1 WHERE c.hash = :hash"
+                ),
+                @NamedQuery(
+                        name = "LargeContent.deleteUnused",
+                        query = "DELETE FROM LargeContent c WHERE c.hash = :hash AND c.refCount <= 0"
+                )
+        }
+)
+@Entity
+@Table(name = "LARGE_KEYED_CONTENT")
+public class LargeContent {
+
+    @Id
+    @Column(name = "HASH", length = 64)
+    private String hash;
+
+    @Column(name = "REF_COUNT", nullable = false)
+    private int refCount;
+
+    @Lob
+    @Column(name = "BIN_DATA")
+    private byte[] data = null;
+
+    public LargeContent() {
+    }
+
+    public LargeContent(String hash, byte[] data) {
+        this.hash = hash;
+        this.refCount = 1;
+        this.data = data;
+    }
+
+    public String getHash() {
+        return hash;
+    }
+
+    public void setHash(String hash) {
+        this.hash = hash;
+    }
+
+    public int getRefCount() {
+        return refCount;
+    }
+
+    public void setRefCount(int refCount) {
+        this.refCount = refCount;
+    }
+
+    public byte[] getData() {
+        return data;
+    }
+
+    public void setData(byte[] data) {
+        this.data = data;
+    }
+}
@@ -37,6 +37,48 @@ import javax.persistence.Version;
                 @NamedQuery(
                         name = "LargeKeyedObject.findByKeyId",
                         query = "SELECT ko FROM LargeKeyedObject ko WHERE ko.id = :id"
+                ),
+                @NamedQuery(
+                        name = "LargeKeyedObject.getValue",
+                        query = "SELECT ko.value FROM LargeKeyedObject ko WHERE ko.id = :id " +
+                                "AND (ko.keyValue IS NULL OR ko.keyValue = :key)"
+                ),
+                @NamedQuery(
+                        name = "LargeKeyedObject.getVersionedValue",
+                        query = "SELECT ko.version, ko.value FROM LargeKeyedObject ko WHERE ko.id = :id " +
+                                "AND (ko.keyValue IS NULL OR ko.keyValue = :key)"
+                ),
+                @NamedQuery(
+                        name = "LargeKeyedObject.getValues",
+                        query = "SELECT ko.id.uid, ko.keyValue, ko.value FROM LargeKeyedObject ko " +
+                                "WHERE ko.id.name = :keyName AND ko.id.uid IN (:uids)"
+                ),
+                @NamedQuery(
+                        name = "LargeKeyedObject.getIndexes",
+                        query = "SELECT ko.id.uid, ko.index1, ko.index2, ko.index3, ko.index4, ko.index5, ko.index6 " +
+                                "FROM LargeKeyedObject ko WHERE ko.id.name = :keyName AND ko.id.uid IN (:uids)"
+                ),
+                @NamedQuery(
+                        name = "LargeKeyedObject.getContentHashes",
+                        query = "SELECT ko.contentHash FROM LargeKeyedObject ko WHERE ko.id.name = :keyName " +
+                                "AND ko.id.uid IN (:uids) AND ko.contentHash IS NOT NULL"
+                ),
+                @NamedQuery(
+                        name = "LargeKeyedObject.getUid",
+                        query = "SELECT ko.id.uid FROM LargeKeyedObject ko WHERE ko.id.name = :keyName"
+                ),
+                @NamedQuery(
+                        name = "LargeKeyedObject.getVersion",
+                        query = "SELECT ko.version FROM LargeKeyedObject ko WHERE ko.id.name = :keyName " +
+                                "AND ko.id.uid = :uid"
+                ),
+                @NamedQuery(
+                        name = "LargeKeyedObject.deleteById",
+                        query = "DELETE FROM LargeKeyedObject ko WHERE ko.id.name = :keyName AND ko.id.uid = :uid"
+                ),
+                @NamedQuery(
+                        name = "LargeKeyedObject.deleteByIds",
+                        query = "DELETE FROM LargeKeyedObject ko WHERE ko.id.name = :keyName AND ko.id.uid IN (:uids)"
                 )
 
         }
@@ -49,6 +91,12 @@ public class LargeKeyedObject extends KeyedObject {
     @Column(name = "BIN_OBJECT")
     private byte[] value = null;
 
+    /**
+     * The hash of the shared content the value refers to, if it does.
+     */
+    @Column(name = "CONTENT_HASH", length = 64)
+    private String contentHash = null;
+
     /**
      * Enables optimistic logging.
      */
@@ -74,4 +122,12 @@ public class LargeKeyedObject extends KeyedObject {
         this.value = value;
     }
 
+    public String getContentHash() {
+        return contentHash;
+    }
+
+    public void setContentHash(final String contentHash) {
+        this.contentHash = contentHash;
+    }
+
 }
@@ -22,11 +22,14 @@ import javax.persistence.NamedQuery;
 import javax.persistence.Table;
 import javax.persistence.Transient;
 import javax.persistence.Version;
-
-import com.sun.org.apache.xerces.internal.impl.dv.util.Base64;
+import java.util.Base64;
 
 /**
  * Class comments ...
+ * <p/>
+ * The value is stored as is in the BIN_VALUE column.  Rows written by previous versions hold it Base64 encoded in the
+ * BIN_OBJECT column instead: they are read transparently, and moved to BIN_VALUE by
+ * {@link com.chen.candybon.fasttrack.dao.LocalKeyedObjectDao#migrateSmallValues(int)}.
  */
 @NamedQueries(
         {
@@ -37,7 +40,40 @@ import com.sun.org.apache.xerces.internal.impl.dv.util.Base64;
                 ),
                 @NamedQuery(
                         name = "SmallKeyedObject.getValue",
-                        query = "SELECT ko.value FROM SmallKeyedObject ko WHERE ko.id = :id"
+                        query = "SELECT ko.value, ko.encodedValue FROM SmallKeyedObject ko WHERE ko.id = :id " +
+                                "AND (ko.keyValue IS NULL OR ko.keyValue = :key)"
+                ),
+                @NamedQuery(
+                        name = "SmallKeyedObject.getVersionedValue",
+                        query = "SELECT ko.version, ko.value, ko.encodedValue FROM SmallKeyedObject ko " +
+                                "WHERE ko.id = :id AND (ko.keyValue IS NULL OR ko.keyValue = :key)"
+                ),
+                @NamedQuery(
+                        name = "SmallKeyedObject.getValues",
+                        query = "SELECT ko.id.uid, ko.keyValue, ko.value, ko.encodedValue FROM SmallKeyedObject ko " +
+                                "WHERE ko.id.name = :keyName AND ko.id.uid IN (:uids)"
+                ),
+                @NamedQuery(
+                        name = "SmallKeyedObject.getIndexes",
+                        query = "SELECT ko.id.uid, ko.index1, ko.index2, ko.index3, ko.index4, ko.index5, ko.index6 " +
+                                "FROM SmallKeyedObject ko WHERE ko.id.name = :keyName AND ko.id.uid IN (:uids)"
+                ),
+                @NamedQuery(
+                        name = "SmallKeyedObject.getUid",
+                        query = "SELECT ko.id.uid FROM SmallKeyedObject ko WHERE ko.id.name = :keyName"
+                ),
+                @NamedQuery(
+                        name = "SmallKeyedObject.getVersion",
+                        query = "SELECT ko.version FROM SmallKeyedObject ko WHERE ko.id.name = :keyName " +
+                                "AND ko.id.uid = :uid"
+                ),
+                @NamedQuery(
+                        name = "SmallKeyedObject.deleteById",
+                        query = "DELETE FROM SmallKeyedObject ko WHERE ko.id.name = :keyName AND ko.id.uid = :uid"
+                ),
+                @NamedQuery(
+                        name = "SmallKeyedObject.deleteByIds",
+                        query = "DELETE FROM SmallKeyedObject ko WHERE ko.id.name = :keyName AND ko.id.uid IN (:uids)"
                 )
         }
 )
@@ -47,8 +83,14 @@ public class SmallKeyedObject extends KeyedObject {
     @Transient
     public static final int MAX_SIZE = 2000;
 
+    @Column(name = "BIN_VALUE", length = MAX_SIZE)
+    private byte[] value = null;
+
+    /**
+     * Legacy storage of the value, Base64 encoded.
+     */
     @Column(name = "BIN_OBJECT", length = MAX_SIZE)
-    private String value = null;
+    private String encodedValue = null;
 
     /**
      * Enables optimistic logging.
@@ -61,18 +103,56 @@ public class SmallKeyedObject extends KeyedObject {
     }
 
     public SmallKeyedObject(KeyedId id, byte[] value, String... indexes) {
-        this.value = Base64.encode(value);
+        this.value = value;
         this.setId(id);
         fillIndexes(indexes);
     }
 
-    public void setValue(final String value) {
+    public void setValue(final byte[] value) {
         this.value = value;
+        this.encodedValue = null;
+    }
+
+    /**
+     * Sets the value in its legacy form, ie Base64 encoded.
+     *
+     * @param encodedValue The Base64 encoded value.
+     */
+    public void setEncodedValue(final String encodedValue) {
+        this.encodedValue = encodedValue;
+        this.value = null;
+    }
+
+    /**
+     * @return The value in its legacy form, ie Base64 encoded, or null if it is stored as binary.
+     */
+    public String getEncodedValue() {
+        return encodedValue;
+    }
+
+    /**
+     * Moves the value to the legacy Base64 column, for the clusters still running versions that only read that
+     * column.
+     */
+    public void useEncodedValue() {
+        if (value != null) {
+            setEncodedValue(Base64.getEncoder().encodeToString(value));
+        }
+    }
+
+    /**
+     * @return The value stored in binary form, null if it is in its legacy form.
+     */
+    public byte[] getBinaryValue() {
+        return value;
     }
 
     @Override
     public byte[] getValue() {
-        return Base64.decode(value);
+        if (value != null || encodedValue == null) {
+            return value;
+        }
+        return Base64.getDecoder().decode(encodedValue);
     }
 
 }
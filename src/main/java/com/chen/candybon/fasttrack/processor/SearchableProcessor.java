@@ -0,0 +1,285 @@
+/*
+ * Copyright (c) XIAOWEI CHEN, 2009.
+ * All Rights Reserved. Reproduction in whole or in part is prohibited
+ * without the written consent of the copyright owner.
+ * 
+ * XIAOWEI CHEN MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY OF
+ * THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED
+ * TO THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE, OR NON-INFRINGEMENT. XIAOWEI CHEN SHALL NOT BE LIABLE FOR
+ * ANY DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR
+ * DISTRIBUTING THIS SOFTWARE OR ITS DERIVATIVES.
+ * 
+ * All rights reserved.
+ */
+package com.chen.candybon.fasttrack.processor;
+
+import com.chen.candybon.fasttrack.Searchable;
+import com.chen.candybon.fasttrack.data.LargeData;
+import com.chen.candybon.fasttrack.data.SmallData;
+import com.chen.candybon.fasttrack.type.Index;
+import com.chen.candybon.fasttrack.type.IndexValues;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.lang.model.util.Elements;
+import javax.lang.model.util.Types;
+import javax.tools.Diagnostic;
+import java.io.IOException;
+import java.io.Writer;
+import java.time.Instant;
+import java.util.Date;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Annotation processor generating an {@link com.chen.candybon.fasttrack.data.IndexExtractor} for each class declaring
+ * {@link Searchable} fields, so that the indexes are read without reflection.
+ * <p/>
+ * The declarations are checked at compile time: the searchable fields must be of a type accepted by
+ * {@link IndexValues#isIndexable(Class)}, whose values are then encoded by {@link IndexValues}, each index must be declared
+ * once, the indexes must be declared from index1 on without gap, and the class must extend SmallData or LargeData.
+ * The private fields are read through their getter, which must exist.  The named indexes are only checked, they are
+ * read by {@link com.chen.candybon.fasttrack.data.DataClass}.
+ * <p/>
+ * The processor is listed in <code>META-INF/services/javax.annotation.processing.Processor</code>, so javac runs it
+ * whenever the library is on the class path.
+ *
+ * @author Xiaowei Chen
+ */
+@SupportedAnnotationTypes("com.chen.candybon.fasttrack.Searchable")
+public class SearchableProcessor extends AbstractProcessor {
+
+    /**
+     * Suffix of the generated classes, appended to the name of the data class.
+     */
+    public static final String SUFFIX = "_Indexes";
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        Set<TypeElement> types = new LinkedHashSet<TypeElement>();
+        for (Element field : roundEnv.getElementsAnnotatedWith(Searchable.class)) {
+            types.add((TypeElement) field.getEnclosingElement());
+        }
+        for (TypeElement type : types) {
+            Map<Index, String> accessors = accessors(type);
+            if (accessors != null) {
+                generate(type, accessors);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return The expressions reading the searchable fields, by index, or null if the declarations are not valid.
+     */
+    private Map<Index, String> accessors(TypeElement type) {
+        boolean valid = true;
+        if (!isSubtype(type, SmallData.class) && !isSubtype(type, LargeData.class)) {
+            error("Class " + type.getSimpleName() + " must extend either SmallData or LargeData to declare "
+                    + "searchable fields.", type);
+            valid = false;
+        }
+        if (type.getModifiers().contains(Modifier.PRIVATE)
+                || (type.getNestingKind() == NestingKind.MEMBER && !type.getModifiers().contains(Modifier.STATIC))) {
+            error("Class " + type.getSimpleName() + " must be a top level or static, non private class to declare "
+                    + "searchable fields.", type);
+            valid = false;
+        }
+        Map<Index, String> accessors = new EnumMap<Index, String>(Index.class);
+        Set<String> named = new HashSet<String>();
+        for (VariableElement field : ElementFilter.fieldsIn(type.getEnclosedElements())) {
+            Searchable searchable = field.getAnnotation(Searchable.class);
+            if (searchable == null) {
+                continue;
+            }
+            String name = field.getSimpleName().toString();
+            if (searchable.name().length() > 0) {
+                // read with method handles at run time, private or not
+                if (!isIndexable(field.asType())) {
+                    error("Field " + name + " is not of an indexable type!", field);
+                    valid = false;
+                }
+                if (!named.add(searchable.name())) {
+                    error("Duplicated Declaration of Index " + searchable.name() + " on field " + name, field);
+                    valid = false;
+                }
+                continue;
+            }
+            String accessor = null;
+            if (!isIndexable(field.asType())) {
+                error("Field " + name + " is not of an indexable type!", field);
+                valid = false;
+            } else {
+                accessor = accessor(type, field);
+                if (accessor == null) {
+                    error("Field " + name + " is private and has no getter.", field);
+                    valid = false;
+                } else if (!isSameType(field.asType(), String.class)) {
+                    accessor = IndexValues.class.getName() + ".of(" + accessor + ")";
+                }
+            }
+            if (accessors.put(searchable.value(), accessor) != null) {
+                error("Duplicated Declaration of Index " + searchable.value() + " on field " + name, field);
+                valid = false;
+            }
+        }
+        for (int i = 0; i < accessors.size(); i++) {
+            if (!accessors.containsKey(Index.values()[i])) {
+                error("Index " + Index.values()[i] + " declaration is missing.", type);
+                valid = false;
+                break;
+            }
+        }
+        return valid ? accessors : null;
+    }
+
+    /**
+     * @return The expression reading the field of the instance named data, or null if the field cannot be read.
+     */
+    private String accessor(TypeElement type, VariableElement field) {
+        String name = field.getSimpleName().toString();
+        if (field.getModifiers().contains(Modifier.STATIC)) {
+            return type.getQualifiedName() + "." + name;
+        }
+        if (!field.getModifiers().contains(Modifier.PRIVATE)) {
+            return "data." + name;
+        }
+        String getter = "get" + Character.toUpperCase(name.charAt(0)) + name.substring(1);
+        for (ExecutableElement method : ElementFilter.methodsIn(type.getEnclosedElements())) {
+            if (method.getSimpleName().contentEquals(getter) && method.getParameters().isEmpty()
+                    && !method.getModifiers().contains(Modifier.PRIVATE)
+                    && processingEnv.getTypeUtils().isSameType(field.asType(), method.getReturnType())) {
+                return "data." + getter + "()";
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return True if the values of the type can be indexed, the same types as {@link IndexValues#isIndexable(Class)}.
+     */
+    private boolean isIndexable(TypeMirror type) {
+        switch (type.getKind()) {
+            case LONG:
+            case INT:
+            case SHORT:
+            case BYTE:
+            case DOUBLE:
+            case FLOAT:
+                return true;
+            case DECLARED:
+                Types types = processingEnv.getTypeUtils();
+                Elements elements = processingEnv.getElementUtils();
+                TypeElement date = elements.getTypeElement(Date.class.getName());
+                if (date != null && types.isSubtype(type, date.asType())) {
+                    return true;
+                }
+                if (isSameType(type, String.class) || isSameType(type, Instant.class)) {
+                    return true;
+                }
+                try {
+                    TypeKind kind = types.unboxedType(type).getKind();
+                    return kind != TypeKind.BOOLEAN && kind != TypeKind.CHAR;
+                } catch (IllegalArgumentException e) {
+                    return false;
+                }
+            default:
+                return false;
+        }
+    }
+
+    private boolean isSameType(TypeMirror type, Class<?> other) {
+        TypeElement element = processingEnv.getElementUtils().getTypeElement(other.getName());
+        return element != null && processingEnv.getTypeUtils().isSameType(type, element.asType());
+    }
+
+    private void generate(TypeElement type, Map<Index, String> accessors) {
+        String packageName = packageOf(type).getQualifiedName().toString();
+        String dataClass = processingEnv.getTypeUtils().erasure(type.asType()).toString();
+        String simpleName = generatedName(type);
+        StringBuilder source = new StringBuilder();
+        if (packageName.length() > 0) {
+            source.append("package ").append(packageName).append(";\n\n");
+        }
+        source.append("/**\n")
+                .append(" * Reads the indexes of {@link ").append(dataClass).append("}, generated by ")
+                .append(getClass().getSimpleName()).append(".\n")
+                .append(" */\n")
+                .append("public final class ").append(simpleName)
+                .append(" implements com.chen.candybon.fasttrack.data.IndexExtractor<").append(dataClass).append("> {\n\n")
+                .append("    @Override\n")
+                .append("    public String[] getIndexes(").append(dataClass).append(" data) {\n")
+                .append("        return new String[]{");
+        String separator = "";
+        for (String accessor : accessors.values()) {
+            source.append(separator).append(accessor);
+            separator = ", ";
+        }
+        source.append("};\n")
+                .append("    }\n")
+                .append("}\n");
+        String qualifiedName = packageName.length() > 0 ? packageName + "." + simpleName : simpleName;
+        try {
+            Writer writer = processingEnv.getFiler().createSourceFile(qualifiedName, type).openWriter();
+            try {
+                writer.write(source.toString());
+            } finally {
+                writer.close();
+            }
+        } catch (IOException e) {
+            error("Cannot generate " + qualifiedName + ": " + e.getMessage(), type);
+        }
+    }
+
+    /**
+     * @return The simple name of the generated class: the names of the enclosing classes joined by underscores,
+     *         followed by {@link #SUFFIX}.
+     */
+    private static String generatedName(TypeElement type) {
+        String name = type.getSimpleName().toString();
+        for (Element e = type.getEnclosingElement(); e.getKind() != ElementKind.PACKAGE; e = e.getEnclosingElement()) {
+            name = e.getSimpleName() + "_" + name;
+        }
+        return name + SUFFIX;
+    }
+
+    private static PackageElement packageOf(Element element) {
+        Element e = element;
+        while (e.getKind() != ElementKind.PACKAGE) {
+            e = e.getEnclosingElement();
+        }
+        return (PackageElement) e;
+    }
+
+    private boolean isSubtype(TypeElement type, Class<?> superClass) {
+        TypeElement superType = processingEnv.getElementUtils().getTypeElement(superClass.getName());
+        return superType != null && processingEnv.getTypeUtils().isSubtype(
+                processingEnv.getTypeUtils().erasure(type.asType()), superType.asType());
+    }
+
+    private void error(String message, Element element) {
+        processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, message, element);
+    }
+}
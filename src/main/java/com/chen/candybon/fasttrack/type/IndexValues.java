@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) XIAOWEI CHEN, 2009.
+ * All Rights Reserved. Reproduction in whole or in part is prohibited
+ * without the written consent of the copyright owner.
+ * 
+ * XIAOWEI CHEN MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY OF
+ * THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED
+ * TO THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE, OR NON-INFRINGEMENT. XIAOWEI CHEN SHALL NOT BE LIABLE FOR
+ * ANY DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR
+ * DISTRIBUTING THIS SOFTWARE OR ITS DERIVATIVES.
+ * 
+ * All rights reserved.
+ */
+package com.chen.candybon.fasttrack.type;
+
+import java.time.Instant;
+import java.util.Date;
+
+/**
+ * Encodes typed index values into texts sorting in the order of the values, so the database compares them
+ * in range conditions: numbers become 16 hexadecimal digits of their bits, flipped so the negative ones come first,
+ * and dates their milliseconds since the epoch.  Texts are kept as they are and compare on their first
+ * {@link com.chen.candybon.fasttrack.object.KeyedObject#MAX_INDEX_VALUE_LENGTH} characters.
+ *
+ * @author Xiaowei Chen
+ */
+public final class IndexValues {
+
+    private static final char[] DIGITS = "0123456789ABCDEF".toCharArray();
+
+    private IndexValues() {
+    }
+
+    public static String of(long value) {
+        long bits = value ^ Long.MIN_VALUE;
+        char[] text = new char[16];
+        for (int i = text.length - 1; i >= 0; i--) {
+            text[i] = DIGITS[(int) bits & 0xF];
+            bits >>>= 4;
+        }
+        return new String(text);
+    }
+
+    public static String of(double value) {
+        long bits = Double.doubleToLongBits(value);
+        return of(bits ^ ((bits >> 63) & Long.MAX_VALUE));
+    }
+
+    public static String of(Date value) {
+        return value == null ? null : of(value.getTime());
+    }
+
+    public static String of(Instant value) {
+        return value == null ? null : of(value.toEpochMilli());
+    }
+
+    /**
+     * @param value A value of one of the types of {@link #isIndexable(Class)}, or null.
+     * @return The encoded value, null if the value is null.
+     * @throws IllegalArgumentException If the value can not be indexed.
+     */
+    public static String of(Object value) {
+        if (value == null || value instanceof String) {
+            return (String) value;
+        } else if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            return of(((Number) value).longValue());
+        } else if (value instanceof Double || value instanceof Float) {
+            return of(((Number) value).doubleValue());
+        } else if (value instanceof Date) {
+            return of((Date) value);
+        } else if (value instanceof Instant) {
+            return of((Instant) value);
+        }
+        throw new IllegalArgumentException(value.getClass().getName() + " can not be indexed.");
+    }
+
+    /**
+     * @param type The type of a field.
+     * @return True if the values of the type can be indexed.
+     */
+    public static boolean isIndexable(Class<?> type) {
+        return type == String.class || type == long.class || type == Long.class || type == int.class
+                || type == Integer.class || type == short.class || type == Short.class || type == byte.class
+                || type == Byte.class || type == double.class || type == Double.class || type == float.class
+                || type == Float.class || Date.class.isAssignableFrom(type) || type == Instant.class;
+    }
+}
@@ -11,3 +11,19 @@ CREATE INDEX EDB_FT_3_SMALL_IDX ON SMALL_KEYED_OBJECT (INDEX3);
 CREATE INDEX EDB_FT_4_SMALL_IDX ON SMALL_KEYED_OBJECT (INDEX4);
 CREATE INDEX EDB_FT_5_SMALL_IDX ON SMALL_KEYED_OBJECT (INDEX5);
 CREATE INDEX EDB_FT_6_SMALL_IDX ON SMALL_KEYED_OBJECT (INDEX6);
+# Range conditions and orders on the index values, within a class
+CREATE INDEX EDB_FT_1_LARGE_VALUE_IDX ON LARGE_KEYED_OBJECT (NAME, INDEX1_VALUE);
+CREATE INDEX EDB_FT_2_LARGE_VALUE_IDX ON LARGE_KEYED_OBJECT (NAME, INDEX2_VALUE);
+CREATE INDEX EDB_FT_3_LARGE_VALUE_IDX ON LARGE_KEYED_OBJECT (NAME, INDEX3_VALUE);
+CREATE INDEX EDB_FT_4_LARGE_VALUE_IDX ON LARGE_KEYED_OBJECT (NAME, INDEX4_VALUE);
+CREATE INDEX EDB_FT_5_LARGE_VALUE_IDX ON LARGE_KEYED_OBJECT (NAME, INDEX5_VALUE);
+CREATE INDEX EDB_FT_6_LARGE_VALUE_IDX ON LARGE_KEYED_OBJECT (NAME, INDEX6_VALUE);
+CREATE INDEX EDB_FT_1_SMALL_VALUE_IDX ON SMALL_KEYED_OBJECT (NAME, INDEX1_VALUE);
+CREATE INDEX EDB_FT_2_SMALL_VALUE_IDX ON SMALL_KEYED_OBJECT (NAME, INDEX2_VALUE);
+CREATE INDEX EDB_FT_3_SMALL_VALUE_IDX ON SMALL_KEYED_OBJECT (NAME, INDEX3_VALUE);
+CREATE INDEX EDB_FT_4_SMALL_VALUE_IDX ON SMALL_KEYED_OBJECT (NAME, INDEX4_VALUE);
+CREATE INDEX EDB_FT_5_SMALL_VALUE_IDX ON SMALL_KEYED_OBJECT (NAME, INDEX5_VALUE);
+CREATE INDEX EDB_FT_6_SMALL_VALUE_IDX ON SMALL_KEYED_OBJECT (NAME, INDEX6_VALUE);
+# Named indexes, the primary key (name, uid, INDEX_ID) serves the deletions
+CREATE INDEX EDB_FT_INDEX_HASH_IDX ON KEYED_OBJECT_INDEX (NAME, INDEX_ID, VALUE_HASH, UID);
+CREATE INDEX EDB_FT_INDEX_VALUE_IDX ON KEYED_OBJECT_INDEX (NAME, INDEX_ID, INDEX_VALUE, UID);
@@ -7,11 +7,16 @@ package com.chen.candybon.fasttrack;
 
 import com.chen.candybon.fasttrack.exception.InvalidPredicateException;
 import com.chen.candybon.fasttrack.type.Index;
+import com.chen.candybon.fasttrack.type.IndexValues;
+import com.chen.candybon.fasttrack.type.SortOrder;
 import org.junit.Test;
 
+import java.util.Date;
+
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.fail;
 
 /**
@@ -19,14 +24,107 @@ import static org.junit.Assert.fail;
  */
 public class PredicateBuilderTest {
                                      
-    final static String querySegment = "ko.index1=" + "IndexOne".hashCode() +
-            " OR ko.index2=" + "IndexTwo".hashCode();    
-     final static String queryEmptySegment = "ko.index1=" + "".hashCode() +
-            " OR ko.index2=" + "".hashCode();
+    final static String querySegment = condition(1, "IndexOne") + " OR " + condition(2, "IndexTwo");
+    final static String queryEmptySegment = condition(1, "") + " OR " + condition(2, "");
     final static int FIRST = 10;
     final static int MAX = 100;
 
 
+    private static String condition(int index, String value) {
+        return "(ko.index" + index + "=" + value.hashCode() + " AND (ko.indexValue" + index + " IS NULL OR ko.indexValue"
+                + index + "='" + value + "'))";
+    }
+
+    @Test
+    public void testQuotedValue() throws InvalidPredicateException {
+        Predicate predicate = new PredicateBuilder().addAND(Index.index1, "O'Brien").toPredicate();
+        assertEquals("(ko.index1=" + "O'Brien".hashCode() + " AND (ko.indexValue1 IS NULL OR ko.indexValue1='O''Brien'))",
+                predicate.toQuery());
+    }
+
+    @Test
+    public void testRange() throws InvalidPredicateException {
+        String from = IndexValues.of(30);
+        String to = IndexValues.of(40);
+        Predicate predicate = new PredicateBuilder().addAND(Index.index1, "IndexOne")
+                .addBetween(Index.index2, from, to)
+                .addGreaterThan(Index.index3, from)
+                .addLessThan(Index.index4, "O'Brien")
+                .addBetween(Index.index5, null, to)
+                .toPredicate();
+        assertEquals(condition(1, "IndexOne") + " AND (ko.indexValue2 BETWEEN '" + from + "' AND '" + to + "')"
+                + " AND (ko.indexValue3 > '" + from + "') AND (ko.indexValue4 < 'O''Brien')", predicate.toQuery());
+    }
+
+    @Test
+    public void testTypedRange() throws InvalidPredicateException {
+        Date date = new Date(1234567890L);
+        Predicate predicate = new PredicateBuilder().addBetween(Index.index2, 30, 40)
+                .addGreaterThan(Index.index3, -1.5)
+                .addLessThan(Index.index4, date)
+                .addGreaterThan(Index.index5, (Date) null)
+                .addNamedBetween("age", date.toInstant(), date.toInstant())
+                .toPredicate();
+        assertEquals("(ko.indexValue2 BETWEEN '" + IndexValues.of(30) + "' AND '" + IndexValues.of(40) + "')"
+                + " AND (ko.indexValue3 > '" + IndexValues.of(-1.5) + "')"
+                + " AND (ko.indexValue4 < '" + IndexValues.of(date) + "')"
+                + " AND " + named(3, "age", "i3.indexValue BETWEEN '" + IndexValues.of(date) + "' AND '"
+                + IndexValues.of(date) + "'"), predicate.toQuery());
+    }
+
+    @Test
+    public void testStartsWith() throws InvalidPredicateException {
+        Predicate predicate = new PredicateBuilder().addStartsWith(Index.index1, "O'B")
+                .addStartsWith(Index.index2, "10%_!")
+                .addNamedStartsWith("city", "Stock")
+                .addStartsWith(Index.index3, null)
+                .toPredicate();
+        assertEquals("(ko.indexValue1 LIKE 'O''B%' ESCAPE '!') AND (ko.indexValue2 LIKE '10!%!_!!%' ESCAPE '!')"
+                + " AND " + named(2, "city", "i2.indexValue LIKE 'Stock%' ESCAPE '!'"), predicate.toQuery());
+    }
+
+    @Test
+    public void testNamed() throws InvalidPredicateException {
+        Predicate predicate = new PredicateBuilder().addAND(Index.index1, "IndexOne")
+                .addNamedAND("city", "Stockholm")
+                .addNamedOR("age", "35")
+                .addNamedGreaterThan("level", "3")
+                .addNamedLessThan("team", "Web")
+                .addNamedBetween("score", "1", "2")
+                .addNamedAND(null, "x")
+                .toPredicate();
+        assertEquals(condition(1, "IndexOne")
+                + " AND " + named(1, "city", "i1.valueHash = " + "Stockholm".hashCode() + " AND i1.indexValue = 'Stockholm'")
+                + " OR " + named(2, "age", "i2.valueHash = " + "35".hashCode() + " AND i2.indexValue = '35'")
+                + " AND " + named(3, "level", "i3.indexValue > '3'")
+                + " AND " + named(4, "team", "i4.indexValue < 'Web'")
+                + " AND " + named(5, "score", "i5.indexValue BETWEEN '1' AND '2'"), predicate.toQuery());
+    }
+
+    private static String named(int position, String index, String condition) {
+        String alias = "i" + position;
+        return "(ko.id.uid IN (SELECT " + alias + ".id.uid FROM KeyedIndex " + alias + " WHERE " + alias
+                + ".id.name = :keyName AND " + alias + ".id.indexId = " + index.hashCode() + " AND " + condition + "))";
+    }
+
+    @Test
+    public void testOrderBy() throws InvalidPredicateException {
+        Predicate predicate = new PredicateBuilder().setOrderBy(Index.index3, SortOrder.DESCENDING).setMaxResults(MAX)
+                .toPredicate();
+        assertEquals("", predicate.toQuery());
+        assertEquals(Index.index3, predicate.getOrderBy());
+        assertEquals(SortOrder.DESCENDING, predicate.getOrder());
+
+        predicate = new PredicateBuilder().addAND(Index.index1, "IndexOne").setOrderBy(Index.index2, null)
+                .toPredicate();
+        assertEquals(condition(1, "IndexOne"), predicate.toQuery());
+        assertEquals(SortOrder.ASCENDING, predicate.getOrder());
+
+        predicate.setOrderBy(null, SortOrder.DESCENDING);
+        assertNull(predicate.getOrderBy());
+        assertNull(predicate.getOrder());
+    }
+
     @Test
     public void testPredicate() throws InvalidPredicateException {
         PredicateBuilder builder = new PredicateBuilder();
@@ -100,6 +198,10 @@ public class PredicateBuilderTest {
         builder.setMaxResults(MAX);
         assertNotNull(builder.toPredicate());
 
+        builder = new PredicateBuilder();
+        builder.setOrderBy(Index.index1, SortOrder.ASCENDING);
+        assertNotNull(builder.toPredicate());
+
         builder = new PredicateBuilder();
         builder.addAND(Index.index1, "something");
         assertNotNull(builder.toPredicate());
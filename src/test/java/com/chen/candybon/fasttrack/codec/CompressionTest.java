@@ -0,0 +1,82 @@
+/*
+ * Copyright (c) XIAOWEI CHEN, 2009.
+ * All Rights Reserved. Reproduction in whole or in part is prohibited
+ * without the written consent of the copyright owner.
+ * 
+ * XIAOWEI CHEN MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY OF
+ * THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED
+ * TO THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE, OR NON-INFRINGEMENT. XIAOWEI CHEN SHALL NOT BE LIABLE FOR
+ * ANY DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR
+ * DISTRIBUTING THIS SOFTWARE OR ITS DERIVATIVES.
+ * 
+ * All rights reserved.
+ */
+package com.chen.candybon.fasttrack.codec;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Compression test.
+ */
+public class CompressionTest {
+
+    private static final String CLASS_NAME = "com.chen.candybon.fasttrack.codec.CompressionTest$Document";
+
+    @Test
+    public void testCompress() throws Exception {
+        byte[] value = document(1).getBytes("UTF-8");
+        byte[] compressed = Compression.compress(value, Compression.Dictionary.NONE);
+        assertEquals(Compression.FORMAT, compressed[0]);
+        assertTrue(compressed.length < value.length);
+        assertTrue(Arrays.equals(value, Compression.uncompress(CLASS_NAME, compressed)));
+
+        byte[] random = new byte[200];
+        new Random(1).nextBytes(random);
+        assertSame(random, Compression.compress(random, Compression.Dictionary.NONE));
+        assertSame(random, Compression.uncompress(CLASS_NAME, random));
+    }
+
+    @Test
+    public void testDictionary() throws Exception {
+        List<byte[]> samples = new ArrayList<byte[]>();
+        for (int i = 0; i < 50; i++) {
+            samples.add(document(i).getBytes("UTF-8"));
+        }
+        byte[] bytes = Compression.train(samples, Compression.MAX_DICTIONARY_SIZE);
+        assertTrue(bytes.length > 0);
+        assertTrue(bytes.length <= Compression.MAX_DICTIONARY_SIZE);
+
+        byte[] value = document(100).getBytes("UTF-8");
+        Compression.Dictionary dictionary = new Compression.Dictionary(7, bytes);
+        byte[] plain = Compression.compress(value, Compression.Dictionary.NONE);
+        byte[] trained = Compression.compress(value, dictionary);
+        assertTrue("trained " + trained.length + " plain " + plain.length, trained.length * 2 < plain.length);
+
+        try {
+            Compression.uncompress("other", trained);
+            fail("Dictionary not loaded.");
+        } catch (MissingDictionaryException e) {
+            assertEquals(7, e.getDictionaryId());
+            assertEquals("other", e.getClassName());
+        }
+        Compression.addDictionary(CLASS_NAME, dictionary, false);
+        assertTrue(Arrays.equals(value, Compression.uncompress(CLASS_NAME, trained)));
+    }
+
+    private static String document(int i) {
+        return "{\"id\":" + i + ",\"type\":\"employee\",\"name\":\"Name " + i + "\",\"department\":\"Research\","
+                + "\"address\":{\"street\":\"" + (i * 7) + " Main Street\",\"city\":\"Seattle\",\"zip\":\"98"
+                + (100 + i) + "\"},\"roles\":[\"developer\",\"reviewer\"],\"active\":true}";
+    }
+}
@@ -0,0 +1,201 @@
+/*
+ * Copyright (c) XIAOWEI CHEN, 2009.
+ * All Rights Reserved. Reproduction in whole or in part is prohibited
+ * without the written consent of the copyright owner.
+ * 
+ * XIAOWEI CHEN MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY OF
+ * THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED
+ * TO THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE, OR NON-INFRINGEMENT. XIAOWEI CHEN SHALL NOT BE LIABLE FOR
+ * ANY DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR
+ * DISTRIBUTING THIS SOFTWARE OR ITS DERIVATIVES.
+ * 
+ * All rights reserved.
+ */
+package com.chen.candybon.fasttrack.codec;
+
+import com.chen.candybon.fasttrack.data.SmallData;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * ValueCodecs test.
+ */
+public class ValueCodecsTest {
+
+    @Test
+    public void testRegistry() {
+        assertSame(ValueCodecs.forName(JavaValueCodec.NAME), ValueCodecs.forFormat(JavaValueCodec.FORMAT));
+        assertSame(ValueCodecs.forName(BinaryValueCodec.NAME), ValueCodecs.forFormat(BinaryValueCodec.FORMAT));
+        assertNull(ValueCodecs.forName("unknown"));
+
+        assertSame(ValueCodecs.forName(JavaValueCodec.NAME), ValueCodecs.forClass(Sample.class, null));
+        assertSame(ValueCodecs.forName(BinaryValueCodec.NAME),
+                ValueCodecs.forClass(Sample.class, ValueCodecs.forName(BinaryValueCodec.NAME)));
+        assertSame(ValueCodecs.forName(BinaryValueCodec.NAME), ValueCodecs.forClass(Annotated.class, null));
+
+        try {
+            ValueCodecs.register(new JavaValueCodec() {
+                @Override
+                public String getName() {
+                    return "other";
+                }
+            });
+            fail("Format already used.");
+        } catch (IllegalArgumentException e) {
+        }
+        try {
+            ValueCodecs.register(new BinaryValueCodec() {
+                @Override
+                public byte getFormat() {
+                    return 15;
+                }
+
+                @Override
+                public String getName() {
+                    return "reserved";
+                }
+            });
+            fail("Format reserved.");
+        } catch (IllegalArgumentException e) {
+        }
+        assertNull(ValueCodecs.forName("reserved"));
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        for (String name : new String[]{JavaValueCodec.NAME, BinaryValueCodec.NAME}) {
+            ValueCodec codec = ValueCodecs.forName(name);
+            byte[] bytes = ValueCodecs.encode(codec, Sample.filled());
+            assertEquals(codec.getFormat(), bytes[0]);
+            assertEquals(Sample.filled(), ValueCodecs.decode(Sample.class, bytes));
+
+            bytes = ValueCodecs.encode(codec, new Sample());
+            assertEquals(new Sample(), ValueCodecs.decode(Sample.class, bytes));
+        }
+    }
+
+    @Test
+    public void testBinaryIsCompact() throws Exception {
+        Sample sample = Sample.filled();
+        sample.amount = null;
+        int java = ValueCodecs.encode(ValueCodecs.forName(JavaValueCodec.NAME), sample).length;
+        int binary = ValueCodecs.encode(ValueCodecs.forName(BinaryValueCodec.NAME), sample).length;
+        assertTrue("binary " + binary + " java " + java, binary * 5 < java);
+    }
+
+    @Test
+    public void testLegacyValue() throws Exception {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        ObjectOutputStream oos = new ObjectOutputStream(baos);
+        oos.writeObject(Sample.filled());
+        oos.flush();
+        assertEquals(Sample.filled(), ValueCodecs.decode(Sample.class, baos.toByteArray()));
+    }
+
+    @Test
+    public void testInvalidValue() throws Exception {
+        try {
+            ValueCodecs.decode(Sample.class, new byte[]{(byte) 0x7F, 1, 2});
+            fail("Unknown format.");
+        } catch (IOException e) {
+        }
+        try {
+            ValueCodecs.decode(Sample.class, new byte[0]);
+            fail("No value.");
+        } catch (IOException e) {
+        }
+        byte[] bytes = ValueCodecs.encode(ValueCodecs.forName(BinaryValueCodec.NAME), new Annotated());
+        try {
+            ValueCodecs.decode(Sample.class, bytes);
+            fail("Fields do not match.");
+        } catch (IOException e) {
+        }
+        try {
+            ValueCodecs.encode(ValueCodecs.forName(BinaryValueCodec.NAME), new NoDefault("value"));
+            fail("No constructor without parameters.");
+        } catch (IOException e) {
+        }
+    }
+
+    @Codec(BinaryValueCodec.class)
+    static class Annotated extends SmallData {
+        private String value = "annotated";
+    }
+
+    static class NoDefault extends SmallData {
+        private String value;
+
+        NoDefault(String value) {
+            this.value = value;
+        }
+    }
+
+    static class Base extends SmallData {
+        protected long id;
+    }
+
+    static class Sample extends Base {
+        private int count;
+        private boolean flag;
+        private double ratio;
+        private char letter;
+        private String text;
+        private Integer boxed;
+        private byte[] raw;
+        private TimeUnit unit;
+        private Date date;
+        private BigDecimal amount;
+        private transient String skipped = "skipped";
+
+        static Sample filled() {
+            Sample sample = new Sample();
+            sample.id = Long.MAX_VALUE;
+            sample.count = -42;
+            sample.flag = true;
+            sample.ratio = 0.5;
+            sample.letter = '\u00e9';
+            sample.text = "fast \u00e9 track";
+            sample.boxed = 7;
+            sample.raw = new byte[]{1, 2, 3};
+            sample.unit = TimeUnit.SECONDS;
+            sample.date = new Date(1234567890L);
+            sample.amount = new BigDecimal("12.34");
+            return sample;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Sample)) {
+                return false;
+            }
+            Sample that = (Sample) o;
+            return id == that.id && count == that.count && flag == that.flag && ratio == that.ratio
+                    && letter == that.letter && equal(text, that.text) && equal(boxed, that.boxed)
+                    && Arrays.equals(raw, that.raw) && unit == that.unit && equal(date, that.date)
+                    && equal(amount, that.amount);
+        }
+
+        @Override
+        public int hashCode() {
+            return (int) id;
+        }
+
+        private static boolean equal(Object o1, Object o2) {
+            return o1 == null ? o2 == null : o1.equals(o2);
+        }
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright (c) XIAOWEI CHEN, 2009.
+ * All Rights Reserved. Reproduction in whole or in part is prohibited
+ * without the written consent of the copyright owner.
+ * 
+ * XIAOWEI CHEN MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY OF
+ * THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED
+ * TO THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE, OR NON-INFRINGEMENT. XIAOWEI CHEN SHALL NOT BE LIABLE FOR
+ * ANY DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR
+ * DISTRIBUTING THIS SOFTWARE OR ITS DERIVATIVES.
+ * 
+ * All rights reserved.
+ */
+package com.chen.candybon.fasttrack.dao;
+
+import com.chen.candybon.fasttrack.Searchable;
+import com.chen.candybon.fasttrack.codec.BinaryValueCodec;
+import com.chen.candybon.fasttrack.codec.Codec;
+import com.chen.candybon.fasttrack.data.SmallData;
+import com.chen.candybon.fasttrack.type.Index;
+
+/**
+ * Searchable data stored with the binary codec.
+ */
+@Codec(BinaryValueCodec.class)
+public class BinarySearch extends SmallData {
+
+    @Searchable(Index.index1)
+    private String name;
+
+    private int age;
+
+    private transient String cached;
+
+    private BinarySearch() {
+    }
+
+    public BinarySearch(String name, int age) {
+        this.name = name;
+        this.age = age;
+        this.cached = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getAge() {
+        return age;
+    }
+
+    public String getCached() {
+        return cached;
+    }
+}
@@ -16,12 +16,17 @@
 package com.chen.candybon.fasttrack.dao;
 
 import com.chen.candybon.fasttrack.data.ClassUtils;
+import com.chen.candybon.fasttrack.data.DataClass;
 import com.chen.candybon.fasttrack.exception.DataClassException;
 import com.chen.candybon.fasttrack.object.LargeKeyedObject;
 import com.chen.candybon.fasttrack.object.SmallKeyedObject;
 import org.junit.Test;
 
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
@@ -99,4 +104,28 @@ public class ClassUtilsTest {
 
     }
 
+
+    @Test
+    public void testDataClass() throws Exception {
+        DataClass search = DataClass.of(SmallSearch.class);
+        assertSame(search, DataClass.of(SmallSearch.class));
+        assertEquals(Integer.valueOf(SmallSearch.class.getName().hashCode()), search.getName());
+        assertEquals(SmallKeyedObject.class, search.getTable());
+        assertNull(DataClass.of(String.class).getTable());
+        assertArrayEquals(new String[]{"Chen", "SW-Dev"}, search.getIndexes(new SmallSearch("Chen", "SW-Dev", 10)));
+        assertEquals(0, DataClass.of(SmallTestMe.class).getIndexes(new SmallTestMe("1")).length);
+
+        try {
+            search.getIndexes(new SmallSearch("Chen", null, 10));
+            fail("A null index value is refused.");
+        } catch (DataClassException e) {
+            assertEquals("Index index2 declaration is missing.", e.getMessage());
+        }
+        try {
+            DataClass.of(DuplicateIndexSearchable.class).getIndexes(new DuplicateIndexSearchable("Chen", "SW-Dev", 10));
+            fail("Duplicated declaration.");
+        } catch (DataClassException e) {
+            assertEquals("Duplicated Declaration of Index index1 on field title", e.getMessage());
+        }
+    }
 }
@@ -15,8 +15,15 @@
 package com.chen.candybon.fasttrack.dao;
 
 import com.chen.candybon.fasttrack.exception.InvalidPredicateException;
+import com.chen.candybon.fasttrack.type.Comparison;
+import com.chen.candybon.fasttrack.type.Index;
+import com.chen.candybon.fasttrack.type.Operand;
+import com.chen.candybon.fasttrack.type.SortOrder;
 import org.junit.Test;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 public class JPQLPredicateTest {
@@ -37,4 +44,60 @@ public class JPQLPredicateTest {
         } catch (InvalidPredicateException e){
         }
     }
+
+    @Test
+    public void testMatches() throws InvalidPredicateException {
+        // index1=a AND index2=b OR index3=c
+        JPQLPredicate p = new JPQLPredicate();
+        p.add(Operand.AND, Index.index1, "a");
+        p.add(Operand.AND, Index.index2, "b");
+        p.add(Operand.OR, Index.index3, "c");
+
+        assertTrue(p.matches(row("a", "b", null)));
+        assertTrue(p.matches(row(null, null, "c")));
+        assertFalse(p.matches(row("a", null, null)));
+        assertFalse(p.matches(row("a", "c", "b")));
+
+        JPQLPredicate copy = p.copy();
+        p.add(Operand.AND, Index.index4, "d");
+        assertTrue(copy.matches(row(null, null, "c")));
+        assertFalse(p.matches(row(null, null, "c")));
+        assertEquals(copy.toKey(), copy.copy().toKey());
+
+        String unordered = copy.toKey();
+        copy.setOrderBy(Index.index2, SortOrder.DESCENDING);
+        assertFalse(unordered.equals(copy.toKey()));
+        assertEquals(copy.toKey(), copy.copy().toKey());
+        assertEquals(" ORDER BY ko.indexValue2 DESC, ko.id.uid DESC", JPQLPredicate.toOrderBy(copy.copy()));
+        assertEquals("", JPQLPredicate.toOrderBy(p));
+    }
+
+    @Test
+    public void testMatchesRange() {
+        // index1=a AND index2>b OR index3=c, the order of the values is not known from the hashes
+        JPQLPredicate p = new JPQLPredicate();
+        p.add(Operand.AND, Index.index1, "a");
+        p.add(Operand.AND, Index.index2, Comparison.GREATER, "b", null);
+        p.add(Operand.OR, Index.index3, "c");
+
+        assertTrue(p.matches(row("a", "a", null)));
+        assertTrue(p.matches(row(null, null, "c")));
+        assertFalse(p.matches(row("b", "c", null)));
+        assertTrue(p.copy().matches(row("a", null, null)));
+
+        // named indexes are not in the row
+        p = new JPQLPredicate();
+        p.add(Operand.AND, Index.index1, "a");
+        p.add(Operand.AND, "city", Comparison.EQUAL, "Stockholm", null);
+        assertTrue(p.matches(row("a", null, null)));
+        assertFalse(p.matches(row("b", null, null)));
+    }
+
+    private static Integer[] row(String index1, String index2, String index3) {
+        return new Integer[]{hash(index1), hash(index2), hash(index3), null, null, null};
+    }
+
+    private static Integer hash(String value) {
+        return value == null ? null : value.hashCode();
+    }
 }
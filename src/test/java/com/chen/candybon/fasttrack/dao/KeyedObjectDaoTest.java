@@ -31,9 +31,13 @@ import org.junit.Before;
 import org.junit.Test;
 
 import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
@@ -49,7 +53,9 @@ public class KeyedObjectDaoTest extends FastTrackTestFeatures {
     private static final String TEST_OBJ = "1234567890";
     private final static String[] SETUP = {
             "DELETE FROM SMALL_KEYED_OBJECT;",
-            "DELETE FROM LARGE_KEYED_OBJECT;"};
+            "DELETE FROM LARGE_KEYED_OBJECT;",
+            "DELETE FROM LARGE_KEYED_CHUNK;",
+            "DELETE FROM LARGE_KEYED_CONTENT;"};
 
     @Before
     public void setup() throws Exception {
@@ -99,7 +105,8 @@ public class KeyedObjectDaoTest extends FastTrackTestFeatures {
         assertEquals("NewContent", new String(read.getValue()));
 
         beginTransaction();
-        dao.delete(SmallKeyedObject.class, key);
+        assertEquals(1, dao.delete(SmallKeyedObject.class, key));
+        assertEquals(0, dao.delete(SmallKeyedObject.class, key));
         commitTransaction();
 
 
@@ -107,6 +114,131 @@ public class KeyedObjectDaoTest extends FastTrackTestFeatures {
         assertNull(read);
     }
 
+    @Test
+    public void testCreateAll() throws Exception {
+        KeyedId key1 = new KeyedId(String.class, "uniqueKey1");
+        KeyedId key2 = new KeyedId(String.class, "uniqueKey2");
+        KeyedId key3 = new KeyedId(String.class, "uniqueKey3");
+
+        beginTransaction();
+        dao.create(new SmallKeyedObject(key2, "existing".getBytes()));
+        boolean[] result = dao.createAll(Arrays.asList(
+                new SmallKeyedObject(key1, "obj1".getBytes(), "something"),
+                new SmallKeyedObject(key2, "obj2".getBytes()),
+                new LargeKeyedObject(key3, "obj3".getBytes()),
+                new SmallKeyedObject(key3, "obj3".getBytes())));
+        commitTransaction();
+
+        assertTrue(Arrays.equals(new boolean[]{true, false, true, true}, result));
+        assertEquals("obj1", new String(dao.getValue(SmallKeyedObject.class, key1)));
+        assertEquals("existing", new String(dao.getValue(SmallKeyedObject.class, key2)));
+        assertEquals("obj3", new String(dao.getValue(LargeKeyedObject.class, key3)));
+        assertEquals("obj3", new String(dao.getValue(SmallKeyedObject.class, key3)));
+        long[] version = {-1};
+        assertEquals("obj3", new String(dao.getValue(LargeKeyedObject.class, key3, version)));
+        assertEquals(dao.getVersion(LargeKeyedObject.class, key3).longValue(), version[0]);
+        assertEquals("obj1", new String(dao.getValue(SmallKeyedObject.class, key1, version)));
+        assertEquals(dao.getVersion(SmallKeyedObject.class, key1).longValue(), version[0]);
+        assertNull(dao.getValue(LargeKeyedObject.class, key1, version));
+        assertTrue(dao.hasAny(LargeKeyedObject.class, String.class.getName()));
+        assertFalse(dao.hasAny(LargeKeyedObject.class, Integer.class.getName()));
+        assertEquals("something".hashCode(), dao.get(SmallKeyedObject.class, key1).getIndex1().intValue());
+
+        assertEquals(0, dao.createAll(new ArrayList<KeyedObject>()).length);
+        try {
+            dao.createAll(null);
+            fail("Trying to create null");
+        } catch (DataException e) {
+        }
+    }
+
+    @Test
+    public void testMigrateSmallValues() throws Exception {
+        KeyedId legacy = new KeyedId(String.class, "legacy");
+        KeyedId binary = new KeyedId(String.class, "binary");
+        SmallKeyedObject sko = new SmallKeyedObject(legacy, TEST_OBJ.getBytes(), "idx1");
+        sko.useEncodedValue();
+
+        beginTransaction();
+        dao.create(sko);
+        dao.create(new SmallKeyedObject(binary, "Binary".getBytes(), "idx1"));
+        commitTransaction();
+        getEntityManager().clear();
+
+        assertEquals(TEST_OBJ, new String(dao.getValue(SmallKeyedObject.class, legacy)));
+        assertEquals("Binary", new String(dao.getValue(SmallKeyedObject.class, binary)));
+        assertEquals(2, dao.getValues(SmallKeyedObject.class, Arrays.asList(legacy, binary)).size());
+
+        beginTransaction();
+        assertEquals(1, dao.migrateSmallValues(10));
+        assertEquals(0, dao.migrateSmallValues(10));
+        commitTransaction();
+        getEntityManager().clear();
+
+        Number encoded = (Number) getEntityManager()
+                .createNativeQuery("SELECT COUNT(*) FROM SMALL_KEYED_OBJECT WHERE BIN_OBJECT IS NOT NULL")
+                .getSingleResult();
+        assertEquals(0, encoded.intValue());
+        assertEquals(TEST_OBJ, new String(dao.getValue(SmallKeyedObject.class, legacy)));
+        assertEquals(TEST_OBJ, new String(dao.get(SmallKeyedObject.class, legacy).getValue()));
+    }
+
+    @Test
+    public void testUpdateValue() throws Exception {
+        KeyedId key = new KeyedId(String.class, "uniqueKey");
+
+        beginTransaction();
+        dao.create(new LargeKeyedObject(key, TEST_OBJ.getBytes(), "idx1", "idx2"));
+        commitTransaction();
+        KeyedObject read = dao.get(LargeKeyedObject.class, key);
+        assertEquals(TEST_OBJ, new String(read.getValue()));
+
+        beginTransaction();
+        dao.updateValue(LargeKeyedObject.class, key, "NewContent".getBytes(), "newIdx1");
+        commitTransaction();
+
+        read = dao.get(LargeKeyedObject.class, key);
+        assertEquals("NewContent", new String(read.getValue()));
+        assertEquals("newIdx1".hashCode(), read.getIndex1().intValue());
+        assertNull(read.getIndex2());
+        Number version = (Number) getEntityManager()
+                .createNativeQuery("SELECT version FROM LARGE_KEYED_OBJECT").getSingleResult();
+        assertEquals(1, version.intValue());
+
+        beginTransaction();
+        try {
+            dao.updateValue(SmallKeyedObject.class, key, "NoSuchRow".getBytes());
+            fail("Only stored as a large object");
+        } catch (NotFoundException e) {
+            // OK.
+        } finally {
+            rollbackTransaction();
+        }
+    }
+
+    @Test
+    public void testUpsert() throws Exception {
+        KeyedId key = new KeyedId(String.class, "uniqueKey");
+
+        beginTransaction();
+        dao.upsert(new LargeKeyedObject(key, TEST_OBJ.getBytes(), "idx1"));
+        commitTransaction();
+        assertEquals(TEST_OBJ, new String(dao.getValue(LargeKeyedObject.class, key)));
+
+        beginTransaction();
+        dao.upsert(new LargeKeyedObject(key, "NewContent".getBytes(), "idx2"));
+        commitTransaction();
+        KeyedObject read = dao.get(LargeKeyedObject.class, key);
+        assertEquals("NewContent", new String(read.getValue()));
+        assertEquals("idx2".hashCode(), read.getIndex1().intValue());
+
+        try {
+            dao.upsert(null);
+            fail("Trying to store null");
+        } catch (DataException e) {
+        }
+    }
+
     @Test
     public void testGetValueSmall() throws InvalidKeyException, DataException, DataClassException {
         KeyedId key = new KeyedId(String.class, "uniqueKey");
@@ -143,6 +275,69 @@ public class KeyedObjectDaoTest extends FastTrackTestFeatures {
         assertEquals(TEST_OBJ, new String(bytes));
     }
 
+    @Test
+    public void testGetValues() throws Exception {
+        KeyedId key1 = new KeyedId(String.class, "uniqueKey1");
+        KeyedId key2 = new KeyedId(String.class, "uniqueKey2");
+        KeyedId other = new KeyedId(Integer.class, "uniqueKey1");
+
+        beginTransaction();
+        dao.create(new LargeKeyedObject(key1, "obj1".getBytes()));
+        dao.create(new LargeKeyedObject(key2, "obj2".getBytes()));
+        dao.create(new LargeKeyedObject(other, "other".getBytes()));
+        dao.create(new SmallKeyedObject(key1, "small1".getBytes()));
+        commitTransaction();
+
+        System.setProperty(FastTrackConfig.IN_LIST_SIZE, "1");
+        FastTrackConfig.reload();
+        try {
+            Map<KeyedId, byte[]> values = dao.getValues(LargeKeyedObject.class,
+                    Arrays.asList(key1, key2, other, new KeyedId(String.class, "missing"), null));
+            assertEquals(3, values.size());
+            assertEquals("obj1", new String(values.get(key1)));
+            assertEquals("obj2", new String(values.get(key2)));
+            assertEquals("other", new String(values.get(other)));
+        } finally {
+            System.clearProperty(FastTrackConfig.IN_LIST_SIZE);
+            FastTrackConfig.reload();
+        }
+
+        Map<KeyedId, byte[]> values = dao.getValues(SmallKeyedObject.class, Arrays.asList(key1, key2));
+        assertEquals(1, values.size());
+        assertEquals("small1", new String(values.get(key1)));
+
+        assertTrue(dao.getValues(null, Arrays.asList(key1)).isEmpty());
+        assertTrue(dao.getValues(SmallKeyedObject.class, null).isEmpty());
+    }
+
+    @Test
+    public void testDeleteAll() throws Exception {
+        KeyedId key1 = new KeyedId(String.class, "uniqueKey1");
+        KeyedId key2 = new KeyedId(String.class, "uniqueKey2");
+        KeyedId key3 = new KeyedId(String.class, "uniqueKey3");
+
+        beginTransaction();
+        dao.create(new LargeKeyedObject(key1, "obj1".getBytes(), "something"));
+        dao.create(new LargeKeyedObject(key2, "obj2".getBytes(), "nothing"));
+        dao.create(new LargeKeyedObject(key3, "obj3".getBytes(), "something"));
+        commitTransaction();
+        assertNotNull(dao.get(LargeKeyedObject.class, key1));
+
+        PredicateBuilder p = new PredicateBuilder();
+        p.addAND(Index.index1, "something");
+        beginTransaction();
+        assertEquals(0, dao.delete(LargeKeyedObject.class, Integer.class.getName(), p.toPredicate()));
+        assertEquals(2, dao.delete(LargeKeyedObject.class, String.class.getName(), p.toPredicate()));
+        commitTransaction();
+        assertNotNull(dao.getValue(LargeKeyedObject.class, key2));
+        assertNull(dao.getValue(LargeKeyedObject.class, key1));
+
+        beginTransaction();
+        assertEquals(1, dao.deleteAll(LargeKeyedObject.class, Arrays.asList(key1, key2, key3)));
+        commitTransaction();
+        assertNull(dao.get(LargeKeyedObject.class, key2));
+    }
+
     @Test
     public void testFindWithPos() throws InvalidKeyException, DataException, DataClassException {
         List<KeyedObject> bytes = dao.search(SmallKeyedObject.class, String.class.getName(), 0, 2);
@@ -214,12 +409,30 @@ public class KeyedObjectDaoTest extends FastTrackTestFeatures {
         }
     }
 
+    @Test
+    public void testUpdateValueWithInvalid() {
+        try {
+            dao.updateValue(SmallKeyedObject.class, new KeyedId(), "BLA".getBytes());
+            fail("No such object to update");
+        } catch (NotFoundException e) {
+            // OK.
+        }
+        try {
+            dao.updateValue(null, null, null);
+            fail("There is no such object");
+        } catch (NotFoundException e) {
+            // OK.
+        }
+    }
+
     @Test
     public void testWithNulls() throws NotFoundException, InvalidPredicateException {
 
-        dao.delete(null, null);
-        dao.delete(SmallKeyedObject.class, null);
-        dao.delete(null, new KeyedId());
+        assertEquals(0, dao.delete(null, null));
+        assertEquals(0, dao.delete(SmallKeyedObject.class, null));
+        assertEquals(0, dao.delete(null, new KeyedId()));
+        assertEquals(0, dao.deleteAll(null, null));
+        assertEquals(0, dao.deleteAll(SmallKeyedObject.class, null));
 
         assertNull(dao.get(null, null));
         assertNull(dao.get(SmallKeyedObject.class, null));
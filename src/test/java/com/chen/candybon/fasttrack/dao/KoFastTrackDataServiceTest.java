@@ -17,23 +17,56 @@ package com.chen.candybon.fasttrack.dao;
 import com.chen.candybon.fasttrack.FastTrackDataService;
 import com.chen.candybon.fasttrack.Predicate;
 import com.chen.candybon.fasttrack.PredicateBuilder;
+import com.chen.candybon.fasttrack.codec.Compression;
+import com.chen.candybon.fasttrack.codec.JavaValueCodec;
+import com.chen.candybon.fasttrack.codec.ValueCodecs;
 import com.chen.candybon.fasttrack.exception.DataClassException;
 import com.chen.candybon.fasttrack.exception.DataException;
 import com.chen.candybon.fasttrack.exception.FastTrackException;
 import com.chen.candybon.fasttrack.exception.InvalidKeyException;
 import com.chen.candybon.fasttrack.exception.InvalidPredicateException;
+import com.chen.candybon.fasttrack.exception.NotFoundException;
+import com.chen.candybon.fasttrack.object.KeyedId;
+import com.chen.candybon.fasttrack.object.LargeKeyedObject;
 import com.chen.candybon.fasttrack.object.SmallKeyedObject;
 import com.chen.candybon.fasttrack.type.Index;
+import com.chen.candybon.fasttrack.type.IndexValues;
+import com.chen.candybon.fasttrack.type.SortOrder;
 import com.chen.candybon.fasttrack.utils.FastTrackTestFeatures;
 import org.junit.Before;
 import org.junit.Test;
 
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+import javax.transaction.TransactionSynchronizationRegistry;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.lang.reflect.Field;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
@@ -46,9 +79,13 @@ public class KoFastTrackDataServiceTest extends FastTrackTestFeatures {
     FastTrackDataService service = null;
     KeyedObjectDao dao = null;
     private static final String TEST_KEY = "1234567890";
+    private final List<Synchronization> synchronizations = new ArrayList<Synchronization>();
     private static final String[] SETUP = {
             "DELETE FROM SMALL_KEYED_OBJECT;",
-            "DELETE FROM LARGE_KEYED_OBJECT;"};
+            "DELETE FROM LARGE_KEYED_OBJECT;",
+            "DELETE FROM LARGE_KEYED_CHUNK;",
+            "DELETE FROM LARGE_KEYED_CONTENT;",
+            "DELETE FROM KEYED_OBJECT_INDEX;"};
 
     @Before
     public void setup() throws Exception {
@@ -102,6 +139,801 @@ public class KoFastTrackDataServiceTest extends FastTrackTestFeatures {
         assertNotNull(read);
         assertEquals(read.getTest(), "Updated Test");
 
+        beginTransaction();
+        try {
+            service.update(TEST_KEY + "missing", read);
+            fail("No such object to update");
+        } catch (NotFoundException e) {
+            // OK.
+        } finally {
+            rollbackTransaction();
+        }
+
+    }
+
+    @Test
+    public void testUpsert() throws Exception {
+        beginTransaction();
+        assertTrue(service.upsert(TEST_KEY, new SmallSearch("Chen", "SW-Dev", 10)));
+        commitTransaction();
+        assertEquals("SW-Dev", service.get(SmallSearch.class, TEST_KEY).getTitle());
+
+        beginTransaction();
+        assertTrue(service.upsert(TEST_KEY, new SmallSearch("Chen", "Manager", 10)));
+        commitTransaction();
+        assertEquals("Manager", service.get(SmallSearch.class, TEST_KEY).getTitle());
+
+        PredicateBuilder pb = new PredicateBuilder();
+        pb.addAND(Index.index2, "Manager");
+        assertEquals(1, service.find(SmallSearch.class, pb.toPredicate()).size());
+        assertEquals(0, service.find(SmallSearch.class, new PredicateBuilder().addAND(Index.index2, "SW-Dev")
+                .toPredicate()).size());
+
+        // the stored index values follow, so the ranges and orders do too
+        beginTransaction();
+        assertTrue(service.upsert(TEST_KEY, new SmallRange("Chen", 35, 1, new Date())));
+        assertTrue(service.upsert(TEST_KEY, new SmallRange("Chen", 45, 1, new Date())));
+        commitTransaction();
+        assertEquals(1, service.find(SmallRange.class, new PredicateBuilder()
+                .addGreaterThan(Index.index2, IndexValues.of(40)).toPredicate()).size());
+        assertEquals(0, service.find(SmallRange.class, new PredicateBuilder()
+                .addAND(Index.index2, IndexValues.of(35)).toPredicate()).size());
+
+        try {
+            service.upsert(null, new LargeTestMe());
+            fail("Not a valid key.");
+        } catch (InvalidKeyException e) {
+        }
+    }
+
+    @Test
+    public void testBinaryCodec() throws Exception {
+        beginTransaction();
+        assertTrue(service.put(TEST_KEY, new BinarySearch("Chen", 10)));
+        assertTrue(service.put(TEST_KEY, new SmallSearch("Chen", "SW-Dev", 10)));
+        commitTransaction();
+
+        BinarySearch found = (BinarySearch) service.get(BinarySearch.class, TEST_KEY);
+        assertEquals("Chen", found.getName());
+        assertEquals(10, found.getAge());
+        assertNull(found.getCached());
+        assertEquals("SW-Dev", ((SmallSearch) service.get(SmallSearch.class, TEST_KEY)).getTitle());
+
+        PredicateBuilder pb = new PredicateBuilder();
+        pb.addAND(Index.index1, "Chen");
+        assertEquals(1, service.find(BinarySearch.class, pb.toPredicate()).size());
+    }
+
+    @Test
+    public void testCompression() throws Exception {
+        System.setProperty(FastTrackConfig.COMPRESSION, "true");
+        FastTrackConfig.reload();
+        try {
+            beginTransaction();
+            for (int i = 0; i < 20; i++) {
+                LargeTestMe data = new LargeTestMe();
+                data.setTest(document(i));
+                assertTrue(service.put("key" + i, data));
+            }
+            assertTrue(service.trainCompression(LargeTestMe.class, 20) > 0);
+            LargeTestMe data = new LargeTestMe();
+            data.setTest(document(100));
+            assertTrue(service.put("key100", data));
+            commitTransaction();
+
+            byte[] stored = dao.getValue(LargeKeyedObject.class, new KeyedId(LargeTestMe.class, "key100"));
+            assertEquals(Compression.FORMAT, stored[0]);
+            assertTrue(stored.length < document(100).length());
+            assertEquals(document(100), ((LargeTestMe) service.get(LargeTestMe.class, "key100")).getTest());
+            assertEquals(document(1), ((LargeTestMe) service.get(LargeTestMe.class, "key1")).getTest());
+        } finally {
+            System.clearProperty(FastTrackConfig.COMPRESSION);
+            FastTrackConfig.reload();
+        }
+        try {
+            service.trainCompression(SmallTestMe.class, 10);
+            fail("Only large data is compressed.");
+        } catch (DataClassException e) {
+        }
+    }
+
+    private static String document(int i) {
+        return "{\"id\":" + i + ",\"type\":\"employee\",\"name\":\"Name " + i + "\",\"department\":\"Research\","
+                + "\"address\":{\"street\":\"" + (i * 7) + " Main Street\",\"city\":\"Seattle\"},\"active\":true}";
+    }
+
+    @Test
+    public void testAutoPlacement() throws Exception {
+        StringBuilder large = new StringBuilder();
+        while (large.length() <= SmallKeyedObject.MAX_SIZE) {
+            large.append("0123456789");
+        }
+        KeyedId keyedId = new KeyedId(SmallTestMe.class, TEST_KEY);
+        System.setProperty(FastTrackConfig.AUTO_PLACEMENT, "true");
+        FastTrackConfig.reload();
+        try {
+            beginTransaction();
+            assertTrue(service.put(TEST_KEY, new SmallTestMe(large.toString())));
+            assertTrue(service.put("small", new SmallTestMe("small")));
+            commitTransaction();
+            assertNotNull(dao.getValue(LargeKeyedObject.class, keyedId));
+            assertEquals(new SmallTestMe(large.toString()), service.get(SmallTestMe.class, TEST_KEY));
+            assertEquals(2, service.getAll(SmallTestMe.class, Arrays.asList(TEST_KEY, "small")).size());
+
+            beginTransaction();
+            assertTrue(service.update(TEST_KEY, new SmallTestMe("fits")));
+            commitTransaction();
+            assertNull(dao.getValue(LargeKeyedObject.class, keyedId));
+            assertEquals(new SmallTestMe("fits"), service.get(SmallTestMe.class, TEST_KEY));
+
+            beginTransaction();
+            assertTrue(service.upsert(TEST_KEY, new SmallTestMe(large.toString())));
+            commitTransaction();
+            assertNull(dao.getValue(SmallKeyedObject.class, keyedId));
+            assertEquals(new SmallTestMe(large.toString()), service.get(SmallTestMe.class, TEST_KEY));
+
+            beginTransaction();
+            service.delete(SmallTestMe.class, TEST_KEY);
+            commitTransaction();
+            assertNull(service.get(SmallTestMe.class, TEST_KEY));
+        } finally {
+            System.clearProperty(FastTrackConfig.AUTO_PLACEMENT);
+            FastTrackConfig.reload();
+        }
+    }
+
+    @Test
+    public void testSpilledPaging() throws Exception {
+        StringBuilder large = new StringBuilder();
+        while (large.length() <= SmallKeyedObject.MAX_SIZE) {
+            large.append("0123456789");
+        }
+        System.setProperty(FastTrackConfig.AUTO_PLACEMENT, "true");
+        FastTrackConfig.reload();
+        try {
+            beginTransaction();
+            for (int i = 0; i < 6; i++) {
+                String data = i % 2 == 0 ? large.toString() + i : "small" + i;
+                assertTrue(service.put("key" + i, new SmallTestMe(data)));
+            }
+            commitTransaction();
+
+            // pages taken once from the rows of both tables
+            Set<SmallTestMe> all = new HashSet<SmallTestMe>();
+            for (int position = 0; position < 6; position += 2) {
+                List<SmallTestMe> page = service.find(SmallTestMe.class, position, 2);
+                assertEquals(2, page.size());
+                all.addAll(page);
+                Predicate predicate = new PredicateBuilder().setFirstResult(position).setMaxResults(2).toPredicate();
+                assertEquals(page, service.find(SmallTestMe.class, predicate));
+            }
+            assertEquals(6, all.size());
+            assertEquals(1, service.find(SmallTestMe.class, 5, 2).size());
+            assertEquals(0, service.find(SmallTestMe.class, 6, 2).size());
+            assertEquals(6, service.find(SmallTestMe.class, 0, Integer.MAX_VALUE).size());
+        } finally {
+            System.clearProperty(FastTrackConfig.AUTO_PLACEMENT);
+            FastTrackConfig.reload();
+        }
+    }
+
+    @Test
+    public void testStream() throws Exception {
+        byte[] content = new byte[100 * 1024];
+        new Random(1).nextBytes(content);
+
+        beginTransaction();
+        assertTrue(service.putStream(LargeTestMe.class, TEST_KEY, new ByteArrayInputStream(content), content.length,
+                "media"));
+        assertTrue(service.putStream(LargeTestMe.class, "unknownLength", new ByteArrayInputStream(content), -1));
+        assertTrue(service.put("object", new LargeTestMe()));
+        commitTransaction();
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertTrue(service.getStream(LargeTestMe.class, TEST_KEY, out));
+        assertTrue(Arrays.equals(content, out.toByteArray()));
+        out.reset();
+        assertTrue(service.getStream(LargeTestMe.class, "unknownLength", out));
+        assertTrue(Arrays.equals(content, out.toByteArray()));
+        assertFalse(service.getStream(LargeTestMe.class, "none", new ByteArrayOutputStream()));
+
+        PredicateBuilder pb = new PredicateBuilder();
+        pb.addAND(Index.index1, "media");
+        assertEquals(1, dao.search(LargeKeyedObject.class, LargeTestMe.class.getName(), pb.toPredicate()).size());
+
+        try {
+            service.getStream(LargeTestMe.class, "object", new ByteArrayOutputStream());
+            fail("Not stored as a stream.");
+        } catch (DataException e) {
+        }
+        try {
+            service.get(LargeTestMe.class, TEST_KEY);
+            fail("Stored as a stream.");
+        } catch (DataException e) {
+        }
+        try {
+            service.putStream(SmallTestMe.class, TEST_KEY, new ByteArrayInputStream(content), content.length);
+            fail("Only large data is streamed.");
+        } catch (DataClassException e) {
+        }
+    }
+
+    @Test
+    public void testChunking() throws Exception {
+        byte[] content = new byte[10 * 1000 + 10];
+        new Random(2).nextBytes(content);
+        StringBuilder large = new StringBuilder();
+        while (large.length() < 5000) {
+            large.append("0123456789");
+        }
+        LargeTestMe data = new LargeTestMe();
+        data.setTest(large.toString());
+        KeyedId keyedId = new KeyedId(LargeTestMe.class, "object");
+        System.setProperty(FastTrackConfig.CHUNKING, "true");
+        System.setProperty(FastTrackConfig.CHUNK_SIZE, "1000");
+        FastTrackConfig.reload();
+        try {
+            beginTransaction();
+            assertTrue(service.putStream(LargeTestMe.class, TEST_KEY, new ByteArrayInputStream(content), -1));
+            assertTrue(service.put("object", data));
+            assertTrue(service.put("small", new LargeTestMe()));
+            commitTransaction();
+
+            assertEquals(ValueCodecs.CHUNKED, dao.getValue(LargeKeyedObject.class, keyedId)[0]);
+            assertEquals(large.toString(), ((LargeTestMe) service.get(LargeTestMe.class, "object")).getTest());
+            assertEquals(2, service.getAll(LargeTestMe.class, Arrays.asList("object", "small")).size());
+            assertEquals(2, service.find(LargeTestMe.class, 0, 10).size());
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            assertTrue(service.getStream(LargeTestMe.class, TEST_KEY, out));
+            assertTrue(Arrays.equals(content, out.toByteArray()));
+            out.reset();
+            assertTrue(service.getStream(LargeTestMe.class, TEST_KEY, out, 1500, 2000));
+            assertTrue(Arrays.equals(Arrays.copyOfRange(content, 1500, 3500), out.toByteArray()));
+            out.reset();
+            assertTrue(service.getStream(LargeTestMe.class, TEST_KEY, out, 9990, 100));
+            assertTrue(Arrays.equals(Arrays.copyOfRange(content, 9990, content.length), out.toByteArray()));
+
+            // a duplicate key fails before the chunks of the stored stream are touched
+            beginTransaction();
+            try {
+                service.putStream(LargeTestMe.class, TEST_KEY, new ByteArrayInputStream(new byte[10]), 10);
+                fail("Already stored.");
+            } catch (Exception e) {
+                out.reset();
+                dao.copyChunks(new KeyedId(LargeTestMe.class, TEST_KEY), 0, 100, out);
+                // the chunks hold the tag too
+                assertEquals(content.length + 1, out.size());
+            } finally {
+                rollbackTransaction();
+            }
+
+            beginTransaction();
+            assertTrue(service.update("object", new LargeTestMe()));
+            commitTransaction();
+            assertEquals(0, dao.copyChunks(keyedId, 0, 100, new ByteArrayOutputStream()));
+
+            beginTransaction();
+            service.delete(LargeTestMe.class, TEST_KEY);
+            commitTransaction();
+            assertEquals(0, dao.copyChunks(new KeyedId(LargeTestMe.class, TEST_KEY), 0, 100,
+                    new ByteArrayOutputStream()));
+        } finally {
+            System.clearProperty(FastTrackConfig.CHUNKING);
+            System.clearProperty(FastTrackConfig.CHUNK_SIZE);
+            FastTrackConfig.reload();
+        }
+    }
+
+    @Test
+    public void testDedup() throws Exception {
+        LargeTestMe template = new LargeTestMe();
+        template.setTest(document(1) + document(2) + document(3) + document(4) + document(5));
+        System.setProperty(FastTrackConfig.DEDUP, "true");
+        System.setProperty(FastTrackConfig.DEDUP_MIN_SIZE, "100");
+        FastTrackConfig.reload();
+        try {
+            beginTransaction();
+            assertTrue(service.put("first", template));
+            assertTrue(service.put("second", template));
+            assertTrue(service.put("small", new LargeTestMe()));
+            commitTransaction();
+
+            byte[] stored = dao.getValue(LargeKeyedObject.class, new KeyedId(LargeTestMe.class, "first"));
+            assertEquals(ValueCodecs.SHARED, stored[0]);
+            assertTrue(Arrays.equals(stored, dao.getValue(LargeKeyedObject.class,
+                    new KeyedId(LargeTestMe.class, "second"))));
+            String hash = SharedContent.key(stored);
+            assertNotNull(dao.getContent(hash));
+            // the references are found without reading the values
+            assertEquals(Arrays.asList(hash, hash), dao.getContentHashes(Arrays.asList(
+                    new KeyedId(LargeTestMe.class, "first"), new KeyedId(LargeTestMe.class, "second"))));
+            assertEquals(template.getTest(), ((LargeTestMe) service.get(LargeTestMe.class, "second")).getTest());
+            assertEquals(3, service.find(LargeTestMe.class, 0, 10).size());
+
+            beginTransaction();
+            service.delete(LargeTestMe.class, "first");
+            commitTransaction();
+            assertNotNull(dao.getContent(hash));
+
+            beginTransaction();
+            assertTrue(service.update("second", new LargeTestMe()));
+            commitTransaction();
+            assertNull(dao.getContent(hash));
+        } finally {
+            System.clearProperty(FastTrackConfig.DEDUP);
+            System.clearProperty(FastTrackConfig.DEDUP_MIN_SIZE);
+            FastTrackConfig.reload();
+        }
+    }
+
+    @Test
+    public void testCache() throws Exception {
+        KeyedId keyedId = new KeyedId(SmallTestMe.class, TEST_KEY);
+        System.setProperty(FastTrackConfig.CACHE_SIZE, "2");
+        System.setProperty(FastTrackConfig.CACHE_TTL, "60000");
+        FastTrackConfig.reload();
+        try {
+            beginTransaction();
+            assertTrue(service.put(TEST_KEY, new SmallTestMe("first")));
+            assertTrue(service.put("other", new SmallTestMe("other")));
+            commitTransaction();
+            // read inside a transaction: not cached
+            setTransaction("tx");
+            SmallTestMe cached = service.get(SmallTestMe.class, TEST_KEY);
+            assertNull(ObjectCache.get(keyedId));
+            setTransaction(null);
+            cached = service.get(SmallTestMe.class, TEST_KEY);
+            assertNotNull(ObjectCache.get(keyedId));
+            // a new instance at each hit, changing one does not change the cached value
+            cached.data = "changed";
+            assertEquals(new SmallTestMe("first"), service.get(SmallTestMe.class, TEST_KEY));
+            assertNotSame(service.get(SmallTestMe.class, TEST_KEY), service.get(SmallTestMe.class, TEST_KEY));
+
+            // changed by another node: only seen once the version is checked
+            beginTransaction();
+            dao.updateValue(SmallKeyedObject.class, keyedId, ValueCodecs.encode(new JavaValueCodec(), new SmallTestMe("second")));
+            commitTransaction();
+            assertEquals(new SmallTestMe("first"), service.get(SmallTestMe.class, TEST_KEY));
+            System.setProperty(FastTrackConfig.CACHE_TTL, "1");
+            FastTrackConfig.reload();
+            Thread.sleep(5);
+            assertEquals(new SmallTestMe("second"), service.get(SmallTestMe.class, TEST_KEY));
+            System.setProperty(FastTrackConfig.CACHE_TTL, "60000");
+            FastTrackConfig.reload();
+            beginTransaction();
+            dao.updateValue(SmallKeyedObject.class, keyedId, ValueCodecs.encode(new JavaValueCodec(), new SmallTestMe("fourth")));
+            commitTransaction();
+            assertEquals(new SmallTestMe("second"), service.get(SmallTestMe.class, TEST_KEY));
+
+            System.setProperty(FastTrackConfig.CACHE_TTL, "60000");
+            FastTrackConfig.reload();
+            beginTransaction();
+            assertTrue(service.update(TEST_KEY, new SmallTestMe("third")));
+            commitTransaction();
+            assertEquals(new SmallTestMe("third"), service.get(SmallTestMe.class, TEST_KEY));
+
+            service.get(SmallTestMe.class, "other");
+            beginTransaction();
+            assertTrue(service.put("another", new SmallTestMe("another")));
+            commitTransaction();
+            service.get(SmallTestMe.class, "another");
+            assertNull(ObjectCache.get(keyedId));
+
+            beginTransaction();
+            service.delete(SmallTestMe.class, "other");
+            commitTransaction();
+            assertNull(service.get(SmallTestMe.class, "other"));
+        } finally {
+            System.clearProperty(FastTrackConfig.CACHE_SIZE);
+            System.clearProperty(FastTrackConfig.CACHE_TTL);
+            FastTrackConfig.reload();
+            ObjectCache.invalidate(SmallTestMe.class);
+        }
+    }
+
+    @Test
+    public void testCacheAfterCommit() throws Exception {
+        KeyedId keyedId = new KeyedId(SmallTestMe.class, TEST_KEY);
+        System.setProperty(FastTrackConfig.CACHE_SIZE, "2");
+        System.setProperty(FastTrackConfig.CACHE_TTL, "60000");
+        FastTrackConfig.reload();
+        try {
+            beginTransaction();
+            assertTrue(service.put(TEST_KEY, new SmallTestMe("first")));
+            commitTransaction();
+            assertEquals(new SmallTestMe("first"), service.get(SmallTestMe.class, TEST_KEY));
+            ObjectCache.Entry previous = ObjectCache.get(keyedId);
+
+            setTransaction("tx");
+            beginTransaction();
+            assertTrue(service.update(TEST_KEY, new SmallTestMe("second")));
+            assertNull(ObjectCache.get(keyedId));
+            // read by another caller before the commit: the previous row is cached again
+            ObjectCache.put(keyedId, previous.table, previous.version, previous.value);
+            commitTransaction();
+            completeTransaction();
+            assertNull(ObjectCache.get(keyedId));
+            assertEquals(new SmallTestMe("second"), service.get(SmallTestMe.class, TEST_KEY));
+
+            setTransaction("tx");
+            beginTransaction();
+            service.delete(SmallTestMe.class, TEST_KEY);
+            ObjectCache.put(keyedId, previous.table, previous.version, previous.value);
+            commitTransaction();
+            completeTransaction();
+            assertNull(service.get(SmallTestMe.class, TEST_KEY));
+        } finally {
+            System.clearProperty(FastTrackConfig.CACHE_SIZE);
+            System.clearProperty(FastTrackConfig.CACHE_TTL);
+            FastTrackConfig.reload();
+            synchronizations.clear();
+            setTransaction(null);
+            ObjectCache.invalidate(SmallTestMe.class);
+        }
+    }
+
+    @Test
+    public void testOffHeapCache() throws Exception {
+        KeyedId keyedId = new KeyedId(SmallTestMe.class, TEST_KEY);
+        System.setProperty(FastTrackConfig.OFF_HEAP_SIZE, "2");
+        System.setProperty(FastTrackConfig.OFF_HEAP_SLAB_SIZE, "1");
+        System.setProperty(FastTrackConfig.CACHE_TTL, "60000");
+        FastTrackConfig.reload();
+        try {
+            beginTransaction();
+            assertTrue(service.put(TEST_KEY, new SmallTestMe("first")));
+            commitTransaction();
+            // read inside a transaction: not cached
+            setTransaction("tx");
+            assertEquals(new SmallTestMe("first"), service.get(SmallTestMe.class, TEST_KEY));
+            assertNull(OffHeapCache.get(keyedId));
+            setTransaction(null);
+            Object read = service.get(SmallTestMe.class, TEST_KEY);
+            assertNotNull(OffHeapCache.get(keyedId));
+            // deserialized at each hit
+            assertEquals(read, service.get(SmallTestMe.class, TEST_KEY));
+            assertNotSame(read, service.get(SmallTestMe.class, TEST_KEY));
+
+            // changed by another node: only seen once the version is checked
+            beginTransaction();
+            dao.updateValue(SmallKeyedObject.class, keyedId, ValueCodecs.encode(new JavaValueCodec(), new SmallTestMe("second")));
+            commitTransaction();
+            assertEquals(new SmallTestMe("first"), service.get(SmallTestMe.class, TEST_KEY));
+            System.setProperty(FastTrackConfig.CACHE_TTL, "1");
+            FastTrackConfig.reload();
+            Thread.sleep(5);
+            assertEquals(new SmallTestMe("second"), service.get(SmallTestMe.class, TEST_KEY));
+
+            System.setProperty(FastTrackConfig.CACHE_TTL, "60000");
+            FastTrackConfig.reload();
+            beginTransaction();
+            assertTrue(service.update(TEST_KEY, new SmallTestMe("third")));
+            commitTransaction();
+            assertNull(OffHeapCache.get(keyedId));
+            assertEquals(new SmallTestMe("third"), service.get(SmallTestMe.class, TEST_KEY));
+
+            // read by another caller before the commit: removed again once committed
+            OffHeapCache.Slot previous = OffHeapCache.get(keyedId);
+            byte[] bytes = OffHeapCache.read(keyedId, previous);
+            setTransaction("tx");
+            beginTransaction();
+            assertTrue(service.update(TEST_KEY, new SmallTestMe("fifth")));
+            OffHeapCache.put(keyedId, previous.table, previous.version, bytes);
+            commitTransaction();
+            assertNotNull(OffHeapCache.get(keyedId));
+            completeTransaction();
+            assertNull(OffHeapCache.get(keyedId));
+            assertEquals(new SmallTestMe("fifth"), service.get(SmallTestMe.class, TEST_KEY));
+
+            // the oldest slab is evicted once both are full
+            KeyedId[] ids = {new KeyedId(SmallTestMe.class, "a"), new KeyedId(SmallTestMe.class, "b"),
+                    new KeyedId(SmallTestMe.class, "c")};
+            OffHeapCache.put(ids[0], SmallKeyedObject.class, 0, new byte[600 * 1024]);
+            OffHeapCache.Slot evicted = OffHeapCache.get(ids[0]);
+            OffHeapCache.put(ids[1], SmallKeyedObject.class, 0, new byte[600 * 1024]);
+            OffHeapCache.put(ids[2], SmallKeyedObject.class, 0, new byte[600 * 1024]);
+            assertNull(OffHeapCache.get(keyedId));
+            assertNull(OffHeapCache.get(ids[0]));
+            // written again since read: dropped
+            assertNull(OffHeapCache.read(ids[0], evicted));
+            assertNotNull(OffHeapCache.get(ids[1]));
+            assertEquals(600 * 1024, OffHeapCache.read(ids[2], OffHeapCache.get(ids[2])).length);
+            OffHeapCache.put(ids[0], SmallKeyedObject.class, 0, new byte[2 * 1024 * 1024]);
+            assertNull(OffHeapCache.get(ids[0]));
+
+            // a slab is one buffer, indexed by int
+            System.setProperty(FastTrackConfig.OFF_HEAP_SLAB_SIZE, "4096");
+            FastTrackConfig.reload();
+            assertEquals(2047, FastTrackConfig.getOffHeapSlabSize());
+        } finally {
+            System.clearProperty(FastTrackConfig.OFF_HEAP_SIZE);
+            System.clearProperty(FastTrackConfig.OFF_HEAP_SLAB_SIZE);
+            System.clearProperty(FastTrackConfig.CACHE_TTL);
+            FastTrackConfig.reload();
+            synchronizations.clear();
+            setTransaction(null);
+            OffHeapCache.clear();
+        }
+    }
+
+    @Test
+    public void testQueryCache() throws Exception {
+        Predicate developers = new PredicateBuilder().addAND(Index.index2, "SW-Dev").toPredicate();
+        Predicate managers = new PredicateBuilder().addAND(Index.index2, "Manager").toPredicate();
+        System.setProperty(FastTrackConfig.QUERY_CACHE_SIZE, "10");
+        System.setProperty(FastTrackConfig.QUERY_CACHE_TTL, "60000");
+        FastTrackConfig.reload();
+        try {
+            beginTransaction();
+            assertTrue(service.put("Chen", new SmallSearch("Chen", "SW-Dev", 10)));
+            assertTrue(service.put("Wei", new SmallSearch("Wei", "Manager", 20)));
+            commitTransaction();
+            assertEquals(1, service.find(SmallSearch.class, developers).size());
+            assertEquals(1, service.find(SmallSearch.class, managers).size());
+            // new instances at each hit, changing one does not change the cached result
+            SmallSearch found = service.find(SmallSearch.class, developers).get(0);
+            found.setName("changed");
+            assertEquals("Chen", service.find(SmallSearch.class, developers).get(0).getName());
+            assertNotSame(service.find(SmallSearch.class, developers).get(0),
+                    service.find(SmallSearch.class, developers).get(0));
+
+            // searched inside a transaction: not cached
+            Predicate testers = new PredicateBuilder().addAND(Index.index2, "Tester").toPredicate();
+            setTransaction("tx");
+            assertEquals(0, service.find(SmallSearch.class, testers).size());
+            setTransaction(null);
+            beginTransaction();
+            storeDirectly("Lin", new SmallSearch("Lin", "Tester", 50), "Lin", "Tester");
+            commitTransaction();
+            assertEquals(1, service.find(SmallSearch.class, testers).size());
+
+            // not seen until a write through the service changes the result
+            beginTransaction();
+            storeDirectly("Raw", new SmallSearch("Raw", "SW-Dev", 30), "Raw", "SW-Dev");
+            commitTransaction();
+            assertEquals(1, service.find(SmallSearch.class, developers).size());
+
+            beginTransaction();
+            assertTrue(service.update("Wei", new SmallSearch("Wei", "SW-Dev", 20)));
+            commitTransaction();
+            assertEquals(3, service.find(SmallSearch.class, developers).size());
+            assertEquals(0, service.find(SmallSearch.class, managers).size());
+
+            // a write of other index values leaves the result
+            beginTransaction();
+            storeDirectly("Raw2", new SmallSearch("Raw2", "SW-Dev", 40), "Raw2", "SW-Dev");
+            assertTrue(service.put("Xiao", new SmallSearch("Xiao", "Tester", 30)));
+            commitTransaction();
+            assertEquals(3, service.find(SmallSearch.class, developers).size());
+
+            beginTransaction();
+            service.delete(SmallSearch.class, "Chen");
+            commitTransaction();
+            assertEquals(3, service.find(SmallSearch.class, developers).size());
+
+            // searched by another caller before the commit: removed again once committed
+            int name = SmallSearch.class.getName().hashCode();
+            List<byte[]> previous = QueryCache.get(name, (JPQLPredicate) developers);
+            setTransaction("tx");
+            beginTransaction();
+            assertTrue(service.update("Wei", new SmallSearch("Wei", "Manager", 20)));
+            QueryCache.put(name, (JPQLPredicate) developers, previous);
+            commitTransaction();
+            assertNotNull(QueryCache.get(name, (JPQLPredicate) developers));
+            completeTransaction();
+            assertNull(QueryCache.get(name, (JPQLPredicate) developers));
+            assertEquals(2, service.find(SmallSearch.class, developers).size());
+        } finally {
+            System.clearProperty(FastTrackConfig.QUERY_CACHE_SIZE);
+            System.clearProperty(FastTrackConfig.QUERY_CACHE_TTL);
+            FastTrackConfig.reload();
+            synchronizations.clear();
+            setTransaction(null);
+            QueryCache.invalidate(SmallSearch.class.getName().hashCode());
+        }
+    }
+
+    @Test
+    public void testKeyFilter() throws Exception {
+        int name = SmallTestMe.class.getName().hashCode();
+        final List<Runnable> scans = new ArrayList<Runnable>();
+        Executor background = KeyFilter.scans;
+        KeyFilter.scans = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                scans.add(command);
+            }
+        };
+        beginTransaction();
+        storeDirectly("existing", new SmallTestMe("existing"));
+        commitTransaction();
+        System.setProperty(FastTrackConfig.KEY_FILTER, "true");
+        System.setProperty(FastTrackConfig.KEY_FILTER_REFRESH, "60000");
+        FastTrackConfig.reload();
+        try {
+            KeyFilter.clear(name);
+            // looked up while the filter is built
+            assertEquals(new SmallTestMe("existing"), service.get(SmallTestMe.class, "existing"));
+            assertNull(service.get(SmallTestMe.class, "absent"));
+            assertNull(KeyFilter.get(name));
+            assertEquals(1, scans.size());
+
+            // stored through this node: known to the next filters, whether the scans see it or not
+            beginTransaction();
+            assertTrue(service.put(TEST_KEY, new SmallTestMe("mine")));
+            commitTransaction();
+            scans.remove(0).run();
+            KeyFilter filter = KeyFilter.get(name);
+            assertTrue(filter.mightContain(new KeyedId(SmallTestMe.class, "existing").getUid()));
+            assertFalse(filter.mightContain(new KeyedId(SmallTestMe.class, "absent").getUid()));
+            KeyFilter.built(name, new long[0]);
+            assertTrue(KeyFilter.get(name).mightContain(new KeyedId(SmallTestMe.class, TEST_KEY).getUid()));
+            assertEquals(new SmallTestMe("mine"), service.get(SmallTestMe.class, TEST_KEY));
+            assertNull(service.get(SmallTestMe.class, "absent"));
+            assertTrue(scans.isEmpty());
+
+            // not stored through this node: only seen once the filter is too old
+            beginTransaction();
+            storeDirectly("other", new SmallTestMe("other"));
+            commitTransaction();
+            assertNull(service.get(SmallTestMe.class, "other"));
+            System.setProperty(FastTrackConfig.KEY_FILTER_REFRESH, "1");
+            FastTrackConfig.reload();
+            Thread.sleep(5);
+            assertEquals(new SmallTestMe("other"), service.get(SmallTestMe.class, "other"));
+            assertEquals(1, scans.size());
+            scans.remove(0).run();
+            System.setProperty(FastTrackConfig.KEY_FILTER_REFRESH, "60000");
+            FastTrackConfig.reload();
+            assertEquals(new SmallTestMe("other"), service.get(SmallTestMe.class, "other"));
+            assertEquals(3, service.getAll(SmallTestMe.class, Arrays.asList("existing", "other", TEST_KEY)).size());
+        } finally {
+            KeyFilter.scans = background;
+            System.clearProperty(FastTrackConfig.KEY_FILTER);
+            System.clearProperty(FastTrackConfig.KEY_FILTER_REFRESH);
+            FastTrackConfig.reload();
+            KeyFilter.clear(name);
+        }
+    }
+
+    @Test
+    public void testCoalescing() throws Exception {
+        final byte[] stored = ValueCodecs.encode(new JavaValueCodec(), new SmallTestMe("shared"));
+        final AtomicInteger loads = new AtomicInteger();
+        KeyedObjectDao slow = new KeyedObjectDao() {
+            @Override
+            public byte[] getValue(Class toUse, KeyedId keyedId) {
+                loads.incrementAndGet();
+                try {
+                    Thread.sleep(300);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return stored;
+            }
+        };
+        Field f = KoFastTrackDataService.class.getDeclaredField("dao");
+        f.setAccessible(true);
+        f.set(service, slow);
+        System.setProperty(FastTrackConfig.COALESCING, "true");
+        FastTrackConfig.reload();
+        ExecutorService executor = Executors.newFixedThreadPool(5);
+        try {
+            List<Future<Object>> reads = new ArrayList<Future<Object>>();
+            for (int i = 0; i < 5; i++) {
+                reads.add(executor.submit(new Callable<Object>() {
+                    public Object call() throws Exception {
+                        return service.get(SmallTestMe.class, TEST_KEY);
+                    }
+                }));
+            }
+            // one load, but each caller gets its own instance
+            Set<Object> instances = Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+            for (Future<Object> read : reads) {
+                assertEquals(new SmallTestMe("shared"), read.get());
+                instances.add(read.get());
+            }
+            assertEquals(5, instances.size());
+            assertEquals(1, loads.get());
+
+            // a caller waiting longer than the timeout fails rather than loading again
+            System.setProperty(FastTrackConfig.COALESCING_TIMEOUT, "50");
+            FastTrackConfig.reload();
+            Future<Object> leader = executor.submit(new Callable<Object>() {
+                public Object call() throws Exception {
+                    return service.get(SmallTestMe.class, TEST_KEY);
+                }
+            });
+            Thread.sleep(100);
+            try {
+                service.get(SmallTestMe.class, TEST_KEY);
+                fail("The concurrent read takes longer than the timeout.");
+            } catch (DataException e) {
+            }
+            assertNotNull(leader.get());
+            assertEquals(2, loads.get());
+
+            // without coalescing, each caller loads
+            System.clearProperty(FastTrackConfig.COALESCING);
+            FastTrackConfig.reload();
+            service.get(SmallTestMe.class, TEST_KEY);
+            service.get(SmallTestMe.class, TEST_KEY);
+            assertEquals(4, loads.get());
+        } finally {
+            executor.shutdown();
+            System.clearProperty(FastTrackConfig.COALESCING);
+            System.clearProperty(FastTrackConfig.COALESCING_TIMEOUT);
+            FastTrackConfig.reload();
+        }
+    }
+
+    @Test
+    public void testKeyFingerprint() throws Exception {
+        System.setProperty(FastTrackConfig.KEY_FINGERPRINT, "true");
+        FastTrackConfig.reload();
+        try {
+            KeyedId keyedId = new KeyedId(SmallTestMe.class, TEST_KEY);
+            assertEquals(Long.valueOf(KeyedId.fingerprint(TEST_KEY)), keyedId.getUid());
+            beginTransaction();
+            assertTrue(service.put(TEST_KEY, new SmallTestMe("small")));
+            assertTrue(service.put(TEST_KEY, new LargeTestMe()));
+            commitTransaction();
+            assertEquals(new SmallTestMe("small"), service.get(SmallTestMe.class, TEST_KEY));
+            assertNotNull(service.get(LargeTestMe.class, TEST_KEY));
+            assertEquals(1, service.getAll(SmallTestMe.class, Arrays.asList(TEST_KEY, "missing")).size());
+
+            // another key stored under the same fingerprint is not returned
+            KeyedId other = new KeyedId(SmallTestMe.class, "other");
+            other.setUid(KeyedId.fingerprint("colliding"));
+            beginTransaction();
+            dao.create(new SmallKeyedObject(other, ValueCodecs.encode(new JavaValueCodec(), new SmallTestMe("other"))));
+            commitTransaction();
+            assertNull(service.get(SmallTestMe.class, "colliding"));
+            assertTrue(service.getAll(SmallTestMe.class, Arrays.asList("colliding")).isEmpty());
+        } finally {
+            System.clearProperty(FastTrackConfig.KEY_FINGERPRINT);
+            FastTrackConfig.reload();
+        }
+        // the rows stored without fingerprint are not checked
+        beginTransaction();
+        assertTrue(service.put(TEST_KEY, new SmallTestMe("hashed")));
+        commitTransaction();
+        assertEquals(new SmallTestMe("hashed"), service.get(SmallTestMe.class, TEST_KEY));
+    }
+
+    /**
+     * Makes the service see a transaction with this key, or none with null.
+     */
+    private void setTransaction(final Object key) throws Exception {
+        Object registry = key == null ? null : Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class[]{TransactionSynchronizationRegistry.class}, new InvocationHandler() {
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        if ("registerInterposedSynchronization".equals(method.getName())) {
+                            synchronizations.add((Synchronization) args[0]);
+                        }
+                        return "getTransactionKey".equals(method.getName()) ? key : null;
+                    }
+                });
+        Field f = KoFastTrackDataService.class.getDeclaredField("transactions");
+        f.setAccessible(true);
+        f.set(service, registry);
+    }
+
+    /**
+     * Ends the transaction set by {@link #setTransaction(Object)} as committed.
+     */
+    private void completeTransaction() throws Exception {
+        for (Synchronization synchronization : synchronizations) {
+            synchronization.afterCompletion(Status.STATUS_COMMITTED);
+        }
+        synchronizations.clear();
+        setTransaction(null);
+    }
+
+    private void storeDirectly(String key, Object data, String... indexes) throws Exception {
+        dao.create(new SmallKeyedObject(new KeyedId(data.getClass(), key),
+                ValueCodecs.encode(new JavaValueCodec(), data), indexes));
     }
 
     @Test
@@ -240,6 +1072,111 @@ public class KoFastTrackDataServiceTest extends FastTrackTestFeatures {
 
     }
 
+    @Test
+    public void testPutAll() throws FastTrackException {
+        Map<String, Object> data = new LinkedHashMap<String, Object>();
+        data.put(TEST_KEY + "1", new SmallTestMe("1"));
+        data.put(TEST_KEY + "2", new LargeTestMe());
+        data.put(TEST_KEY + "3", "Type not implements neither SmallData nor Large");
+        data.put(TEST_KEY + "4", new SmallTestMe("4"));
+
+        beginTransaction();
+        assertTrue(service.put(TEST_KEY + "4", new SmallTestMe("already there")));
+        Map<String, Boolean> result = service.putAll(data);
+        commitTransaction();
+
+        assertEquals(4, result.size());
+        assertEquals(data.keySet(), result.keySet());
+        assertTrue(result.get(TEST_KEY + "1"));
+        assertTrue(result.get(TEST_KEY + "2"));
+        assertFalse(result.get(TEST_KEY + "3"));
+        assertFalse(result.get(TEST_KEY + "4"));
+
+        assertEquals(new SmallTestMe("1"), service.get(SmallTestMe.class, TEST_KEY + "1"));
+        assertNotNull(service.get(LargeTestMe.class, TEST_KEY + "2"));
+        assertEquals(new SmallTestMe("already there"), service.get(SmallTestMe.class, TEST_KEY + "4"));
+
+        try {
+            service.putAll(null);
+            fail("Nothing to store.");
+        } catch (DataException e) {
+        }
+    }
+
+    @Test
+    public void testGetAll() throws FastTrackException {
+        beginTransaction();
+        assertTrue(service.put(TEST_KEY + "1", new SmallTestMe("1")));
+        assertTrue(service.put(TEST_KEY + "2", new SmallTestMe("2")));
+        assertTrue(service.put(TEST_KEY + "3", new LargeTestMe()));
+        commitTransaction();
+
+        Map<String, SmallTestMe> result = service.getAll(SmallTestMe.class,
+                Arrays.asList(TEST_KEY + "2", "missing", TEST_KEY + "1", TEST_KEY + "3"));
+        assertEquals(2, result.size());
+        assertEquals(Arrays.asList(TEST_KEY + "2", TEST_KEY + "1"), new ArrayList<String>(result.keySet()));
+        assertEquals(new SmallTestMe("1"), result.get(TEST_KEY + "1"));
+        assertEquals(new SmallTestMe("2"), result.get(TEST_KEY + "2"));
+
+        Map<String, LargeTestMe> large = service.getAll(LargeTestMe.class, Arrays.asList(TEST_KEY + "3"));
+        assertEquals(1, large.size());
+        assertEquals("LargeTestMe", large.get(TEST_KEY + "3").getTest());
+
+        assertTrue(service.getAll(SmallTestMe.class, new ArrayList<String>()).isEmpty());
+        try {
+            service.getAll(SmallTestMe.class, null);
+            fail("No valid keys.");
+        } catch (InvalidKeyException e) {
+        }
+        try {
+            service.getAll(SmallTestMe.class, Arrays.asList(TEST_KEY, null));
+            fail("No valid key.");
+        } catch (InvalidKeyException e) {
+        }
+    }
+
+    @Test
+    public void testDeleteAll() throws FastTrackException {
+        beginTransaction();
+        assertTrue(service.put("Chen", new SmallSearch("Chen", "SW-Dev", 10)));
+        assertTrue(service.put("Wei", new SmallSearch("Wei", "SW-Dev", 20)));
+        assertTrue(service.put("Bon", new SmallSearch("Bon", "Manager", 30)));
+        assertTrue(service.put(TEST_KEY + "1", new SmallTestMe("1")));
+        assertTrue(service.put(TEST_KEY + "2", new SmallTestMe("2")));
+        assertTrue(service.put(TEST_KEY + "3", new SmallTestMe("3")));
+        commitTransaction();
+
+        beginTransaction();
+        assertEquals(2, service.deleteAll(SmallTestMe.class, Arrays.asList(TEST_KEY + "1", TEST_KEY + "3", "missing")));
+        commitTransaction();
+        assertNull(service.get(SmallTestMe.class, TEST_KEY + "1"));
+        assertNotNull(service.get(SmallTestMe.class, TEST_KEY + "2"));
+        assertNull(service.get(SmallTestMe.class, TEST_KEY + "3"));
+
+        PredicateBuilder pb = new PredicateBuilder();
+        pb.addAND(Index.index2, "SW-Dev");
+        beginTransaction();
+        assertEquals(2, service.deleteAll(SmallSearch.class, pb.toPredicate()));
+        commitTransaction();
+        assertNull(service.get(SmallSearch.class, "Chen"));
+        assertNull(service.get(SmallSearch.class, "Wei"));
+        assertNotNull(service.get(SmallSearch.class, "Bon"));
+        // other classes are not affected
+        assertNotNull(service.get(SmallTestMe.class, TEST_KEY + "2"));
+
+        pb.setMaxResults(10);
+        try {
+            service.deleteAll(SmallSearch.class, pb.toPredicate());
+            fail("Paging is not supported when deleting.");
+        } catch (InvalidPredicateException e) {
+        }
+        try {
+            service.deleteAll(SmallSearch.class, (Predicate) null);
+            fail("predicate is empty");
+        } catch (InvalidPredicateException e) {
+        }
+    }
+
     @Test
     public void searchable() throws FastTrackException {
         SmallSearch user = new SmallSearch("Chen", "SW-Dev", 10);
@@ -261,7 +1198,191 @@ public class KoFastTrackDataServiceTest extends FastTrackTestFeatures {
         assertEquals(1, result.size());
         assertEquals("SW-Dev", result.get(0).getTitle());
 
+        beginTransaction();
         service.delete(SmallSearch.class, "Chen");
+        commitTransaction();
+        assertNull(service.get(SmallSearch.class, "Chen"));
+    }
+
+    @Test
+    public void searchableRange() throws FastTrackException {
+        long now = System.currentTimeMillis();
+        long day = 24 * 3600 * 1000L;
+        beginTransaction();
+        assertTrue(service.put("Chen", new SmallRange("Chen", 35, -1.5, new Date(now - 2 * day))));
+        assertTrue(service.put("Wei", new SmallRange("Wei", 40, 2.5, new Date(now - 3600 * 1000L))));
+        assertTrue(service.put("Bon", new SmallRange("Bon", 28, 10, new Date(now))));
+        assertTrue(service.put("Xiao", new SmallRange("Xiao", -3, -20, new Date(now - 10 * day))));
+        commitTransaction();
+
+        assertEquals(names("Chen", "Wei"), names(service.find(SmallRange.class, new PredicateBuilder()
+                .addBetween(Index.index2, IndexValues.of(30), IndexValues.of(40)).toPredicate())));
+        assertEquals(names("Bon", "Wei"), names(service.find(SmallRange.class, new PredicateBuilder()
+                .addGreaterThan(Index.index4, IndexValues.of(new Date(now - day))).toPredicate())));
+        assertEquals(names("Chen", "Xiao"), names(service.find(SmallRange.class, new PredicateBuilder()
+                .addLessThan(Index.index3, IndexValues.of(0.0)).toPredicate())));
+        assertEquals(names("Xiao"), names(service.find(SmallRange.class, new PredicateBuilder()
+                .addLessThan(Index.index2, IndexValues.of(0)).addLessThan(Index.index3, IndexValues.of(-1.5))
+                .toPredicate())));
+        assertEquals(names("Bon"), names(service.find(SmallRange.class, new PredicateBuilder()
+                .addAND(Index.index2, IndexValues.of(28)).toPredicate())));
+        // the typed bounds are encoded
+        assertEquals(names("Chen", "Wei"), names(service.find(SmallRange.class, new PredicateBuilder()
+                .addBetween(Index.index2, 30, 40).toPredicate())));
+        assertEquals(names("Bon", "Wei"), names(service.find(SmallRange.class, new PredicateBuilder()
+                .addGreaterThan(Index.index4, new Date(now - day)).toPredicate())));
+        assertEquals(names("Xiao"), names(service.find(SmallRange.class, new PredicateBuilder()
+                .addLessThan(Index.index2, 0).addLessThan(Index.index3, -1.5).toPredicate())));
+        assertEquals(names("Xiao"), names(service.find(SmallRange.class, new PredicateBuilder()
+                .addStartsWith(Index.index1, "Xi").toPredicate())));
+        assertEquals(names(), names(service.find(SmallRange.class, new PredicateBuilder()
+                .addStartsWith(Index.index1, "%").addOR(Index.index1, "_hen").toPredicate())));
+
+        beginTransaction();
+        assertEquals(2, service.deleteAll(SmallRange.class, new PredicateBuilder()
+                .addGreaterThan(Index.index2, IndexValues.of(30)).toPredicate()));
+        commitTransaction();
+        assertNull(service.get(SmallRange.class, "Chen"));
+        assertNotNull(service.get(SmallRange.class, "Bon"));
+    }
+
+    @Test
+    public void searchableTopN() throws FastTrackException {
+        long now = System.currentTimeMillis();
+        beginTransaction();
+        for (int i = 0; i < 10; i++) {
+            assertTrue(service.put("User" + i, new SmallRange("User" + i, 20 + i % 3, (i * 7) % 10 - 5.5,
+                    new Date(now - i * 1000L))));
+        }
+        commitTransaction();
+
+        // latest 3
+        List<SmallRange> found = service.find(SmallRange.class, new PredicateBuilder()
+                .setOrderBy(Index.index4, SortOrder.DESCENDING).setMaxResults(3).toPredicate());
+        assertEquals(Arrays.asList("User0", "User1", "User2"), ordered(found));
+
+        // top 2 by score, negative scores included
+        found = service.find(SmallRange.class, new PredicateBuilder()
+                .setOrderBy(Index.index3, SortOrder.DESCENDING).setMaxResults(2).toPredicate());
+        assertEquals(Arrays.asList("User7", "User4"), ordered(found));
+        found = service.find(SmallRange.class, new PredicateBuilder()
+                .setOrderBy(Index.index3, SortOrder.ASCENDING).setMaxResults(2).toPredicate());
+        assertEquals(Arrays.asList("User0", "User3"), ordered(found));
+
+        // conditions and pages
+        Predicate aged21 = new PredicateBuilder().addAND(Index.index2, IndexValues.of(21))
+                .setOrderBy(Index.index4, SortOrder.ASCENDING).setFirstResult(1).setMaxResults(2).toPredicate();
+        assertEquals(Arrays.asList("User4", "User1"), ordered(service.find(SmallRange.class, aged21)));
+
+        try {
+            service.deleteAll(SmallRange.class, new PredicateBuilder().setOrderBy(Index.index4, SortOrder.ASCENDING)
+                    .toPredicate());
+            fail("no condition to delete on");
+        } catch (InvalidPredicateException e) {
+        }
+    }
+
+    @Test
+    public void searchableNamed() throws FastTrackException {
+        beginTransaction();
+        assertTrue(service.put("Chen", new SmallNamed("Chen", "Stockholm", "Sweden", 35, "Core", 3)));
+        assertTrue(service.put("Wei", new SmallNamed("Wei", "Beijing", "China", 28, "Core", null)));
+        assertTrue(service.upsert("Bon", new SmallNamed("Bon", "Stockholm", "Sweden", 42, "Web", 5)));
+        commitTransaction();
+        // the same key in another class is not found by the conditions on the index table
+        beginTransaction();
+        assertTrue(service.put("Wei", new SmallRange("Wei", 28, 1, new Date())));
+        commitTransaction();
+
+        assertEquals(names("Chen", "Bon"), namesOf(service.find(SmallNamed.class, new PredicateBuilder()
+                .addNamedAND("city", "Stockholm").toPredicate())));
+        assertEquals(names("Chen"), namesOf(service.find(SmallNamed.class, new PredicateBuilder()
+                .addNamedAND("city", "Stockholm").addNamedAND("team", "Core").toPredicate())));
+        assertEquals(names("Chen", "Wei"), namesOf(service.find(SmallNamed.class, new PredicateBuilder()
+                .addNamedAND("country", "China").addNamedOR("age", IndexValues.of(35)).toPredicate())));
+        assertEquals(names("Chen", "Bon"), namesOf(service.find(SmallNamed.class, new PredicateBuilder()
+                .addNamedBetween("age", IndexValues.of(30), IndexValues.of(50)).toPredicate())));
+        assertEquals(names("Bon"), namesOf(service.find(SmallNamed.class, new PredicateBuilder()
+                .addNamedGreaterThan("level", IndexValues.of(3)).toPredicate())));
+        assertEquals(names("Chen", "Bon"), namesOf(service.find(SmallNamed.class, new PredicateBuilder()
+                .addNamedBetween("age", 30, 50).toPredicate())));
+        assertEquals(names("Chen", "Bon"), namesOf(service.find(SmallNamed.class, new PredicateBuilder()
+                .addNamedStartsWith("city", "Stock").toPredicate())));
+        assertEquals(names("Wei"), namesOf(service.find(SmallNamed.class, new PredicateBuilder()
+                .addNamedLessThan("age", IndexValues.of(30)).addNamedAND("manager", "Bon").toPredicate())));
+        assertEquals(names("Chen"), namesOf(service.find(SmallNamed.class, new PredicateBuilder()
+                .addAND(Index.index1, "Chen").addNamedAND("language", "Java").toPredicate())));
+        assertEquals(names(), namesOf(service.find(SmallNamed.class, new PredicateBuilder()
+                .addNamedAND("city", "Paris").toPredicate())));
+
+        // the rows follow the updates and deletions
+        beginTransaction();
+        assertTrue(service.update("Wei", new SmallNamed("Wei", "Stockholm", "Sweden", 29, "Core", 1)));
+        commitTransaction();
+        assertEquals(names("Chen", "Bon", "Wei"), namesOf(service.find(SmallNamed.class, new PredicateBuilder()
+                .addNamedAND("city", "Stockholm").toPredicate())));
+        assertEquals(names(), namesOf(service.find(SmallNamed.class, new PredicateBuilder()
+                .addNamedAND("city", "Beijing").toPredicate())));
+
+        beginTransaction();
+        service.delete(SmallNamed.class, "Chen");
+        assertEquals(1, service.deleteAll(SmallNamed.class, new PredicateBuilder().addNamedAND("team", "Web")
+                .toPredicate()));
+        commitTransaction();
+        assertEquals(names("Wei"), namesOf(service.find(SmallNamed.class, new PredicateBuilder()
+                .addNamedAND("city", "Stockholm").toPredicate())));
+        assertEquals(7L, getEntityManager().createQuery("SELECT COUNT(i.valueHash) FROM KeyedIndex i").getSingleResult());
+        assertNotNull(service.get(SmallRange.class, "Wei"));
+    }
+
+    private static Set<String> namesOf(List<SmallNamed> found) {
+        Set<String> names = new HashSet<String>();
+        for (SmallNamed named : found) {
+            names.add(named.getName());
+        }
+        return names;
+    }
+
+    private static List<String> ordered(List<SmallRange> found) {
+        List<String> names = new ArrayList<String>();
+        for (SmallRange range : found) {
+            names.add(range.getName());
+        }
+        return names;
+    }
+
+    private static Set<String> names(String... names) {
+        return new HashSet<String>(Arrays.asList(names));
+    }
+
+    private static Set<String> names(List<SmallRange> found) {
+        Set<String> names = new HashSet<String>();
+        for (SmallRange range : found) {
+            names.add(range.getName());
+        }
+        return names;
+    }
+
+    @Test
+    public void searchableCollision() throws FastTrackException {
+        assertEquals("Aa".hashCode(), "BB".hashCode());
+        beginTransaction();
+        assertTrue(service.put("Chen", new SmallSearch("Chen", "Aa", 10)));
+        assertTrue(service.put("Wei", new SmallSearch("Wei", "BB", 20)));
+        commitTransaction();
+
+        PredicateBuilder pb = new PredicateBuilder();
+        pb.addAND(Index.index2, "Aa");
+        List<SmallSearch> result = service.find(SmallSearch.class, pb.toPredicate());
+        assertEquals(1, result.size());
+        assertEquals("Chen", result.get(0).getName());
+
+        beginTransaction();
+        assertEquals(1, service.deleteAll(SmallSearch.class, new PredicateBuilder().addAND(Index.index2, "BB")
+                .toPredicate()));
+        commitTransaction();
+        assertNotNull(service.get(SmallSearch.class, "Chen"));
+        assertNull(service.get(SmallSearch.class, "Wei"));
     }
 
     @Test
@@ -293,7 +1414,10 @@ public class KoFastTrackDataServiceTest extends FastTrackTestFeatures {
         assertEquals("Chen", result.get(0).getName());
         assertEquals("SW-Dev", result.get(0).getTitle());
 
+        beginTransaction();
         service.delete(SmallSearch.class, "Chen");
+        commitTransaction();
+        assertNull(service.get(SmallSearch.class, "Chen"));
     }
 
 
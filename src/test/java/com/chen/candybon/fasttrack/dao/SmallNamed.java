@@ -0,0 +1,70 @@
+/*
+ * Copyright (c) XIAOWEI CHEN, 2009.
+ * All Rights Reserved. Reproduction in whole or in part is prohibited
+ * without the written consent of the copyright owner.
+ * 
+ * XIAOWEI CHEN MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY OF
+ * THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED
+ * TO THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE, OR NON-INFRINGEMENT. XIAOWEI CHEN SHALL NOT BE LIABLE FOR
+ * ANY DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR
+ * DISTRIBUTING THIS SOFTWARE OR ITS DERIVATIVES.
+ * 
+ * All rights reserved.
+ */
+package com.chen.candybon.fasttrack.dao;
+
+import com.chen.candybon.fasttrack.Searchable;
+import com.chen.candybon.fasttrack.data.SmallData;
+import com.chen.candybon.fasttrack.type.Index;
+
+/**
+ * Searchable on named indexes, stored in the index table, besides an index column.
+ *
+ * @author Xiaowei Chen
+ */
+public class SmallNamed extends SmallData {
+
+    @Searchable(Index.index1)
+    private String name;
+
+    @Searchable(name = "city")
+    private String city;
+
+    @Searchable(name = "country")
+    private String country;
+
+    @Searchable(name = "age")
+    private int age;
+
+    @Searchable(name = "team")
+    private String team;
+
+    @Searchable(name = "level")
+    private Integer level;
+
+    @Searchable(name = "language")
+    private String language;
+
+    @Searchable(name = "manager")
+    private String manager;
+
+    public SmallNamed(String name, String city, String country, int age, String team, Integer level) {
+        this.name = name;
+        this.city = city;
+        this.country = country;
+        this.age = age;
+        this.team = team;
+        this.level = level;
+        this.language = "Java";
+        this.manager = "Bon";
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getCity() {
+        return city;
+    }
+}
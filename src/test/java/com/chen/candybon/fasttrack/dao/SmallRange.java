@@ -0,0 +1,64 @@
+/*
+ * Copyright (c) XIAOWEI CHEN, 2009.
+ * All Rights Reserved. Reproduction in whole or in part is prohibited
+ * without the written consent of the copyright owner.
+ * 
+ * XIAOWEI CHEN MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY OF
+ * THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED
+ * TO THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE, OR NON-INFRINGEMENT. XIAOWEI CHEN SHALL NOT BE LIABLE FOR
+ * ANY DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR
+ * DISTRIBUTING THIS SOFTWARE OR ITS DERIVATIVES.
+ * 
+ * All rights reserved.
+ */
+package com.chen.candybon.fasttrack.dao;
+
+import com.chen.candybon.fasttrack.Searchable;
+import com.chen.candybon.fasttrack.data.SmallData;
+import com.chen.candybon.fasttrack.type.Index;
+
+import java.util.Date;
+
+/**
+ * Searchable on typed fields, for the range conditions.
+ *
+ * @author Xiaowei Chen
+ */
+public class SmallRange extends SmallData {
+
+    @Searchable(Index.index1)
+    private String name;
+
+    @Searchable(Index.index2)
+    private int age;
+
+    @Searchable(Index.index3)
+    private double score;
+
+    @Searchable(Index.index4)
+    private Date created;
+
+    public SmallRange(String name, int age, double score, Date created) {
+        this.name = name;
+        this.age = age;
+        this.score = score;
+        this.created = created;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getAge() {
+        return age;
+    }
+
+    public double getScore() {
+        return score;
+    }
+
+    public Date getCreated() {
+        return created;
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright (c) XIAOWEI CHEN, 2009.
+ * All Rights Reserved. Reproduction in whole or in part is prohibited
+ * without the written consent of the copyright owner.
+ * 
+ * XIAOWEI CHEN MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY OF
+ * THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED
+ * TO THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE, OR NON-INFRINGEMENT. XIAOWEI CHEN SHALL NOT BE LIABLE FOR
+ * ANY DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR
+ * DISTRIBUTING THIS SOFTWARE OR ITS DERIVATIVES.
+ * 
+ * All rights reserved.
+ */
+package com.chen.candybon.fasttrack.dao;
+
+import com.chen.candybon.fasttrack.object.KeyedObject;
+import com.chen.candybon.fasttrack.object.LargeKeyedObject;
+import com.chen.candybon.fasttrack.object.SmallKeyedObject;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The upsert statements of the dialects, which the test database (HSQLDB 1.8) does not run.
+ */
+public class SqlDialectTest {
+
+    private static final List<Class<? extends KeyedObject>> TABLES = Arrays.<Class<? extends KeyedObject>>asList(
+            SmallKeyedObject.class, LargeKeyedObject.class);
+
+    @Test
+    public void testMysqlUpsert() {
+        for (Class<? extends KeyedObject> tClass : TABLES) {
+            String sql = SqlDialect.MYSQL.upsert(tClass);
+            assertEquals(parameters(tClass), count(sql, "?"));
+            for (String column : KeyedObjectSql.INDEX_COLUMNS) {
+                assertTrue(sql, sql.contains(column + " = VALUES(" + column + ")"));
+            }
+            for (String column : KeyedObjectSql.valueColumns(tClass)) {
+                assertTrue(sql, sql.contains(column + " = VALUES(" + column + ")"));
+            }
+        }
+    }
+
+    @Test
+    public void testHsqldbMerge() {
+        for (Class<? extends KeyedObject> tClass : TABLES) {
+            String sql = SqlDialect.HSQLDB.upsert(tClass);
+            String columns = KeyedObjectSql.columns(tClass);
+            assertEquals(parameters(tClass), count(sql, "?"));
+            assertEquals(parameters(tClass), count(sql, "CAST("));
+            assertTrue(sql, sql.contains(" AS v(" + columns + ") "));
+            assertTrue(sql, sql.contains("INSERT (" + columns + ") VALUES (v." + columns.replace(", ", ", v.") + ")"));
+            // the casts follow the columns, the uid being a BIGINT
+            assertTrue(sql, sql.startsWith("MERGE INTO " + KeyedObjectSql.tableName(tClass)
+                    + " t USING (VALUES(CAST(? AS INTEGER), CAST(? AS BIGINT), "));
+            for (String column : KeyedObjectSql.INDEX_COLUMNS) {
+                assertTrue(sql, sql.contains("t." + column + " = v." + column));
+            }
+        }
+    }
+
+    @Test
+    public void testColumns() {
+        assertEquals(KeyedObjectSql.KEY_COLUMN_COUNT, KeyedObjectSql.KEY_COLUMNS.split(", ").length);
+        assertTrue(KeyedObjectSql.KEY_COLUMNS.endsWith("KEY_VALUE"));
+        assertEquals(KeyedObjectSql.KEY_COLUMN_COUNT + 2, KeyedObjectSql.columnTypes(LargeKeyedObject.class).length);
+        assertEquals(KeyedObjectSql.KEY_COLUMN_COUNT + 2, KeyedObjectSql.columnTypes(SmallKeyedObject.class).length);
+    }
+
+    private static int parameters(Class<? extends KeyedObject> tClass) {
+        return KeyedObjectSql.KEY_COLUMN_COUNT + KeyedObjectSql.valueColumns(tClass).length;
+    }
+
+    private static int count(String text, String part) {
+        int count = 0;
+        for (int i = text.indexOf(part); i >= 0; i = text.indexOf(part, i + 1)) {
+            count++;
+        }
+        return count;
+    }
+}
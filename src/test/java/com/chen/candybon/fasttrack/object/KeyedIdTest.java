@@ -14,10 +14,14 @@
  */
 package com.chen.candybon.fasttrack.object;
 
+import com.chen.candybon.fasttrack.dao.FastTrackConfig;
 import com.chen.candybon.fasttrack.dao.SmallTestMe;
+import com.chen.candybon.fasttrack.exception.InvalidKeyException;
 import org.junit.Test;
 
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertEquals;
@@ -43,9 +47,33 @@ public class KeyedIdTest {
         keyedId.setName(name);
         assertEquals(name, keyedId.getName());
 
-        assertNotSame(name, keyedId.getUid());
-        keyedId.setUid(name);
-        assertEquals(name, keyedId.getUid());
+        Long uid = 333L;
+        assertNotSame(uid, keyedId.getUid());
+        keyedId.setUid(uid);
+        assertEquals(uid, keyedId.getUid());
+    }
+
+    @Test
+    public void testFingerprint() throws Exception {
+        System.setProperty(FastTrackConfig.KEY_FINGERPRINT, "true");
+        FastTrackConfig.reload();
+        try {
+            KeyedId keyedId = new KeyedId(SmallTestMe.class, "1234567890");
+            assertEquals(Long.valueOf(KeyedId.fingerprint("1234567890")), keyedId.getUid());
+            assertEquals("1234567890", keyedId.getKey());
+            assertFalse(KeyedId.fingerprint("Aa") == KeyedId.fingerprint("BB"));
+            assertEquals("Aa".hashCode(), "BB".hashCode());
+            try {
+                new KeyedId(SmallTestMe.class, new String(new char[KeyedObject.MAX_KEY_LENGTH + 1]));
+                fail("The key is too long to be stored.");
+            } catch (InvalidKeyException e) {
+                // OK
+            }
+        } finally {
+            System.clearProperty(FastTrackConfig.KEY_FINGERPRINT);
+            FastTrackConfig.reload();
+        }
+        assertNull(new KeyedId(SmallTestMe.class, "1234567890").getKey());
     }
 
     @Test
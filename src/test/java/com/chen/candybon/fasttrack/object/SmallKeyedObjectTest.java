@@ -16,9 +16,10 @@ package com.chen.candybon.fasttrack.object;
 
 import com.chen.candybon.fasttrack.exception.DataClassException;
 import com.chen.candybon.fasttrack.exception.InvalidKeyException;
-import com.sun.org.apache.xerces.internal.impl.dv.util.Base64;
 import org.junit.Test;
 
+import java.util.Base64;
+
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
@@ -57,10 +58,18 @@ public class SmallKeyedObjectTest {
         assertEquals("5".hashCode(), sko.getIndex5().intValue());
         assertEquals("6".hashCode(), sko.getIndex6().intValue());
 
-        sko.setValue(Base64.encode("12345".getBytes()));
+        sko.setEncodedValue(Base64.getEncoder().encodeToString("12345".getBytes()));
         byte[] value = sko.getValue();
         assertEquals("12345", new String(value));
 
+        sko.setValue("67890".getBytes());
+        assertEquals("67890", new String(sko.getValue()));
+        assertNull(sko.getEncodedValue());
+
+        sko.useEncodedValue();
+        assertNull(sko.getBinaryValue());
+        assertEquals("67890", new String(sko.getValue()));
+
         sko.setValue(null);
         assertNull(sko.getValue());        
     }
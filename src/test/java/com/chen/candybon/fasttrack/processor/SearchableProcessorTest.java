@@ -0,0 +1,157 @@
+/*
+ * Copyright (c) XIAOWEI CHEN, 2009.
+ * All Rights Reserved. Reproduction in whole or in part is prohibited
+ * without the written consent of the copyright owner.
+ * 
+ * XIAOWEI CHEN MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY OF
+ * THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED
+ * TO THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE, OR NON-INFRINGEMENT. XIAOWEI CHEN SHALL NOT BE LIABLE FOR
+ * ANY DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR
+ * DISTRIBUTING THIS SOFTWARE OR ITS DERIVATIVES.
+ * 
+ * All rights reserved.
+ */
+package com.chen.candybon.fasttrack.processor;
+
+import com.chen.candybon.fasttrack.data.DataClass;
+import com.chen.candybon.fasttrack.data.IndexExtractor;
+import com.chen.candybon.fasttrack.data.SmallData;
+import com.chen.candybon.fasttrack.type.IndexValues;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * SearchableProcessor test, compiling sources with the processor.
+ */
+public class SearchableProcessorTest {
+
+    private File dir;
+
+    @Before
+    public void setup() throws Exception {
+        dir = File.createTempFile("processor", "");
+        assertTrue(dir.delete() && dir.mkdirs());
+        dir.deleteOnExit();
+    }
+
+    @Test
+    public void testGenerated() throws Exception {
+        List<String> errors = compile("Person", "package test;\n"
+                + "import com.chen.candybon.fasttrack.Searchable;\n"
+                + "import com.chen.candybon.fasttrack.type.Index;\n"
+                + "public class Person extends com.chen.candybon.fasttrack.data.SmallData {\n"
+                + "    @Searchable(Index.index2) String title = \"SW-Dev\";\n"
+                + "    @Searchable(Index.index1) private String name = \"Chen\";\n"
+                + "    @Searchable(Index.index3) private int age = 10;\n"
+                + "    @Searchable(Index.index4) Long weight = -70L;\n"
+                + "    public String getName() { return name; }\n"
+                + "    public int getAge() { return age; }\n"
+                + "}\n");
+        assertTrue(errors.toString(), errors.isEmpty());
+        assertTrue(new File(dir, "test/Person_Indexes.java").exists());
+
+        ClassLoader loader = new URLClassLoader(new URL[]{dir.toURI().toURL()}, getClass().getClassLoader());
+        Class<?> person = loader.loadClass("test.Person");
+        Object instance = person.newInstance();
+        IndexExtractor extractor = (IndexExtractor) loader.loadClass("test.Person_Indexes").newInstance();
+        String[] expected = {"Chen", "SW-Dev", IndexValues.of(10), IndexValues.of(-70)};
+        assertArrayEquals(expected, extractor.getIndexes(instance));
+        assertArrayEquals(expected, DataClass.of(person).getIndexes(instance));
+    }
+
+    @Test
+    public void testInvalidDeclarations() throws Exception {
+        List<String> errors = compile("Duplicate", "package test;\n"
+                + "import com.chen.candybon.fasttrack.Searchable;\n"
+                + "import com.chen.candybon.fasttrack.type.Index;\n"
+                + "public class Duplicate extends com.chen.candybon.fasttrack.data.SmallData {\n"
+                + "    @Searchable(Index.index1) String name;\n"
+                + "    @Searchable(Index.index1) String title;\n"
+                + "}\n");
+        assertEquals(Arrays.asList("Duplicated Declaration of Index index1 on field title"), errors);
+
+        errors = compile("Missing", "package test;\n"
+                + "import com.chen.candybon.fasttrack.Searchable;\n"
+                + "import com.chen.candybon.fasttrack.type.Index;\n"
+                + "public class Missing extends com.chen.candybon.fasttrack.data.LargeData {\n"
+                + "    @Searchable(Index.index2) String title;\n"
+                + "}\n");
+        assertEquals(Arrays.asList("Index index1 declaration is missing."), errors);
+
+        errors = compile("Named", "package test;\n"
+                + "import com.chen.candybon.fasttrack.Searchable;\n"
+                + "import com.chen.candybon.fasttrack.type.Index;\n"
+                + "public class Named extends com.chen.candybon.fasttrack.data.SmallData {\n"
+                + "    @Searchable(Index.index1) String title;\n"
+                + "    @Searchable(name = \"city\") private String city;\n"
+                + "    @Searchable(name = \"city\") String town;\n"
+                + "    @Searchable(name = \"tags\") java.util.List<String> tags;\n"
+                + "}\n");
+        assertEquals(Arrays.asList("Duplicated Declaration of Index city on field town",
+                "Field tags is not of an indexable type!"), errors);
+
+        errors = compile("Invalid", "package test;\n"
+                + "import com.chen.candybon.fasttrack.Searchable;\n"
+                + "import com.chen.candybon.fasttrack.type.Index;\n"
+                + "public class Invalid {\n"
+                + "    @Searchable(Index.index1) boolean married;\n"
+                + "    @Searchable(Index.index2) private String name;\n"
+                + "}\n");
+        assertEquals(Arrays.asList("Class Invalid must extend either SmallData or LargeData to declare searchable "
+                + "fields.", "Field married is not of an indexable type!", "Field name is private and has no getter."), errors);
+        assertFalse(new File(dir, "test/Invalid_Indexes.java").exists());
+    }
+
+    /**
+     * @return The errors reported while compiling the source.
+     */
+    private List<String> compile(String name, String source) throws IOException {
+        File file = new File(dir, "test/" + name + ".java");
+        assertTrue(file.getParentFile().isDirectory() || file.getParentFile().mkdirs());
+        FileWriter writer = new FileWriter(file);
+        try {
+            writer.write(source);
+        } finally {
+            writer.close();
+        }
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<JavaFileObject>();
+        StandardJavaFileManager files = compiler.getStandardFileManager(diagnostics, null, null);
+        String classPath = new File(SmallData.class.getProtectionDomain().getCodeSource().getLocation().getPath())
+                .getPath();
+        JavaCompiler.CompilationTask task = compiler.getTask(null, files, diagnostics,
+                Arrays.asList("-classpath", classPath, "-d", dir.getPath(), "-s", dir.getPath()), null,
+                files.getJavaFileObjects(file));
+        task.setProcessors(Arrays.asList(new SearchableProcessor()));
+        task.call();
+        files.close();
+        List<String> errors = new ArrayList<String>();
+        for (Diagnostic<? extends JavaFileObject> diagnostic : diagnostics.getDiagnostics()) {
+            if (diagnostic.getKind() == Diagnostic.Kind.ERROR) {
+                errors.add(diagnostic.getMessage(null));
+            }
+        }
+        return errors;
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright (c) XIAOWEI CHEN, 2009.
+ * All Rights Reserved. Reproduction in whole or in part is prohibited
+ * without the written consent of the copyright owner.
+ * 
+ * XIAOWEI CHEN MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY OF
+ * THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED
+ * TO THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE, OR NON-INFRINGEMENT. XIAOWEI CHEN SHALL NOT BE LIABLE FOR
+ * ANY DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR
+ * DISTRIBUTING THIS SOFTWARE OR ITS DERIVATIVES.
+ * 
+ * All rights reserved.
+ */
+package com.chen.candybon.fasttrack.type;
+
+import org.junit.Test;
+
+import java.time.Instant;
+import java.util.Date;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Xiaowei Chen
+ */
+public class IndexValuesTest {
+
+    @Test
+    public void testLongOrder() {
+        long[] values = {Long.MIN_VALUE, -1000, -1, 0, 1, 35, 1000, Long.MAX_VALUE};
+        for (int i = 1; i < values.length; i++) {
+            assertTrue(values[i] + "", IndexValues.of(values[i - 1]).compareTo(IndexValues.of(values[i])) < 0);
+            assertEquals(16, IndexValues.of(values[i]).length());
+        }
+        assertEquals(IndexValues.of(35L), IndexValues.of((Object) Integer.valueOf(35)));
+    }
+
+    @Test
+    public void testDoubleOrder() {
+        double[] values = {Double.NEGATIVE_INFINITY, -1e10, -2.5, -0.5, 0, 1e-10, 0.5, 2.5, 1e10,
+                Double.POSITIVE_INFINITY};
+        for (int i = 1; i < values.length; i++) {
+            assertTrue(values[i] + "", IndexValues.of(values[i - 1]).compareTo(IndexValues.of(values[i])) < 0);
+        }
+        assertEquals(IndexValues.of(2.5), IndexValues.of((Object) Float.valueOf(2.5f)));
+    }
+
+    @Test
+    public void testDates() {
+        Date date = new Date();
+        assertEquals(IndexValues.of(date.getTime()), IndexValues.of(date));
+        assertEquals(IndexValues.of(date), IndexValues.of(Instant.ofEpochMilli(date.getTime())));
+        assertTrue(IndexValues.of(new Date(0)).compareTo(IndexValues.of(date)) < 0);
+        assertEquals("text", IndexValues.of((Object) "text"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNotIndexable() {
+        IndexValues.of((Object) Boolean.TRUE);
+    }
+}